@@ -309,6 +309,18 @@ public class AnetMeshObject
             log.error( ex );
         }
         
+        return lockRequestCompleted();
+    }
+
+    /**
+     * Invoked after a request to obtain update rights has been answered, or has timed out.
+     * This is public so the NetMeshBase can obtain update rights for many NetMeshObjects
+     * at the same time. Not to be called by the application programmer.
+     *
+     * @return returns true if we obtained update rights
+     */
+    public boolean lockRequestCompleted()
+    {
         if( theProxyTowardsLockIndex == HERE_CONSTANT ) {
             AnetMeshBase realBase = (AnetMeshBase) theMeshBase;                
             realBase.addReplicationChangedObject( this );
@@ -565,6 +577,18 @@ public class AnetMeshObject
             log.error( ex );
         }
         
+        return homeReplicaRequestCompleted();
+    }
+
+    /**
+     * Invoked after a request to obtain home replica status has been answered, or has timed out.
+     * This is public so the NetMeshBase can obtain home replica status for many NetMeshObjects
+     * at the same time. Not to be called by the application programmer.
+     *
+     * @return returns true if we obtained home replica status
+     */
+    public boolean homeReplicaRequestCompleted()
+    {
         if( theHomeProxyIndex == HERE_CONSTANT ) {
             AnetMeshBase realBase = (AnetMeshBase) theMeshBase;                
             realBase.addReplicationChangedObject( this );
@@ -1367,6 +1391,84 @@ public class AnetMeshObject
         return ret;
     }
 
+    /**
+     * Determine those neighbors of this replica that are not replicated in the local NetMeshBase,
+     * and how to access them. This uses the same rules as findRelatedMeshObjects: the neighbor is
+     * accessed via the Proxy through which the relationship became known, or towards the home replica.
+     * This allows callers to resolve the missing neighbors of many replicas with a single
+     * accessLocally.
+     *
+     * @param roleType if given, only consider neighbors related with this RoleType
+     * @param into add the found NetMeshObjectAccessSpecifications here, keyed by the neighbor's identifier
+     */
+    public void collectMissingNeighbors(
+            RoleType                                                     roleType,
+            Map<NetMeshObjectIdentifier,NetMeshObjectAccessSpecification> into )
+    {
+        NetMeshBase realBase  = (NetMeshBase) theMeshBase;
+        Proxy       homeProxy = getProxyTowardsHomeReplica();
+
+        if( realBase == null || homeProxy == null ) {
+            return; // home replica, or dead: nothing to access
+        }
+
+        AnetMeshObjectNeighborManager nMgr = getNeighborManager();
+
+        NetMeshObjectIdentifier [] neighborIdentifiers;
+        RoleType [][]              roleTypes;
+        Proxy [][]                 relationshipProxies;
+
+        synchronized( this ) {
+            if( !nMgr.hasNeighbors( this )) {
+                return;
+            }
+            neighborIdentifiers = nMgr.getNeighborIdentifiers( this );
+            roleTypes           = nMgr.getRoleTypes( this );
+            relationshipProxies = nMgr.getRelationshipProxies( this );
+        }
+
+        NetMeshObjectAccessSpecificationFactory accessSpecFact = realBase.getNetMeshObjectAccessSpecificationFactory();
+
+        for( int i=0 ; i<neighborIdentifiers.length ; ++i ) {
+            if( into.containsKey( neighborIdentifiers[i] )) {
+                continue;
+            }
+            if( roleType != null && !hasRoleType( roleTypes[i], roleType )) {
+                continue;
+            }
+            if( realBase.findMeshObjectByIdentifier( neighborIdentifiers[i] ) != null ) {
+                continue;
+            }
+            Proxy direction = homeProxy;
+            if( relationshipProxies != null && relationshipProxies[i] != null && relationshipProxies[i].length > 0 ) {
+                direction = relationshipProxies[i][0];
+            }
+            into.put( neighborIdentifiers[i], accessSpecFact.obtain( direction.getPartnerMeshBaseIdentifier(), neighborIdentifiers[i] ));
+        }
+    }
+
+    /**
+     * Helper to determine whether a set of RoleTypes contains a given RoleType, or a specialization thereof.
+     *
+     * @param roleTypes the set of RoleTypes, may be null
+     * @param roleType the RoleType to look for
+     * @return true if found
+     */
+    private static boolean hasRoleType(
+            RoleType [] roleTypes,
+            RoleType    roleType )
+    {
+        if( roleTypes == null ) {
+            return false;
+        }
+        for( RoleType current : roleTypes ) {
+            if( current.isSpecializationOfOrEquals( roleType )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Check whether it is permitted to set this MeshObject's timeExpires to the given value.
      *
@@ -1551,6 +1653,7 @@ public class AnetMeshObject
         theMeshBase            = null; // this needs to happen rather late so the other code still works
         theProxies             = null;
         theRelationshipProxies = null;
+        theNeighborIndex       = null;
         
         firePurged( oldMeshBase, identifier, System.currentTimeMillis() );
     }
@@ -2509,6 +2612,13 @@ public class AnetMeshObject
      */
     protected Proxy [][] theRelationshipProxies;
 
+    /**
+     * Maps the identifiers of the neighbors to their index in the relationship table.
+     * Only maintained for MeshObjects with many neighbors; null otherwise. This is
+     * written only while holding this object's lock, but read without it.
+     */
+    protected volatile AnetMeshObjectNeighborManager.NeighborIndex theNeighborIndex;
+
     /** 
      * Special value indicating this replica (instead of another, reached through a Proxy).
      */
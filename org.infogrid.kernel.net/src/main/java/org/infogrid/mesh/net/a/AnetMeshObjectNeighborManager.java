@@ -14,6 +14,7 @@
 
 package org.infogrid.mesh.net.a;
 
+import java.util.concurrent.ConcurrentHashMap;
 import org.infogrid.mesh.MeshObjectIdentifier;
 import org.infogrid.mesh.NotRelatedException;
 import org.infogrid.mesh.RelatedAlreadyException;
@@ -23,6 +24,7 @@ import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.meshbase.net.proxy.Proxy;
 import org.infogrid.model.primitives.RoleType;
 import org.infogrid.util.ArrayHelper;
+import org.infogrid.util.ResourceHelper;
 import org.infogrid.util.logging.Log;
 
 /**
@@ -82,12 +84,33 @@ public class AnetMeshObjectNeighborManager
         throws
             RelatedAlreadyException
     {
+        MeshObjectIdentifier [] before = super.getNeighborIdentifiers( subject );
+
         internalAppendNeighbor( subject, neighborIdentifier, neighborRoleTypes );
 
+        MeshObjectIdentifier [] after = super.getNeighborIdentifiers( subject );
+        int                     n     = after.length;
+
+        // grow by doubling, so relating to a MeshObject with many neighbors does not copy every time.
+        // Slot n-1 is beyond what any earlier reader has been handed out, so filling it in place is safe.
         if( subject.theRelationshipProxies == null ) {
-            subject.theRelationshipProxies = new Proxy[][] { relationshipProxies };
-        } else {
-            subject.theRelationshipProxies = ArrayHelper.append( subject.theRelationshipProxies, relationshipProxies, Proxy[].class );
+            subject.theRelationshipProxies = new Proxy[ Math.max( n, INITIAL_RELATIONSHIP_PROXIES_CAPACITY ) ][];
+
+        } else if( subject.theRelationshipProxies.length < n ) {
+            Proxy [][] newRelationshipProxies = new Proxy[ Math.max( n, 2 * subject.theRelationshipProxies.length ) ][];
+            System.arraycopy( subject.theRelationshipProxies, 0, newRelationshipProxies, 0, subject.theRelationshipProxies.length );
+            subject.theRelationshipProxies = newRelationshipProxies;
+        }
+        subject.theRelationshipProxies[ n-1 ] = relationshipProxies;
+
+        // keep the index current, if we have one
+        NeighborIndex index = subject.theNeighborIndex;
+        if( index != null ) {
+            if( index.theFor == before ) {
+                subject.theNeighborIndex = index.withAppended( neighborIdentifier, after );
+            } else {
+                subject.theNeighborIndex = null;
+            }
         }
     }
 
@@ -106,7 +129,11 @@ public class AnetMeshObjectNeighborManager
 
         super.internalRemoveNeighbor( realSubject, index );
 
+        // copy, never shift in place: getRelationshipProxies may have handed out the current array
         realSubject.theRelationshipProxies = ArrayHelper.remove( realSubject.theRelationshipProxies, index, Proxy[].class );
+
+        // all subsequent indices have changed; rebuild when needed next
+        realSubject.theNeighborIndex = null;
     }
 
     /**
@@ -146,7 +173,20 @@ public class AnetMeshObjectNeighborManager
     public Proxy [][] getRelationshipProxies(
             AnetMeshObject subject )
     {
-        return subject.theRelationshipProxies;
+        synchronized( subject ) {
+            Proxy [][] ret = subject.theRelationshipProxies;
+            if( ret == null ) {
+                return null;
+            }
+            MeshObjectIdentifier [] all = super.getNeighborIdentifiers( subject );
+            int                     n   = all != null ? all.length : 0;
+
+            if( ret.length > n ) {
+                // spare capacity
+                ret = ArrayHelper.copyIntoNewArray( ret, 0, n, Proxy[].class );
+            }
+            return ret;
+        }
     }
 
     /**
@@ -174,6 +214,48 @@ public class AnetMeshObjectNeighborManager
         }
     }
 
+    /**
+     * Determine the index of a neighbor in the relationship table. For MeshObjects with many
+     * neighbors, this uses a hash index instead of scanning the table. The index is built
+     * while holding the subject's lock, and published through a volatile field, so readers
+     * that find an index for the current relationship table do not need the lock.
+     *
+     * @param subject the MeshObject in question
+     * @param neighborIdentifier identifier of the neighbor MeshObject
+     * @return the index, or -1 if not found
+     */
+    @Override
+    public int determineRelationshipIndex(
+            AMeshObject          subject,
+            MeshObjectIdentifier neighborIdentifier )
+    {
+        AnetMeshObject          realSubject = (AnetMeshObject) subject;
+        MeshObjectIdentifier [] all         = super.getNeighborIdentifiers( subject );
+
+        if( all == null || all.length < NEIGHBOR_INDEX_THRESHOLD ) {
+            return super.determineRelationshipIndex( subject, neighborIdentifier );
+        }
+
+        NeighborIndex index = realSubject.theNeighborIndex;
+        if( index == null || index.theFor != all ) {
+            // no index yet, or the table was changed behind our back
+            synchronized( subject ) {
+                all   = super.getNeighborIdentifiers( subject );
+                index = realSubject.theNeighborIndex;
+
+                if( all == null || all.length < NEIGHBOR_INDEX_THRESHOLD ) {
+                    realSubject.theNeighborIndex = null;
+                    return super.determineRelationshipIndex( subject, neighborIdentifier );
+                }
+                if( index == null || index.theFor != all ) {
+                    index = NeighborIndex.create( all );
+                    realSubject.theNeighborIndex = index;
+                }
+            }
+        }
+        return index.indexOf( neighborIdentifier );
+    }
+
     /**
      * Obtain the set of identifiers of neighbor MeshObjects.
      *
@@ -191,6 +273,10 @@ public class AnetMeshObjectNeighborManager
     /**
      * Obtain the set of identifiers of neighbor MeshObjects according
      * to a particular relationship Proxy.
+     * This scans the relationship table, on purpose: the only callers resynchronize an entire
+     * replica and go on to diff the result against the complete set of neighbors anyway, which
+     * is linear in the number of neighbors already. An index by Proxy would have to be maintained
+     * on every relate, role change and Proxy change, which are far more frequent.
      *
      * @param subject the MeshObject in question
      * @param p the relationship Proxy
@@ -200,30 +286,32 @@ public class AnetMeshObjectNeighborManager
             AnetMeshObject subject,
             Proxy          p )
     {
-        NetMeshObjectIdentifier [] all = getNeighborIdentifiers( subject );
-
-        if( all == null || all.length == 0 ) {
-            return new NetMeshObjectIdentifier[0];
-        }
+        synchronized( subject ) {
+            NetMeshObjectIdentifier [] all = getNeighborIdentifiers( subject );
 
-        NetMeshObjectIdentifier [] ret = new NetMeshObjectIdentifier[ all.length ];
-        int count = 0;
-        for( int i=0 ; i<all.length ; ++i ) {
-            Proxy [] here = subject.theRelationshipProxies[ i ];
-            if( here == null ) {
-                continue;
+            if( all == null || all.length == 0 ) {
+                return new NetMeshObjectIdentifier[0];
             }
-            for( int j=0 ; j<here.length ; ++j ) {
-                if( p == here[j] ) {
-                    ret[ count++ ] = all[i];
-                    break;
+
+            NetMeshObjectIdentifier [] ret = new NetMeshObjectIdentifier[ all.length ];
+            int count = 0;
+            for( int i=0 ; i<all.length ; ++i ) {
+                Proxy [] here = subject.theRelationshipProxies[ i ];
+                if( here == null ) {
+                    continue;
+                }
+                for( int j=0 ; j<here.length ; ++j ) {
+                    if( p == here[j] ) {
+                        ret[ count++ ] = all[i];
+                        break;
+                    }
                 }
             }
+            if( count < ret.length ) {
+                ret = ArrayHelper.copyIntoNewArray( ret, 0, count, NetMeshObjectIdentifier.class );
+            }
+            return ret;
         }
-        if( count < ret.length ) {
-            ret = ArrayHelper.copyIntoNewArray( ret, 0, count, NetMeshObjectIdentifier.class );
-        }
-        return ret;
     }
 
     /**
@@ -275,9 +363,105 @@ public class AnetMeshObjectNeighborManager
         return ret;
     }
 
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( AnetMeshObjectNeighborManager.class );
+
+    /**
+     * The number of neighbors at and above which a MeshObject maintains a hash index of its neighbors.
+     */
+    public static final int NEIGHBOR_INDEX_THRESHOLD = theResourceHelper.getResourceIntegerOrDefault( "NeighborIndexThreshold", 32 );
+
+    /**
+     * The initial capacity of the relationship Proxy table.
+     */
+    public static final int INITIAL_RELATIONSHIP_PROXIES_CAPACITY = theResourceHelper.getResourceIntegerOrDefault( "InitialRelationshipProxiesCapacity", 4 );
+
     /**
      * Singleton instance of this class.
      */
     public static final AnetMeshObjectNeighborManager SINGLETON_NET
             = new AnetMeshObjectNeighborManager();
+
+    /**
+     * Maps the identifiers of the neighbors of a MeshObject to their index in the relationship table,
+     * for one particular version of the relationship table. Appending a neighbor adds to the shared map,
+     * which is safe because the added index lies beyond the table of any earlier version; removing a
+     * neighbor discards the NeighborIndex.
+     */
+    public static final class NeighborIndex
+    {
+        /**
+         * Factory method.
+         *
+         * @param all the current array of neighbor identifiers
+         * @return the created NeighborIndex
+         */
+        public static NeighborIndex create(
+                MeshObjectIdentifier [] all )
+        {
+            ConcurrentHashMap<MeshObjectIdentifier,Integer> map = new ConcurrentHashMap<MeshObjectIdentifier,Integer>( 2 * all.length );
+            for( int i=0 ; i<all.length ; ++i ) {
+                map.put( all[i], i );
+            }
+            return new NeighborIndex( map, all );
+        }
+
+        /**
+         * Constructor, use factory method.
+         *
+         * @param map maps neighbor identifiers to their index
+         * @param all the array of neighbor identifiers for which the map is valid
+         */
+        protected NeighborIndex(
+                ConcurrentHashMap<MeshObjectIdentifier,Integer> map,
+                MeshObjectIdentifier []                         all )
+        {
+            theMap = map;
+            theFor = all;
+        }
+
+        /**
+         * Create the NeighborIndex for the relationship table after a neighbor has been appended.
+         * To be invoked while holding the subject's lock.
+         *
+         * @param appended identifier of the appended neighbor
+         * @param all the array of neighbor identifiers after the append
+         * @return the NeighborIndex for the new relationship table
+         */
+        public NeighborIndex withAppended(
+                MeshObjectIdentifier    appended,
+                MeshObjectIdentifier [] all )
+        {
+            theMap.put( appended, all.length-1 );
+            return new NeighborIndex( theMap, all );
+        }
+
+        /**
+         * Determine the index of a neighbor.
+         *
+         * @param neighborIdentifier identifier of the neighbor MeshObject
+         * @return the index, or -1 if not found
+         */
+        public int indexOf(
+                MeshObjectIdentifier neighborIdentifier )
+        {
+            Integer found = theMap.get( neighborIdentifier );
+            if( found == null || found >= theFor.length ) {
+                return -1; // not there, or appended after this version
+            }
+            return found;
+        }
+
+        /**
+         * Maps neighbor identifiers to their index. Shared between versions that only differ by appends.
+         */
+        protected final ConcurrentHashMap<MeshObjectIdentifier,Integer> theMap;
+
+        /**
+         * The array of neighbor identifiers for which this NeighborIndex is valid.
+         */
+        protected final MeshObjectIdentifier [] theFor;
+    }
 }
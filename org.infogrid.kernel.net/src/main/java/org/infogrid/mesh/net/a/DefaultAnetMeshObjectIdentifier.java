@@ -150,6 +150,23 @@ public class DefaultAnetMeshObjectIdentifier
         }
     }
 
+    /**
+     * Determine equality. Identifiers obtained from the same factory are usually
+     * interned, so check for identity first.
+     *
+     * @param other the Object to compare against
+     * @return true if the objects are equal
+     */
+    @Override
+    public boolean equals(
+            Object other )
+    {
+        if( this == other ) {
+            return true;
+        }
+        return super.equals( other );
+    }
+
     /**
      * The Identifier for the NetMeshBase in which this NetMeshObjectIdentifier was allocated.
      */
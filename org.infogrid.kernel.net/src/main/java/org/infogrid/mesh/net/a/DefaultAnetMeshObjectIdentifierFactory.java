@@ -21,6 +21,7 @@ import java.text.ParseException;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.meshbase.MeshBaseIdentifier;
 import org.infogrid.mesh.a.DefaultAMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.IdentifierInternTable;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifierFactory;
 import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
@@ -231,7 +232,13 @@ public class DefaultAnetMeshObjectIdentifierFactory
         if( raw.length() == 0 ) {
             return new HomeObject( this, contextIdentifier );
         }
-        
+
+        String                          key   = internKey( contextIdentifier, raw, guess );
+        DefaultAnetMeshObjectIdentifier found = theInternTable.get( key );
+        if( found != null ) {
+            return found;
+        }
+
         NetMeshBaseIdentifier meshBase;
         String                localId;
         
@@ -279,8 +286,42 @@ public class DefaultAnetMeshObjectIdentifierFactory
                 meshBase,
                 localId,
                 raw );
+
+        // Only share the canonical instance with those who entered exactly the canonical form,
+        // so everybody else keeps what they entered
+        String externalForm = ret.toExternalForm();
+        if( raw.equals( externalForm )) {
+            ret = theInternTable.intern( externalForm, ret );
+        }
+        theInternTable.put( key, ret );
         return ret;
     }
+
+    /**
+     * Construct the key in the intern table for a String to be parsed. As the String
+     * may be relative to the context, the key contains both.
+     *
+     * @param contextIdentifier identifier of the NetMeshBase relative to which the external form is to be evaluated, if any
+     * @param raw the external form
+     * @param guess if true, attempt to guess the protocol if none was given
+     * @return the key
+     */
+    protected String internKey(
+            NetMeshBaseIdentifier contextIdentifier,
+            String                raw,
+            boolean               guess )
+    {
+        StringBuilder buf = new StringBuilder();
+        if( guess ) {
+            buf.append( '?' );
+        }
+        if( contextIdentifier != null ) {
+            buf.append( contextIdentifier.toExternalForm() );
+        }
+        buf.append( '\u0000' );
+        buf.append( raw );
+        return buf.toString();
+    }
     
     /**
      * Factory method.
@@ -441,6 +482,13 @@ public class DefaultAnetMeshObjectIdentifierFactory
      */
     public final DefaultAnetMeshObjectIdentifier NET_HOME_OBJECT;
 
+    /**
+     * The canonical DefaultAnetMeshObjectIdentifiers created by this factory, keyed by external form, and
+     * the DefaultAnetMeshObjectIdentifiers keyed by the Strings from which they were parsed.
+     * Home objects are not interned.
+     */
+    protected final IdentifierInternTable<DefaultAnetMeshObjectIdentifier> theInternTable = IdentifierInternTable.create( INTERN_TABLE_SIZE );
+
     /**
      * Our ResourceHelper.
      */
@@ -451,6 +499,11 @@ public class DefaultAnetMeshObjectIdentifierFactory
      */
     public final static int MINIMUM_LOCAL_ID_LENGTH = theResourceHelper.getResourceIntegerOrDefault( "MinimumLocalIdLength", 4 );
 
+    /**
+     * The approximate maximum number of entries in the intern table.
+     */
+    public final static int INTERN_TABLE_SIZE = theResourceHelper.getResourceIntegerOrDefault( "InternTableSize", 100000 );
+
     /**
      * The disallowed character strings in a local id.
      */
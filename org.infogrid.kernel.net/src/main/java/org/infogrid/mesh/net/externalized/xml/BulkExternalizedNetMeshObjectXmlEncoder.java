@@ -21,6 +21,10 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import org.infogrid.mesh.MeshObject;
 import org.infogrid.mesh.externalized.ExternalizedMeshObject;
 import org.infogrid.mesh.externalized.ParserFriendlyExternalizedMeshObject;
@@ -28,6 +32,7 @@ import org.infogrid.meshbase.BulkLoadException;
 import org.infogrid.meshbase.BulkLoader;
 import org.infogrid.meshbase.MeshBase;
 import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.util.ResourceHelper;
 import org.infogrid.util.logging.Log;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -78,13 +83,37 @@ public class BulkExternalizedNetMeshObjectXmlEncoder
         throws
             IOException,
             BulkLoadException
+    {
+        BulkExternalizedNetMeshObjectXmlEncoder worker = (BulkExternalizedNetMeshObjectXmlEncoder) obtainThreadWorker();
+        try {
+            return worker.bulkLoadOnThisThread( inStream, mb );
+
+        } finally {
+            releaseThreadWorker( worker );
+        }
+    }
+
+    /**
+     * Bulk-load data into this MeshBase, using this instance's parser and parse state.
+     * This must only be invoked on a thread worker obtained from obtainThreadWorker.
+     *
+     * @param inStream the Stream from which to read the data
+     * @param mb the MeshBase on whose behalf the loading is performed
+     * @return the iterator over the loaded ExternalizedMeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws BulkLoadException thrown if a loading exception occurred, for the details check the cause
+     */
+    protected Iterator<? extends ExternalizedMeshObject> bulkLoadOnThisThread(
+            InputStream inStream,
+            MeshBase    mb )
+        throws
+            IOException,
+            BulkLoadException
     {
         theMeshBase = mb;
 
         try {
-            synchronized( theParser ) {
-                theParser.parse( inStream, this );
-            }
+            theParser.parse( inStream, this );
         
             Collection<ParserFriendlyExternalizedMeshObject> parsed = getParsedExternalizedMeshObjects();
             return parsed.iterator();
@@ -97,6 +126,114 @@ public class BulkExternalizedNetMeshObjectXmlEncoder
         }
     }
 
+    /**
+     * Bulk-load data into this MeshBase in streaming mode, using the default queue capacity.
+     *
+     * @param inStream the Stream from which to read the data
+     * @param mb the MeshBase on whose behalf the loading is performed
+     * @param exec the Executor on which to parse
+     * @return the iterator over the loaded ExternalizedMeshObjects
+     * @see #bulkLoadStreaming(InputStream, MeshBase, int, Executor)
+     */
+    public StreamingIterator bulkLoadStreaming(
+            InputStream inStream,
+            MeshBase    mb,
+            Executor    exec )
+    {
+        return bulkLoadStreaming( inStream, mb, STREAMING_QUEUE_CAPACITY, exec );
+    }
+
+    /**
+     * Bulk-load data into this MeshBase in streaming mode. Unlike bulkLoad, this returns right away.
+     * The data is parsed by a task submitted to the given Executor, which hands over each ExternalizedMeshObject
+     * through a bounded queue as soon as it has been parsed. If the caller consumes more slowly than the parser
+     * produces, the parser blocks, so no more than <code>queueCapacity</code> parsed ExternalizedMeshObjects
+     * are held in memory at any time, regardless of the size of the input. The parsing task occupies one of
+     * the Executor's Threads until the data has been parsed, or the returned iterator has been closed.
+     *
+     * Problems found while parsing are reported by the returned iterator as StreamingLoadException, after
+     * all ExternalizedMeshObjects parsed before the problem occurred have been returned. Callers that stop
+     * iterating early must invoke StreamingIterator.close() so the parsing task terminates.
+     *
+     * @param inStream the Stream from which to read the data
+     * @param mb the MeshBase on whose behalf the loading is performed
+     * @param queueCapacity the maximum number of parsed, but not yet consumed ExternalizedMeshObjects
+     * @param exec the Executor on which to parse
+     * @return the iterator over the loaded ExternalizedMeshObjects
+     */
+    public StreamingIterator bulkLoadStreaming(
+            final InputStream inStream,
+            MeshBase          mb,
+            int               queueCapacity,
+            Executor          exec )
+    {
+        final BulkExternalizedNetMeshObjectXmlEncoder worker = createThreadWorker(); // owned by the parsing task
+        final StreamingIterator                       ret    = new StreamingIterator( queueCapacity );
+
+        checkThreadWorker( worker );
+
+        worker.theMeshBase      = mb;
+        worker.theStreamingSink = ret;
+
+        exec.execute( new Runnable() {
+                public void run()
+                {
+                    if( ret.parsingStarted() ) {
+                        try {
+                            worker.bulkLoadIntoStreamingSink( inStream );
+                        } finally {
+                            ret.parsingEnded();
+                        }
+                    } else {
+                        ret.parsingDone( null ); // closed before we got to start
+                    }
+                }
+        });
+
+        return ret;
+    }
+
+    /**
+     * Parse the data into the StreamingIterator set up by bulkLoadStreaming. This is invoked by
+     * the parsing task, on a worker that is not shared with any other Thread.
+     *
+     * @param inStream the Stream from which to read the data
+     */
+    protected void bulkLoadIntoStreamingSink(
+            InputStream inStream )
+    {
+        StreamingIterator sink    = theStreamingSink;
+        Throwable         failure = null;
+
+        try {
+            theParser.parse( inStream, this );
+
+        } catch( SAXException ex ) {
+            failure = new BulkLoadException( ex );
+
+        } catch( Throwable t ) {
+            // including Errors: the consumer must never mistake a failure for the end of the data
+            failure = t;
+
+        } finally {
+            theStreamingSink = null;
+            clearState();
+
+            sink.parsingDone( failure );
+        }
+    }
+
+    /**
+     * Create a new thread worker.
+     *
+     * @return the thread worker
+     */
+    @Override
+    protected BulkExternalizedNetMeshObjectXmlEncoder createThreadWorker()
+    {
+        return new BulkExternalizedNetMeshObjectXmlEncoder();
+    }
+
     /**
      * Addition to parsing.
      *
@@ -159,7 +296,11 @@ public class BulkExternalizedNetMeshObjectXmlEncoder
             SAXException
     {
         if( MESHOBJECT_TAG.equals( qName )) {
-            theParsedExternalizedMeshObjects.add( theMeshObjectBeingParsed );
+            if( theStreamingSink != null ) {
+                theStreamingSink.put( theMeshObjectBeingParsed );
+            } else {
+                theParsedExternalizedMeshObjects.add( theMeshObjectBeingParsed );
+            }
             theMeshObjectBeingParsed = null;
 
         } else {
@@ -244,12 +385,7 @@ public class BulkExternalizedNetMeshObjectXmlEncoder
             IOException,
             EncodingException
     {
-        try {
-            out.write( ( "<" + BULK_IMPORT_TAG + ">\n" ).getBytes( ENCODING ));
-
-        } catch( UnsupportedEncodingException ex ) {
-                log.error( ex );
-        }
+        bulkWriteStart( out );
 
         while( iter.hasNext() ) {
             MeshObject current = iter.next();
@@ -257,13 +393,46 @@ public class BulkExternalizedNetMeshObjectXmlEncoder
             encodeExternalizedMeshObject( current.asExternalized(), out );
         }
 
+        bulkWriteEnd( out );
+    }
+
+    /**
+     * Write what precedes the encoded MeshObjects in a bulk write. This allows callers to
+     * encode the MeshObjects in between themselves, e.g. in parallel.
+     *
+     * @param out the OutputStream to write to
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public void bulkWriteStart(
+            OutputStream out )
+        throws
+            IOException
+    {
+        try {
+            out.write( ( "<" + BULK_IMPORT_TAG + ">\n" ).getBytes( ENCODING ));
+
+        } catch( UnsupportedEncodingException ex ) {
+                log.error( ex );
+        }
+    }
+
+    /**
+     * Write what follows the encoded MeshObjects in a bulk write.
+     *
+     * @param out the OutputStream to write to
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public void bulkWriteEnd(
+            OutputStream out )
+        throws
+            IOException
+    {
         try {
             out.write( ( "</" + BULK_IMPORT_TAG + ">" ).getBytes( ENCODING ));
 
         } catch( UnsupportedEncodingException ex ) {
                 log.error( ex );
         }
-
     }
 
     /**
@@ -271,4 +440,253 @@ public class BulkExternalizedNetMeshObjectXmlEncoder
      */
     protected ArrayList<ParserFriendlyExternalizedMeshObject> theParsedExternalizedMeshObjects
             = new ArrayList<ParserFriendlyExternalizedMeshObject>();
+
+    /**
+     * If parsing in streaming mode, the StreamingIterator that receives the parsed ExternalizedMeshObjects
+     * instead of theParsedExternalizedMeshObjects.
+     */
+    protected StreamingIterator theStreamingSink;
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( BulkExternalizedNetMeshObjectXmlEncoder.class );
+
+    /**
+     * The default maximum number of parsed, but not yet consumed ExternalizedMeshObjects in streaming mode.
+     */
+    public static final int STREAMING_QUEUE_CAPACITY = theResourceHelper.getResourceIntegerOrDefault( "StreamingQueueCapacity", 1000 );
+
+    /**
+     * Iterates over the ExternalizedMeshObjects parsed in streaming mode, while parsing continues on another Thread.
+     */
+    public static class StreamingIterator
+            implements
+                Iterator<ParserFriendlyExternalizedMeshObject>
+    {
+        /**
+         * Constructor.
+         *
+         * @param queueCapacity the maximum number of parsed, but not yet consumed ExternalizedMeshObjects
+         */
+        protected StreamingIterator(
+                int queueCapacity )
+        {
+            theQueue = new ArrayBlockingQueue<Object>( queueCapacity );
+        }
+
+        /**
+         * Determine whether there is another ExternalizedMeshObject. This blocks until the parser has
+         * produced the next ExternalizedMeshObject, or has reached the end of the data.
+         *
+         * @return true if there is another ExternalizedMeshObject
+         * @throws StreamingLoadException thrown if parsing failed, for the details check the cause
+         */
+        public boolean hasNext()
+        {
+            if( theNext != null ) {
+                return true;
+            }
+            if( theIsDone ) {
+                return false;
+            }
+            Object found;
+            try {
+                found = theQueue.take();
+
+            } catch( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                throw new StreamingLoadException( ex );
+            }
+
+            if( found == END_OF_DATA ) {
+                theIsDone = true;
+                if( theFailure != null ) {
+                    throw new StreamingLoadException( theFailure );
+                }
+                return false;
+            }
+            theNext = (ParserFriendlyExternalizedMeshObject) found;
+            return true;
+        }
+
+        /**
+         * Obtain the next ExternalizedMeshObject.
+         *
+         * @return the next ExternalizedMeshObject
+         * @throws NoSuchElementException thrown if there are no more ExternalizedMeshObjects
+         * @throws StreamingLoadException thrown if parsing failed, for the details check the cause
+         */
+        public ParserFriendlyExternalizedMeshObject next()
+        {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            ParserFriendlyExternalizedMeshObject ret = theNext;
+            theNext = null;
+            return ret;
+        }
+
+        /**
+         * Stop iterating before the end of the data has been reached, and terminate the parsing task.
+         */
+        public void close()
+        {
+            theIsDone = true;
+            theNext   = null;
+
+            synchronized( this ) {
+                theIsClosed = true;
+
+                theQueue.clear();
+                if( theParsingThread != null ) {
+                    theParsingThread.interrupt();
+                }
+            }
+        }
+
+        /**
+         * Invoked by the parsing task before it starts parsing, on the Thread that parses.
+         *
+         * @return false if the iterator has been closed already, and parsing should not start
+         */
+        protected synchronized boolean parsingStarted()
+        {
+            if( theIsClosed ) {
+                return false;
+            }
+            theParsingThread = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * Invoked by the parsing task once it is done, on the Thread that parsed. After this,
+         * close() does not interrupt this Thread any more, so it can be reused by the Executor.
+         */
+        protected synchronized void parsingEnded()
+        {
+            theParsingThread = null;
+            Thread.interrupted(); // clear a pending interrupt from close()
+        }
+
+        /**
+         * Determine whether the parsing task has finished, either because the data has been parsed,
+         * or parsing failed, or the iterator has been closed. Does not block.
+         *
+         * @return true if parsing has finished
+         */
+        public boolean isParsingDone()
+        {
+            return theParsingIsDone;
+        }
+
+        /**
+         * Invoked by the parser to hand over a parsed ExternalizedMeshObject. Blocks while the queue is full.
+         *
+         * @param obj the parsed ExternalizedMeshObject
+         * @throws SAXException thrown if the iterator has been closed, in order to abort parsing
+         */
+        protected void put(
+                ParserFriendlyExternalizedMeshObject obj )
+            throws
+                SAXException
+        {
+            if( theIsClosed ) {
+                throw new SAXException( "StreamingIterator has been closed" );
+            }
+            try {
+                theQueue.put( obj );
+
+            } catch( InterruptedException ex ) {
+                throw new SAXException( ex );
+            }
+        }
+
+        /**
+         * Invoked by the parser once it is done.
+         *
+         * @param failure the problem that terminated parsing, if any
+         */
+        protected void parsingDone(
+                Throwable failure )
+        {
+            theParsingIsDone = true;
+
+            if( theIsClosed ) {
+                return;
+            }
+            if( failure != null ) {
+                log.warn( failure );
+            }
+            theFailure = failure;
+            try {
+                theQueue.put( END_OF_DATA );
+
+            } catch( InterruptedException ex ) {
+                // we have been closed
+            }
+        }
+
+        /**
+         * The ExternalizedMeshObjects parsed, but not yet consumed, followed by END_OF_DATA.
+         */
+        protected final BlockingQueue<Object> theQueue;
+
+        /**
+         * The ExternalizedMeshObject to be returned by the next invocation of next(), if already taken from the queue.
+         */
+        protected ParserFriendlyExternalizedMeshObject theNext;
+
+        /**
+         * Set once END_OF_DATA has been taken from the queue, or the iterator has been closed.
+         */
+        protected boolean theIsDone;
+
+        /**
+         * Set once the iterator has been closed.
+         */
+        protected volatile boolean theIsClosed;
+
+        /**
+         * The problem that terminated parsing, if any. Written before END_OF_DATA is put into the queue.
+         */
+        protected volatile Throwable theFailure;
+
+        /**
+         * The Thread that currently performs the parsing, if any. Guarded by this object's lock.
+         */
+        protected Thread theParsingThread;
+
+        /**
+         * Set once the parsing task has finished.
+         */
+        protected volatile boolean theParsingIsDone;
+
+        /**
+         * Marks the end of the data in the queue.
+         */
+        protected static final Object END_OF_DATA = new Object();
+    }
+
+    /**
+     * Thrown by StreamingIterator if parsing failed. The Iterator interface does not allow
+     * checked Exceptions, so the actual problem is carried as the cause.
+     */
+    public static class StreamingLoadException
+            extends
+                RuntimeException
+    {
+        private static final long serialVersionUID = 1L; // helps with serialization
+
+        /**
+         * Constructor.
+         *
+         * @param cause the actual problem
+         */
+        public StreamingLoadException(
+                Throwable cause )
+        {
+            super( cause );
+        }
+    }
 }
@@ -258,10 +258,98 @@ public class ExternalizedNetMeshObjectXmlEncoder
         throws
             DecodingException,
             IOException
+    {
+        ExternalizedNetMeshObjectXmlEncoder worker = obtainThreadWorker();
+        try {
+            return worker.decodeExternalizedMeshObjectOnThisThread( contentAsStream, mb );
+
+        } finally {
+            releaseThreadWorker( worker );
+        }
+    }
+
+    /**
+     * Deserialize a ExternalizedMeshObject from a stream, using this instance's parser and parse state.
+     * This must only be invoked on a thread worker obtained from obtainThreadWorker.
+     * 
+     * @param contentAsStream the byte [] stream in which the ExternalizedProxy is encoded
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return return the just-instantiated ExternalizedMeshObject
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected ExternalizedNetMeshObject decodeExternalizedMeshObjectOnThisThread(
+            InputStream contentAsStream,
+            MeshBase    mb )
+        throws
+            DecodingException,
+            IOException
     {
         ExternalizedMeshObject ret = super.decodeExternalizedMeshObject( contentAsStream, (NetMeshBase) mb ); // cast to make sure this is invoked right
         return (ExternalizedNetMeshObject) ret;
     }
+
+    /**
+     * Obtain an instance of this class that is used by the calling Thread only. The SAX parser and
+     * the parse state live in the encoder instance, so decoding on a thread worker allows any number of
+     * Threads to decode at the same time through one shared encoder instance, without locking.
+     * If the calling Thread's worker is busy already, because decoding is re-entrant, a new worker
+     * is returned that is not kept.
+     *
+     * @return the thread worker
+     */
+    protected ExternalizedNetMeshObjectXmlEncoder obtainThreadWorker()
+    {
+        ExternalizedNetMeshObjectXmlEncoder ret = theThreadWorkers.get();
+        if( ret == null ) {
+            ret = createThreadWorker();
+            checkThreadWorker( ret );
+            theThreadWorkers.set( ret );
+
+        } else if( ret.theIsBusy ) {
+            ret = createThreadWorker();
+            checkThreadWorker( ret );
+        }
+        ret.theIsBusy = true;
+        return ret;
+    }
+
+    /**
+     * Return a thread worker obtained from obtainThreadWorker once decoding is complete.
+     *
+     * @param worker the thread worker
+     */
+    protected void releaseThreadWorker(
+            ExternalizedNetMeshObjectXmlEncoder worker )
+    {
+        worker.theIsBusy = false;
+    }
+
+    /**
+     * Create a new thread worker. Subclasses must override this to return an instance of their own class.
+     *
+     * @return the thread worker
+     */
+    protected ExternalizedNetMeshObjectXmlEncoder createThreadWorker()
+    {
+        return new ExternalizedNetMeshObjectXmlEncoder();
+    }
+
+    /**
+     * Make sure a newly created thread worker is of the same class as this instance. Otherwise
+     * a subclass did not override createThreadWorker, and the parsing rules it adds would be
+     * silently ignored.
+     *
+     * @param worker the thread worker
+     * @throws IllegalStateException thrown if the thread worker is of the wrong class
+     */
+    protected void checkThreadWorker(
+            ExternalizedNetMeshObjectXmlEncoder worker )
+    {
+        if( worker.getClass() != getClass() ) {
+            throw new IllegalStateException( getClass().getName() + " must override createThreadWorker(), which returned a " + worker.getClass().getName() );
+        }
+    }
     
     /**
      * Invoked when no previous start-element parsing rule has matched. Allows subclasses to add to parsing.
@@ -434,4 +522,14 @@ public class ExternalizedNetMeshObjectXmlEncoder
     {
         return new ParserFriendlyExternalizedNetMeshObject.RelationshipWithRelationshipProxies( identifier, neighborIdentifier, timeUpdated );
     }
+
+    /**
+     * The thread workers of this instance, one per Thread.
+     */
+    protected final ThreadLocal<ExternalizedNetMeshObjectXmlEncoder> theThreadWorkers = new ThreadLocal<ExternalizedNetMeshObjectXmlEncoder>();
+
+    /**
+     * True while this instance is being used as a thread worker to decode.
+     */
+    protected boolean theIsBusy;
 }
@@ -18,6 +18,9 @@ import java.io.File;
 import java.net.URI;
 import java.net.URL;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import org.infogrid.meshbase.net.schemes.AcctScheme;
 import org.infogrid.meshbase.net.schemes.FileScheme;
 import org.infogrid.meshbase.net.schemes.HttpScheme;
@@ -26,6 +29,7 @@ import org.infogrid.meshbase.net.schemes.Scheme;
 import org.infogrid.meshbase.net.schemes.XriScheme;
 import org.infogrid.util.InvalidObjectNumberFoundParseException;
 import org.infogrid.util.InvalidObjectTypeFoundParseException;
+import org.infogrid.util.ResourceHelper;
 import org.infogrid.util.StringTooShortParseException;
 import org.infogrid.util.text.StringRepresentation;
 import org.infogrid.util.text.StringRepresentationParameters;
@@ -37,6 +41,9 @@ import org.infogrid.util.text.StringRepresentationParameters;
  * sequence is important if an identifier is valid in several schemes (e.g. \@foo could be
  * both a Twitter handle and an XRI), or could be guessed correctly in several schemes
  * (e.g. foo@example.com could be an acct, but also http and https).
+ * If the String to be parsed starts with the name of a known Scheme followed by a colon, and
+ * there is no context, the strict pass skips those Schemes that declare that they cannot match
+ * Strings with that prefix; this never changes which Scheme matches first.
  */
 public class DefaultNetMeshBaseIdentifierFactory
         implements
@@ -78,6 +85,21 @@ public class DefaultNetMeshBaseIdentifierFactory
             Scheme [] schemes )
     {
         theSchemes = schemes;
+
+        theSchemesByPrefix = new HashMap<String,Scheme[]>( schemes.length * 2 );
+        for( Scheme current : schemes ) {
+            String prefix = current.getName().toLowerCase();
+            if( theSchemesByPrefix.containsKey( prefix )) {
+                continue;
+            }
+            ArrayList<Scheme> candidates = new ArrayList<Scheme>( schemes.length );
+            for( Scheme candidate : schemes ) {
+                if( candidate.mayStrictlyMatchPrefix( prefix )) {
+                    candidates.add( candidate ); // keeps the order of theSchemes
+                }
+            }
+            theSchemesByPrefix.put( prefix, candidates.toArray( new Scheme[ candidates.size() ] ));
+        }
     }
 
     /**
@@ -171,9 +193,52 @@ public class DefaultNetMeshBaseIdentifierFactory
             contextString = null;
         }
 
+        String                key = internKey( contextString, string, guess );
+        NetMeshBaseIdentifier ret = theInternTable.get( key );
+        if( ret != null ) {
+            return ret;
+        }
+
+        ret = matchSchemes( contextString, string, guess );
+
+        // Only share the canonical instance with those who entered exactly the canonical form,
+        // so everybody else keeps what they entered
+        String externalForm = ret.toExternalForm();
+        if( string.equals( externalForm )) {
+            ret = theInternTable.intern( externalForm, ret );
+        }
+        if( !key.equals( externalForm )) {
+            theInternTable.put( key, ret );
+        }
+        return ret;
+    }
+
+    /**
+     * Find the Scheme that matches a String, and create the NetMeshBaseIdentifier.
+     *
+     * @param contextString String form of the context, if any
+     * @param string the (potentially incomplete) String form of this NetMeshBaseIdentifier
+     * @param guess if true, attempt to guess the protocol if none was given
+     * @return the created NetMeshBaseIdentifier
+     * @throws ParseException thrown if the syntax could not be parsed
+     */
+    protected NetMeshBaseIdentifier matchSchemes(
+            String  contextString,
+            String  string,
+            boolean guess )
+        throws
+            ParseException
+    {
         NetMeshBaseIdentifier ret;
 
-        for( Scheme current : theSchemes ) {
+        Scheme [] strict = null;
+        if( contextString == null ) {
+            strict = theSchemesByPrefix.get( schemePrefix( string ));
+        }
+        if( strict == null ) {
+            strict = theSchemes;
+        }
+        for( Scheme current : strict ) {
             ret = current.strictlyMatchAndCreate( contextString, string, this );
             if( ret != null ) {
                 return ret;
@@ -190,6 +255,73 @@ public class DefaultNetMeshBaseIdentifierFactory
         throw new UnknownSchemeParseException( string, this );
     }
 
+    /**
+     * Determine the lower-case scheme prefix of a String, i.e. everything before the first colon,
+     * if that is a syntactically valid URI scheme.
+     *
+     * @param string the String
+     * @return the scheme prefix, or null if none
+     */
+    protected static String schemePrefix(
+            String string )
+    {
+        int len = string.length();
+        if( len == 0 || !isAsciiLetter( string.charAt( 0 ))) {
+            return null;
+        }
+        for( int i=1 ; i<len ; ++i ) {
+            char c = string.charAt( i );
+            if( c == ':' ) {
+                return string.substring( 0, i ).toLowerCase();
+            }
+            if( !isAsciiLetter( c ) && !( c >= '0' && c <= '9' ) && c != '+' && c != '-' && c != '.' ) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Determine whether a character is an ASCII letter.
+     *
+     * @param c the character
+     * @return true if it is an ASCII letter
+     */
+    private static boolean isAsciiLetter(
+            char c )
+    {
+        return ( c >= 'a' && c <= 'z' ) || ( c >= 'A' && c <= 'Z' );
+    }
+
+    /**
+     * Construct the key in the intern table for a String to be parsed. Strict parsing without
+     * context uses the String itself, which is the same key as that of the canonical instance.
+     *
+     * @param contextString String form of the context, if any
+     * @param string the String to be parsed
+     * @param guess if true, the protocol may be guessed
+     * @return the key
+     */
+    protected String internKey(
+            String  contextString,
+            String  string,
+            boolean guess )
+    {
+        if( contextString == null && !guess ) {
+            return string;
+        }
+        StringBuilder buf = new StringBuilder();
+        if( guess ) {
+            buf.append( GUESS_KEY_PREFIX );
+        }
+        if( contextString != null ) {
+            buf.append( contextString );
+        }
+        buf.append( CONTEXT_KEY_SEPARATOR );
+        buf.append( string );
+        return buf.toString();
+    }
+
     /**
      * Factory method.
      * 
@@ -310,7 +442,40 @@ public class DefaultNetMeshBaseIdentifierFactory
      * The schemes supported by this instance of DefaultNetMeshBaseIdentifierFactory.
      */
     protected Scheme [] theSchemes;
-    
+
+    /**
+     * For each lower-case Scheme name, those Schemes in theSchemes, in the same order, that may
+     * strictly match a String with that prefix. This allows us to skip the others if the String
+     * to be parsed has an explicit scheme prefix.
+     */
+    protected Map<String,Scheme[]> theSchemesByPrefix;
+
+    /**
+     * The canonical NetMeshBaseIdentifiers created by this factory, keyed by external form, and
+     * by the Strings from which they were parsed.
+     */
+    protected final IdentifierInternTable<NetMeshBaseIdentifier> theInternTable = IdentifierInternTable.create( INTERN_TABLE_SIZE );
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( DefaultNetMeshBaseIdentifierFactory.class );
+
+    /**
+     * The approximate maximum number of entries in the intern table.
+     */
+    public static final int INTERN_TABLE_SIZE = theResourceHelper.getResourceIntegerOrDefault( "InternTableSize", 10000 );
+
+    /**
+     * Prefix of the keys in the intern table for Strings parsed with guessing.
+     */
+    protected static final char GUESS_KEY_PREFIX = '?';
+
+    /**
+     * Separates context and String in the keys in the intern table. This cannot occur in a valid identifier.
+     */
+    protected static final char CONTEXT_KEY_SEPARATOR = '\u0000';
+
     /**
      * The default schemes.
      */
@@ -0,0 +1,165 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>A bounded, concurrent table of canonical identifier instances, keyed by String.
+ *    Identifier factories use it so that parsing the same String repeatedly returns
+ *    the same instance, which saves memory and lets equality checks succeed on
+ *    reference equality.</p>
+ * <p>The table holds two generations. Entries are added to the current generation; when
+ *    it is full, it becomes the previous generation, and the former previous generation is
+ *    dropped. Entries found in the previous generation are promoted to the current one, so
+ *    frequently used identifiers survive.</p>
+ *
+ * @param <T> the type of identifier
+ */
+public class IdentifierInternTable<T>
+{
+    /**
+     * Factory method.
+     *
+     * @param maxSize the approximate maximum number of entries in the table
+     * @return the created IdentifierInternTable
+     * @param <T> the type of identifier
+     */
+    public static <T> IdentifierInternTable<T> create(
+            int maxSize )
+    {
+        return new IdentifierInternTable<T>( maxSize );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param maxSize the approximate maximum number of entries in the table
+     */
+    protected IdentifierInternTable(
+            int maxSize )
+    {
+        theGenerationSize = Math.max( 1, maxSize / 2 );
+    }
+
+    /**
+     * Look up the identifier for this key.
+     *
+     * @param key the key
+     * @return the identifier, or null
+     */
+    public T get(
+            String key )
+    {
+        ConcurrentHashMap<String,T> current = theCurrent;
+
+        T ret = current.get( key );
+        if( ret == null ) {
+            ret = thePrevious.get( key );
+            if( ret != null ) {
+                T already = current.putIfAbsent( key, ret );
+                if( already != null ) {
+                    ret = already;
+                }
+                checkSize( current );
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Add an identifier for this key, unless there is one already.
+     *
+     * @param key the key
+     * @param value the identifier
+     * @return the canonical identifier for this key, which may be value or the identifier found in the table
+     */
+    public T intern(
+            String key,
+            T      value )
+    {
+        T found = get( key );
+        if( found != null ) {
+            return found;
+        }
+        ConcurrentHashMap<String,T> current = theCurrent;
+
+        T ret = current.putIfAbsent( key, value );
+        if( ret == null ) {
+            ret = value;
+        }
+        checkSize( current );
+        return ret;
+    }
+
+    /**
+     * Remember an identifier for this key, replacing any previous one.
+     *
+     * @param key the key
+     * @param value the identifier
+     */
+    public void put(
+            String key,
+            T      value )
+    {
+        ConcurrentHashMap<String,T> current = theCurrent;
+
+        current.put( key, value );
+        checkSize( current );
+    }
+
+    /**
+     * Determine the approximate number of entries in the table.
+     *
+     * @return the number of entries
+     */
+    public int size()
+    {
+        return theCurrent.size() + thePrevious.size();
+    }
+
+    /**
+     * Start a new generation if this generation is full.
+     *
+     * @param current the current generation, as seen by the caller
+     */
+    protected void checkSize(
+            ConcurrentHashMap<String,T> current )
+    {
+        if( current.size() >= theGenerationSize ) {
+            synchronized( this ) {
+                if( current == theCurrent ) {
+                    thePrevious = current;
+                    theCurrent  = new ConcurrentHashMap<String,T>();
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of entries in a generation.
+     */
+    protected final int theGenerationSize;
+
+    /**
+     * The current generation.
+     */
+    protected volatile ConcurrentHashMap<String,T> theCurrent = new ConcurrentHashMap<String,T>();
+
+    /**
+     * The previous generation.
+     */
+    protected volatile ConcurrentHashMap<String,T> thePrevious = new ConcurrentHashMap<String,T>();
+}
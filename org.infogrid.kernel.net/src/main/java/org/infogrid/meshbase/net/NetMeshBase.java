@@ -14,17 +14,21 @@
 
 package org.infogrid.meshbase.net;
 
+import java.util.concurrent.ExecutorService;
 import org.infogrid.mesh.MeshObjectIdentifier;
 import org.infogrid.mesh.NotPermittedException;
 import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.set.MeshObjectSet;
 import org.infogrid.meshbase.MeshBase;
 import org.infogrid.meshbase.MeshObjectsNotFoundException;
 import org.infogrid.meshbase.net.proxy.Proxy;
 import org.infogrid.meshbase.net.proxy.ProxyParameters;
 import org.infogrid.meshbase.net.security.NetAccessManager;
+import org.infogrid.meshbase.net.a.AccessLocallyFuture;
 import org.infogrid.meshbase.net.a.AccessLocallySynchronizer;
 import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
+import org.infogrid.model.primitives.RoleType;
 import org.infogrid.util.CursorIterator;
 import org.infogrid.util.FactoryException;
 import org.infogrid.util.NameServer;
@@ -403,6 +407,72 @@ public interface NetMeshBase
             NetMeshObjectAccessException,
             NotPermittedException;
 
+    /**
+     * <p>Asynchronously obtain N local replicas of N NetMeshObjects using N NetMeshObjectAccessSpecifications.
+     * This call does not obtain update rights for the obtained replicas.</p>
+     * <p>Unlike {@link #accessLocally(NetMeshObjectAccessSpecification[]) accessLocally}, this call does not
+     * block the calling Thread. Instead, the returned AccessLocallyFuture completes when all requested
+     * NetMeshObjects have been determined, and each element future completes as soon as its
+     * NetMeshObject has arrived. If the operation fails, the AccessLocallyFuture completes exceptionally
+     * with a NetMeshObjectAccessException or a NotPermittedException.</p>
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications indicating the location and paths to use to access the remote NetMeshObjects
+     * @return the AccessLocallyFuture
+     */
+    public abstract AccessLocallyFuture accessLocallyAsync(
+            NetMeshObjectAccessSpecification [] pathsToObjects );
+
+    /**
+     * <p>Asynchronously obtain N local replicas of N NetMeshObjects using N NetMeshObjectAccessSpecifications.
+     * Specify a non-default timeout.
+     * This call does not obtain update rights for the obtained replicas.</p>
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications indicating the location and paths to use to access the remote NetMeshObjects
+     * @param timeoutInMillis the timeout parameter for this call, in milli-seconds
+     * @return the AccessLocallyFuture
+     * @see #accessLocallyAsync(NetMeshObjectAccessSpecification[])
+     */
+    public abstract AccessLocallyFuture accessLocallyAsync(
+            NetMeshObjectAccessSpecification [] pathsToObjects,
+            long                                timeoutInMillis );
+
+    /**
+     * <p>Traverse from a set of NetMeshObjects to their neighbors with a given RoleType.
+     * Unlike MeshObjectSet.traverse, which may resolve the missing neighbors of each member
+     * one at a time, this first obtains all neighbors that are not replicated locally yet
+     * with a single accessLocally, i.e. one message per relationship Proxy, sent in parallel.</p>
+     * <p>If some neighbors cannot be obtained, the traversal proceeds with the ones that could.</p>
+     *
+     * @param start the set of NetMeshObjects to start from
+     * @param roleType the RoleType to traverse
+     * @return the set of neighbors
+     */
+    public abstract MeshObjectSet traverse(
+            MeshObjectSet start,
+            RoleType      roleType );
+
+    /**
+     * <p>Obtain local replicas of all neighbors of a set of NetMeshObjects, that are not replicated
+     * locally yet. The neighbors are accessed via the Proxies through which the respective
+     * relationships became known, grouped into one request per Proxy. This call returns once all
+     * requests have been answered, or timed out.</p>
+     * <p>Nothing is obtained if the calling Thread has a Transaction open.</p>
+     *
+     * @param start the set of NetMeshObjects whose neighbors we need
+     * @param roleType if given, only obtain neighbors related with this RoleType
+     * @param timeoutInMillis the timeout parameter for this call, in milli-seconds. -1 means "use default".
+     * @return the newly replicated neighbors, or null if nothing needed to be obtained
+     * @throws NetMeshObjectAccessException thrown if something went wrong attempting to access a neighbor
+     * @throws NotPermittedException thrown if the caller is not authorized to perform this operation
+     */
+    public abstract NetMeshObject [] accessNeighborsLocally(
+            MeshObjectSet start,
+            RoleType      roleType,
+            long          timeoutInMillis )
+        throws
+            NetMeshObjectAccessException,
+            NotPermittedException;
+
     /**
      * <p>Obtain a manager for NetMeshObject lifecycles.</p>
      * 
@@ -504,6 +574,16 @@ public interface NetMeshBase
      */
     public abstract void unregisterIncomingProxy();
 
+    /**
+     * Obtain the ExecutorService on which the Proxies of this NetMeshBase process incoming
+     * messages, if they do not process them on the Thread that delivers them. It is shut down
+     * when this NetMeshBase dies.
+     * Not to be called by the application programmer.
+     *
+     * @return the ExecutorService
+     */
+    public abstract ExecutorService getIncomingMessageExecutor();
+
     /**
      * Obtain the underlying AccessLocallySynchronizer for synchronizing the return of parallel
      * accessLocally invocation.
@@ -539,6 +619,52 @@ public interface NetMeshBase
             NetMeshObject [] toFreshen,
             long             duration );
 
+    /**
+     * Attempt to obtain update rights for a set of NetMeshObjects at the same time. The NetMeshObjects
+     * are grouped by the Proxy towards their lock replica, one request is sent through each of those
+     * Proxies, and all responses are awaited together.
+     *
+     * @param toLock the NetMeshObjects for which update rights shall be obtained
+     * @return for each NetMeshObject, in the same sequence, true if we have update rights
+     */
+    public boolean [] tryToObtainLocks(
+            NetMeshObject [] toLock );
+
+    /**
+     * Attempt to obtain update rights for a set of NetMeshObjects at the same time. Specify a timeout
+     * in milliseconds.
+     *
+     * @param toLock the NetMeshObjects for which update rights shall be obtained
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @return for each NetMeshObject, in the same sequence, true if we have update rights
+     */
+    public boolean [] tryToObtainLocks(
+            NetMeshObject [] toLock,
+            long             duration );
+
+    /**
+     * Attempt to obtain home replica status for a set of NetMeshObjects at the same time. The NetMeshObjects
+     * are grouped by the Proxy towards their home replica, one request is sent through each of those
+     * Proxies, and all responses are awaited together.
+     *
+     * @param toObtain the NetMeshObjects for which home replica status shall be obtained
+     * @return for each NetMeshObject, in the same sequence, true if we have home replica status
+     */
+    public boolean [] tryToObtainHomeReplicas(
+            NetMeshObject [] toObtain );
+
+    /**
+     * Attempt to obtain home replica status for a set of NetMeshObjects at the same time. Specify a timeout
+     * in milliseconds.
+     *
+     * @param toObtain the NetMeshObjects for which home replica status shall be obtained
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @return for each NetMeshObject, in the same sequence, true if we have home replica status
+     */
+    public boolean [] tryToObtainHomeReplicas(
+            NetMeshObject [] toObtain,
+            long             duration );
+
     /**
      * Set a XprisoMessageLogger for all incoming and outgoing XprisoMessages.
      *
@@ -136,6 +136,9 @@ public class NetMeshBaseIdentifier
     public boolean equals(
             Object other )
     {
+        if( this == other ) {
+            return true; // interned instances
+        }
         if( !( other instanceof NetMeshBaseIdentifier )) {
             return false;
         }
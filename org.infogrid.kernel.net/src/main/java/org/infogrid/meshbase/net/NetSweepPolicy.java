@@ -43,4 +43,24 @@ public interface NetSweepPolicy
      */
     public boolean potentiallyPurge(
             NetMeshObject candidate );
+
+    /**
+     * Invoked by a background sweep process, the Sweeper will purge those of the
+     * NetMeshObjects that should be purged. By default, this purges them one at a time;
+     * implementations override this to purge them all in the same Transaction.
+     *
+     * @param candidates the NetMeshObjects that are candidates for purging; may contain null entries
+     * @return the number of NetMeshObjects that were purged
+     */
+    public default int potentiallyPurge(
+            NetMeshObject [] candidates )
+    {
+        int ret = 0;
+        for( NetMeshObject current : candidates ) {
+            if( current != null && potentiallyPurge( current )) {
+                ++ret;
+            }
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,49 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net;
+
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+
+/**
+ * A NetMeshBase that keeps an index of its non-home replicas, ordered by the time
+ * they were last read. This allows Sweepers to find expired replicas without
+ * visiting all MeshObjects in the NetMeshBase.
+ */
+public interface ReadTimeIndexedNetMeshBase
+        extends
+            NetMeshBase
+{
+    /**
+     * Find the identifiers of the non-home replicas whose last recorded read time is
+     * before the cutoff. The index may lag behind reads, so some of the returned replicas
+     * may have been read more recently; it never omits a replica that was indexed
+     * and has not been read since the cutoff.
+     *
+     * @param cutoff the cutoff time, in System.currentTimeMillis() format
+     * @return the identifiers of the candidate replicas, oldest first
+     */
+    public abstract NetMeshObjectIdentifier [] findReplicasReadBefore(
+            long cutoff );
+
+    /**
+     * Bring the index entry of this NetMeshObject up to date, e.g. after it was found
+     * to have been read since it was indexed.
+     *
+     * @param obj the NetMeshObject
+     */
+    public abstract void updateReadTimeIndex(
+            NetMeshObject obj );
+}
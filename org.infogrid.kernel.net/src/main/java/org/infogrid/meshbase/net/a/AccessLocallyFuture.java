@@ -0,0 +1,251 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.a;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.util.ArrayHelper;
+import org.infogrid.util.logging.CanBeDumped;
+import org.infogrid.util.logging.Dumper;
+
+/**
+ * <p>The result of an asynchronous accessLocally operation. As a whole, this completes once
+ *    all requested NetMeshObjects have been obtained, determined not to exist, or the operation
+ *    failed. In addition, each requested NetMeshObject has its own CompletableFuture that
+ *    completes as soon as that particular NetMeshObject has arrived, which may be well before
+ *    the entire operation has completed.</p>
+ * <p>The elements of the result array are in the same sequence as the NetMeshObjectAccessSpecifications
+ *    given to the accessLocallyAsync call.</p>
+ */
+public class AccessLocallyFuture
+        extends
+            CompletableFuture<NetMeshObject []>
+        implements
+            CanBeDumped
+{
+    /**
+     * Factory method.
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications of the requested NetMeshObjects
+     * @param timeoutInMillis the timeout parameter for the operation, in milli-seconds. -1 means "use default".
+     * @return the created AccessLocallyFuture
+     */
+    public static AccessLocallyFuture create(
+            NetMeshObjectAccessSpecification [] pathsToObjects,
+            long                                timeoutInMillis )
+    {
+        return new AccessLocallyFuture( pathsToObjects, timeoutInMillis );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications of the requested NetMeshObjects
+     * @param timeoutInMillis the timeout parameter for the operation, in milli-seconds. -1 means "use default".
+     */
+    protected AccessLocallyFuture(
+            NetMeshObjectAccessSpecification [] pathsToObjects,
+            long                                timeoutInMillis )
+    {
+        thePathsToObjects   = pathsToObjects;
+        theTimeoutInMillis  = timeoutInMillis;
+        theResults          = new NetMeshObject[ pathsToObjects.length ];
+        theElementFutures   = new ArrayList<CompletableFuture<NetMeshObject>>( pathsToObjects.length );
+
+        for( int i=0 ; i<pathsToObjects.length ; ++i ) {
+            theElementFutures.add( new CompletableFuture<NetMeshObject>() );
+        }
+    }
+
+    /**
+     * Obtain the NetMeshObjectAccessSpecifications of the requested NetMeshObjects.
+     *
+     * @return the NetMeshObjectAccessSpecifications
+     */
+    public NetMeshObjectAccessSpecification [] getPathsToObjects()
+    {
+        return thePathsToObjects;
+    }
+
+    /**
+     * Obtain the timeout parameter for the operation.
+     *
+     * @return the timeout, in milli-seconds. -1 means "use default".
+     */
+    public long getTimeoutInMillis()
+    {
+        return theTimeoutInMillis;
+    }
+
+    /**
+     * Obtain the number of requested NetMeshObjects.
+     *
+     * @return the number of requested NetMeshObjects
+     */
+    public int size()
+    {
+        return thePathsToObjects.length;
+    }
+
+    /**
+     * Obtain the CompletableFuture for the NetMeshObject requested at a given index. It completes with
+     * null if the NetMeshObject is known not to exist.
+     *
+     * @param index the index
+     * @return the CompletableFuture for this element
+     */
+    public CompletableFuture<NetMeshObject> getElementFuture(
+            int index )
+    {
+        return theElementFutures.get( index );
+    }
+
+    /**
+     * Obtain the results that are available at this time. Elements for which no result is available
+     * yet are null in the returned array.
+     *
+     * @return the results available at this time
+     */
+    public synchronized NetMeshObject [] getPartialResult()
+    {
+        return ArrayHelper.copyIntoNewArray( theResults, NetMeshObject.class );
+    }
+
+    /**
+     * Determine whether the element at this index has been determined already.
+     *
+     * @param index the index
+     * @return true if the element has been determined
+     */
+    public boolean isElementDone(
+            int index )
+    {
+        return theElementFutures.get( index ).isDone();
+    }
+
+    /**
+     * Record the result for the element at this index. To be invoked by the NetMeshBase only.
+     *
+     * @param index the index
+     * @param result the result, which may be null if the NetMeshObject is known not to exist
+     */
+    public void elementDetermined(
+            int           index,
+            NetMeshObject result )
+    {
+        synchronized( this ) {
+            theResults[index] = result;
+        }
+        theElementFutures.get( index ).complete( result );
+    }
+
+    /**
+     * Record that a NetMeshObject has arrived. This determines all not-yet determined elements
+     * whose NetMeshObjectAccessSpecification refers to this NetMeshObject. To be invoked by the NetMeshBase only.
+     *
+     * @param arrived the NetMeshObject that arrived
+     * @return true if at least one element was determined as a result
+     */
+    public boolean replicaArrived(
+            NetMeshObject arrived )
+    {
+        NetMeshObjectIdentifier arrivedIdentifier = arrived.getIdentifier();
+        boolean                 ret               = false;
+
+        for( int i=0 ; i<thePathsToObjects.length ; ++i ) {
+            if( isElementDone( i )) {
+                continue;
+            }
+            if( arrivedIdentifier.equals( thePathsToObjects[i].getNetMeshObjectIdentifier() )) {
+                elementDetermined( i, arrived );
+                ret = true;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Record that the operation has failed for all elements that have not been determined yet,
+     * and complete this AccessLocallyFuture exceptionally. To be invoked by the NetMeshBase only.
+     *
+     * @param cause the cause of the failure
+     */
+    public void failRemaining(
+            Throwable cause )
+    {
+        for( int i=0 ; i<theElementFutures.size() ; ++i ) {
+            theElementFutures.get( i ).completeExceptionally( cause );
+        }
+        completeExceptionally( cause );
+    }
+
+    /**
+     * Complete this AccessLocallyFuture successfully with the results recorded so far. Elements
+     * that have not been determined yet are determined to be null. To be invoked by the NetMeshBase only.
+     */
+    public void completeWithResults()
+    {
+        for( int i=0 ; i<theElementFutures.size() ; ++i ) {
+            theElementFutures.get( i ).complete( null ); // no-op if completed already
+        }
+        complete( getPartialResult() );
+    }
+
+    /**
+     * Dump this object.
+     *
+     * @param d the Dumper to dump to
+     */
+    public void dump(
+            Dumper d )
+    {
+        d.dump( this,
+                new String[] {
+                    "thePathsToObjects",
+                    "theTimeoutInMillis",
+                    "theResults",
+                    "isDone()"
+                },
+                new Object[] {
+                    thePathsToObjects,
+                    theTimeoutInMillis,
+                    getPartialResult(),
+                    isDone()
+                } );
+    }
+
+    /**
+     * The NetMeshObjectAccessSpecifications of the requested NetMeshObjects.
+     */
+    protected final NetMeshObjectAccessSpecification [] thePathsToObjects;
+
+    /**
+     * The timeout parameter for the operation, in milli-seconds. -1 means "use default".
+     */
+    protected final long theTimeoutInMillis;
+
+    /**
+     * The results determined so far, in the same sequence as thePathsToObjects.
+     */
+    protected final NetMeshObject [] theResults;
+
+    /**
+     * One CompletableFuture per requested NetMeshObject, in the same sequence as thePathsToObjects.
+     */
+    protected final ArrayList<CompletableFuture<NetMeshObject>> theElementFutures;
+}
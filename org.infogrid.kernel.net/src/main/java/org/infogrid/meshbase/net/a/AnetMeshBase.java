@@ -14,14 +14,30 @@
 
 package org.infogrid.meshbase.net.a;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import org.infogrid.mesh.MeshObject;
 import org.infogrid.mesh.MeshObjectIdentifier;
 import org.infogrid.mesh.NotPermittedException;
 import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.mesh.net.a.AnetMeshObject;
+import org.infogrid.mesh.set.MeshObjectSet;
 import org.infogrid.mesh.set.MeshObjectSetFactory;
 import org.infogrid.meshbase.MeshObjectsNotFoundException;
 import org.infogrid.meshbase.a.AMeshBase;
@@ -39,9 +55,15 @@ import org.infogrid.meshbase.net.proxy.Proxy;
 import org.infogrid.meshbase.net.proxy.ProxyManager;
 import org.infogrid.meshbase.net.proxy.ProxyParameters;
 import org.infogrid.meshbase.net.security.NetAccessManager;
+import org.infogrid.meshbase.net.transaction.AbstractNetMeshObjectCreatedEvent;
+import org.infogrid.meshbase.net.transaction.NetChange;
+import org.infogrid.meshbase.net.transaction.Utils;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
 import org.infogrid.meshbase.net.xpriso.logging.LogXprisoMessageLogger;
 import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
+import org.infogrid.meshbase.transaction.Change;
 import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.primitives.RoleType;
 import org.infogrid.modelbase.ModelBase;
 import org.infogrid.util.ArrayHelper;
 import org.infogrid.util.CachingMap;
@@ -593,6 +615,27 @@ public abstract class AnetMeshBase
         throws
             NetMeshObjectAccessException,
             NotPermittedException
+    {
+        return internalAccessLocally( pathsToObjects, timeoutInMillis, true );
+    }
+
+    /**
+     * Internal implementation of the accessLocally methods.
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications indicating the location and paths to use to access the remote NetMeshObjects
+     * @param timeoutInMillis the timeout parameter for this call, in milli-seconds. -1 means "use default".
+     * @param checkPermitted if true, check with the NetAccessManager whether the caller is permitted to perform this operation
+     * @return the locally replicated NetMeshObjects, or null if not found
+     * @throws NetMeshObjectAccessException thrown if something went wrong attempting to access the NetMeshObject
+     * @throws NotPermittedException thrown if the caller is not authorized to perform this operation
+     */
+    protected NetMeshObject [] internalAccessLocally(
+            NetMeshObjectAccessSpecification [] pathsToObjects,
+            long                                timeoutInMillis,
+            boolean                             checkPermitted )
+        throws
+            NetMeshObjectAccessException,
+            NotPermittedException
     {
         if( log.isDebugEnabled() ) {
             log.debug(
@@ -670,7 +713,7 @@ public abstract class AnetMeshBase
         }
 
         // make sure caller has permission
-        if( theAccessManager != null ) {
+        if( checkPermitted && theAccessManager != null ) {
             NetAccessManager realAccessManager = (NetAccessManager) theAccessManager;
             realAccessManager.checkPermittedAccessLocally( this, correctRemotePaths ); // may throw exception
         }
@@ -691,6 +734,7 @@ public abstract class AnetMeshBase
             int pivotIndex = 0;
             Proxy [] proxyKeeper = new Proxy[ stillToGet ]; // keep Proxies from being garbage collected while queries are ongoing
             int proxyKeeperCount = 0;
+            long startTime = System.currentTimeMillis();
 
             while( stillToGet > 0 ) {
                 // find the first one we have not gotten yet
@@ -707,9 +751,7 @@ public abstract class AnetMeshBase
                 // obtain a new set of object names that we still need to get
                 NetMeshObjectAccessSpecification [] nextObjectPaths = new NetMeshObjectAccessSpecification[ stillToGet ]; // potentially over-allocated
 
-                nextObjectPaths[0] = theNetMeshObjectAccessSpecificationFactory.obtain(
-                        ArrayHelper.subarray( correctRemotePaths[ runningIndex ].getAccessPath(), 1, NetMeshBaseAccessSpecification.class ),
-                        correctRemotePaths[ runningIndex ].getNetMeshObjectIdentifier() );
+                nextObjectPaths[0] = nextHopPath( correctRemotePaths[ runningIndex ] );
 
                 sentQuery[ runningIndex ] = true;
                 int nextObjectCount = 1;
@@ -723,9 +765,7 @@ public abstract class AnetMeshBase
                         continue; // has different pivot
                     }
 
-                    nextObjectPaths[ nextObjectCount ] = theNetMeshObjectAccessSpecificationFactory.obtain(
-                            ArrayHelper.subarray( correctRemotePaths[ runningIndex ].getAccessPath(), 1, NetMeshBaseAccessSpecification.class ),
-                            correctRemotePaths[ runningIndex ].getNetMeshObjectIdentifier() );
+                    nextObjectPaths[ nextObjectCount ] = nextHopPath( correctRemotePaths[ runningIndex ] );
 
                     sentQuery[ runningIndex ] = true;
 
@@ -778,6 +818,13 @@ public abstract class AnetMeshBase
 
             ok = theAccessLocallySynchronizer.join( realTimeout );
 
+            long duration = System.currentTimeMillis() - startTime;
+            for( int i=0 ; i<proxyKeeperCount ; ++i ) {
+                if( proxyKeeper[i] != null ) {
+                    proxyKeeper[i].getMetrics().accessLocallyCompleted( duration );
+                }
+            }
+
             if( !ok && !hasCause ) {
                 log.warn( this + ".accessLocally() timed out trying to reach " + ArrayHelper.arrayToString( pathsToObjects ) + ", timeout: " + realTimeout );
             }
@@ -844,6 +891,531 @@ public abstract class AnetMeshBase
         }
     }
     
+    /**
+     * <p>Traverse from a set of NetMeshObjects to their neighbors with a given RoleType.
+     * Unlike MeshObjectSet.traverse, which may resolve the missing neighbors of each member
+     * one at a time, this first obtains all neighbors that are not replicated locally yet
+     * with a single accessLocally, i.e. one message per relationship Proxy, sent in parallel.</p>
+     * <p>If some neighbors cannot be obtained, the traversal proceeds with the ones that could.</p>
+     *
+     * @param start the set of NetMeshObjects to start from
+     * @param roleType the RoleType to traverse
+     * @return the set of neighbors
+     */
+    public MeshObjectSet traverse(
+            MeshObjectSet start,
+            RoleType      roleType )
+    {
+        try {
+            accessNeighborsLocally( start, roleType, -1L );
+
+        } catch( NetMeshObjectAccessException ex ) {
+            if( log.isDebugEnabled() ) {
+                log.debug( ex );
+            }
+        } catch( NotPermittedException ex ) {
+            log.warn( ex );
+        }
+        return start.traverse( roleType );
+    }
+
+    /**
+     * <p>Obtain local replicas of all neighbors of a set of NetMeshObjects, that are not replicated
+     * locally yet. The neighbors are accessed via the Proxies through which the respective
+     * relationships became known, grouped into one request per Proxy. This call returns once all
+     * requests have been answered, or timed out.</p>
+     * <p>As with findRelatedMeshObjects, nothing is obtained if the calling Thread has a Transaction
+     * open; the neighbors will then be resolved individually during the traversal.</p>
+     *
+     * @param start the set of NetMeshObjects whose neighbors we need
+     * @param roleType if given, only obtain neighbors related with this RoleType
+     * @param timeoutInMillis the timeout parameter for this call, in milli-seconds. -1 means "use default".
+     * @return the newly replicated neighbors, or null if nothing needed to be obtained
+     * @throws NetMeshObjectAccessException thrown if something went wrong attempting to access a neighbor
+     * @throws NotPermittedException thrown if the caller is not authorized to perform this operation
+     */
+    public NetMeshObject [] accessNeighborsLocally(
+            MeshObjectSet start,
+            RoleType      roleType,
+            long          timeoutInMillis )
+        throws
+            NetMeshObjectAccessException,
+            NotPermittedException
+    {
+        if( getCurrentTransaction() != null ) {
+            return null;
+        }
+
+        Map<NetMeshObjectIdentifier,NetMeshObjectAccessSpecification> toFind
+                = new LinkedHashMap<NetMeshObjectIdentifier,NetMeshObjectAccessSpecification>();
+
+        for( MeshObject current : start.getMeshObjects() ) {
+            if( current instanceof AnetMeshObject ) {
+                ((AnetMeshObject) current).collectMissingNeighbors( roleType, toFind );
+            }
+        }
+        if( toFind.isEmpty() ) {
+            return null;
+        }
+        if( log.isDebugEnabled() ) {
+            log.debug( this + ".accessNeighborsLocally(): " + toFind.size() + " neighbors of " + start.size() + " NetMeshObjects" );
+        }
+
+        NetMeshObjectAccessSpecification [] paths = toFind.values().toArray( new NetMeshObjectAccessSpecification[ toFind.size() ] );
+
+        return accessLocally( paths, timeoutInMillis );
+    }
+
+    /**
+     * <p>Asynchronously obtain N local replicas of N NetMeshObjects using N NetMeshObjectAccessSpecifications.
+     * This call does not obtain update rights for the obtained replicas.</p>
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications indicating the location and paths to use to access the remote NetMeshObjects
+     * @return the AccessLocallyFuture
+     */
+    public AccessLocallyFuture accessLocallyAsync(
+            NetMeshObjectAccessSpecification [] pathsToObjects )
+    {
+        return accessLocallyAsync( pathsToObjects, -1L );
+    }
+
+    /**
+     * <p>Asynchronously obtain N local replicas of N NetMeshObjects using N NetMeshObjectAccessSpecifications.
+     * Specify a non-default timeout.
+     * This call does not obtain update rights for the obtained replicas.</p>
+     * <p>NetMeshObjects that can be determined locally are determined before this call returns. For the
+     * remainder, one request per first-hop Proxy is sent on the caller's Thread, and no Thread waits for
+     * the responses: each element completes when its replica has been created locally, and the whole
+     * operation completes when the Proxies have processed all responses, or the timeout has passed.</p>
+     *
+     * @param pathsToObjects the NetMeshObjectAccessSpecifications indicating the location and paths to use to access the remote NetMeshObjects
+     * @param timeoutInMillis the timeout parameter for this call, in milli-seconds. -1 means "use default".
+     * @return the AccessLocallyFuture
+     */
+    public AccessLocallyFuture accessLocallyAsync(
+            NetMeshObjectAccessSpecification [] pathsToObjects,
+            long                                timeoutInMillis )
+    {
+        if( log.isDebugEnabled() ) {
+            log.debug(
+                    this
+                    + ".accessLocallyAsync( "
+                    + ArrayHelper.arrayToString( pathsToObjects )
+                    + ", "
+                    + timeoutInMillis
+                    + " )" );
+        }
+
+        final AccessLocallyFuture ret = AccessLocallyFuture.create( pathsToObjects, timeoutInMillis );
+
+        NetMeshObjectAccessSpecification [] correctRemotePaths = new NetMeshObjectAccessSpecification[ pathsToObjects.length ];
+        boolean                             needRemote         = false;
+
+        // first determine what we can determine locally, same rules as accessLocally
+        for( int i=0 ; i<pathsToObjects.length ; ++i ) {
+            correctRemotePaths[i] = correctPath( pathsToObjects[i] );
+
+            if( correctRemotePaths[i].getNetMeshObjectIdentifier() == null ) {
+                if( correctRemotePaths[i].getAccessPath().length == 0 ) {
+                    ret.elementDetermined( i, getHomeObject() );
+                } else {
+                    needRemote = true;
+                }
+            } else {
+                NetMeshObject localObject = findMeshObjectByIdentifier( correctRemotePaths[i].getNetMeshObjectIdentifier() );
+                if( localObject != null ) {
+                    ret.elementDetermined( i, localObject );
+
+                } else if( correctRemotePaths[i].getAccessPath() == null || correctRemotePaths[i].getAccessPath().length == 0 ) {
+                    ret.elementDetermined( i, null );
+
+                } else {
+                    needRemote = true;
+                }
+            }
+        }
+
+        if( !needRemote ) {
+            ret.completeWithResults();
+            return ret;
+        }
+
+        // make sure caller has permission. This needs to happen on the caller's Thread.
+        if( theAccessManager != null ) {
+            try {
+                NetAccessManager realAccessManager = (NetAccessManager) theAccessManager;
+                realAccessManager.checkPermittedAccessLocally( this, correctRemotePaths ); // may throw exception
+
+            } catch( NotPermittedException ex ) {
+                ret.failRemaining( ex );
+                return ret;
+            }
+        }
+
+        // register for early completion of individual elements
+        synchronized( theAsyncAccessLocallyPending ) {
+            for( int i=0 ; i<correctRemotePaths.length ; ++i ) {
+                NetMeshObjectIdentifier id = correctRemotePaths[i].getNetMeshObjectIdentifier();
+                if( id == null || ret.isElementDone( i )) {
+                    continue;
+                }
+                ArrayList<AccessLocallyFuture> found = theAsyncAccessLocallyPending.get( id );
+                if( found == null ) {
+                    found = new ArrayList<AccessLocallyFuture>();
+                    theAsyncAccessLocallyPending.put( id, found );
+                }
+                if( !found.contains( ret )) {
+                    found.add( ret );
+                }
+            }
+        }
+        ret.whenComplete( new BiConsumer<NetMeshObject [],Throwable>() {
+                public void accept(
+                        NetMeshObject [] result,
+                        Throwable        t )
+                {
+                    unregisterAccessLocallyFuture( ret );
+                }
+        });
+
+        dispatchAsyncAccessLocally( ret, correctRemotePaths, timeoutInMillis );
+
+        return ret;
+    }
+
+    /**
+     * Send the requests for the not-yet-determined elements of an AccessLocallyFuture, one message
+     * per first-hop Proxy, without waiting for the responses. The AccessLocallyFuture completes
+     * once all Proxies have processed their responses, or the timeout has passed. In the latter
+     * case, the Proxies stop waiting for the responses that have not arrived yet.
+     *
+     * @param future the AccessLocallyFuture
+     * @param correctRemotePaths the corrected NetMeshObjectAccessSpecifications, in the same sequence as in the future
+     * @param timeoutInMillis the timeout parameter for this call, in milli-seconds. -1 means "use default".
+     */
+    protected void dispatchAsyncAccessLocally(
+            final AccessLocallyFuture                 future,
+            final NetMeshObjectAccessSpecification [] correctRemotePaths,
+            long                                      timeoutInMillis )
+    {
+        final Throwable []                        causes          = new Throwable[ correctRemotePaths.length ];
+        final NetMeshObjectAccessSpecification [] redirectedPaths = new NetMeshObjectAccessSpecification[ correctRemotePaths.length ];
+        final ArrayList<Proxy>                    proxyKeeper     = new ArrayList<Proxy>(); // keep Proxies from being garbage collected while queries are ongoing
+        final AtomicBoolean                       isSettled       = new AtomicBoolean( false );
+        final long                                startTime       = System.currentTimeMillis();
+
+        final ArrayList<CompletableFuture<XprisoMessage>> responses = new ArrayList<CompletableFuture<XprisoMessage>>(); // one per Proxy
+
+        // group by first hop, same as internalAccessLocally
+        LinkedHashMap<NetMeshBaseIdentifier,ArrayList<Integer>> byPivot = new LinkedHashMap<NetMeshBaseIdentifier,ArrayList<Integer>>();
+        for( int i=0 ; i<correctRemotePaths.length ; ++i ) {
+            if( future.isElementDone( i )) {
+                continue;
+            }
+            NetMeshBaseIdentifier pivotName = correctRemotePaths[i].getAccessPath()[0].getNetMeshBaseIdentifier();
+            ArrayList<Integer>    indices   = byPivot.get( pivotName );
+            if( indices == null ) {
+                indices = new ArrayList<Integer>();
+                byPivot.put( pivotName, indices );
+            }
+            indices.add( i );
+        }
+
+        // one more than the number of Proxies, so we cannot settle before all requests have been sent
+        final AtomicInteger outstanding = new AtomicInteger( byPivot.size() + 1 );
+        final ScheduledFuture<?> [] timer = new ScheduledFuture<?>[1];
+
+        final Runnable oneResponded = new Runnable() {
+                public void run() {
+                    if( outstanding.decrementAndGet() == 0 && isSettled.compareAndSet( false, true )) {
+                        if( timer[0] != null ) {
+                            timer[0].cancel( false );
+                        }
+                        settleAsyncAccessLocally( future, correctRemotePaths, causes, redirectedPaths, false );
+                        reportAsyncAccessLocallyDuration( proxyKeeper, startTime );
+                    }
+                }
+        };
+
+        long realTimeout = 0L;
+        for( Map.Entry<NetMeshBaseIdentifier,ArrayList<Integer>> entry : byPivot.entrySet() ) {
+            ArrayList<Integer>                  indices         = entry.getValue();
+            NetMeshBaseAccessSpecification      pivot           = correctRemotePaths[ indices.get( 0 ) ].getAccessPath()[0];
+            ProxyParameters                     pivotPars       = ProxyParameters.create( pivot.getCoherenceSpecification());
+            NetMeshObjectAccessSpecification [] nextObjectPaths = new NetMeshObjectAccessSpecification[ indices.size() ];
+
+            for( int i=0 ; i<nextObjectPaths.length ; ++i ) {
+                nextObjectPaths[i] = nextHopPath( correctRemotePaths[ indices.get( i ) ] );
+            }
+
+            try {
+                Proxy theProxy = obtainProxyFor( entry.getKey(), pivotPars ); // this triggers the Shadow creation in the right subclasses
+                if( theProxy != null ) {
+                    synchronized( proxyKeeper ) {
+                        proxyKeeper.add( theProxy );
+                    }
+                    CompletableFuture<XprisoMessage> whenResponded = new CompletableFuture<XprisoMessage>();
+                    whenResponded.whenComplete( new BiConsumer<XprisoMessage,Throwable>() {
+                            public void accept(
+                                    XprisoMessage response,
+                                    Throwable     t )
+                            {
+                                oneResponded.run();
+                            }
+                    });
+                    synchronized( responses ) {
+                        responses.add( whenResponded );
+                    }
+
+                    long requestedTimeout = theProxy.obtainReplicasAsynchronously( nextObjectPaths, timeoutInMillis, whenResponded );
+                    realTimeout = Math.max( realTimeout, requestedTimeout );
+
+                } else {
+                    oneResponded.run();
+                }
+
+            } catch( FactoryException ex ) {
+                Throwable toAdd = ex.getCause() != null ? ex.getCause() : ex;
+                NetMeshObjectAccessSpecification redirect;
+                if( toAdd instanceof NetMeshBaseRedirectException ) {
+                    redirect = theNetMeshObjectAccessSpecificationFactory.obtain( ((NetMeshBaseRedirectException)toAdd).getNewId());
+                } else {
+                    redirect = null;
+                }
+                for( Integer index : indices ) {
+                    causes[ index ]          = toAdd;
+                    redirectedPaths[ index ] = redirect;
+                }
+                oneResponded.run();
+            }
+        }
+
+        if( timeoutInMillis > 0 ) { // if something has been specified
+            realTimeout = timeoutInMillis;
+        }
+        if( realTimeout > 0 && !isSettled.get() ) {
+            try {
+                final long finalTimeout = realTimeout;
+
+                timer[0] = obtainAsyncAccessLocallyTimer().schedule(
+                        new Runnable() {
+                            public void run() {
+                                if( isSettled.compareAndSet( false, true )) {
+                                    log.warn( AnetMeshBase.this + ".accessLocallyAsync() timed out trying to reach " + ArrayHelper.arrayToString( future.getPathsToObjects() ));
+                                    settleAsyncAccessLocally( future, correctRemotePaths, causes, redirectedPaths, true );
+                                    reportAsyncAccessLocallyDuration( proxyKeeper, startTime );
+                                    abandonAsyncResponses( responses, new TimeoutException( "No response within " + finalTimeout + " msec" ));
+                                }
+                            }
+                        },
+                        realTimeout,
+                        TimeUnit.MILLISECONDS );
+
+            } catch( RejectedExecutionException ex ) {
+                // we are dying
+                if( isSettled.compareAndSet( false, true )) {
+                    future.failRemaining( ex );
+                    abandonAsyncResponses( responses, ex );
+                }
+            }
+        }
+        oneResponded.run(); // all requests have been sent
+    }
+
+    /**
+     * Tell the Proxies involved in an accessLocallyAsync operation to stop waiting for the
+     * responses that have not arrived yet, so they do not keep the requests around forever.
+     *
+     * @param responses the CompletableFutures passed to the Proxies, one per Proxy
+     * @param cause the reason
+     */
+    protected void abandonAsyncResponses(
+            ArrayList<CompletableFuture<XprisoMessage>> responses,
+            Throwable                                   cause )
+    {
+        ArrayList<CompletableFuture<XprisoMessage>> stillWaiting;
+        synchronized( responses ) {
+            stillWaiting = new ArrayList<CompletableFuture<XprisoMessage>>( responses );
+        }
+        for( CompletableFuture<XprisoMessage> current : stillWaiting ) {
+            current.completeExceptionally( cause ); // does nothing if the response has been processed already
+        }
+    }
+
+    /**
+     * Complete an AccessLocallyFuture once all first-hop Proxies have processed their responses,
+     * or the timeout has passed. Elements that have not arrived are known not to exist if their
+     * query returned without error.
+     *
+     * @param future the AccessLocallyFuture
+     * @param correctRemotePaths the corrected NetMeshObjectAccessSpecifications, in the same sequence as in the future
+     * @param causes the exceptions that occurred, in the same sequence as in the future
+     * @param redirectedPaths the redirects that were encountered, in the same sequence as in the future
+     * @param timedOut if true, not all queries returned
+     */
+    protected void settleAsyncAccessLocally(
+            AccessLocallyFuture                 future,
+            NetMeshObjectAccessSpecification [] correctRemotePaths,
+            Throwable []                        causes,
+            NetMeshObjectAccessSpecification [] redirectedPaths,
+            boolean                             timedOut )
+    {
+        boolean allFound  = true;
+        boolean someFound = false;
+        boolean hasCause  = false;
+
+        for( int i=0 ; i<correctRemotePaths.length ; ++i ) {
+            hasCause |= causes[i] != null;
+
+            if( future.isElementDone( i )) {
+                someFound = true;
+                continue;
+            }
+            NetMeshObjectIdentifier id         = correctRemotePaths[i].getNetMeshObjectIdentifier();
+            NetMeshObject           newlyFound = id != null ? findMeshObjectByIdentifier( id ) : null;
+
+            if( newlyFound != null ) {
+                future.elementDetermined( i, newlyFound );
+                someFound = true;
+
+            } else if( !timedOut && causes[i] == null ) {
+                future.elementDetermined( i, null ); // the query returned, definitive answer
+
+            } else {
+                allFound = false;
+            }
+        }
+
+        if( allFound ) {
+            future.completeWithResults();
+
+        } else if( !hasCause ) { // we timed out, but have a partial result, future results still incoming
+            NetMeshObject [] partial = future.getPartialResult();
+            future.failRemaining( new NetMeshObjectAccessException(
+                    this,
+                    future.getPathsToObjects(),
+                    partial,
+                    redirectedPaths,
+                    causes,
+                    new RemoteQueryTimeoutException.QueryIsOngoing( this, someFound, partial )));
+
+        } else {
+            future.failRemaining( new NetMeshObjectAccessException(
+                    this,
+                    future.getPathsToObjects(),
+                    future.getPartialResult(),
+                    redirectedPaths,
+                    causes ));
+        }
+    }
+
+    /**
+     * Tell the Proxies involved in an accessLocallyAsync operation how long it took.
+     *
+     * @param proxies the Proxies
+     * @param startTime the time the operation started
+     */
+    protected void reportAsyncAccessLocallyDuration(
+            ArrayList<Proxy> proxies,
+            long             startTime )
+    {
+        long duration = System.currentTimeMillis() - startTime;
+        synchronized( proxies ) {
+            for( Proxy current : proxies ) {
+                current.getMetrics().accessLocallyCompleted( duration );
+            }
+        }
+    }
+
+    /**
+     * Remove an AccessLocallyFuture from the pending table once it has completed.
+     *
+     * @param future the AccessLocallyFuture
+     */
+    protected void unregisterAccessLocallyFuture(
+            AccessLocallyFuture future )
+    {
+        synchronized( theAsyncAccessLocallyPending ) {
+            for( NetMeshObjectAccessSpecification current : future.getPathsToObjects() ) {
+                NetMeshObjectIdentifier id = current.getNetMeshObjectIdentifier();
+                if( id == null ) {
+                    continue;
+                }
+                ArrayList<AccessLocallyFuture> found = theAsyncAccessLocallyPending.get( id );
+                if( found != null ) {
+                    found.remove( future );
+                    if( found.isEmpty() ) {
+                        theAsyncAccessLocallyPending.remove( id );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Smart factory method for the ScheduledExecutorService that times out accessLocallyAsync operations.
+     * Its single Thread never waits for a response, it only fires timeouts.
+     *
+     * @return the ScheduledExecutorService
+     */
+    protected ScheduledExecutorService obtainAsyncAccessLocallyTimer()
+    {
+        synchronized( theAsyncAccessLocallyPending ) {
+            if( theAsyncAccessLocallyTimer == null ) {
+                final String name = "AccessLocallyAsyncTimer-" + getIdentifier().toExternalForm();
+
+                theAsyncAccessLocallyTimer = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactory() {
+                            public Thread newThread(
+                                    Runnable r )
+                            {
+                                Thread ret = new Thread( r, name );
+                                ret.setDaemon( true );
+                                return ret;
+                            }
+                        } );
+            }
+            return theAsyncAccessLocallyTimer;
+        }
+    }
+
+    /**
+     * Determine NetMeshObjects requested via accessLocallyAsync that arrived in this Transaction.
+     *
+     * @param tx the Transaction that was committed
+     */
+    protected void completeAsyncAccessLocally(
+            Transaction tx )
+    {
+        synchronized( theAsyncAccessLocallyPending ) {
+            if( theAsyncAccessLocallyPending.isEmpty() ) {
+                return;
+            }
+        }
+        for( Change current : tx.getChangeSet().getChanges() ) {
+            if( !( current instanceof AbstractNetMeshObjectCreatedEvent )) {
+                continue;
+            }
+            NetMeshObjectIdentifier id = ((AbstractNetMeshObjectCreatedEvent)current).getAffectedMeshObjectIdentifier();
+
+            AccessLocallyFuture [] waiting;
+            synchronized( theAsyncAccessLocallyPending ) {
+                ArrayList<AccessLocallyFuture> found = theAsyncAccessLocallyPending.get( id );
+                if( found == null ) {
+                    continue;
+                }
+                waiting = found.toArray( new AccessLocallyFuture[ found.size() ] );
+            }
+            NetMeshObject arrived = findMeshObjectByIdentifier( id );
+            if( arrived == null ) {
+                continue;
+            }
+            for( AccessLocallyFuture future : waiting ) {
+                future.replicaArrived( arrived );
+            }
+        }
+    }
+
     /**
      * This internal helper strips loops and other insecure and non-sensical things
      * out of a NetMeshObjectAccessSpecification. (FIXME: this needs to cover more cases)
@@ -875,6 +1447,26 @@ public abstract class AnetMeshBase
         }
         return raw;
     }
+
+    /**
+     * Determine the NetMeshObjectAccessSpecification to send to the NetMeshBase named by the first
+     * element of a path. Usually, that element is stripped. However, if it carries a ScopeSpecification,
+     * it is kept, so the partner learns about the requested scope; the partner strips it itself
+     * in {@link #correctPath}.
+     *
+     * @param path the path, starting with the partner NetMeshBase
+     * @return the path to send to the partner NetMeshBase
+     */
+    protected NetMeshObjectAccessSpecification nextHopPath(
+            NetMeshObjectAccessSpecification path )
+    {
+        NetMeshBaseAccessSpecification [] accessPath = path.getAccessPath();
+        int                               start      = accessPath[0].getScopeSpecification() != null ? 0 : 1;
+
+        return theNetMeshObjectAccessSpecificationFactory.obtain(
+                ArrayHelper.subarray( accessPath, start, NetMeshBaseAccessSpecification.class ),
+                path.getNetMeshObjectIdentifier() );
+    }
     
     /**
      * <p>Obtain a manager for MeshObject lifecycles.</p>
@@ -1081,6 +1673,39 @@ public abstract class AnetMeshBase
         }
     }
 
+    /**
+     * Obtain the ExecutorService on which the Proxies of this NetMeshBase process incoming
+     * messages, if they do not process them on the Thread that delivers them. Threads are
+     * created as needed, so a Proxy waiting for replicas never keeps another Proxy from
+     * processing the messages that deliver them; idle Threads go away after a while.
+     * It is shut down when this NetMeshBase dies.
+     *
+     * @return the ExecutorService
+     * @throws RejectedExecutionException thrown if this NetMeshBase is dead
+     */
+    public ExecutorService getIncomingMessageExecutor()
+    {
+        synchronized( theThreadProxyTable ) {
+            if( isDead() ) {
+                throw new RejectedExecutionException( "NetMeshBase is dead: " + getIdentifier().toExternalForm() );
+            }
+            if( theIncomingMessageExecutor == null ) {
+                final String name = "XprisoIncoming-" + getIdentifier().toExternalForm();
+
+                theIncomingMessageExecutor = Executors.newCachedThreadPool( new ThreadFactory() {
+                        public Thread newThread(
+                                Runnable r )
+                        {
+                            Thread ret = new Thread( r, name );
+                            ret.setDaemon( true );
+                            return ret;
+                        }
+                });
+            }
+            return theIncomingMessageExecutor;
+        }
+    }
+
     /**
      * Obtain the underlying AccessLocallySynchronizer for Xpriso communication.
      * Not to be called by the application programmer.
@@ -1183,6 +1808,185 @@ public abstract class AnetMeshBase
 
     }
 
+    /**
+     * Attempt to obtain update rights for a set of NetMeshObjects at the same time.
+     *
+     * @param toLock the NetMeshObjects for which update rights shall be obtained
+     * @return for each NetMeshObject, in the same sequence, true if we have update rights
+     */
+    public boolean [] tryToObtainLocks(
+            NetMeshObject [] toLock )
+    {
+        return tryToObtainLocks( toLock, -1L );
+    }
+
+    /**
+     * Attempt to obtain update rights for a set of NetMeshObjects at the same time. Specify a timeout
+     * in milliseconds.
+     *
+     * @param toLock the NetMeshObjects for which update rights shall be obtained
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @return for each NetMeshObject, in the same sequence, true if we have update rights
+     */
+    public boolean [] tryToObtainLocks(
+            NetMeshObject [] toLock,
+            long             duration )
+    {
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( this, "tryToObtainLocks", toLock, duration );
+        }
+
+        boolean [] ret = new boolean[ toLock.length ];
+
+        // we need to group by Proxy
+        LinkedHashMap<Proxy,ArrayList<NetMeshObject>> chunks = new LinkedHashMap<Proxy,ArrayList<NetMeshObject>>();
+
+        for( int i=0 ; i<toLock.length ; ++i ) {
+            if( toLock[i] == null ) {
+                continue;
+            }
+            if( toLock[i].hasLock() ) {
+                ret[i] = true;
+                continue;
+            }
+            addToChunk( chunks, toLock[i].getProxyTowardsLockReplica(), toLock[i] );
+        }
+        if( chunks.isEmpty() ) {
+            return ret;
+        }
+
+        long actualDuration = 0L;
+        try {
+            theAccessLocallySynchronizer.beginTransaction();
+
+            for( Map.Entry<Proxy,ArrayList<NetMeshObject>> current : chunks.entrySet() ) {
+                ArrayList<NetMeshObject> chunk = current.getValue();
+
+                long requestedDuration = current.getKey().tryToObtainLocks( chunk.toArray( new NetMeshObject[ chunk.size() ] ), duration );
+                actualDuration = Math.max( actualDuration, requestedDuration );
+            }
+            if( actualDuration > duration && duration >= 0L ) {
+                actualDuration = duration;
+            }
+            theAccessLocallySynchronizer.join( actualDuration );
+
+            theAccessLocallySynchronizer.endTransaction();
+
+        } catch( ReturnSynchronizerException ex ) {
+            log.error( ex );
+        } catch( InterruptedException ex ) {
+            log.error( ex );
+        }
+
+        for( int i=0 ; i<toLock.length ; ++i ) {
+            if( toLock[i] != null && !ret[i] ) {
+                ret[i] = ((AnetMeshObject)toLock[i]).lockRequestCompleted();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Attempt to obtain home replica status for a set of NetMeshObjects at the same time.
+     *
+     * @param toObtain the NetMeshObjects for which home replica status shall be obtained
+     * @return for each NetMeshObject, in the same sequence, true if we have home replica status
+     */
+    public boolean [] tryToObtainHomeReplicas(
+            NetMeshObject [] toObtain )
+    {
+        return tryToObtainHomeReplicas( toObtain, -1L );
+    }
+
+    /**
+     * Attempt to obtain home replica status for a set of NetMeshObjects at the same time. Specify a timeout
+     * in milliseconds.
+     *
+     * @param toObtain the NetMeshObjects for which home replica status shall be obtained
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @return for each NetMeshObject, in the same sequence, true if we have home replica status
+     */
+    public boolean [] tryToObtainHomeReplicas(
+            NetMeshObject [] toObtain,
+            long             duration )
+    {
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( this, "tryToObtainHomeReplicas", toObtain, duration );
+        }
+
+        boolean [] ret = new boolean[ toObtain.length ];
+
+        // we need to group by Proxy
+        LinkedHashMap<Proxy,ArrayList<NetMeshObject>> chunks = new LinkedHashMap<Proxy,ArrayList<NetMeshObject>>();
+
+        for( int i=0 ; i<toObtain.length ; ++i ) {
+            if( toObtain[i] == null ) {
+                continue;
+            }
+            if( toObtain[i].isHomeReplica() ) {
+                ret[i] = true;
+                continue;
+            }
+            addToChunk( chunks, toObtain[i].getProxyTowardsHomeReplica(), toObtain[i] );
+        }
+        if( chunks.isEmpty() ) {
+            return ret;
+        }
+
+        long actualDuration = 0L;
+        try {
+            theAccessLocallySynchronizer.beginTransaction();
+
+            for( Map.Entry<Proxy,ArrayList<NetMeshObject>> current : chunks.entrySet() ) {
+                ArrayList<NetMeshObject> chunk = current.getValue();
+
+                long requestedDuration = current.getKey().tryToObtainHomeReplicas( chunk.toArray( new NetMeshObject[ chunk.size() ] ), duration );
+                actualDuration = Math.max( actualDuration, requestedDuration );
+            }
+            if( actualDuration > duration && duration >= 0L ) {
+                actualDuration = duration;
+            }
+            theAccessLocallySynchronizer.join( actualDuration );
+
+            theAccessLocallySynchronizer.endTransaction();
+
+        } catch( ReturnSynchronizerException ex ) {
+            log.error( ex );
+        } catch( InterruptedException ex ) {
+            log.error( ex );
+        }
+
+        for( int i=0 ; i<toObtain.length ; ++i ) {
+            if( toObtain[i] != null && !ret[i] ) {
+                ret[i] = ((AnetMeshObject)toObtain[i]).homeReplicaRequestCompleted();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Helper method to add a NetMeshObject to the chunk of NetMeshObjects for a Proxy.
+     *
+     * @param chunks the chunks, keyed by Proxy
+     * @param p the Proxy, if any
+     * @param obj the NetMeshObject
+     */
+    protected static void addToChunk(
+            Map<Proxy,ArrayList<NetMeshObject>> chunks,
+            Proxy                               p,
+            NetMeshObject                       obj )
+    {
+        if( p == null ) {
+            return; // nothing to do here
+        }
+        ArrayList<NetMeshObject> chunk = chunks.get( p );
+        if( chunk == null ) {
+            chunk = new ArrayList<NetMeshObject>();
+            chunks.put( p, chunk );
+        }
+        chunk.add( obj );
+    }
+
     /**
      * Set a XprisoMessageLogger for all incoming and outgoing XprisoMessages.
      *
@@ -1213,13 +2017,40 @@ public abstract class AnetMeshBase
     protected void internalDie(
             boolean isPermanent )
     {
+        ArrayList<AccessLocallyFuture> stillPending = new ArrayList<AccessLocallyFuture>();
+        synchronized( theAsyncAccessLocallyPending ) {
+            if( theAsyncAccessLocallyTimer != null ) {
+                theAsyncAccessLocallyTimer.shutdownNow();
+                theAsyncAccessLocallyTimer = null;
+            }
+            for( ArrayList<AccessLocallyFuture> current : theAsyncAccessLocallyPending.values() ) {
+                for( AccessLocallyFuture future : current ) {
+                    if( !stillPending.contains( future )) {
+                        stillPending.add( future );
+                    }
+                }
+            }
+        }
+        for( AccessLocallyFuture current : stillPending ) {
+            current.failRemaining( new IllegalStateException( "NetMeshBase is dead: " + getIdentifier().toExternalForm() ));
+        }
+
         theProxyManager.die( isPermanent );
 
         theProxyManager = null;
+
+        synchronized( theThreadProxyTable ) {
+            if( theIncomingMessageExecutor != null ) {
+                theIncomingMessageExecutor.shutdownNow();
+                theIncomingMessageExecutor = null;
+            }
+        }
     }
 
     /**
-     * Tell the Proxies once a Transaction has been committed.
+     * Tell the Proxies once a Transaction has been committed. Only the Proxies that replicate
+     * at least one of the affected NetMeshObjects are told, and only about the NetChanges that
+     * may concern them, so the cost depends on the number of replicas, not the number of Proxies.
      *
      * @param tx Transaction the Transaction that was committed
      */
@@ -1230,17 +2061,57 @@ public abstract class AnetMeshBase
         super.transactionCommittedHook( tx );
 
         if( !isDead() ) {
-            for( Proxy current : proxies() ) {
+            for( Map.Entry<Proxy,ArrayList<NetChange>> current : indexChangesByProxy( tx ).entrySet() ) {
                 try {
-                    current.transactionCommitted( tx );
+                    ArrayList<NetChange> relevant = current.getValue();
+
+                    current.getKey().transactionCommitted( tx, relevant.toArray( new NetChange[ relevant.size() ] ));
 
                 } catch( Throwable t ) {
                     log.error( getIdentifier(), t ); // defensively
                 }
             }
+            completeAsyncAccessLocally( tx );
         }
     }
 
+    /**
+     * Determine, for each Proxy, the NetChanges in a committed Transaction that may have to be
+     * forwarded through it. The NetChanges for each Proxy are kept in the sequence in which they
+     * occurred in the Transaction.
+     *
+     * @param tx the committed Transaction
+     * @return the NetChanges, keyed by Proxy
+     */
+    protected Map<Proxy,ArrayList<NetChange>> indexChangesByProxy(
+            Transaction tx )
+    {
+        Change [] changes = tx.getChangeSet().getChanges();
+
+        LinkedHashMap<Proxy,ArrayList<NetChange>> ret = new LinkedHashMap<Proxy,ArrayList<NetChange>>();
+
+        for( Change current : changes ) {
+            NetChange realCurrent = (NetChange) current;
+
+            Proxy [] recipients = Utils.potentialRecipients( realCurrent, this );
+            if( recipients == null ) {
+                continue;
+            }
+            for( Proxy recipient : recipients ) {
+                if( recipient == null ) {
+                    continue;
+                }
+                ArrayList<NetChange> found = ret.get( recipient );
+                if( found == null ) {
+                    found = new ArrayList<NetChange>();
+                    ret.put( recipient, found );
+                }
+                found.add( realCurrent );
+            }
+        }
+        return ret;
+    }
+
     /**
      * Helper method to prefix an array of NetMeshObjectAccessSpecifications with
      * the same NetMeshBaseAccessSpecification.
@@ -1373,6 +2244,22 @@ public abstract class AnetMeshBase
      */
     protected XprisoMessageLogger theMessageLogger;
 
+    /**
+     * The accessLocallyAsync requests that have not completed yet, keyed by the identifiers they are waiting for.
+     */
+    protected final HashMap<NetMeshObjectIdentifier,ArrayList<AccessLocallyFuture>> theAsyncAccessLocallyPending
+            = new HashMap<NetMeshObjectIdentifier,ArrayList<AccessLocallyFuture>>();
+
+    /**
+     * Times out accessLocallyAsync operations. Allocated when needed.
+     */
+    protected ScheduledExecutorService theAsyncAccessLocallyTimer;
+
+    /**
+     * The ExecutorService on which the Proxies process incoming messages. Allocated when needed.
+     */
+    protected ExecutorService theIncomingMessageExecutor;
+
     /**
      * If false, we don't allow non-local MeshObject creation. This is the default, but for
      * test setups it is convenient if it can be overridden easily somewhere.
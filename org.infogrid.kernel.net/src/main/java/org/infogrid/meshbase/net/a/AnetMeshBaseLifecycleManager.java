@@ -66,7 +66,6 @@ import org.infogrid.modelbase.ModelBase;
 import org.infogrid.util.ArrayHelper;
 import org.infogrid.util.FactoryException;
 import org.infogrid.util.IsDeadException;
-import org.infogrid.util.RemoteQueryTimeoutException;
 import org.infogrid.util.ReturnSynchronizerException;
 import org.infogrid.util.logging.Log;
 
@@ -626,15 +625,17 @@ public class AnetMeshBaseLifecycleManager
                 throw new MustNotDeleteHomeObjectException( home );
             }
         }
+        // obtain all locks with one round trip per Proxy
+        NetMeshObject [] toLock = new NetMeshObject[ theObjects.length ];
         for( int i=0 ; i<theObjects.length ; ++i ) {
-            try {
-                ((AnetMeshObject)theObjects[i]).tryToObtainLock();
+            toLock[i] = (NetMeshObject) theObjects[i];
+        }
+        boolean [] locked = ((NetMeshBase) theMeshBase).tryToObtainLocks( toLock );
 
-            } catch( RemoteQueryTimeoutException ex ) {
-                log.warn( ex );
-                throw new CannotObtainLockException( (NetMeshObject) theObjects[i], ex );
+        for( int i=0 ; i<theObjects.length ; ++i ) {
+            if( !locked[i] ) {
+                throw new CannotObtainLockException( toLock[i] );
             }
-
             ((AnetMeshObject)theObjects[i]).checkPermittedDelete(); // this may throw NotPermittedException
         }
         for( int i=0 ; i<theObjects.length ; ++i ) {
@@ -175,13 +175,37 @@ public class ExternalizedProxyXmlEncoder
         throws
             DecodingException,
             IOException
+    {
+        ExternalizedProxyXmlEncoder worker = (ExternalizedProxyXmlEncoder) obtainThreadWorker();
+        try {
+            return worker.decodeExternalizedProxyOnThisThread( contentAsStream, mb );
+
+        } finally {
+            releaseThreadWorker( worker );
+        }
+    }
+
+    /**
+     * Deserialize a ExternalizedProxy from a stream, using this instance's parser and parse state.
+     * This must only be invoked on a thread worker obtained from obtainThreadWorker.
+     * 
+     * @param contentAsStream the byte [] stream in which the ExternalizedProxy is encoded
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return return the just-instantiated ExternalizedProxy
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected ExternalizedProxy decodeExternalizedProxyOnThisThread(
+            InputStream contentAsStream,
+            NetMeshBase mb )
+        throws
+            DecodingException,
+            IOException
     {
         theMeshBase = mb;
 
         try {
-            synchronized( theParser ) {
-                theParser.parse( contentAsStream, this );
-            }
+            theParser.parse( contentAsStream, this );
 
             return theProxyBeingParsed;
 
@@ -193,6 +217,17 @@ public class ExternalizedProxyXmlEncoder
         }
     }
 
+    /**
+     * Create a new thread worker.
+     *
+     * @return the thread worker
+     */
+    @Override
+    protected ExternalizedProxyXmlEncoder createThreadWorker()
+    {
+        return new ExternalizedProxyXmlEncoder();
+    }
+
     /**
      * Invoked when no previous start-element parsing rule has matched. Allows subclasses to add to parsing.
      *
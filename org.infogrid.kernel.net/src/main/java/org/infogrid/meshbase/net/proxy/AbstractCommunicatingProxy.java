@@ -15,7 +15,12 @@
 package org.infogrid.meshbase.net.proxy;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
 import org.infogrid.comm.MessageEndpoint;
 import org.infogrid.comm.MessageEndpointIsDeadException;
 import org.infogrid.comm.ReceivingMessageEndpoint;
@@ -47,12 +52,14 @@ import org.infogrid.meshbase.net.xpriso.XprisoMessage;
 import org.infogrid.meshbase.net.xpriso.XprisoMessageHelper;
 import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
 import org.infogrid.meshbase.transaction.CannotApplyChangeException;
+import org.infogrid.meshbase.net.transaction.NetChange;
 import org.infogrid.meshbase.transaction.Transaction;
 import org.infogrid.meshbase.transaction.TransactionException;
 import org.infogrid.util.CreateWhenNeeded;
 import org.infogrid.util.CreateWhenNeededException;
 import org.infogrid.util.FactoryException;
 import org.infogrid.util.IsDeadException;
+import org.infogrid.util.ResourceHelper;
 import org.infogrid.util.ReturnSynchronizerException;
 import org.infogrid.util.SmartFactory;
 import org.infogrid.util.logging.Dumper;
@@ -151,6 +158,50 @@ public abstract class AbstractCommunicatingProxy
         return instructions.getExpectedObtainReplicasWait();
     }
 
+    /**
+     * <p>Ask this Proxy to obtain from its partner NetMeshBase replicas with the enclosed
+     * specification, without any Thread waiting for the response.
+     * Do not acquire the lock; that would be a separate operation.</p>
+     * <p>This call returns immediately. The given CompletableFuture is completed with the partner's
+     * response once it has been processed, i.e. once the conveyed replicas have been created locally.
+     * The caller may complete it earlier, e.g. exceptionally after a timeout; then the Proxy forgets
+     * about the request, and treats a late response like any other incoming message.</p>
+     *
+     * @param paths the NetMeshObjectAccessSpecifications specifying which replicas should be obtained
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @param whenResponded the CompletableFuture to complete when the response has been processed
+     * @return the duration, in milliseconds, that the Proxy believes this operation will take
+     */
+    public long obtainReplicasAsynchronously(
+            NetMeshObjectAccessSpecification [] paths,
+            long                                duration,
+            CompletableFuture<XprisoMessage>    whenResponded )
+    {
+        final long requestId;
+        synchronized( theAsynchronousRequests ) {
+            requestId = theNextAsynchronousRequestId++;
+            theAsynchronousRequests.put( requestId, whenResponded );
+        }
+        whenResponded.whenComplete( new BiConsumer<XprisoMessage,Throwable>() {
+                public void accept(
+                        XprisoMessage response,
+                        Throwable     t )
+                {
+                    // also when the caller stopped waiting, e.g. after a timeout
+                    synchronized( theAsynchronousRequests ) {
+                        theAsynchronousRequests.remove( requestId );
+                    }
+                }
+        });
+
+        CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing = startCreatingPotentialOutgoingMessage();
+
+        ProxyProcessingInstructions instructions = theProxyPolicy.calculateForObtainReplicasAsynchronously( paths, duration, requestId, this, perhapsOutgoing );
+        performInstructions( instructions );
+
+        return instructions.getExpectedObtainReplicasWait();
+    }
+
     /**
      * <p>Ask this Proxy to obtain the lock for one or more replicas from the
      * partner NetMeshBase.</p>
@@ -293,6 +344,25 @@ public abstract class AbstractCommunicatingProxy
         return instructions.getExpectedResynchronizeWait();
     }
 
+    /**
+     * Convey replicas to the partner NetMeshBase in response to an earlier request for
+     * first-time objects, whose answer had to be obtained from further away first.
+     *
+     * @param requested the NetMeshObjectAccessSpecifications as requested by the partner
+     * @param found the found NetMeshObjects, in the same sequence, or null if not found
+     * @param responseId the request id of the partner's XprisoMessage to which this responds
+     */
+    public void respondWithReplicas(
+            NetMeshObjectAccessSpecification [] requested,
+            NetMeshObject []                    found,
+            long                                responseId )
+    {
+        CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing = startCreatingPotentialOutgoingMessage();
+
+        ProxyProcessingInstructions instructions = theProxyPolicy.calculateForRespondWithReplicas( requested, found, responseId, this, perhapsOutgoing );
+        performInstructions( instructions );
+    }
+
     /**
      * Ask this Proxy to cancel the leases for the given replicas from its partner NetMeshBase.
      *
@@ -349,6 +419,11 @@ public abstract class AbstractCommunicatingProxy
             theEndpoint.gracefulDie();
         }
 
+        PeriodicFreshenScheduler scheduler = getPeriodicFreshenScheduler();
+        if( scheduler != null ) {
+            scheduler.proxyDied( this );
+        }
+
         if( isPermanent ) {
             theFactory.remove( getPartnerMeshBaseIdentifier() );
         }
@@ -375,7 +450,37 @@ public abstract class AbstractCommunicatingProxy
     }
 
     /**
-     * Called when one or more incoming messages have arrived.
+     * Indicates that a Transaction has been committed, and that some of its NetChanges
+     * may have to be forwarded through this Proxy.
+     *
+     * @param theTransaction the Transaction that was committed
+     * @param relevantChanges the NetChanges in the Transaction that may concern this Proxy, in sequence
+     */
+    public void transactionCommitted(
+            Transaction  theTransaction,
+            NetChange [] relevantChanges )
+    {
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( this, "transactionCommitted", theTransaction, relevantChanges );
+        }
+
+        CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing = startCreatingPotentialOutgoingMessage();
+
+        ProxyProcessingInstructions instructions = theProxyPolicy.calculateForTransactionCommitted( theTransaction, relevantChanges, this, perhapsOutgoing );
+
+        performInstructions( instructions );
+    }
+
+    /**
+     * <p>Called when one or more incoming messages have arrived.</p>
+     * <p>Incoming messages pass through three stages: they are decoded and consolidated on the
+     *    Thread that delivers them; then the ProxyPolicy calculates the ProxyProcessingInstructions for them;
+     *    then those instructions are applied. By default, all three stages run on the Thread that
+     *    delivers the messages. If the UseIncomingPipeline resource is set, the last two stages instead
+     *    run, one after the other, on a Thread of the NetMeshBase's incoming message executor, so that
+     *    a slow partner, or a large batch of conveyed NetMeshObjects, does not hold up the delivery of
+     *    messages to other Proxies. Different Proxies then process their messages in parallel, while
+     *    the messages for any one Proxy are always processed in sequence.</p>
      *
      * @param endpoint the MessageEndpoint sending this event
      * @param incoming the incoming messages
@@ -392,11 +497,106 @@ public abstract class AbstractCommunicatingProxy
         if( msgLogger != null ) {
             msgLogger.messageArrived( theMeshBase, incoming );
         }
-        CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing = startCreatingPotentialOutgoingMessage();
+        getMetrics().messagesReceived( incoming.size() );
+
+        List<XprisoMessage> consolidated = XprisoMessageHelper.consolidate( incoming );
+
+        if( USE_INCOMING_PIPELINE ) {
+            enqueueIncoming( endpoint, consolidated );
+        } else {
+            processIncoming( endpoint, consolidated );
+        }
+    }
+
+    /**
+     * Append consolidated incoming messages to the queue of messages to be processed by this
+     * Proxy, and make sure they will be processed.
+     *
+     * @param endpoint the MessageEndpoint through which the messages arrived
+     * @param consolidated the consolidated incoming messages
+     */
+    protected void enqueueIncoming(
+            ReceivingMessageEndpoint<XprisoMessage> endpoint,
+            List<XprisoMessage>                     consolidated )
+    {
+        boolean schedule;
+        synchronized( theIncomingQueue ) {
+            theIncomingQueue.add( new IncomingMessages( endpoint, consolidated ));
+
+            schedule = !theIncomingIsScheduled;
+            theIncomingIsScheduled = true;
+        }
+        if( schedule ) {
+            try {
+                theMeshBase.getIncomingMessageExecutor().submit( new Runnable() {
+                        public void run()
+                        {
+                            drainIncoming();
+                        }
+                });
+
+            } catch( RejectedExecutionException ex ) {
+                // the NetMeshBase has died
+                if( log.isDebugEnabled() ) {
+                    log.debug( ex );
+                }
+                synchronized( theIncomingQueue ) {
+                    theIncomingQueue.clear();
+                    theIncomingIsScheduled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Process queued incoming messages in sequence, until there are none left.
+     */
+    protected void drainIncoming()
+    {
+        boolean drained = false;
+        try {
+            while( true ) {
+                IncomingMessages current;
+                synchronized( theIncomingQueue ) {
+                    current = theIncomingQueue.poll();
+                    if( current == null ) {
+                        theIncomingIsScheduled = false;
+                        drained = true;
+                        return;
+                    }
+                }
+                try {
+                    processIncoming( current.theEndpoint, current.theMessages );
+
+                } catch( RuntimeException ex ) {
+                    log.error( ex );
+                }
+            }
+        } finally {
+            if( !drained ) {
+                // so the next incoming message schedules this Proxy again
+                synchronized( theIncomingQueue ) {
+                    theIncomingIsScheduled = false;
+                }
+            }
+        }
+    }
 
-        prepareMessageReceived( endpoint, incoming );
+    /**
+     * Process consolidated incoming messages on the current Thread.
+     *
+     * @param endpoint the MessageEndpoint through which the messages arrived
+     * @param consolidated the consolidated incoming messages
+     */
+    protected void processIncoming(
+            ReceivingMessageEndpoint<XprisoMessage> endpoint,
+            List<XprisoMessage>                     consolidated )
+    {
+        CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing = startCreatingPotentialOutgoingMessage();
 
         try {
+            prepareMessageReceived( endpoint, consolidated );
+
             theMeshBase.registerIncomingProxy( this );
 
         } catch( IsDeadException ex ) {
@@ -407,7 +607,7 @@ public abstract class AbstractCommunicatingProxy
         }
 
         try {
-            internalMessageReceived( endpoint, incoming );
+            internalMessageReceived( endpoint, consolidated );
 
         } catch( RuntimeException ex ) {
             log.error( ex );
@@ -435,35 +635,77 @@ public abstract class AbstractCommunicatingProxy
      * easier.
      *
      * @param endpoint the MessageEndpoint sending this event
-     * @param incoming the incoming messages
+     * @param incoming the incoming messages, consolidated already
      */
     protected void internalMessageReceived(
             ReceivingMessageEndpoint<XprisoMessage> endpoint,
             List<XprisoMessage>                     incoming )
     {
-        List<XprisoMessage> consolidated = XprisoMessageHelper.consolidate( incoming );
+        for( XprisoMessage current : incoming ) {
+            long                             responseId      = current.getResponseId();
+            CompletableFuture<XprisoMessage> asyncIsWaiting  = null;
+            if( responseId != 0 ) {
+                synchronized( theAsynchronousRequests ) {
+                    asyncIsWaiting = theAsynchronousRequests.get( responseId );
+                }
+            }
+            boolean callIsWaiting = asyncIsWaiting != null || theWaitEndpoint.isCallWaitingFor( responseId );
 
-        for( XprisoMessage current : consolidated ) {
-            long    responseId    = current.getResponseId();
-            boolean callIsWaiting = theWaitEndpoint.isCallWaitingFor( responseId );
+            try {
+                ProxyProcessingInstructions instructions = calculateForIncomingMessage( endpoint, current, callIsWaiting );
 
-            ProxyProcessingInstructions instructions = theProxyPolicy.calculateForIncomingMessage( endpoint, current, callIsWaiting, this, thePotentialOutgoingMessage );
+                // responses to asynchronous requests are not known to the AccessLocallySynchronizer
+                applyIncomingMessage( instructions, ( callIsWaiting && asyncIsWaiting == null ) ? responseId : null );
 
-            AccessLocallySynchronizer synchronizer = theMeshBase.getAccessLocallySynchronizer();
-            try {
-                synchronizer.beginTransaction();
+            } finally {
+                if( asyncIsWaiting != null ) {
+                    asyncIsWaiting.complete( current );
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculation stage for one incoming message: ask our ProxyPolicy what to do.
+     *
+     * @param endpoint the MessageEndpoint through which the message arrived
+     * @param incoming the incoming message
+     * @param callIsWaiting if true, a local call is waiting for this message
+     * @return the ProxyProcessingInstructions, or null
+     */
+    protected ProxyProcessingInstructions calculateForIncomingMessage(
+            ReceivingMessageEndpoint<XprisoMessage> endpoint,
+            XprisoMessage                           incoming,
+            boolean                                 callIsWaiting )
+    {
+        return theProxyPolicy.calculateForIncomingMessage( endpoint, incoming, callIsWaiting, this, thePotentialOutgoingMessage );
+    }
+
+    /**
+     * Apply stage for one incoming message: perform the instructions, and wait until the
+     * NetMeshObjects they caused to be requested have arrived.
+     *
+     * @param instructions the ProxyProcessingInstructions
+     * @param queryIdOfOngoingQuery if this is not-null, this is to construct a response to an ongoing query with this query key
+     */
+    protected void applyIncomingMessage(
+            ProxyProcessingInstructions instructions,
+            Long                        queryIdOfOngoingQuery )
+    {
+        AccessLocallySynchronizer synchronizer = theMeshBase.getAccessLocallySynchronizer();
+        try {
+            synchronizer.beginTransaction();
 
-                performInstructions( instructions, callIsWaiting ? responseId : null );
+            performInstructions( instructions, queryIdOfOngoingQuery );
 
-                synchronizer.join();
+            synchronizer.join();
 
-                synchronizer.endTransaction();
+            synchronizer.endTransaction();
 
-            } catch( ReturnSynchronizerException ex ) {
-                log.error( ex );
-            } catch( InterruptedException ex ) {
-                log.error( ex );
-            }
+        } catch( ReturnSynchronizerException ex ) {
+            log.error( ex );
+        } catch( InterruptedException ex ) {
+            log.error( ex );
         }
     }
 
@@ -812,7 +1054,21 @@ public abstract class AbstractCommunicatingProxy
     protected void meshObjectModifiedDuringMessageProcessing(
             NetMeshObject modified )
     {
-        // do nothing on this level
+        PeriodicFreshenScheduler scheduler = getPeriodicFreshenScheduler();
+        if( scheduler != null ) {
+            scheduler.replicaUpdated( this, modified );
+        }
+    }
+
+    /**
+     * Obtain the PeriodicFreshenScheduler that freshens the replicas obtained through this
+     * Proxy, if its CoherenceSpecification asks for that.
+     *
+     * @return the PeriodicFreshenScheduler, or null if none
+     */
+    protected PeriodicFreshenScheduler getPeriodicFreshenScheduler()
+    {
+        return PeriodicFreshenScheduler.getSingleton();
     }
 
     /**
@@ -831,6 +1087,9 @@ public abstract class AbstractCommunicatingProxy
         if( msgLogger != null ) {
             msgLogger.messageSentSuccessfully( theMeshBase, msg );
         }
+        ProxyMetrics metrics = getMetrics();
+        metrics.messageSent();
+        updateQueueDepth( metrics );
     }
 
     /**
@@ -849,6 +1108,7 @@ public abstract class AbstractCommunicatingProxy
         if( msgLogger != null ) {
             msgLogger.messageToBeSent( theMeshBase, msg );
         }
+        updateQueueDepth( getMetrics() );
     }
 
     /**
@@ -862,6 +1122,24 @@ public abstract class AbstractCommunicatingProxy
             XprisoMessage                         msg )
     {
         proxyUpdated();
+
+        ProxyMetrics metrics = getMetrics();
+        metrics.messageResent();
+        updateQueueDepth( metrics );
+    }
+
+    /**
+     * Tell the ProxyMetrics how many messages are currently waiting to be sent, so the
+     * queue depth can be exported without looking at this Proxy.
+     *
+     * @param metrics the ProxyMetrics
+     */
+    protected void updateQueueDepth(
+            ProxyMetrics metrics )
+    {
+        if( metrics != NoopProxyMetrics.SINGLETON && theEndpoint != null ) {
+            metrics.queueDepthChanged( theEndpoint.messagesToBeSent().size() );
+        }
     }
 
     /**
@@ -913,6 +1191,14 @@ public abstract class AbstractCommunicatingProxy
         }
         theWaitEndpoint.disablingError( endpoint, msg, t );
 
+        ArrayList<CompletableFuture<XprisoMessage>> stillWaiting;
+        synchronized( theAsynchronousRequests ) {
+            stillWaiting = new ArrayList<CompletableFuture<XprisoMessage>>( theAsynchronousRequests.values() );
+        }
+        for( CompletableFuture<XprisoMessage> current : stillWaiting ) {
+            current.completeExceptionally( t );
+        }
+
         proxyUpdated();
     }
 
@@ -1007,4 +1293,72 @@ public abstract class AbstractCommunicatingProxy
      * The ReturnSynchronizerEndpoint that makes waiting for responses to requests much easier.
      */
     protected ReturnSynchronizerEndpoint<XprisoMessage> theWaitEndpoint;
+
+    /**
+     * The requests sent via obtainReplicasAsynchronously whose responses have not been processed yet,
+     * keyed by request id.
+     */
+    protected final HashMap<Long,CompletableFuture<XprisoMessage>> theAsynchronousRequests
+            = new HashMap<Long,CompletableFuture<XprisoMessage>>();
+
+    /**
+     * The request id to use for the next request sent via obtainReplicasAsynchronously.
+     */
+    protected long theNextAsynchronousRequestId = ASYNCHRONOUS_REQUEST_ID_BASE;
+
+    /**
+     * Consolidated incoming messages that have not been processed yet, in sequence of arrival.
+     */
+    protected final LinkedList<IncomingMessages> theIncomingQueue = new LinkedList<IncomingMessages>();
+
+    /**
+     * True if a Thread has been scheduled, or is running, to process theIncomingQueue.
+     */
+    protected boolean theIncomingIsScheduled;
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( AbstractCommunicatingProxy.class );
+
+    /**
+     * If true, incoming messages are processed on a Thread of the NetMeshBase, not the Thread that delivers them.
+     */
+    protected static final boolean USE_INCOMING_PIPELINE = theResourceHelper.getResourceBooleanOrDefault( "UseIncomingPipeline", false );
+
+    /**
+     * The first request id used by obtainReplicasAsynchronously. This keeps those request ids
+     * disjoint from the ones that the ReturnSynchronizerEndpoint hands out, which count up from 1.
+     */
+    protected static final long ASYNCHRONOUS_REQUEST_ID_BASE = 1L << 48;
+
+    /**
+     * Consolidated incoming messages, together with the MessageEndpoint through which they arrived.
+     */
+    protected static class IncomingMessages
+    {
+        /**
+         * Constructor.
+         *
+         * @param endpoint the MessageEndpoint through which the messages arrived
+         * @param messages the consolidated messages
+         */
+        public IncomingMessages(
+                ReceivingMessageEndpoint<XprisoMessage> endpoint,
+                List<XprisoMessage>                     messages )
+        {
+            theEndpoint = endpoint;
+            theMessages = messages;
+        }
+
+        /**
+         * The MessageEndpoint through which the messages arrived.
+         */
+        protected final ReceivingMessageEndpoint<XprisoMessage> theEndpoint;
+
+        /**
+         * The consolidated messages.
+         */
+        protected final List<XprisoMessage> theMessages;
+    }
 }
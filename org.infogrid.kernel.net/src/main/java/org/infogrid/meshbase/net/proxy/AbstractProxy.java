@@ -123,6 +123,23 @@ public abstract class AbstractProxy
         return theMeshBase;
     }
 
+    /**
+     * Obtain the replication metrics for the communication with the partner NetMeshBase.
+     *
+     * @return the ProxyMetrics, which may be a NoopProxyMetrics
+     */
+    public ProxyMetrics getMetrics()
+    {
+        ProxyManager factory = theFactory;
+        if( factory == null && theMeshBase.getAsProxyNameServer() instanceof ProxyManager ) {
+            factory = (ProxyManager) theMeshBase.getAsProxyNameServer(); // e.g. restored from storage
+        }
+        if( factory == null ) {
+            return NoopProxyMetrics.SINGLETON;
+        }
+        return factory.obtainMetricsFor( thePartnerIdentifier );
+    }
+
     /**
      * Obtain the CoherenceSpecification currently in effect.
      *
@@ -16,6 +16,8 @@ package org.infogrid.meshbase.net.proxy;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.function.BiConsumer;
 import org.infogrid.comm.ReceivingMessageEndpoint;
 import org.infogrid.mesh.MeshObject;
 import org.infogrid.mesh.NotPermittedException;
@@ -25,8 +27,10 @@ import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
 import org.infogrid.meshbase.net.CoherenceSpecification;
 import org.infogrid.meshbase.net.IterableNetMeshBase;
 import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseAccessSpecification;
 import org.infogrid.meshbase.net.NetMeshObjectAccessException;
 import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.ScopeSpecification;
 import org.infogrid.meshbase.net.transaction.NetChange;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectBecameDeadStateEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectDeletedEvent;
@@ -46,6 +50,7 @@ import org.infogrid.meshbase.net.transaction.ReplicaPurgedEvent;
 import org.infogrid.meshbase.net.transaction.Utils;
 import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
 import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.a.AccessLocallyFuture;
 import org.infogrid.meshbase.net.a.AccessLocallySynchronizer;
 import org.infogrid.meshbase.transaction.Change;
 import org.infogrid.meshbase.transaction.Transaction;
@@ -202,6 +207,40 @@ public abstract class AbstractProxyPolicy
         return ret;
     }
 
+    /**
+     * Determine the ProxyProcessingInstructions for obtaining one or more
+     * replicas via this Proxy, without any Thread waiting for the response.
+     *
+     * @param paths the NetMeshObjectAccessSpecification for finding the NetMeshObjects to be replicated
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @param requestId the request id to use, so the Proxy can correlate the response
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForObtainReplicasAsynchronously(
+            NetMeshObjectAccessSpecification []           paths,
+            long                                          duration,
+            long                                          requestId,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        ProxyProcessingInstructions ret = createInstructions();
+
+        ret.setRequestedFirstTimePaths( paths );
+        ret.setExpectectedObtainReplicasWait( calculateTimeoutDuration( duration, theDefaultRpcWaitDuration ));
+
+        ParserFriendlyXprisoMessage outgoing = perhapsOutgoing.obtain();
+
+        outgoing.addRequestedFirstTimeObjects( paths );
+        outgoing.setRequestId( requestId ); // the Proxy correlates the response, not the WaitEndpoint
+
+        ret.setStartCommunicating( true );
+        ret.setSendViaEndpoint( outgoing );
+
+        return ret;
+    }
+
     /**
      * Determine the ProxyProcessingInstructions for obtaining one or more
      * locks via this Proxy.
@@ -500,17 +539,57 @@ public abstract class AbstractProxyPolicy
             Transaction                                   tx,
             CommunicatingProxy                            proxy,
             CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        Change []    changes    = tx.getChangeSet().getChanges();
+        NetChange [] netChanges = new NetChange[ changes.length ];
+
+        for( int i=0 ; i<changes.length ; ++i ) {
+            netChanges[i] = (NetChange) changes[i];
+        }
+        return calculateForTransactionCommitted( tx, netChanges, proxy, perhapsOutgoing );
+    }
+
+    /**
+     * Given those NetChanges of a committed Transaction that may concern our partner Proxy,
+     * determine the ProxyProcessingInstructions for notifying it.
+     *
+     * @param tx the Transaction
+     * @param changes the NetChanges in the Transaction that may have to be forwarded, in sequence
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForTransactionCommitted(
+            Transaction                                   tx,
+            NetChange []                                  changes,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        return calculateForTransactionCommitted( changes, proxy, perhapsOutgoing );
+    }
+
+    /**
+     * Given some of the NetChanges of a committed Transaction, determine the ProxyProcessingInstructions
+     * for notifying our partner Proxy.
+     *
+     * @param changes the NetChanges that may have to be forwarded, in sequence
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForTransactionCommitted(
+            NetChange []                                  changes,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
     {
         ProxyProcessingInstructions ret = createInstructions();
         
         // ret.setReclaimedLockObjects( identifiers );
 
-        Change [] changes = tx.getChangeSet().getChanges();
-
         ArrayList<NetMeshObject> potentiallyConvey = new ArrayList<NetMeshObject>();
 
         for( int i=0 ; i<changes.length ; ++i ) {
-            NetChange current = (NetChange) changes[i];
+            NetChange current = changes[i];
             
             current.setResolver( proxy.getNetMeshBase() );
 
@@ -637,7 +716,7 @@ public abstract class AbstractProxyPolicy
         processIncomingEquivalentChanges(              proxy, ret, perhapsOutgoing );
         processIncomingDeleteChanges(                  proxy, ret, perhapsOutgoing );
 
-        if( incoming.getRequestId() != 0 ) {
+        if( incoming.getRequestId() != 0 && !ret.getResponseDeferred() ) {
             perhapsOutgoing.obtain().setResponseId( incoming.getRequestId() ); // make this message as a response
         }
 
@@ -658,7 +737,7 @@ public abstract class AbstractProxyPolicy
      * @param perhapsOutgoing the outgoing message being assembled
      */
     protected void processIncomingRequestedFirstTimeObjects(
-            Proxy                                         incomingProxy,
+            final Proxy                                   incomingProxy,
             ProxyProcessingInstructions                   ret,
             CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
     {
@@ -667,9 +746,29 @@ public abstract class AbstractProxyPolicy
 
         // requested first-time objects
         if( ArrayHelper.arrayHasContent( incoming.getRequestedFirstTimeObjects() ) ) {
+            final NetMeshObjectAccessSpecification [] requested = incoming.getRequestedFirstTimeObjects();
+
+            if( canForwardAsynchronously( theMeshBase, incoming )) {
+                // don't block this Thread while the request travels further; respond when the answer is in
+                final long requestId = incoming.getRequestId();
+
+                final AccessLocallyFuture future = theMeshBase.accessLocallyAsync( requested );
+                future.whenComplete( new BiConsumer<NetMeshObject [],Throwable>() {
+                        public void accept(
+                                NetMeshObject [] result,
+                                Throwable        t )
+                        {
+                            incomingProxy.respondWithReplicas( requested, result != null ? result : future.getPartialResult(), requestId );
+                        }
+                });
+
+                ret.setResponseDeferred( true );
+                return;
+            }
+
             NetMeshObject[] firstTimeObjects = null;
             try {
-                firstTimeObjects = theMeshBase.accessLocally( incoming.getRequestedFirstTimeObjects() );
+                firstTimeObjects = theMeshBase.accessLocally( requested );
             } catch( NetMeshObjectAccessException ex ) {
                 if( ex.isPartialResultAvailable() ) {
                     firstTimeObjects = ex.getBestEffortResult();
@@ -680,15 +779,202 @@ public abstract class AbstractProxyPolicy
             }
 
             if( firstTimeObjects != null ) {
-                for( int i=0 ; i<firstTimeObjects.length ; ++i ) {
-                    if( firstTimeObjects[i] != null ) {
-                        if( addPotentiallyConvey( firstTimeObjects[i], perhapsOutgoing, incomingProxy ) ) {
-                            ret.addRegisterReplicationIfNotAlready( firstTimeObjects[i] );
+                addFirstTimeObjectsConvey( theMeshBase, requested, firstTimeObjects, ret, perhapsOutgoing, incomingProxy );
+            }
+        }
+    }
+
+    /**
+     * Determine whether the first-time objects requested by an incoming XprisoMessage should be
+     * obtained asynchronously, with the response sent once they are in. This is the case if
+     * some of them need to be obtained from further away, and the partner is waiting for
+     * nothing else.
+     *
+     * @param theMeshBase the NetMeshBase processing the request
+     * @param incoming the incoming XprisoMessage
+     * @return true if the request should be forwarded asynchronously
+     */
+    protected boolean canForwardAsynchronously(
+            NetMeshBase   theMeshBase,
+            XprisoMessage incoming )
+    {
+        if( !thePipelineForwardedRequests || incoming.getRequestId() == 0 ) {
+            return false;
+        }
+        if(    ArrayHelper.arrayHasContent( incoming.getRequestedResynchronizeReplicas() )
+            || ArrayHelper.arrayHasContent( incoming.getRequestedFreshenReplicas() )
+            || ArrayHelper.arrayHasContent( incoming.getRequestedHomeReplicas() )
+            || ArrayHelper.arrayHasContent( incoming.getRequestedLockObjects() ))
+        {
+            return false; // the partner expects those in the response as well
+        }
+        for( NetMeshObjectAccessSpecification current : incoming.getRequestedFirstTimeObjects() ) {
+            NetMeshBaseAccessSpecification [] path = current.getAccessPath();
+            if( path == null || path.length == 0 ) {
+                continue; // we either have it, or nobody has
+            }
+            if( current.getNetMeshObjectIdentifier() != null && theMeshBase.findMeshObjectByIdentifier( current.getNetMeshObjectIdentifier() ) != null ) {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Convey first-time requested NetMeshObjects, and their requested neighborhoods.
+     *
+     * @param theMeshBase the NetMeshBase processing the request
+     * @param requested the NetMeshObjectAccessSpecifications, as received
+     * @param firstTimeObjects the found NetMeshObjects, in the same sequence
+     * @param ret the instructions being assembled
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @param incomingProxy the incoming Proxy
+     */
+    protected void addFirstTimeObjectsConvey(
+            NetMeshBase                                   theMeshBase,
+            NetMeshObjectAccessSpecification []           requested,
+            NetMeshObject []                              firstTimeObjects,
+            ProxyProcessingInstructions                   ret,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing,
+            Proxy                                         incomingProxy )
+    {
+        for( int i=0 ; i<firstTimeObjects.length ; ++i ) {
+            if( firstTimeObjects[i] != null ) {
+                if( addPotentiallyConvey( firstTimeObjects[i], perhapsOutgoing, incomingProxy ) ) {
+                    ret.addRegisterReplicationIfNotAlready( firstTimeObjects[i] );
+                }
+            }
+        }
+
+        // convey the requested neighborhoods, too, but only once the requested objects themselves are in
+        int budget = theMaxScopeConveyed;
+        for( int i=0 ; i<firstTimeObjects.length && budget > 0 ; ++i ) {
+            if( firstTimeObjects[i] != null ) {
+                ScopeSpecification scope = determineRequestedScope( theMeshBase, requested[i] );
+                if( scope != null ) {
+                    budget = addScopeConvey( firstTimeObjects[i], scope, budget, ret, perhapsOutgoing, incomingProxy );
+                }
+            }
+        }
+    }
+
+    /**
+     * Determine the ProxyProcessingInstructions for conveying NetMeshObjects that were requested
+     * for the first time, once they have been obtained from further away.
+     *
+     * @param requested the NetMeshObjectAccessSpecifications as requested by the partner
+     * @param found the found NetMeshObjects, in the same sequence, or null if not found
+     * @param responseId the request id of the incoming XprisoMessage to which this responds
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForRespondWithReplicas(
+            NetMeshObjectAccessSpecification []           requested,
+            NetMeshObject []                              found,
+            long                                          responseId,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        ProxyProcessingInstructions ret = createInstructions();
+
+        if( found != null ) {
+            addFirstTimeObjectsConvey( proxy.getNetMeshBase(), requested, found, ret, perhapsOutgoing, proxy );
+        }
+
+        ParserFriendlyXprisoMessage outgoing = perhapsOutgoing.obtain();
+        outgoing.setResponseId( responseId ); // even if empty: the partner is waiting for it
+
+        ret.setStartCommunicating( true );
+        ret.setSendViaEndpoint( outgoing );
+
+        return ret;
+    }
+
+    /**
+     * Determine the ScopeSpecification that the requester specified for this NetMeshBase, if any.
+     *
+     * @param theMeshBase the NetMeshBase processing the request
+     * @param requested the requested NetMeshObjectAccessSpecification, as received
+     * @return the ScopeSpecification, or null
+     */
+    protected ScopeSpecification determineRequestedScope(
+            NetMeshBase                      theMeshBase,
+            NetMeshObjectAccessSpecification requested )
+    {
+        NetMeshBaseAccessSpecification [] path = requested.getAccessPath();
+        if( path == null ) {
+            return null;
+        }
+        for( int i=path.length-1 ; i>=0 ; --i ) {
+            if( theMeshBase.getIdentifier().equals( path[i].getNetMeshBaseIdentifier() )) {
+                // same element that AnetMeshBase.correctPath strips
+                return path[i].getScopeSpecification();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Convey the NetMeshObjects in scope of a conveyed NetMeshObject. Only NetMeshObjects that are
+     * available locally are conveyed; this never causes additional network traffic.
+     *
+     * @param start the conveyed NetMeshObject
+     * @param scope the requested ScopeSpecification
+     * @param budget the maximum number of NetMeshObjects that may still be conveyed
+     * @param ret the instructions being assembled
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @param incomingProxy the incoming Proxy
+     * @return the remaining budget
+     */
+    protected int addScopeConvey(
+            NetMeshObject                                 start,
+            ScopeSpecification                            scope,
+            int                                           budget,
+            ProxyProcessingInstructions                   ret,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing,
+            Proxy                                         incomingProxy )
+    {
+        if( !( scope instanceof ScopeSpecification.SimpleStep )) {
+            log.warn( "Unsupported ScopeSpecification, ignoring: " + scope );
+            return budget;
+        }
+        int         steps = ((ScopeSpecification.SimpleStep) scope).getScope();
+        NetMeshBase mb    = start.getMeshBase();
+
+        // breadth-first, so the closest neighbors make it in if we run out of budget
+        HashSet<NetMeshObjectIdentifier> seen    = new HashSet<NetMeshObjectIdentifier>();
+        ArrayList<NetMeshObject>         current = new ArrayList<NetMeshObject>();
+
+        seen.add( start.getIdentifier() );
+        current.add( start );
+
+        for( int step=0 ; step<steps && budget > 0 && !current.isEmpty() ; ++step ) {
+            ArrayList<NetMeshObject> next = new ArrayList<NetMeshObject>();
+
+            for( NetMeshObject here : current ) {
+                for( NetMeshObjectIdentifier neighborId : here.getNeighborMeshObjectIdentifiers() ) {
+                    if( !seen.add( neighborId )) {
+                        continue;
+                    }
+                    NetMeshObject neighbor = mb.findMeshObjectByIdentifier( neighborId );
+                    if( neighbor == null ) {
+                        continue; // not here, and we don't go looking for it
+                    }
+                    next.add( neighbor );
+
+                    if( addPotentiallyConvey( neighbor, perhapsOutgoing, incomingProxy )) {
+                        ret.addRegisterReplicationIfNotAlready( neighbor );
+                        if( --budget <= 0 ) {
+                            return 0;
                         }
                     }
                 }
             }
+            current = next;
         }
+        return budget;
     }
 
     /**
@@ -759,7 +1045,7 @@ public abstract class AbstractProxyPolicy
             for( int i=0 ; i<homes.length ; ++i ) {
                 if( homes[i] == null ) {
                     // can't/won't do anything
-                } else if( !homes[i].getWillGiveUpHomeReplica() ) {
+                } else if( !willGiveUpHomeReplica( homes[i], incomingProxy )) {
                     // whether we have it or not, we won't surrender
                 } else if( homes[i].isHomeReplica() ) {
                     // we'll surrender this one
@@ -838,7 +1124,7 @@ public abstract class AbstractProxyPolicy
             for( int i=0 ; i<locks.length ; ++i ) {
                 if( locks[i] == null ) {
                     // can't/won't do anything
-                } else if( !locks[i].getWillGiveUpLock() ) {
+                } else if( !willGiveUpLock( locks[i], incomingProxy )) {
                     // whether we have it or not, we won't surrender
                 } else if( locks[i].hasLock() ) {
                     // we'll surrender this one
@@ -888,10 +1174,62 @@ public abstract class AbstractProxyPolicy
                 ret.addSurrenderLock( current ); // this includes the addRegisterReplicationIfNotAlready functionality
 
                 perhapsOutgoing.obtain().addPushLockObject( current.getIdentifier() );
+
+                if( current.isHomeReplica() && willGiveUpHomeReplicaWithLock( current, incomingProxy )) {
+                    ret.addSurrenderHome( current );
+
+                    perhapsOutgoing.obtain().addPushHomeReplica( current.getIdentifier() );
+                }
             }
         }
     }
     
+    /**
+     * Determine whether to surrender the lock of a NetMeshObject to a partner that asked for it.
+     * By default, this is up to the NetMeshObject.
+     *
+     * @param obj the NetMeshObject
+     * @param requester the Proxy towards the partner that asked
+     * @return true if the lock shall be surrendered
+     */
+    protected boolean willGiveUpLock(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        return obj.getWillGiveUpLock();
+    }
+
+    /**
+     * Determine whether to surrender home replica status of a NetMeshObject to a partner that asked for it.
+     * By default, this is up to the NetMeshObject.
+     *
+     * @param obj the NetMeshObject
+     * @param requester the Proxy towards the partner that asked
+     * @return true if home replica status shall be surrendered
+     */
+    protected boolean willGiveUpHomeReplica(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        return obj.getWillGiveUpHomeReplica();
+    }
+
+    /**
+     * Determine whether to also surrender home replica status of a NetMeshObject to a partner
+     * that is obtaining its lock, without having asked for home replica status.
+     * By default, this never happens.
+     *
+     * @param obj the NetMeshObject, which is the home replica
+     * @param requester the Proxy towards the partner that obtains the lock
+     * @return true if home replica status shall be surrendered together with the lock
+     */
+    protected boolean willGiveUpHomeReplicaWithLock(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        return false;
+    }
+
     /**
      * Process the incoming request: reclaimed locks.
      * 
@@ -913,6 +1251,12 @@ public abstract class AbstractProxyPolicy
             
             for( int i=0 ; i<lost.length ; ++i ) {
                 ret.addSurrenderLock( lost[i] );
+
+                if( lost[i] != null && lost[i].isHomeReplica() && willGiveUpHomeReplicaWithLock( lost[i], incomingProxy )) {
+                    ret.addSurrenderHome( lost[i] );
+
+                    perhapsOutgoing.obtain().addPushHomeReplica( lost[i].getIdentifier() );
+                }
             }
         }
     }
@@ -1433,12 +1777,8 @@ public abstract class AbstractProxyPolicy
             boolean                                       needsToBeSent )
     {
         // make sure we don't have it already
-        if( perhapsOutgoing.hasBeenCreated() ) {
-            for( ExternalizedNetMeshObject current : perhapsOutgoing.obtain().getConveyedMeshObjects() ) {
-                if( current.getIdentifier().equals( obj.getIdentifier() )) {
-                    return false;
-                }
-            }
+        if( perhapsOutgoing.hasBeenCreated() && perhapsOutgoing.obtain().hasConveyedMeshObject( obj.getIdentifier() )) {
+            return false;
         }
         
         // make sure we need to
@@ -1536,4 +1876,16 @@ public abstract class AbstractProxyPolicy
      * to communicate with us.
      */
     protected static final long theDefaultRpcWaitDuration = theResourceHelper.getResourceLongOrDefault( "DefaultRpcWaitDuration", 5000L );
+
+    /**
+     * The maximum number of NetMeshObjects conveyed in response to a ScopeSpecification, per
+     * incoming message, in addition to the requested NetMeshObjects themselves.
+     */
+    protected static final int theMaxScopeConveyed = theResourceHelper.getResourceIntegerOrDefault( "MaxScopeConveyed", 1000 );
+
+    /**
+     * If true, requests for first-time objects that need to be obtained from further away are
+     * forwarded without blocking the Thread that processes the incoming message.
+     */
+    protected static final boolean thePipelineForwardedRequests = theResourceHelper.getResourceBooleanOrDefault( "PipelineForwardedRequests", true );
 }
@@ -0,0 +1,216 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+
+/**
+ * Default implementation of ProxyMetrics. All counters are kept in LongAdders, which stripe
+ * their state across Threads, so that concurrent updates do not contend with each other.
+ * accessLocally latencies are kept in a histogram with power-of-two buckets.
+ */
+public class DefaultProxyMetrics
+        implements
+            ProxyMetrics
+{
+    /**
+     * Factory method.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the partner NetMeshBase
+     * @return the created DefaultProxyMetrics
+     */
+    public static DefaultProxyMetrics create(
+            NetMeshBaseIdentifier partnerIdentifier )
+    {
+        return new DefaultProxyMetrics( partnerIdentifier );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the partner NetMeshBase
+     */
+    protected DefaultProxyMetrics(
+            NetMeshBaseIdentifier partnerIdentifier )
+    {
+        thePartnerIdentifier = partnerIdentifier;
+
+        theLatencyBuckets = new LongAdder[ ProxyMetricsSnapshot.LATENCY_BUCKETS ];
+        for( int i=0 ; i<theLatencyBuckets.length ; ++i ) {
+            theLatencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Obtain the NetMeshBaseIdentifier of the partner NetMeshBase.
+     *
+     * @return the NetMeshBaseIdentifier
+     */
+    public NetMeshBaseIdentifier getPartnerMeshBaseIdentifier()
+    {
+        return thePartnerIdentifier;
+    }
+
+    /**
+     * An outgoing XprisoMessage has been sent successfully.
+     */
+    public void messageSent()
+    {
+        theMessagesSent.increment();
+    }
+
+    /**
+     * Sending an outgoing XprisoMessage failed; it will be sent again.
+     */
+    public void messageResent()
+    {
+        theResends.increment();
+    }
+
+    /**
+     * Incoming XprisoMessages have been received.
+     *
+     * @param n the number of XprisoMessages
+     */
+    public void messagesReceived(
+            int n )
+    {
+        theMessagesReceived.add( n );
+    }
+
+    /**
+     * Bytes have been sent to the partner.
+     *
+     * @param n the number of bytes
+     */
+    public void bytesSent(
+            long n )
+    {
+        theBytesSent.add( n );
+    }
+
+    /**
+     * Bytes have been received from the partner.
+     *
+     * @param n the number of bytes
+     */
+    public void bytesReceived(
+            long n )
+    {
+        theBytesReceived.add( n );
+    }
+
+    /**
+     * An accessLocally operation that involved the partner has completed.
+     *
+     * @param duration the duration of the operation, in milliseconds
+     */
+    public void accessLocallyCompleted(
+            long duration )
+    {
+        theLatencyBuckets[ ProxyMetricsSnapshot.bucketFor( duration ) ].increment();
+        theLatencySum.add( duration );
+    }
+
+    /**
+     * The number of XprisoMessages enqueued but not sent yet has been determined from the
+     * current state of the MessageEndpoint.
+     *
+     * @param queueDepth the number of XprisoMessages
+     */
+    public void queueDepthChanged(
+            long queueDepth )
+    {
+        theQueueDepth = queueDepth;
+    }
+
+    /**
+     * Obtain a copy of the current values. Values are read one after the other without
+     * stopping updates, so they may be off by the updates that happened in the meantime.
+     *
+     * @param replicasConveyed number of local NetMeshObjects of which the partner holds a replica, or -1 if unknown
+     * @param replicasObtained number of local replicas obtained from the partner, or -1 if unknown
+     * @return the snapshot
+     */
+    public ProxyMetricsSnapshot getSnapshot(
+            long replicasConveyed,
+            long replicasObtained )
+    {
+        long [] latencies = new long[ theLatencyBuckets.length ];
+        for( int i=0 ; i<latencies.length ; ++i ) {
+            latencies[i] = theLatencyBuckets[i].sum();
+        }
+
+        return ProxyMetricsSnapshot.create(
+                thePartnerIdentifier,
+                System.currentTimeMillis(),
+                theMessagesSent.sum(),
+                theMessagesReceived.sum(),
+                theBytesSent.sum(),
+                theBytesReceived.sum(),
+                theQueueDepth,
+                theResends.sum(),
+                latencies,
+                theLatencySum.sum(),
+                replicasConveyed,
+                replicasObtained );
+    }
+
+    /**
+     * The NetMeshBaseIdentifier of the partner NetMeshBase.
+     */
+    protected final NetMeshBaseIdentifier thePartnerIdentifier;
+
+    /**
+     * Number of XprisoMessages sent.
+     */
+    protected final LongAdder theMessagesSent = new LongAdder();
+
+    /**
+     * Number of XprisoMessages received.
+     */
+    protected final LongAdder theMessagesReceived = new LongAdder();
+
+    /**
+     * Number of bytes sent.
+     */
+    protected final LongAdder theBytesSent = new LongAdder();
+
+    /**
+     * Number of bytes received.
+     */
+    protected final LongAdder theBytesReceived = new LongAdder();
+
+    /**
+     * Number of failed sends.
+     */
+    protected final LongAdder theResends = new LongAdder();
+
+    /**
+     * The histogram of accessLocally latencies.
+     */
+    protected final LongAdder [] theLatencyBuckets;
+
+    /**
+     * The sum of all accessLocally latencies, in milliseconds.
+     */
+    protected final LongAdder theLatencySum = new LongAdder();
+
+    /**
+     * The number of XprisoMessages enqueued but not sent yet, as last determined.
+     */
+    protected volatile long theQueueDepth;
+}
@@ -0,0 +1,133 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+
+/**
+ * ProxyMetrics that does not collect anything. This is the default.
+ */
+public final class NoopProxyMetrics
+        implements
+            ProxyMetrics
+{
+    /**
+     * Private constructor, use singleton.
+     */
+    private NoopProxyMetrics()
+    {
+        // nothing
+    }
+
+    /**
+     * Obtain the NetMeshBaseIdentifier of the partner NetMeshBase.
+     *
+     * @return always null
+     */
+    public NetMeshBaseIdentifier getPartnerMeshBaseIdentifier()
+    {
+        return null;
+    }
+
+    /**
+     * An outgoing XprisoMessage has been sent successfully.
+     */
+    public void messageSent()
+    {
+        // noop
+    }
+
+    /**
+     * Sending an outgoing XprisoMessage failed; it will be sent again.
+     */
+    public void messageResent()
+    {
+        // noop
+    }
+
+    /**
+     * Incoming XprisoMessages have been received.
+     *
+     * @param n the number of XprisoMessages
+     */
+    public void messagesReceived(
+            int n )
+    {
+        // noop
+    }
+
+    /**
+     * Bytes have been sent to the partner.
+     *
+     * @param n the number of bytes
+     */
+    public void bytesSent(
+            long n )
+    {
+        // noop
+    }
+
+    /**
+     * Bytes have been received from the partner.
+     *
+     * @param n the number of bytes
+     */
+    public void bytesReceived(
+            long n )
+    {
+        // noop
+    }
+
+    /**
+     * An accessLocally operation that involved the partner has completed.
+     *
+     * @param duration the duration of the operation, in milliseconds
+     */
+    public void accessLocallyCompleted(
+            long duration )
+    {
+        // noop
+    }
+
+    /**
+     * The number of XprisoMessages enqueued but not sent yet has been determined.
+     *
+     * @param queueDepth the number of XprisoMessages
+     */
+    public void queueDepthChanged(
+            long queueDepth )
+    {
+        // noop
+    }
+
+    /**
+     * Obtain a snapshot.
+     *
+     * @param replicasConveyed number of local NetMeshObjects of which the partner holds a replica
+     * @param replicasObtained number of local replicas obtained from the partner
+     * @return always null
+     */
+    public ProxyMetricsSnapshot getSnapshot(
+            long replicasConveyed,
+            long replicasObtained )
+    {
+        return null;
+    }
+
+    /**
+     * Singleton instance.
+     */
+    public static final NoopProxyMetrics SINGLETON = new NoopProxyMetrics();
+}
@@ -0,0 +1,390 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.CoherenceSpecification;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.util.IsDeadException;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>Freshens replicas according to the CoherenceSpecification of the Proxy through which
+ *    they were obtained. Only Proxies with a <code>Periodic</code> or <code>AdaptivePeriodic</code>
+ *    CoherenceSpecification are scheduled; replicas obtained with the default CoherenceSpecification
+ *    are left alone.</p>
+ * <p>All replicas whose lock is held by the same partner are freshened with a single call to
+ *    {@link Proxy#freshen}. All Proxies are served by one ScheduledExecutorService. For
+ *    <code>AdaptivePeriodic</code>, the delay until the next freshen starts at the fallback delay,
+ *    grows by the adaptive factor every time a freshen brought no changes, up to the maximum delay,
+ *    and drops back to the fallback delay as soon as changes arrive.</p>
+ * <p>The scheduler does not hold on to Proxies, NetMeshBases or replicas, so it does not keep
+ *    them from being swapped out or garbage collected.</p>
+ */
+public class PeriodicFreshenScheduler
+{
+    private static final Log log = Log.getLogInstance( PeriodicFreshenScheduler.class ); // our own, private logger
+
+    /**
+     * Factory method.
+     *
+     * @param exec the ScheduledExecutorService to use
+     * @return the created PeriodicFreshenScheduler
+     */
+    public static PeriodicFreshenScheduler create(
+            ScheduledExecutorService exec )
+    {
+        return new PeriodicFreshenScheduler( exec );
+    }
+
+    /**
+     * Obtain the PeriodicFreshenScheduler shared by all Proxies that do not specify their own.
+     *
+     * @return the PeriodicFreshenScheduler
+     */
+    public static synchronized PeriodicFreshenScheduler getSingleton()
+    {
+        if( theSingleton == null ) {
+            theSingleton = new PeriodicFreshenScheduler( Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        public Thread newThread(
+                                Runnable r )
+                        {
+                            Thread ret = new Thread( r, "PeriodicFreshen" );
+                            ret.setDaemon( true );
+                            return ret;
+                        }
+                    } ));
+        }
+        return theSingleton;
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param exec the ScheduledExecutorService to use
+     */
+    protected PeriodicFreshenScheduler(
+            ScheduledExecutorService exec )
+    {
+        theExecService = exec;
+    }
+
+    /**
+     * Notify the scheduler that a replica has been created or updated by incoming messages on
+     * a Proxy. If the Proxy has a periodic CoherenceSpecification, and the replica's lock is held
+     * by the Proxy's partner, the replica will be freshened periodically from now on.
+     *
+     * @param proxy the Proxy
+     * @param replica the replica
+     */
+    public void replicaUpdated(
+            Proxy         proxy,
+            NetMeshObject replica )
+    {
+        CoherenceSpecification spec = proxy.getCoherenceSpecification();
+        if( !isPeriodic( spec )) {
+            return;
+        }
+        if( replica.getProxyTowardsLockReplica() != proxy ) {
+            return;
+        }
+
+        Entry entry;
+        synchronized( theEntries ) {
+            NetMeshBase                       mb         = proxy.getNetMeshBase();
+            Map<NetMeshBaseIdentifier,Entry>  forThisMb  = theEntries.get( mb );
+            if( forThisMb == null ) {
+                forThisMb = new HashMap<NetMeshBaseIdentifier,Entry>();
+                theEntries.put( mb, forThisMb );
+            }
+            entry = forThisMb.get( proxy.getPartnerMeshBaseIdentifier() );
+            if( entry == null ) {
+                entry = new Entry( mb, proxy.getPartnerMeshBaseIdentifier() );
+                forThisMb.put( proxy.getPartnerMeshBaseIdentifier(), entry );
+            }
+        }
+        entry.replicaUpdated( replica.getIdentifier(), replica.getTimeUpdated(), spec );
+    }
+
+    /**
+     * Notify the scheduler that a Proxy has died. Its replicas won't be freshened any more.
+     *
+     * @param proxy the Proxy
+     */
+    public void proxyDied(
+            Proxy proxy )
+    {
+        remove( proxy.getNetMeshBase(), proxy.getPartnerMeshBaseIdentifier() );
+    }
+
+    /**
+     * Stop freshening the replicas obtained from a partner NetMeshBase.
+     *
+     * @param mb the NetMeshBase holding the replicas
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     */
+    protected void remove(
+            NetMeshBase           mb,
+            NetMeshBaseIdentifier partnerIdentifier )
+    {
+        Entry entry;
+        synchronized( theEntries ) {
+            Map<NetMeshBaseIdentifier,Entry> forThisMb = theEntries.get( mb );
+            if( forThisMb == null ) {
+                return;
+            }
+            entry = forThisMb.remove( partnerIdentifier );
+        }
+        if( entry != null ) {
+            entry.cancel();
+        }
+    }
+
+    /**
+     * Determine whether this CoherenceSpecification asks for periodic freshening.
+     *
+     * @param spec the CoherenceSpecification
+     * @return true if periodic
+     */
+    protected boolean isPeriodic(
+            CoherenceSpecification spec )
+    {
+        return spec instanceof CoherenceSpecification.Periodic || spec instanceof CoherenceSpecification.AdaptivePeriodic;
+    }
+
+    /**
+     * Calculate the delay until the next freshen.
+     *
+     * @param spec the CoherenceSpecification of the Proxy
+     * @param previousDelay the previous delay, or -1 if this is the first
+     * @param hadChanges if true, changes have arrived since the previous freshen
+     * @return the delay, in milliseconds
+     */
+    protected long calculateDelay(
+            CoherenceSpecification spec,
+            long                   previousDelay,
+            boolean                hadChanges )
+    {
+        if( spec instanceof CoherenceSpecification.Periodic ) {
+            return ((CoherenceSpecification.Periodic) spec).getPeriod();
+        }
+        CoherenceSpecification.AdaptivePeriodic realSpec = (CoherenceSpecification.AdaptivePeriodic) spec;
+        if( previousDelay < 0 || hadChanges ) {
+            return realSpec.getFallbackDelay();
+        }
+        long ret = (long) ( previousDelay * realSpec.getAdaptiveFactor() );
+        if( ret <= previousDelay ) {
+            ret = previousDelay + 1; // make sure we make progress even with tiny delays
+        }
+        return Math.min( ret, realSpec.getMaxDelay() );
+    }
+
+    /**
+     * Obtain the number of Proxies that currently have replicas scheduled for freshening.
+     *
+     * @return the number of Proxies
+     */
+    public int getNumberOfScheduledProxies()
+    {
+        int ret = 0;
+        synchronized( theEntries ) {
+            for( Map<NetMeshBaseIdentifier,Entry> current : theEntries.values() ) {
+                ret += current.size();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The ScheduledExecutorService on which all freshens are run.
+     */
+    protected ScheduledExecutorService theExecService;
+
+    /**
+     * The scheduled Proxies, by NetMeshBase and partner NetMeshBaseIdentifier.
+     */
+    protected final WeakHashMap<NetMeshBase,Map<NetMeshBaseIdentifier,Entry>> theEntries
+            = new WeakHashMap<NetMeshBase,Map<NetMeshBaseIdentifier,Entry>>();
+
+    /**
+     * The singleton instance, allocated as needed.
+     */
+    private static PeriodicFreshenScheduler theSingleton;
+
+    /**
+     * Collects what the scheduler knows about one Proxy.
+     */
+    protected class Entry
+            implements
+                Runnable
+    {
+        /**
+         * Constructor.
+         *
+         * @param mb the NetMeshBase to which the Proxy belongs
+         * @param partnerIdentifier identifier of the Proxy's partner NetMeshBase
+         */
+        public Entry(
+                NetMeshBase           mb,
+                NetMeshBaseIdentifier partnerIdentifier )
+        {
+            theMeshBaseRef       = new WeakReference<NetMeshBase>( mb );
+            thePartnerIdentifier = partnerIdentifier;
+        }
+
+        /**
+         * A replica has been created or updated. Resynchronizing a replica that has not changed
+         * at its lock replica does not count as a change.
+         *
+         * @param replicaIdentifier identifier of the replica
+         * @param timeUpdated the time the replica was last updated
+         * @param spec the CoherenceSpecification currently in effect
+         */
+        public synchronized void replicaUpdated(
+                NetMeshObjectIdentifier replicaIdentifier,
+                long                    timeUpdated,
+                CoherenceSpecification  spec )
+        {
+            Long previous = theReplicas.put( replicaIdentifier, timeUpdated );
+            if( previous == null || previous.longValue() != timeUpdated ) {
+                theHadChanges = true;
+            }
+
+            if( theFuture == null ) {
+                theDelay  = calculateDelay( spec, -1L, true );
+                theFuture = theExecService.schedule( this, theDelay, TimeUnit.MILLISECONDS );
+            }
+        }
+
+        /**
+         * Stop freshening.
+         */
+        public synchronized void cancel()
+        {
+            if( theFuture != null ) {
+                theFuture.cancel( false );
+                theFuture = null;
+            }
+            theReplicas.clear();
+        }
+
+        /**
+         * Freshen all replicas, and schedule the next run.
+         */
+        public void run()
+        {
+            NetMeshBase mb = theMeshBaseRef.get();
+            if( mb == null ) {
+                cancel();
+                return;
+            }
+
+            try {
+                Proxy proxy = mb.getProxyFor( thePartnerIdentifier );
+                if( proxy == null || !isPeriodic( proxy.getCoherenceSpecification() )) {
+                    // a new Proxy will register itself once replicas arrive through it
+                    remove( mb, thePartnerIdentifier );
+                    return;
+                }
+
+                ArrayList<NetMeshObject> toFreshen = new ArrayList<NetMeshObject>();
+                boolean                  hadChanges;
+                synchronized( this ) {
+                    Iterator<NetMeshObjectIdentifier> iter = theReplicas.keySet().iterator();
+                    while( iter.hasNext() ) {
+                        NetMeshObject current = mb.findMeshObjectByIdentifier( iter.next() );
+                        if( current == null || current.getProxyTowardsLockReplica() != proxy ) {
+                            iter.remove(); // gone, or we have the lock, or another partner does
+                        } else {
+                            toFreshen.add( current );
+                        }
+                    }
+                    hadChanges    = theHadChanges;
+                    theHadChanges = false;
+                }
+
+                if( !toFreshen.isEmpty() ) {
+                    proxy.freshen( toFreshen.toArray( new NetMeshObject[ toFreshen.size() ] ), -1L );
+                }
+
+                synchronized( this ) {
+                    if( theFuture == null ) {
+                        return; // canceled in the meantime
+                    }
+                    if( theReplicas.isEmpty() ) {
+                        theFuture = null; // will be rescheduled when replicas arrive again
+                        return;
+                    }
+                    theDelay  = calculateDelay( proxy.getCoherenceSpecification(), theDelay, hadChanges );
+                    theFuture = theExecService.schedule( this, theDelay, TimeUnit.MILLISECONDS );
+                }
+
+            } catch( IsDeadException ex ) {
+                cancel();
+            } catch( Throwable t ) {
+                log.error( t );
+                synchronized( this ) {
+                    if( theFuture != null ) {
+                        theFuture = theExecService.schedule( this, theDelay, TimeUnit.MILLISECONDS );
+                    }
+                }
+            }
+        }
+
+        /**
+         * The NetMeshBase to which the Proxy belongs.
+         */
+        protected WeakReference<NetMeshBase> theMeshBaseRef;
+
+        /**
+         * Identifier of the Proxy's partner NetMeshBase.
+         */
+        protected NetMeshBaseIdentifier thePartnerIdentifier;
+
+        /**
+         * Identifiers of the replicas to freshen, mapped to the time they were last updated.
+         */
+        protected HashMap<NetMeshObjectIdentifier,Long> theReplicas = new HashMap<NetMeshObjectIdentifier,Long>();
+
+        /**
+         * True if changes have arrived since the last freshen.
+         */
+        protected boolean theHadChanges;
+
+        /**
+         * The current delay between freshens, in milliseconds.
+         */
+        protected long theDelay;
+
+        /**
+         * The next scheduled freshen, if any.
+         */
+        protected ScheduledFuture<?> theFuture;
+    }
+}
@@ -14,6 +14,7 @@
 
 package org.infogrid.meshbase.net.proxy;
 
+import java.util.concurrent.CompletableFuture;
 import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.meshbase.net.CoherenceSpecification;
@@ -21,6 +22,8 @@ import org.infogrid.meshbase.net.NetMeshBase;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
 import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
 import org.infogrid.meshbase.net.externalized.ExternalizedProxy;
+import org.infogrid.meshbase.net.transaction.NetChange;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
 import org.infogrid.meshbase.transaction.Transaction;
 import org.infogrid.util.FactoryCreatedObject;
 import org.infogrid.util.RemoteQueryTimeoutException;
@@ -108,6 +111,13 @@ public interface Proxy
      */
     public abstract long getTimeExpires();
 
+    /**
+     * Obtain the replication metrics for the communication with the partner NetMeshBase.
+     *
+     * @return the ProxyMetrics, which may be a NoopProxyMetrics
+     */
+    public abstract ProxyMetrics getMetrics();
+
     /**
      * <p>Ask this Proxy to obtain from its partner NetMeshBase replicas with the enclosed
      * specification. Do not acquire the lock; that would be a separate operation.</p>
@@ -122,6 +132,25 @@ public interface Proxy
             NetMeshObjectAccessSpecification [] paths,
             long                                duration );
 
+    /**
+     * <p>Ask this Proxy to obtain from its partner NetMeshBase replicas with the enclosed
+     * specification, without any Thread waiting for the response.
+     * Do not acquire the lock; that would be a separate operation.</p>
+     * <p>This call returns immediately. The given CompletableFuture is completed with the partner's
+     * response once it has been processed, i.e. once the conveyed replicas have been created locally.
+     * It is completed exceptionally if the response cannot be obtained. The caller is responsible for
+     * timing out; completing the CompletableFuture early makes this Proxy forget about the request.</p>
+     *
+     * @param paths the NetMeshObjectAccessSpecifications specifying which replicas should be obtained
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @param whenResponded the CompletableFuture to complete when the response has been processed
+     * @return the duration, in milliseconds, that the Proxy believes this operation will take
+     */
+    public abstract long obtainReplicasAsynchronously(
+            NetMeshObjectAccessSpecification [] paths,
+            long                                duration,
+            CompletableFuture<XprisoMessage>    whenResponded );
+
     /**
      * <p>Ask this Proxy to obtain the lock for one or more replicas from the
      * partner NetMeshBase.</p>
@@ -216,6 +245,20 @@ public interface Proxy
             long                       duration,
             Long                       accessLocallySynchronizerQueryKey );
 
+    /**
+     * <p>Convey replicas to the partner NetMeshBase in response to an earlier request for
+     * first-time objects, whose answer had to be obtained from further away first.</p>
+     * <p>This call returns immediately.</p>
+     *
+     * @param requested the NetMeshObjectAccessSpecifications as requested by the partner
+     * @param found the found NetMeshObjects, in the same sequence, or null if not found
+     * @param responseId the request id of the partner's XprisoMessage to which this responds
+     */
+    public abstract void respondWithReplicas(
+            NetMeshObjectAccessSpecification [] requested,
+            NetMeshObject []                    found,
+            long                                responseId );
+
     /**
      * <p>Ask this Proxy to cancel the leases for the given replicas from its partner NetMeshBase.</p>
      * <p>This call returns immediately. Incoming responses are registered with the NetMeshBase's
@@ -266,6 +309,19 @@ public interface Proxy
     public void transactionCommitted(
             Transaction theTransaction );
 
+    /**
+     * Indicates that a Transaction has been committed, and that some of its NetChanges
+     * may have to be forwarded through this Proxy. This is invoked by the NetMeshBase
+     * without needing a subscription, and only on the Proxies that replicate at least
+     * one of the affected NetMeshObjects.
+     *
+     * @param theTransaction the Transaction that was committed
+     * @param relevantChanges the NetChanges in the Transaction that may concern this Proxy, in sequence
+     */
+    public void transactionCommitted(
+            Transaction  theTransaction,
+            NetChange [] relevantChanges );
+
     /**
      * Subscribe to lease-related events, without using a Reference.
      *
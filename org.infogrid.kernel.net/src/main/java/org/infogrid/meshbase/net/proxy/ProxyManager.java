@@ -15,6 +15,11 @@
 package org.infogrid.meshbase.net.proxy;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.infogrid.mesh.MeshObject;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.IterableNetMeshBase;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
 import org.infogrid.meshbase.net.externalized.ExternalizedProxy;
 import org.infogrid.util.CachingMap;
@@ -121,4 +126,158 @@ public class ProxyManager
         }
         return ret;
     }
+
+    /**
+     * Enable or disable the collection of replication metrics for all partners. Disabling
+     * discards the metrics collected so far.
+     *
+     * @param newValue true to enable
+     */
+    public void setMetricsEnabled(
+            boolean newValue )
+    {
+        if( newValue ) {
+            if( theMetrics == null ) {
+                theMetrics = new ConcurrentHashMap<NetMeshBaseIdentifier,ProxyMetrics>();
+            }
+        } else {
+            theMetrics = null;
+        }
+    }
+
+    /**
+     * Determine whether replication metrics are being collected.
+     *
+     * @return true if enabled
+     */
+    public boolean getMetricsEnabled()
+    {
+        return theMetrics != null;
+    }
+
+    /**
+     * Obtain the ProxyMetrics for a partner NetMeshBase. The ProxyMetrics are kept here, not in the
+     * Proxy, so they survive the Proxy being swapped out to storage and restored.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the partner NetMeshBase
+     * @return the ProxyMetrics, or NoopProxyMetrics if metrics are not enabled
+     */
+    public ProxyMetrics obtainMetricsFor(
+            NetMeshBaseIdentifier partnerIdentifier )
+    {
+        ConcurrentHashMap<NetMeshBaseIdentifier,ProxyMetrics> metrics = theMetrics;
+        if( metrics == null ) {
+            return NoopProxyMetrics.SINGLETON;
+        }
+        ProxyMetrics ret = metrics.get( partnerIdentifier );
+        if( ret == null ) {
+            ProxyMetrics created = DefaultProxyMetrics.create( partnerIdentifier );
+
+            ret = metrics.putIfAbsent( partnerIdentifier, created );
+            if( ret == null ) {
+                ret = created;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Obtain a snapshot of the replication metrics for all partners, for export. This only
+     * reads the ProxyMetrics, so it is cheap and does not load any Proxy from storage. The
+     * numbers of replicas are -1; see {@link #getMetricsSnapshotWithReplicaCounts}.
+     *
+     * @return the snapshots, one per partner; empty if metrics are not enabled
+     */
+    public ProxyMetricsSnapshot [] getMetricsSnapshot()
+    {
+        ConcurrentHashMap<NetMeshBaseIdentifier,ProxyMetrics> metrics = theMetrics;
+        if( metrics == null ) {
+            return new ProxyMetricsSnapshot[0];
+        }
+        ArrayList<ProxyMetricsSnapshot> ret = new ArrayList<ProxyMetricsSnapshot>( metrics.size() );
+        for( ProxyMetrics current : metrics.values() ) {
+            ret.add( current.getSnapshot( UNKNOWN_REPLICAS[0], UNKNOWN_REPLICAS[1] ));
+        }
+        return ret.toArray( new ProxyMetricsSnapshot[ ret.size() ] );
+    }
+
+    /**
+     * Obtain a snapshot of the replication metrics for all partners, including the numbers
+     * of replicas conveyed to and obtained from each partner. This is expensive: it takes
+     * one pass over the NetMeshBase, which loads all of its NetMeshObjects if they are
+     * kept in storage. Use sparingly.
+     *
+     * @param mb the NetMeshBase whose replicas to count
+     * @return the snapshots, one per partner; empty if metrics are not enabled
+     */
+    public ProxyMetricsSnapshot [] getMetricsSnapshotWithReplicaCounts(
+            IterableNetMeshBase mb )
+    {
+        ConcurrentHashMap<NetMeshBaseIdentifier,ProxyMetrics> metrics = theMetrics;
+        if( metrics == null ) {
+            return new ProxyMetricsSnapshot[0];
+        }
+        HashMap<NetMeshBaseIdentifier,long []> replicas = countReplicas( mb );
+
+        ArrayList<ProxyMetricsSnapshot> ret = new ArrayList<ProxyMetricsSnapshot>( metrics.size() );
+        for( ProxyMetrics current : metrics.values() ) {
+            long [] counts = replicas.get( current.getPartnerMeshBaseIdentifier() );
+            if( counts == null ) {
+                counts = NO_REPLICAS;
+            }
+            ret.add( current.getSnapshot( counts[0], counts[1] ));
+        }
+        return ret.toArray( new ProxyMetricsSnapshot[ ret.size() ] );
+    }
+
+    /**
+     * Count, per partner, the local NetMeshObjects of which the partner holds a replica, and
+     * the local replicas obtained from the partner.
+     *
+     * @param mb the NetMeshBase
+     * @return per partner, the number of replicas conveyed at index 0, and the number of replicas obtained at index 1
+     */
+    protected HashMap<NetMeshBaseIdentifier,long []> countReplicas(
+            IterableNetMeshBase mb )
+    {
+        HashMap<NetMeshBaseIdentifier,long []> ret = new HashMap<NetMeshBaseIdentifier,long []>();
+
+        CursorIterator<MeshObject> iter = mb.iterator();
+        while( iter.hasNext() ) {
+            NetMeshObject current = (NetMeshObject) iter.next();
+            Proxy []      proxies = current.getAllProxies();
+            if( proxies == null ) {
+                continue;
+            }
+            Proxy towardsHome = current.getProxyTowardsHomeReplica();
+            for( Proxy p : proxies ) {
+                long [] counts = ret.get( p.getPartnerMeshBaseIdentifier() );
+                if( counts == null ) {
+                    counts = new long[2];
+                    ret.put( p.getPartnerMeshBaseIdentifier(), counts );
+                }
+                if( p == towardsHome ) {
+                    ++counts[1];
+                } else {
+                    ++counts[0];
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The ProxyMetrics per partner, or null if metrics are not enabled.
+     */
+    protected volatile ConcurrentHashMap<NetMeshBaseIdentifier,ProxyMetrics> theMetrics;
+
+    /**
+     * The replica counts of a partner that does not replicate anything.
+     */
+    protected static final long [] NO_REPLICAS = { 0L, 0L };
+
+    /**
+     * The replica counts of a partner if they cannot be determined.
+     */
+    protected static final long [] UNKNOWN_REPLICAS = { -1L, -1L };
 }
@@ -0,0 +1,95 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+
+/**
+ * Collects replication metrics for the communication with one partner NetMeshBase.
+ * Implementations must be cheap enough to be invoked on every message.
+ * {@link NoopProxyMetrics} is used unless metrics have been enabled on the ProxyManager.
+ */
+public interface ProxyMetrics
+{
+    /**
+     * Obtain the NetMeshBaseIdentifier of the partner NetMeshBase.
+     *
+     * @return the NetMeshBaseIdentifier
+     */
+    public abstract NetMeshBaseIdentifier getPartnerMeshBaseIdentifier();
+
+    /**
+     * An outgoing XprisoMessage has been sent successfully.
+     */
+    public abstract void messageSent();
+
+    /**
+     * Sending an outgoing XprisoMessage failed; it will be sent again.
+     */
+    public abstract void messageResent();
+
+    /**
+     * Incoming XprisoMessages have been received.
+     *
+     * @param n the number of XprisoMessages
+     */
+    public abstract void messagesReceived(
+            int n );
+
+    /**
+     * Bytes have been sent to the partner. Only reported by MessageEndpoints that encode.
+     *
+     * @param n the number of bytes
+     */
+    public abstract void bytesSent(
+            long n );
+
+    /**
+     * Bytes have been received from the partner. Only reported by MessageEndpoints that decode.
+     *
+     * @param n the number of bytes
+     */
+    public abstract void bytesReceived(
+            long n );
+
+    /**
+     * An accessLocally operation that involved the partner has completed.
+     *
+     * @param duration the duration of the operation, in milliseconds
+     */
+    public abstract void accessLocallyCompleted(
+            long duration );
+
+    /**
+     * The number of XprisoMessages enqueued but not sent yet has been determined from the
+     * current state of the MessageEndpoint. This replaces the previous value.
+     *
+     * @param queueDepth the number of XprisoMessages
+     */
+    public abstract void queueDepthChanged(
+            long queueDepth );
+
+    /**
+     * Obtain a consistent-enough copy of the current values, suitable for export. The replica
+     * counts are not collected here; they are determined by the caller, if at all.
+     *
+     * @param replicasConveyed number of local NetMeshObjects of which the partner holds a replica, or -1 if unknown
+     * @param replicasObtained number of local replicas obtained from the partner, or -1 if unknown
+     * @return the snapshot
+     */
+    public abstract ProxyMetricsSnapshot getSnapshot(
+            long replicasConveyed,
+            long replicasObtained );
+}
@@ -0,0 +1,384 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+
+/**
+ * An immutable copy of the ProxyMetrics for one partner NetMeshBase at a point in time.
+ * Bucket i of the latency histogram counts accessLocally operations that took less
+ * than 2^i milliseconds, but at least 2^(i-1); the last bucket counts all longer ones.
+ */
+public class ProxyMetricsSnapshot
+{
+    /**
+     * Factory method.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the partner NetMeshBase
+     * @param timeTaken the time the snapshot was taken, in System.currentTimeMillis() format
+     * @param messagesSent number of XprisoMessages sent
+     * @param messagesReceived number of XprisoMessages received
+     * @param bytesSent number of bytes sent
+     * @param bytesReceived number of bytes received
+     * @param queueDepth number of XprisoMessages enqueued but not sent yet
+     * @param resends number of failed sends
+     * @param latencyBuckets the histogram of accessLocally latencies
+     * @param latencySum the sum of all accessLocally latencies, in milliseconds
+     * @param replicasConveyed number of local NetMeshObjects of which the partner holds a replica
+     * @param replicasObtained number of local replicas obtained from the partner
+     * @return the created ProxyMetricsSnapshot
+     */
+    public static ProxyMetricsSnapshot create(
+            NetMeshBaseIdentifier partnerIdentifier,
+            long                  timeTaken,
+            long                  messagesSent,
+            long                  messagesReceived,
+            long                  bytesSent,
+            long                  bytesReceived,
+            long                  queueDepth,
+            long                  resends,
+            long []               latencyBuckets,
+            long                  latencySum,
+            long                  replicasConveyed,
+            long                  replicasObtained )
+    {
+        return new ProxyMetricsSnapshot(
+                partnerIdentifier,
+                timeTaken,
+                messagesSent,
+                messagesReceived,
+                bytesSent,
+                bytesReceived,
+                queueDepth,
+                resends,
+                latencyBuckets,
+                latencySum,
+                replicasConveyed,
+                replicasObtained );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the partner NetMeshBase
+     * @param timeTaken the time the snapshot was taken, in System.currentTimeMillis() format
+     * @param messagesSent number of XprisoMessages sent
+     * @param messagesReceived number of XprisoMessages received
+     * @param bytesSent number of bytes sent
+     * @param bytesReceived number of bytes received
+     * @param queueDepth number of XprisoMessages enqueued but not sent yet
+     * @param resends number of failed sends
+     * @param latencyBuckets the histogram of accessLocally latencies
+     * @param latencySum the sum of all accessLocally latencies, in milliseconds
+     * @param replicasConveyed number of local NetMeshObjects of which the partner holds a replica
+     * @param replicasObtained number of local replicas obtained from the partner
+     */
+    protected ProxyMetricsSnapshot(
+            NetMeshBaseIdentifier partnerIdentifier,
+            long                  timeTaken,
+            long                  messagesSent,
+            long                  messagesReceived,
+            long                  bytesSent,
+            long                  bytesReceived,
+            long                  queueDepth,
+            long                  resends,
+            long []               latencyBuckets,
+            long                  latencySum,
+            long                  replicasConveyed,
+            long                  replicasObtained )
+    {
+        thePartnerIdentifier = partnerIdentifier;
+        theTimeTaken         = timeTaken;
+        theMessagesSent      = messagesSent;
+        theMessagesReceived  = messagesReceived;
+        theBytesSent         = bytesSent;
+        theBytesReceived     = bytesReceived;
+        theQueueDepth        = queueDepth;
+        theResends           = resends;
+        theLatencyBuckets    = latencyBuckets;
+        theLatencySum        = latencySum;
+        theReplicasConveyed  = replicasConveyed;
+        theReplicasObtained  = replicasObtained;
+
+        long count = 0L;
+        for( long current : latencyBuckets ) {
+            count += current;
+        }
+        theLatencyCount = count;
+    }
+
+    /**
+     * Obtain the NetMeshBaseIdentifier of the partner NetMeshBase.
+     *
+     * @return the NetMeshBaseIdentifier
+     */
+    public NetMeshBaseIdentifier getPartnerMeshBaseIdentifier()
+    {
+        return thePartnerIdentifier;
+    }
+
+    /**
+     * Obtain the time the snapshot was taken.
+     *
+     * @return the time, in System.currentTimeMillis() format
+     */
+    public long getTimeTaken()
+    {
+        return theTimeTaken;
+    }
+
+    /**
+     * Obtain the number of XprisoMessages sent.
+     *
+     * @return the number
+     */
+    public long getMessagesSent()
+    {
+        return theMessagesSent;
+    }
+
+    /**
+     * Obtain the number of XprisoMessages received.
+     *
+     * @return the number
+     */
+    public long getMessagesReceived()
+    {
+        return theMessagesReceived;
+    }
+
+    /**
+     * Obtain the number of bytes sent. This is only counted by MessageEndpoints that encode.
+     *
+     * @return the number
+     */
+    public long getBytesSent()
+    {
+        return theBytesSent;
+    }
+
+    /**
+     * Obtain the number of bytes received. This is only counted by MessageEndpoints that decode.
+     *
+     * @return the number
+     */
+    public long getBytesReceived()
+    {
+        return theBytesReceived;
+    }
+
+    /**
+     * Obtain the number of XprisoMessages enqueued but not sent yet.
+     *
+     * @return the number
+     */
+    public long getQueueDepth()
+    {
+        return theQueueDepth;
+    }
+
+    /**
+     * Obtain the number of failed sends, each of which causes a resend.
+     *
+     * @return the number
+     */
+    public long getResends()
+    {
+        return theResends;
+    }
+
+    /**
+     * Obtain the histogram of accessLocally latencies.
+     *
+     * @return the number of operations per bucket
+     */
+    public long [] getLatencyBuckets()
+    {
+        return theLatencyBuckets.clone();
+    }
+
+    /**
+     * Obtain the number of accessLocally operations.
+     *
+     * @return the number
+     */
+    public long getLatencyCount()
+    {
+        return theLatencyCount;
+    }
+
+    /**
+     * Obtain the mean accessLocally latency.
+     *
+     * @return the mean, in milliseconds, or 0 if there were none
+     */
+    public double getLatencyMean()
+    {
+        return theLatencyCount > 0 ? ((double) theLatencySum ) / theLatencyCount : 0.0;
+    }
+
+    /**
+     * Estimate a percentile of the accessLocally latency from the histogram.
+     *
+     * @param fraction the percentile, e.g. 0.99
+     * @return the upper bound of the bucket containing the percentile, in milliseconds, or 0 if there were none
+     */
+    public long getLatencyPercentile(
+            double fraction )
+    {
+        if( theLatencyCount == 0 ) {
+            return 0L;
+        }
+        long needed = (long) Math.ceil( fraction * theLatencyCount );
+        long sum    = 0L;
+        for( int i=0 ; i<theLatencyBuckets.length ; ++i ) {
+            sum += theLatencyBuckets[i];
+            if( sum >= needed ) {
+                return 1L << i;
+            }
+        }
+        return 1L << ( theLatencyBuckets.length-1 );
+    }
+
+    /**
+     * Obtain the number of local NetMeshObjects of which the partner holds a replica.
+     *
+     * @return the number, or -1 if unknown
+     */
+    public long getReplicasConveyed()
+    {
+        return theReplicasConveyed;
+    }
+
+    /**
+     * Obtain the number of local replicas obtained from the partner.
+     *
+     * @return the number, or -1 if unknown
+     */
+    public long getReplicasObtained()
+    {
+        return theReplicasObtained;
+    }
+
+    /**
+     * Convert to String, for logging and export.
+     *
+     * @return String representation
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( "partner=" ).append( thePartnerIdentifier != null ? thePartnerIdentifier.toExternalForm() : null );
+        buf.append( " sent=" ).append( theMessagesSent );
+        buf.append( " received=" ).append( theMessagesReceived );
+        buf.append( " bytesSent=" ).append( theBytesSent );
+        buf.append( " bytesReceived=" ).append( theBytesReceived );
+        buf.append( " queue=" ).append( theQueueDepth );
+        buf.append( " resends=" ).append( theResends );
+        buf.append( " accessLocally=" ).append( theLatencyCount );
+        buf.append( " mean=" ).append( getLatencyMean() );
+        buf.append( " p99<" ).append( getLatencyPercentile( 0.99 ));
+        buf.append( " replicasConveyed=" ).append( theReplicasConveyed );
+        buf.append( " replicasObtained=" ).append( theReplicasObtained );
+        return buf.toString();
+    }
+
+    /**
+     * Determine the latency histogram bucket for a duration.
+     *
+     * @param duration the duration, in milliseconds
+     * @return the index of the bucket
+     */
+    public static int bucketFor(
+            long duration )
+    {
+        if( duration <= 0L ) {
+            return 0;
+        }
+        int ret = 64 - Long.numberOfLeadingZeros( duration ); // 1 -> 1, 2..3 -> 2, 4..7 -> 3 etc.
+        return Math.min( ret, LATENCY_BUCKETS-1 );
+    }
+
+    /**
+     * The NetMeshBaseIdentifier of the partner NetMeshBase.
+     */
+    protected final NetMeshBaseIdentifier thePartnerIdentifier;
+
+    /**
+     * The time the snapshot was taken.
+     */
+    protected final long theTimeTaken;
+
+    /**
+     * Number of XprisoMessages sent.
+     */
+    protected final long theMessagesSent;
+
+    /**
+     * Number of XprisoMessages received.
+     */
+    protected final long theMessagesReceived;
+
+    /**
+     * Number of bytes sent.
+     */
+    protected final long theBytesSent;
+
+    /**
+     * Number of bytes received.
+     */
+    protected final long theBytesReceived;
+
+    /**
+     * Number of XprisoMessages enqueued but not sent yet.
+     */
+    protected final long theQueueDepth;
+
+    /**
+     * Number of failed sends.
+     */
+    protected final long theResends;
+
+    /**
+     * The histogram of accessLocally latencies.
+     */
+    protected final long [] theLatencyBuckets;
+
+    /**
+     * The sum of all accessLocally latencies, in milliseconds.
+     */
+    protected final long theLatencySum;
+
+    /**
+     * The number of accessLocally operations.
+     */
+    protected final long theLatencyCount;
+
+    /**
+     * Number of local NetMeshObjects of which the partner holds a replica.
+     */
+    protected final long theReplicasConveyed;
+
+    /**
+     * Number of local replicas obtained from the partner.
+     */
+    protected final long theReplicasObtained;
+
+    /**
+     * Number of buckets in the latency histogram. The last one is for about 9 minutes and longer.
+     */
+    public static final int LATENCY_BUCKETS = 21;
+}
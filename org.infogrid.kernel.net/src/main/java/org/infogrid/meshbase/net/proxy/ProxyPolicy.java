@@ -19,6 +19,7 @@ import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.meshbase.net.CoherenceSpecification;
 import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.transaction.NetChange;
 import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
 import org.infogrid.meshbase.net.xpriso.XprisoMessage;
 import org.infogrid.meshbase.transaction.Transaction;
@@ -63,6 +64,24 @@ public interface ProxyPolicy
             CommunicatingProxy                            proxy,
             CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
 
+    /**
+     * Determine the ProxyProcessingInstructions for obtaining one or more
+     * replicas via this Proxy, without any Thread waiting for the response.
+     *
+     * @param paths the NetMeshObjectAccessSpecification for finding the NetMeshObjects to be replicated
+     * @param duration the duration, in milliseconds, that the caller is willing to wait to perform the request. -1 means "use default".
+     * @param requestId the request id to use, so the Proxy can correlate the response
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForObtainReplicasAsynchronously(
+            NetMeshObjectAccessSpecification []           paths,
+            long                                          duration,
+            long                                          requestId,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
+
     /**
      * Determine the ProxyProcessingInstructions for obtaining one or more
      * locks via this Proxy.
@@ -183,6 +202,24 @@ public interface ProxyPolicy
             CommunicatingProxy                            proxy,
             CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
 
+    /**
+     * Determine the ProxyProcessingInstructions for conveying NetMeshObjects that were requested
+     * for the first time, once they have been obtained from further away.
+     *
+     * @param requested the NetMeshObjectAccessSpecifications as requested by the partner
+     * @param found the found NetMeshObjects, in the same sequence, or null if not found
+     * @param responseId the request id of the incoming XprisoMessage to which this responds
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForRespondWithReplicas(
+            NetMeshObjectAccessSpecification []           requested,
+            NetMeshObject []                              found,
+            long                                          responseId,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
+
     /**
      * Determine the ProxyProcessingInstructions for freshening one or more
      * NetMeshObject leases via this Proxy.
@@ -226,6 +263,36 @@ public interface ProxyPolicy
             CommunicatingProxy                            proxy,
             CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
 
+    /**
+     * Given some of the NetChanges of a committed Transaction, determine the ProxyProcessingInstructions
+     * for notifying our partner Proxy.
+     *
+     * @param changes the NetChanges that may have to be forwarded, in sequence
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForTransactionCommitted(
+            NetChange []                                  changes,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
+
+    /**
+     * Given those NetChanges of a committed Transaction that may concern our partner Proxy,
+     * determine the ProxyProcessingInstructions for notifying it.
+     *
+     * @param tx the Transaction
+     * @param changes the NetChanges in the Transaction that may have to be forwarded, in sequence
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    public ProxyProcessingInstructions calculateForTransactionCommitted(
+            Transaction                                   tx,
+            NetChange []                                  changes,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing );
+
     /**
      * Determine the necessary operations that need to be performed to process
      * this incoming message according to this ProxyPolicy.
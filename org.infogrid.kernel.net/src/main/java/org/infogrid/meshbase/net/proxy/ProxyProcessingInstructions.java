@@ -105,6 +105,28 @@ public class ProxyProcessingInstructions
         return theStartCommunicating;
     }
 
+    /**
+     * Specify that the response to the incoming XprisoMessage will be sent later, once
+     * NetMeshObjects requested from further away have arrived.
+     *
+     * @param newValue true if the response is deferred
+     */
+    public void setResponseDeferred(
+            boolean newValue )
+    {
+        theResponseDeferred = newValue;
+    }
+
+    /**
+     * Determine whether the response to the incoming XprisoMessage will be sent later.
+     *
+     * @return true if the response is deferred
+     */
+    public boolean getResponseDeferred()
+    {
+        return theResponseDeferred;
+    }
+
 //
 
     /**
@@ -977,6 +999,7 @@ public class ProxyProcessingInstructions
                 new String[] {
                     "theStartCommunicating",
                     "theCeaseCommunications",
+                    "theResponseDeferred",
                     "theRequestedFirstTimePaths",
                     "theSendViaWaitEndpoint",
                     "theSendViaEndpoint",
@@ -1002,6 +1025,7 @@ public class ProxyProcessingInstructions
                 new Object[] {
                     theStartCommunicating,
                     theCeaseCommunications,
+                    theResponseDeferred,
                     theRequestedFirstTimePaths,
                     theSendViaWaitEndpoint,
                     theSendViaEndpoint,
@@ -1036,6 +1060,11 @@ public class ProxyProcessingInstructions
      * Should the Proxy cease communications.
      */
     protected boolean theCeaseCommunications = false; // default
+
+    /**
+     * Is the response to the incoming XprisoMessage sent later.
+     */
+    protected boolean theResponseDeferred = false; // default
     
     /**
      * Which NetMeshObjects are requested for the first time.
@@ -0,0 +1,344 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import java.util.HashSet;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.CoherenceSpecification;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.transaction.NetChange;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectPropertyChangeEvent;
+import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.ArrayHelper;
+import org.infogrid.util.CreateWhenNeeded;
+import org.infogrid.util.ResourceHelper;
+
+/**
+ * <p>A ProxyPolicy that moves the lock and the home replica of a NetMeshObject towards the
+ *    NetMeshBase that writes it most. It counts, in a WriteAffinityTracker shared by all
+ *    Proxies of the NetMeshBase, the local Transactions, and the incoming XprisoMessages
+ *    that change properties of, or request or reclaim the lock of, each NetMeshObject.</p>
+ * <p>A partner that has become the dominant writer of a NetMeshObject is given its home replica
+ *    status together with the lock, or, if it holds the lock already, as soon as its writes arrive
+ *    at the home replica. Conversely, the lock and home replica status are not given up
+ *    if this NetMeshBase itself is the dominant writer, unless the NetMeshObject is written
+ *    elsewhere often enough to catch up, or the partner reclaims the lock by force. Because
+ *    dominance requires a margin, a NetMeshObject written by two NetMeshBases about equally
+ *    stays where it is instead of moving back and forth.</p>
+ * <p>NetMeshObjects whose willGiveUpLock or willGiveUpHomeReplica property is false are never given up.</p>
+ */
+public class WriteAffinityProxyPolicy
+        extends
+            AbstractProxyPolicy
+{
+    /**
+     * Factory method.
+     *
+     * @param coherence the CoherenceSpecification used by this ProxyPolicy
+     * @param tracker the WriteAffinityTracker shared by all Proxies of the NetMeshBase
+     * @return the created WriteAffinityProxyPolicy
+     */
+    public static WriteAffinityProxyPolicy create(
+            CoherenceSpecification coherence,
+            WriteAffinityTracker   tracker )
+    {
+        return new WriteAffinityProxyPolicy( coherence, true, tracker, theDefaultDominanceFactor, theDefaultMinimumWrites );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param coherence the CoherenceSpecification used by this ProxyPolicy
+     * @param pointsReplicasToItself if true, new Replicas will be created by a branch from the local Replica
+     * @param tracker the WriteAffinityTracker shared by all Proxies of the NetMeshBase
+     * @param dominanceFactor the factor by which a NetMeshBase's score must exceed all others to be the dominant writer
+     * @param minimumWrites the minimum score of the dominant writer
+     * @return the created WriteAffinityProxyPolicy
+     */
+    public static WriteAffinityProxyPolicy create(
+            CoherenceSpecification coherence,
+            boolean                pointsReplicasToItself,
+            WriteAffinityTracker   tracker,
+            double                 dominanceFactor,
+            double                 minimumWrites )
+    {
+        return new WriteAffinityProxyPolicy( coherence, pointsReplicasToItself, tracker, dominanceFactor, minimumWrites );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param coherence the CoherenceSpecification used by this ProxyPolicy
+     * @param pointsReplicasToItself if true, new Replicas will be created by a branch from the local Replica
+     * @param tracker the WriteAffinityTracker shared by all Proxies of the NetMeshBase
+     * @param dominanceFactor the factor by which a NetMeshBase's score must exceed all others to be the dominant writer
+     * @param minimumWrites the minimum score of the dominant writer
+     */
+    protected WriteAffinityProxyPolicy(
+            CoherenceSpecification coherence,
+            boolean                pointsReplicasToItself,
+            WriteAffinityTracker   tracker,
+            double                 dominanceFactor,
+            double                 minimumWrites )
+    {
+        super( coherence, pointsReplicasToItself );
+
+        theTracker         = tracker;
+        theDominanceFactor = dominanceFactor;
+        theMinimumWrites   = minimumWrites;
+    }
+
+    /**
+     * Obtain the WriteAffinityTracker.
+     *
+     * @return the WriteAffinityTracker
+     */
+    public WriteAffinityTracker getWriteAffinityTracker()
+    {
+        return theTracker;
+    }
+
+    /**
+     * Given those NetChanges of a committed Transaction that may concern our partner Proxy,
+     * determine the ProxyProcessingInstructions for notifying it. Overridden to count local writes.
+     *
+     * @param tx the Transaction
+     * @param changes the NetChanges in the Transaction that may have to be forwarded, in sequence
+     * @param proxy the Proxy on whose behalf the ProxyProcessingInstructions are constructed
+     * @param perhapsOutgoing the outgoing message being assembled
+     * @return the calculated ProxyProcessingInstructions, or null
+     */
+    @Override
+    public ProxyProcessingInstructions calculateForTransactionCommitted(
+            Transaction                                   tx,
+            NetChange []                                  changes,
+            CommunicatingProxy                            proxy,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        NetMeshBaseIdentifier here = proxy.getNetMeshBase().getIdentifier();
+
+        for( NetChange current : changes ) {
+            if( current.getOriginNetworkIdentifier() == null ) {
+                // every Proxy sees the same Transaction, but the tracker counts it only once
+                theTracker.recordWrite( current.getAffectedMeshObjectIdentifier(), here, tx );
+            }
+        }
+        return super.calculateForTransactionCommitted( tx, changes, proxy, perhapsOutgoing );
+    }
+
+    /**
+     * Process the incoming request: requested locks. Overridden to count the request as a write intent.
+     *
+     * @param incomingProxy the incoming Proxy
+     * @param ret the instructions being assembled assembled
+     * @param perhapsOutgoing the outgoing message being assembled
+     */
+    @Override
+    protected void processIncomingRequestedLockObjects(
+            Proxy                                         incomingProxy,
+            ProxyProcessingInstructions                   ret,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        recordWrites( incomingProxy, ret.getIncomingXprisoMessage(), ret.getIncomingXprisoMessage().getRequestedLockObjects() );
+
+        super.processIncomingRequestedLockObjects( incomingProxy, ret, perhapsOutgoing );
+    }
+
+    /**
+     * Process the incoming request: reclaimed locks. Overridden to count the reclaim as a write intent.
+     *
+     * @param incomingProxy the incoming Proxy
+     * @param ret the instructions being assembled assembled
+     * @param perhapsOutgoing the outgoing message being assembled
+     */
+    @Override
+    protected void processIncomingReclaimedLockObjects(
+            Proxy                                         incomingProxy,
+            ProxyProcessingInstructions                   ret,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        recordWrites( incomingProxy, ret.getIncomingXprisoMessage(), ret.getIncomingXprisoMessage().getReclaimedLockObjects() );
+
+        super.processIncomingReclaimedLockObjects( incomingProxy, ret, perhapsOutgoing );
+    }
+
+    /**
+     * Process the incoming request: property changes. Overridden to count the writes of the partner,
+     * and to push home replica status to the partner if it holds the lock and has become the dominant writer.
+     *
+     * @param incomingProxy the incoming Proxy
+     * @param ret the instructions being assembled assembled
+     * @param perhapsOutgoing the outgoing message being assembled
+     */
+    @Override
+    protected void processIncomingPropertyChanges(
+            Proxy                                         incomingProxy,
+            ProxyProcessingInstructions                   ret,
+            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+    {
+        XprisoMessage incoming = ret.getIncomingXprisoMessage();
+
+        if( ArrayHelper.arrayHasContent( incoming.getPropertyChanges() )) {
+            NetMeshBaseIdentifier partner = incomingProxy.getPartnerMeshBaseIdentifier();
+
+            HashSet<NetMeshObjectIdentifier> written = new HashSet<NetMeshObjectIdentifier>();
+            for( NetMeshObjectPropertyChangeEvent current : incoming.getPropertyChanges() ) {
+                theTracker.recordWrite( current.getAffectedMeshObjectIdentifier(), partner, incoming );
+                written.add( current.getAffectedMeshObjectIdentifier() );
+            }
+
+            NetMeshBase theMeshBase = incomingProxy.getNetMeshBase();
+            for( NetMeshObjectIdentifier current : written ) {
+                NetMeshObject found = theMeshBase.findMeshObjectByIdentifier( current );
+                if(    found != null
+                    && found.isHomeReplica()
+                    && found.getProxyTowardsLockReplica() == incomingProxy
+                    && willGiveUpHomeReplicaWithLock( found, incomingProxy ))
+                {
+                    ret.addSurrenderHome( found );
+
+                    perhapsOutgoing.obtain().addPushHomeReplica( current );
+                }
+            }
+        }
+        super.processIncomingPropertyChanges( incomingProxy, ret, perhapsOutgoing );
+    }
+
+    /**
+     * Determine whether to surrender the lock of a NetMeshObject to a partner that asked for it.
+     *
+     * @param obj the NetMeshObject
+     * @param requester the Proxy towards the partner that asked
+     * @return true if the lock shall be surrendered
+     */
+    @Override
+    protected boolean willGiveUpLock(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        return super.willGiveUpLock( obj, requester ) && !isLocalDominantWriter( obj, requester );
+    }
+
+    /**
+     * Determine whether to surrender home replica status of a NetMeshObject to a partner that asked for it.
+     *
+     * @param obj the NetMeshObject
+     * @param requester the Proxy towards the partner that asked
+     * @return true if home replica status shall be surrendered
+     */
+    @Override
+    protected boolean willGiveUpHomeReplica(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        return super.willGiveUpHomeReplica( obj, requester ) && !isLocalDominantWriter( obj, requester );
+    }
+
+    /**
+     * Determine whether to also surrender home replica status of a NetMeshObject to a partner
+     * that is obtaining its lock. This is the case if the partner is the dominant writer.
+     *
+     * @param obj the NetMeshObject, which is the home replica
+     * @param requester the Proxy towards the partner that obtains the lock
+     * @return true if home replica status shall be surrendered together with the lock
+     */
+    @Override
+    protected boolean willGiveUpHomeReplicaWithLock(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        if( !obj.getWillGiveUpHomeReplica() ) {
+            return false;
+        }
+        return theTracker.isDominantWriter(
+                obj.getIdentifier(),
+                requester.getPartnerMeshBaseIdentifier(),
+                theDominanceFactor,
+                theMinimumWrites );
+    }
+
+    /**
+     * Determine whether this NetMeshBase is the dominant writer of a NetMeshObject, compared to a partner.
+     *
+     * @param obj the NetMeshObject
+     * @param requester the Proxy towards the partner
+     * @return true if this NetMeshBase is the dominant writer
+     */
+    protected boolean isLocalDominantWriter(
+            NetMeshObject obj,
+            Proxy         requester )
+    {
+        double local   = theTracker.getScore( obj.getIdentifier(), requester.getNetMeshBase().getIdentifier() );
+        double partner = theTracker.getScore( obj.getIdentifier(), requester.getPartnerMeshBaseIdentifier() );
+
+        return local >= theMinimumWrites && local >= theDominanceFactor * partner;
+    }
+
+    /**
+     * Record that a partner intends to write NetMeshObjects.
+     *
+     * @param incomingProxy the Proxy towards the partner
+     * @param incoming the incoming XprisoMessage that carries the intent
+     * @param identifiers identifies the NetMeshObjects, if any
+     */
+    protected void recordWrites(
+            Proxy                      incomingProxy,
+            XprisoMessage              incoming,
+            NetMeshObjectIdentifier [] identifiers )
+    {
+        if( !ArrayHelper.arrayHasContent( identifiers )) {
+            return;
+        }
+        NetMeshBaseIdentifier partner = incomingProxy.getPartnerMeshBaseIdentifier();
+
+        for( NetMeshObjectIdentifier current : identifiers ) {
+            theTracker.recordWrite( current, partner, incoming );
+        }
+    }
+
+    /**
+     * Counts who writes which NetMeshObjects.
+     */
+    protected WriteAffinityTracker theTracker;
+
+    /**
+     * The factor by which a NetMeshBase's score must exceed all others to be the dominant writer.
+     */
+    protected double theDominanceFactor;
+
+    /**
+     * The minimum score of the dominant writer.
+     */
+    protected double theMinimumWrites;
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theAffinityResourceHelper = ResourceHelper.getInstance( WriteAffinityProxyPolicy.class );
+
+    /**
+     * The default factor by which a NetMeshBase's score must exceed all others to be the dominant writer.
+     */
+    protected static final double theDefaultDominanceFactor = theAffinityResourceHelper.getResourceDoubleOrDefault( "DominanceFactor", 3.0 );
+
+    /**
+     * The default minimum score of the dominant writer.
+     */
+    protected static final double theDefaultMinimumWrites = theAffinityResourceHelper.getResourceDoubleOrDefault( "MinimumWrites", 5.0 );
+}
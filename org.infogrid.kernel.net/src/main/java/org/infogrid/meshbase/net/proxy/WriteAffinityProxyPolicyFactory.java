@@ -0,0 +1,114 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import org.infogrid.meshbase.net.CoherenceSpecification;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.util.AbstractFactory;
+import org.infogrid.util.FactoryException;
+
+/**
+ * A ProxyPolicyFactory that generates WriteAffinityProxyPolicies. All ProxyPolicies created
+ * by the same factory share the same WriteAffinityTracker, so each NetMeshBase needs its own factory.
+ */
+public class WriteAffinityProxyPolicyFactory
+        extends
+            AbstractFactory<NetMeshBaseIdentifier,ProxyPolicy,CoherenceSpecification>
+        implements
+            ProxyPolicyFactory
+{
+    /**
+     * Factory method to create the factory.
+     *
+     * @return the created WriteAffinityProxyPolicyFactory
+     */
+    public static WriteAffinityProxyPolicyFactory create()
+    {
+        WriteAffinityProxyPolicyFactory ret = new WriteAffinityProxyPolicyFactory( true, WriteAffinityTracker.create() );
+        return ret;
+    }
+
+    /**
+     * Factory method to create the factory.
+     *
+     * @param pointsReplicasToItself if true, new Replicas will be created by a branch from the local Replica
+     * @param tracker the WriteAffinityTracker to share among the created ProxyPolicies
+     * @return the created WriteAffinityProxyPolicyFactory
+     */
+    public static WriteAffinityProxyPolicyFactory create(
+            boolean              pointsReplicasToItself,
+            WriteAffinityTracker tracker )
+    {
+        WriteAffinityProxyPolicyFactory ret = new WriteAffinityProxyPolicyFactory( pointsReplicasToItself, tracker );
+        return ret;
+    }
+
+    /**
+     * Constructor for subclasses only, use factory method.
+     *
+     * @param pointsReplicasToItself if true, new Replicas will be created by a branch from the local Replica
+     * @param tracker the WriteAffinityTracker to share among the created ProxyPolicies
+     */
+    protected WriteAffinityProxyPolicyFactory(
+            boolean              pointsReplicasToItself,
+            WriteAffinityTracker tracker )
+    {
+        thePointsReplicasToItself = pointsReplicasToItself;
+        theTracker                = tracker;
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param key the key information required for object creation, if any
+     * @param argument any argument-style information required for object creation, if any
+     * @return the created object
+     * @throws FactoryException catch-all Exception, consider its cause
+     */
+    public WriteAffinityProxyPolicy obtainFor(
+            NetMeshBaseIdentifier  key,
+            CoherenceSpecification argument )
+        throws
+            FactoryException
+    {
+        WriteAffinityProxyPolicy ret = WriteAffinityProxyPolicy.create(
+                argument,
+                thePointsReplicasToItself,
+                theTracker,
+                WriteAffinityProxyPolicy.theDefaultDominanceFactor,
+                WriteAffinityProxyPolicy.theDefaultMinimumWrites );
+        return ret;
+    }
+
+    /**
+     * Obtain the WriteAffinityTracker shared among the created ProxyPolicies.
+     *
+     * @return the WriteAffinityTracker
+     */
+    public WriteAffinityTracker getWriteAffinityTracker()
+    {
+        return theTracker;
+    }
+
+    /**
+     * If true, new Replicas will be created by a branch from the local Replica.
+     */
+    protected boolean thePointsReplicasToItself;
+
+    /**
+     * The WriteAffinityTracker shared among the created ProxyPolicies.
+     */
+    protected WriteAffinityTracker theTracker;
+}
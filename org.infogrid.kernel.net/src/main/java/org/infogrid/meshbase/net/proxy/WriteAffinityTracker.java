@@ -0,0 +1,307 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.util.ResourceHelper;
+
+/**
+ * <p>Keeps track of which NetMeshBases write which NetMeshObjects how often, as seen from one
+ *    NetMeshBase. The counts decay exponentially over time, so the NetMeshBase that has been
+ *    writing a NetMeshObject most recently and most often has the highest score.</p>
+ * <p>Only a limited number of NetMeshObjects are tracked; the ones written least recently are
+ *    forgotten first.</p>
+ */
+public class WriteAffinityTracker
+{
+    /**
+     * Factory method, using default parameters.
+     *
+     * @return the created WriteAffinityTracker
+     */
+    public static WriteAffinityTracker create()
+    {
+        long halfLife          = theResourceHelper.getResourceLongOrDefault(    "HalfLife",          60L * 1000L ); // 1 minute
+        int  maxTrackedObjects = theResourceHelper.getResourceIntegerOrDefault( "MaxTrackedObjects", 10000 );
+
+        return new WriteAffinityTracker( halfLife, maxTrackedObjects );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param halfLife the number of milliseconds after which a write counts only half
+     * @param maxTrackedObjects the maximum number of NetMeshObjects to track
+     * @return the created WriteAffinityTracker
+     */
+    public static WriteAffinityTracker create(
+            long halfLife,
+            int  maxTrackedObjects )
+    {
+        return new WriteAffinityTracker( halfLife, maxTrackedObjects );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param halfLife the number of milliseconds after which a write counts only half
+     * @param maxTrackedObjects the maximum number of NetMeshObjects to track
+     */
+    protected WriteAffinityTracker(
+            long halfLife,
+            int  maxTrackedObjects )
+    {
+        theHalfLife          = halfLife;
+        theMaxTrackedObjects = maxTrackedObjects;
+
+        theAffinities = new LinkedHashMap<NetMeshObjectIdentifier,Affinity>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L; // helps with serialization
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<NetMeshObjectIdentifier,Affinity> eldest )
+            {
+                return size() > theMaxTrackedObjects;
+            }
+        };
+    }
+
+    /**
+     * Record that a NetMeshBase wrote a NetMeshObject as part of a write, such as a Transaction
+     * or an incoming XprisoMessage. Several writes of the same NetMeshObject by the same NetMeshBase
+     * as part of the same write count as one, such as the several Changes of one Transaction that
+     * are seen by several Proxies. The writes of one NetMeshBase must be recorded one write after
+     * the other.
+     *
+     * @param objectIdentifier identifies the NetMeshObject that was written
+     * @param writerIdentifier identifies the NetMeshBase that wrote it
+     * @param write identifies the write, compared by identity
+     */
+    public synchronized void recordWrite(
+            NetMeshObjectIdentifier objectIdentifier,
+            NetMeshBaseIdentifier   writerIdentifier,
+            Object                  write )
+    {
+        CurrentWrite current = theCurrentWrites.get( writerIdentifier );
+        if( current == null || current.theWrite != write ) {
+            // only the most recent write per writer is remembered, so no Transaction is held on to for long
+            current = new CurrentWrite( write );
+            theCurrentWrites.put( writerIdentifier, current );
+        }
+        if( !current.theWritten.add( objectIdentifier )) {
+            return; // counted already
+        }
+
+        Affinity found = theAffinities.get( objectIdentifier );
+        if( found == null ) {
+            found = new Affinity();
+            theAffinities.put( objectIdentifier, found );
+        }
+        found.record( writerIdentifier, System.currentTimeMillis() );
+    }
+
+    /**
+     * Determine the current score of a NetMeshBase as a writer of a NetMeshObject.
+     *
+     * @param objectIdentifier identifies the NetMeshObject
+     * @param writerIdentifier identifies the NetMeshBase
+     * @return the score, which is the decayed number of writes
+     */
+    public synchronized double getScore(
+            NetMeshObjectIdentifier objectIdentifier,
+            NetMeshBaseIdentifier   writerIdentifier )
+    {
+        Affinity found = theAffinities.get( objectIdentifier );
+        if( found == null ) {
+            return 0.0;
+        }
+        found.decay( System.currentTimeMillis() );
+
+        return found.getScore( writerIdentifier );
+    }
+
+    /**
+     * Determine whether a NetMeshBase is the dominant writer of a NetMeshObject: it must have
+     * written at least a minimum number of times recently, and its score must exceed the score
+     * of every other NetMeshBase by a factor.
+     *
+     * @param objectIdentifier identifies the NetMeshObject
+     * @param writerIdentifier identifies the NetMeshBase
+     * @param factor the factor by which the score must exceed all others
+     * @param minimum the minimum score
+     * @return true if the NetMeshBase is the dominant writer
+     */
+    public synchronized boolean isDominantWriter(
+            NetMeshObjectIdentifier objectIdentifier,
+            NetMeshBaseIdentifier   writerIdentifier,
+            double                  factor,
+            double                  minimum )
+    {
+        Affinity found = theAffinities.get( objectIdentifier );
+        if( found == null ) {
+            return false;
+        }
+        found.decay( System.currentTimeMillis() );
+
+        double score = found.getScore( writerIdentifier );
+        if( score < minimum ) {
+            return false;
+        }
+        for( Map.Entry<NetMeshBaseIdentifier,double[]> current : found.theScores.entrySet() ) {
+            if( current.getKey().equals( writerIdentifier )) {
+                continue;
+            }
+            if( score < factor * current.getValue()[0] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forget everything known about a NetMeshObject.
+     *
+     * @param objectIdentifier identifies the NetMeshObject
+     */
+    public synchronized void forget(
+            NetMeshObjectIdentifier objectIdentifier )
+    {
+        theAffinities.remove( objectIdentifier );
+    }
+
+    /**
+     * The number of milliseconds after which a write counts only half.
+     */
+    protected long theHalfLife;
+
+    /**
+     * The maximum number of NetMeshObjects to track.
+     */
+    protected int theMaxTrackedObjects;
+
+    /**
+     * The write affinities, keyed by the identifier of the written NetMeshObject, least recently written first.
+     */
+    protected LinkedHashMap<NetMeshObjectIdentifier,Affinity> theAffinities;
+
+    /**
+     * The most recent write of each writer.
+     */
+    protected HashMap<NetMeshBaseIdentifier,CurrentWrite> theCurrentWrites = new HashMap<NetMeshBaseIdentifier,CurrentWrite>();
+
+    /**
+     * Our ResourceHelper.
+     */
+    protected static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( WriteAffinityTracker.class );
+
+    /**
+     * The write scores of one NetMeshObject.
+     */
+    protected class Affinity
+    {
+        /**
+         * Apply the exponential decay to all scores.
+         *
+         * @param now the current time
+         */
+        protected void decay(
+                long now )
+        {
+            if( now <= theLastDecayed ) {
+                return;
+            }
+            double factor = Math.pow( 0.5, ((double) ( now - theLastDecayed )) / theHalfLife );
+            for( double [] current : theScores.values() ) {
+                current[0] *= factor;
+            }
+            theLastDecayed = now;
+        }
+
+        /**
+         * Record a write.
+         *
+         * @param writerIdentifier identifies the NetMeshBase that wrote
+         * @param now the current time
+         */
+        protected void record(
+                NetMeshBaseIdentifier writerIdentifier,
+                long                  now )
+        {
+            decay( now );
+
+            double [] found = theScores.get( writerIdentifier );
+            if( found == null ) {
+                found = new double[] { 0.0 };
+                theScores.put( writerIdentifier, found );
+            }
+            found[0] += 1.0;
+        }
+
+        /**
+         * Obtain the score of a writer.
+         *
+         * @param writerIdentifier identifies the NetMeshBase
+         * @return the score
+         */
+        protected double getScore(
+                NetMeshBaseIdentifier writerIdentifier )
+        {
+            double [] found = theScores.get( writerIdentifier );
+            return found != null ? found[0] : 0.0;
+        }
+
+        /**
+         * The score, per writer.
+         */
+        protected HashMap<NetMeshBaseIdentifier,double[]> theScores = new HashMap<NetMeshBaseIdentifier,double[]>();
+
+        /**
+         * The time at which the scores were decayed last.
+         */
+        protected long theLastDecayed = System.currentTimeMillis();
+    }
+
+    /**
+     * The NetMeshObjects written as part of the most recent write of one writer.
+     */
+    protected static class CurrentWrite
+    {
+        /**
+         * Constructor.
+         *
+         * @param write identifies the write
+         */
+        protected CurrentWrite(
+                Object write )
+        {
+            theWrite = write;
+        }
+
+        /**
+         * Identifies the write.
+         */
+        protected Object theWrite;
+
+        /**
+         * The NetMeshObjects written so far as part of the write.
+         */
+        protected HashSet<NetMeshObjectIdentifier> theWritten = new HashSet<NetMeshObjectIdentifier>();
+    }
+}
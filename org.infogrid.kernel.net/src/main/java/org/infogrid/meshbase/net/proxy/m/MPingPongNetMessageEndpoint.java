@@ -228,12 +228,30 @@ public class MPingPongNetMessageEndpoint
             List<XprisoMessage> content )
         throws
             MessageSendException
+    {
+        if( !resolvePartner( content )) {
+            // has been garbage collected, we are done
+            return;
+        }
+        super.sendMessage( token, content );
+    }
+
+    /**
+     * Find the partner MPingPongNetMessageEndpoint, if it has not been found already.
+     *
+     * @param content the content about to be sent, for error reporting
+     * @return false if the NameServer has been garbage collected, and there is nobody to talk to any more
+     * @throws MessageSendException thrown if the partner could not be found
+     */
+    protected boolean resolvePartner(
+            List<XprisoMessage> content )
+        throws
+            MessageSendException
     {
         if( thePartner == null ) {
             NameServer<NetMeshBaseIdentifier, ? extends NetMeshBase> nameServer = theNameServerRef.get();
             if( nameServer == null ) {
-                // has been garbage collected, we are done
-                return;
+                return false;
             }
             try {
                 NetMeshBase partnerBase = nameServer.get( thePartnerIdentifier );
@@ -252,7 +270,7 @@ public class MPingPongNetMessageEndpoint
                 throw new MessageSendException( content, ex );
             }
         }
-        super.sendMessage( token, content );
+        return true;
     }
 
     /**
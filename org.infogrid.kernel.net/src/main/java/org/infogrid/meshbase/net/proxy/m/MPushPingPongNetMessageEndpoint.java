@@ -0,0 +1,377 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy.m;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.infogrid.comm.MessageSendException;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.util.NameServer;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>Subclass of MPingPongNetMessageEndpoint that does not wait for its turn with the token
+ *    before it delivers outgoing messages. Instead, messages enqueued with <code>sendMessageAsap</code>
+ *    are collected for a short coalescing window, and then pushed to the partner endpoint right away.
+ *    This is the common case when a Proxy forwards the changes of a just-committed Transaction.
+ *    Pushed messages are delivered to the partner's regular listeners.</p>
+ * <p>Messages only ever bypass the token if no messages are waiting for the token already, so the
+ *    order in which the partner receives messages is the order in which they were enqueued. If a push
+ *    cannot be delivered, the pushed messages are handed to the regular ping-pong queue instead, where
+ *    they are subject to the usual resend and recovery.</p>
+ */
+public class MPushPingPongNetMessageEndpoint
+        extends
+            MPingPongNetMessageEndpoint
+{
+    private static final Log log = Log.getLogInstance( MPushPingPongNetMessageEndpoint.class ); // our own, private logger
+
+    /**
+     * Factory method.
+     *
+     * @param name the name of the PingPongMessageEndpoint (for debugging only)
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param myIdentifier identifier of the NetMeshBase on whose behalf this endpoint communicates
+     * @param nameServer the NameServer to use to to resolve identifiers
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed
+     * @param exec the ScheduledExecutorService to schedule timed tasks
+     * @return the created MPushPingPongNetMessageEndpoint
+     */
+    public static MPushPingPongNetMessageEndpoint create(
+            String                                                  name,
+            NetMeshBaseIdentifier                                   partnerIdentifier,
+            NetMeshBaseIdentifier                                   myIdentifier,
+            NameServer<NetMeshBaseIdentifier,? extends NetMeshBase> nameServer,
+            long                                                    deltaRespondNoMessage,
+            long                                                    deltaRespondWithMessage,
+            long                                                    deltaResend,
+            long                                                    deltaRecover,
+            double                                                  randomVariation,
+            long                                                    coalesceWindow,
+            ScheduledExecutorService                                exec )
+    {
+        MPushPingPongNetMessageEndpoint ret = new MPushPingPongNetMessageEndpoint(
+                name,
+                partnerIdentifier,
+                myIdentifier,
+                nameServer,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec,
+                -1,
+                -1,
+                null,
+                new ArrayList<XprisoMessage>() );
+
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( MPushPingPongNetMessageEndpoint.class, "create" );
+        }
+        return ret;
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param name the name of the PingPongMessageEndpoint (for debugging only)
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param myIdentifier identifier of the NetMeshBase on whose behalf this endpoint communicates
+     * @param nameServer the NameServer to use to to resolve identifiers
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed
+     * @param exec the ScheduledExecutorService to schedule timed tasks
+     * @param lastSentToken the last token sent in a previous instantiation of this MessageEndpoint
+     * @param lastReceivedToken the last token received in a previous instantiation of this MessageEndpoint
+     * @param messagesSentLast the last set of Messages sent in a previous instantiation of this MessageEndpoint
+     * @param messagesToBeSent outgoing message queue (may or may not be empty)
+     * @return the created MPushPingPongNetMessageEndpoint
+     */
+    public static MPushPingPongNetMessageEndpoint restore(
+            String                                                  name,
+            NetMeshBaseIdentifier                                   partnerIdentifier,
+            NetMeshBaseIdentifier                                   myIdentifier,
+            NameServer<NetMeshBaseIdentifier,? extends NetMeshBase> nameServer,
+            long                                                    deltaRespondNoMessage,
+            long                                                    deltaRespondWithMessage,
+            long                                                    deltaResend,
+            long                                                    deltaRecover,
+            double                                                  randomVariation,
+            long                                                    coalesceWindow,
+            ScheduledExecutorService                                exec,
+            long                                                    lastSentToken,
+            long                                                    lastReceivedToken,
+            List<XprisoMessage>                                     messagesSentLast,
+            List<XprisoMessage>                                     messagesToBeSent )
+    {
+        MPushPingPongNetMessageEndpoint ret = new MPushPingPongNetMessageEndpoint(
+                name,
+                partnerIdentifier,
+                myIdentifier,
+                nameServer,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec,
+                lastSentToken,
+                lastReceivedToken,
+                messagesSentLast,
+                messagesToBeSent );
+
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( MPushPingPongNetMessageEndpoint.class, "restore" );
+        }
+        return ret;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the PingPongMessageEndpoint (for debugging only)
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param myIdentifier identifier of the NetMeshBase on whose behalf this endpoint communicates
+     * @param nameServer the NameServer to use to to resolve identifiers
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed
+     * @param exec the ScheduledExecutorService to schedule timed tasks
+     * @param lastSentToken the last token sent in a previous instantiation of this MessageEndpoint
+     * @param lastReceivedToken the last token received in a previous instantiation of this MessageEndpoint
+     * @param messagesSentLast the last set of Messages sent in a previous instantiation of this MessageEndpoint
+     * @param messagesToBeSent outgoing message queue (may or may not be empty)
+     */
+    protected MPushPingPongNetMessageEndpoint(
+            String                                                  name,
+            NetMeshBaseIdentifier                                   partnerIdentifier,
+            NetMeshBaseIdentifier                                   myIdentifier,
+            NameServer<NetMeshBaseIdentifier,? extends NetMeshBase> nameServer,
+            long                                                    deltaRespondNoMessage,
+            long                                                    deltaRespondWithMessage,
+            long                                                    deltaResend,
+            long                                                    deltaRecover,
+            double                                                  randomVariation,
+            long                                                    coalesceWindow,
+            ScheduledExecutorService                                exec,
+            long                                                    lastSentToken,
+            long                                                    lastReceivedToken,
+            List<XprisoMessage>                                     messagesSentLast,
+            List<XprisoMessage>                                     messagesToBeSent )
+    {
+        super(  name,
+                partnerIdentifier,
+                myIdentifier,
+                nameServer,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                exec,
+                lastSentToken,
+                lastReceivedToken,
+                messagesSentLast,
+                messagesToBeSent );
+
+        theCoalesceWindow = coalesceWindow;
+        thePushExec       = exec;
+    }
+
+    /**
+     * Send a message as soon as possible. If no other messages are waiting for the token,
+     * the message is pushed to the partner after the coalescing window.
+     *
+     * @param msg the Message to send
+     */
+    @Override
+    public void sendMessageAsap(
+            XprisoMessage msg )
+    {
+        synchronized( thePushQueue ) {
+            if( !thePushIsScheduled ) {
+                if( thePushIsDisabled || !messagesToBeSent().isEmpty() ) {
+                    // must not overtake what is already waiting for the token
+                    super.sendMessageAsap( msg );
+                    return;
+                }
+                thePushIsScheduled = true;
+                thePushExec.schedule(
+                        new Runnable() {
+                            public void run() {
+                                flushPushQueue();
+                            }
+                        },
+                        theCoalesceWindow,
+                        TimeUnit.MILLISECONDS );
+            }
+            thePushQueue.add( msg );
+        }
+    }
+
+    /**
+     * Attempt to send the outgoing messages, but stop receiving incoming messages.
+     */
+    @Override
+    public void gracefulDie()
+    {
+        synchronized( thePushLock ) {
+            // no push is in progress; hand what has been collected to the token
+            synchronized( thePushQueue ) {
+                for( XprisoMessage current : thePushQueue ) {
+                    super.sendMessageAsap( current );
+                }
+                thePushQueue.clear();
+
+                thePushIsScheduled = false;
+                thePushIsDisabled  = true;
+            }
+        }
+        super.gracefulDie();
+    }
+
+    /**
+     * Push the messages collected during the coalescing window to the partner. If that fails,
+     * fall back to sending them with the token. Messages enqueued while the push is in progress
+     * are collected for the next push, or follow the failed batch to the token queue, so they
+     * can never overtake it.
+     */
+    protected void flushPushQueue()
+    {
+        synchronized( thePushLock ) {
+            List<XprisoMessage> batch;
+            synchronized( thePushQueue ) {
+                batch = new ArrayList<XprisoMessage>( thePushQueue );
+                thePushQueue.clear();
+                // thePushIsScheduled remains set until this batch has been dealt with
+            }
+
+            boolean pushed = false;
+            try {
+                if( batch.isEmpty() || !resolvePartner( batch )) {
+                    pushed = true; // nothing to push, or nobody to talk to any more
+
+                } else if( !( thePartner instanceof MPushPingPongNetMessageEndpoint )) {
+                    throw new MessageSendException( batch, "Partner endpoint does not accept pushed messages: " + thePartner );
+
+                } else {
+                    ((MPushPingPongNetMessageEndpoint) thePartner).pushReceived( batch );
+                    pushed = true;
+
+                    for( XprisoMessage current : batch ) {
+                        notifyMessageSent( current );
+                    }
+                }
+
+            } catch( MessageSendException ex ) {
+                if( log.isDebugEnabled() ) {
+                    log.debug( this + ": push failed, falling back to token", ex );
+                }
+            }
+
+            synchronized( thePushQueue ) {
+                if( !pushed ) {
+                    for( XprisoMessage current : batch ) {
+                        super.sendMessageAsap( current );
+                    }
+                    for( XprisoMessage current : thePushQueue ) {
+                        super.sendMessageAsap( current );
+                    }
+                    thePushQueue.clear();
+                    thePushIsScheduled = false;
+
+                } else if( thePushQueue.isEmpty() || thePushIsDisabled ) {
+                    thePushIsScheduled = false;
+
+                } else {
+                    thePushExec.schedule(
+                            new Runnable() {
+                                public void run() {
+                                    flushPushQueue();
+                                }
+                            },
+                            theCoalesceWindow,
+                            TimeUnit.MILLISECONDS );
+                }
+            }
+        }
+    }
+
+    /**
+     * Messages have been pushed to this endpoint by the partner endpoint. They are delivered
+     * to the same listeners as the messages received with the token.
+     *
+     * @param batch the pushed messages
+     */
+    protected void pushReceived(
+            List<XprisoMessage> batch )
+    {
+        notifyMessageReceived( batch );
+    }
+
+    /**
+     * The number of milliseconds during which outgoing messages are collected before they are pushed.
+     */
+    protected long theCoalesceWindow;
+
+    /**
+     * The ScheduledExecutorService on which pushes are performed.
+     */
+    protected ScheduledExecutorService thePushExec;
+
+    /**
+     * The messages collected for the next push.
+     */
+    protected final List<XprisoMessage> thePushQueue = new ArrayList<XprisoMessage>();
+
+    /**
+     * True from the time a push has been scheduled until its messages have been delivered, or
+     * handed to the token queue. While set, outgoing messages are collected in thePushQueue.
+     * Guarded by thePushQueue.
+     */
+    protected boolean thePushIsScheduled;
+
+    /**
+     * Set once this endpoint is dying; from then on, all messages go with the token. Guarded by thePushQueue.
+     */
+    protected boolean thePushIsDisabled;
+
+    /**
+     * Serializes pushes.
+     */
+    protected final Object thePushLock = new Object();
+}
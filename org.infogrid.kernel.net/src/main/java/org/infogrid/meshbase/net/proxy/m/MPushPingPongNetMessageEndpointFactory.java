@@ -0,0 +1,206 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy.m;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.proxy.ProxyMessageEndpoint;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.util.FactoryException;
+import org.infogrid.util.ResourceHelper;
+
+/**
+ * Manufactures MessageEndpoints that do not persist their data themselves, and that
+ * push outgoing messages to their partner right away, using the ping-pong protocol
+ * only as a fallback.
+ */
+public class MPushPingPongNetMessageEndpointFactory
+        extends
+            MPingPongNetMessageEndpointFactory
+{
+    /**
+     * Factory method.
+     *
+     * @param exec the ScheduledExecutorService to schedule communication-related events
+     * @return the created MPushPingPongNetMessageEndpointFactory
+     */
+    public static MPushPingPongNetMessageEndpointFactory create(
+            ScheduledExecutorService exec )
+    {
+        long   deltaRespondNoMessage   = thePushResourceHelper.getResourceLongOrDefault(   "DeltaRespondNoMessage",   60L * 1000L ); // 1 minute
+        long   deltaRespondWithMessage = thePushResourceHelper.getResourceLongOrDefault(   "DeltaRespondWithMessage", 10L ); // quickly but still deterministic
+        long   deltaResend             = thePushResourceHelper.getResourceLongOrDefault(   "DeltaResend",             500L );
+        long   deltaRecover            = thePushResourceHelper.getResourceLongOrDefault(   "DeltaRecover",            deltaRespondNoMessage * 5L ); // 5 times longer
+        double randomVariation         = thePushResourceHelper.getResourceDoubleOrDefault( "RandomVariation",         0.02 ); // 2%
+        long   coalesceWindow          = thePushResourceHelper.getResourceLongOrDefault(   "CoalesceWindow",          2L ); // enough for a burst of commits
+
+        return new MPushPingPongNetMessageEndpointFactory(
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed
+     * @param exec the ScheduledExecutorService to schedule communication-related events
+     * @return the created MPushPingPongNetMessageEndpointFactory
+     */
+    public static MPushPingPongNetMessageEndpointFactory create(
+            long                     deltaRespondNoMessage,
+            long                     deltaRespondWithMessage,
+            long                     deltaResend,
+            long                     deltaRecover,
+            double                   randomVariation,
+            long                     coalesceWindow,
+            ScheduledExecutorService exec )
+    {
+        return new MPushPingPongNetMessageEndpointFactory(
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed
+     * @param exec the ScheduledExecutorService to schedule communication-related events
+     */
+    protected MPushPingPongNetMessageEndpointFactory(
+            long                     deltaRespondNoMessage,
+            long                     deltaRespondWithMessage,
+            long                     deltaResend,
+            long                     deltaRecover,
+            double                   randomVariation,
+            long                     coalesceWindow,
+            ScheduledExecutorService exec )
+    {
+        super(  deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                exec );
+
+        theCoalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param partnerIdentifier the key information required for object creation
+     * @param myIdentifier any argument-style information required for object creation
+     * @return the created object
+     * @throws FactoryException catch-all Exception, consider its cause
+     */
+    @Override
+    public MPushPingPongNetMessageEndpoint obtainFor(
+            NetMeshBaseIdentifier partnerIdentifier,
+            NetMeshBaseIdentifier myIdentifier )
+        throws
+            FactoryException
+    {
+        MPushPingPongNetMessageEndpoint ret = MPushPingPongNetMessageEndpoint.create(
+                "Endpoint " + myIdentifier.toExternalForm() + " -> " + partnerIdentifier.toExternalForm(),
+                partnerIdentifier,
+                myIdentifier,
+                theNameServer,
+                theDeltaRespondNoMessage,
+                theDeltaRespondWithMessage,
+                theDeltaResend,
+                theDeltaRecover,
+                theRandomVariation,
+                theCoalesceWindow,
+                theExecService );
+
+        return ret;
+    }
+
+    /**
+     * Restore a ProxyMessageEndpoint from storage.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the NetMeshBase to communicate with
+     * @param myIdentifier      the NetMeshBaseIdentifier of the NetMeshBase on whose behalf the restored ProxyMessageEndpoint will communicate
+     * @param lastTokenSent     the last token sent by this ProxyMessageEndpoint prior to being saved to storage
+     * @param lastTokenReceived the last token received by this ProxyMessageEndpoint prior to being saved to storage
+     * @param lastMessagesSent  the last messages sent whose receipt had not been acknowledged yet at the time of being saved to storage
+     * @param messagesToBeSent  the messages still to be sent at the time of being saved to storage
+     * @return the restored ProxyMessageEndpoint
+     * @throws FactoryException catch-all Exception, consider its cause
+     */
+    @Override
+    public ProxyMessageEndpoint restoreNetMessageEndpoint(
+            NetMeshBaseIdentifier partnerIdentifier,
+            NetMeshBaseIdentifier myIdentifier,
+            long                  lastTokenSent,
+            long                  lastTokenReceived,
+            List<XprisoMessage>   lastMessagesSent,
+            List<XprisoMessage>   messagesToBeSent )
+        throws
+            FactoryException
+    {
+        MPushPingPongNetMessageEndpoint ret = MPushPingPongNetMessageEndpoint.restore(
+                "Endpoint " + myIdentifier.toExternalForm() + " -> " + partnerIdentifier.toExternalForm(),
+                partnerIdentifier,
+                myIdentifier,
+                theNameServer,
+                theDeltaRespondNoMessage,
+                theDeltaRespondWithMessage,
+                theDeltaResend,
+                theDeltaRecover,
+                theRandomVariation,
+                theCoalesceWindow,
+                theExecService,
+                lastTokenSent,
+                lastTokenReceived,
+                lastMessagesSent,
+                messagesToBeSent );
+
+        return ret;
+    }
+
+    /**
+     * The number of milliseconds during which outgoing messages are collected before they are pushed.
+     */
+    protected long theCoalesceWindow;
+
+    /**
+     * Our ResourceHelper.
+     */
+    protected static final ResourceHelper thePushResourceHelper = ResourceHelper.getInstance( MPushPingPongNetMessageEndpointFactory.class );
+}
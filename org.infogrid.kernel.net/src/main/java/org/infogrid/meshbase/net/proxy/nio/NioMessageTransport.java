@@ -0,0 +1,871 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>Moves length-prefixed frames of bytes over non-blocking sockets. Knows nothing about
+ *    the content of the frames.</p>
+ * <p>Connections are served by selector Threads. Each selector Thread serves up to a configurable
+ *    number of connections; more selector Threads are started as more connections are opened.
+ *    Outgoing connections are kept open and reused, one per remote address. They are opened
+ *    without blocking the sender: frames sent while a connection is still being established
+ *    are queued, and written once the selector Thread has completed the connection.</p>
+ */
+public class NioMessageTransport
+{
+    private static final Log log = Log.getLogInstance( NioMessageTransport.class ); // our own, private logger
+
+    /**
+     * Factory method.
+     *
+     * @param listenAddress the local address to listen on; a port of 0 picks any free port
+     * @param connectionsPerSelector the maximum number of connections served by one selector Thread
+     * @param connectTimeout the timeout, in milliseconds, for opening an outgoing connection
+     * @param maxFrameSize the maximum size of an incoming frame, in bytes
+     * @param listener the FrameListener to notify of incoming frames
+     * @return the created NioMessageTransport
+     * @throws IOException thrown if the listen socket could not be opened
+     */
+    public static NioMessageTransport create(
+            InetSocketAddress listenAddress,
+            int               connectionsPerSelector,
+            int               connectTimeout,
+            int               maxFrameSize,
+            FrameListener     listener )
+        throws
+            IOException
+    {
+        NioMessageTransport ret = new NioMessageTransport( connectionsPerSelector, connectTimeout, maxFrameSize, listener );
+        ret.listen( listenAddress );
+        return ret;
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param connectionsPerSelector the maximum number of connections served by one selector Thread
+     * @param connectTimeout the timeout, in milliseconds, for opening an outgoing connection
+     * @param maxFrameSize the maximum size of an incoming frame, in bytes
+     * @param listener the FrameListener to notify of incoming frames
+     */
+    protected NioMessageTransport(
+            int           connectionsPerSelector,
+            int           connectTimeout,
+            int           maxFrameSize,
+            FrameListener listener )
+    {
+        theConnectionsPerSelector = connectionsPerSelector;
+        theConnectTimeout         = connectTimeout;
+        theMaxFrameSize           = maxFrameSize;
+        theListener               = listener;
+    }
+
+    /**
+     * Open the listen socket and start accepting connections.
+     *
+     * @param listenAddress the local address to listen on
+     * @throws IOException thrown if the listen socket could not be opened
+     */
+    protected void listen(
+            InetSocketAddress listenAddress )
+        throws
+            IOException
+    {
+        theServerChannel = ServerSocketChannel.open();
+        theServerChannel.configureBlocking( false );
+        theServerChannel.socket().setReuseAddress( true );
+        theServerChannel.socket().bind( listenAddress );
+
+        final SelectorLoop loop;
+        synchronized( theLoops ) {
+            loop = startLoop();
+        }
+        loop.execute( new Runnable() {
+                public void run()
+                {
+                    try {
+                        theServerChannel.register( loop.theSelector, SelectionKey.OP_ACCEPT, null );
+
+                    } catch( ClosedChannelException ex ) {
+                        log.error( ex );
+                    }
+                }
+        });
+    }
+
+    /**
+     * Obtain the local address on which this NioMessageTransport accepts connections.
+     *
+     * @return the address
+     */
+    public InetSocketAddress getListenAddress()
+    {
+        return (InetSocketAddress) theServerChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Send a frame to a remote address. This returns once the frame has been queued for sending,
+     * without waiting for the connection to be established.
+     *
+     * @param to the remote address
+     * @param frame the content of the frame, without length prefix
+     * @throws IOException thrown if no connection to the remote address could be initiated
+     */
+    public void send(
+            InetSocketAddress to,
+            byte []           frame )
+        throws
+            IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate( 4 + frame.length );
+        buf.putInt( frame.length );
+        buf.put( frame );
+        buf.flip();
+
+        obtainConnectionTo( to ).enqueue( buf );
+    }
+
+    /**
+     * Smart factory method for the outgoing connection to a remote address. A new connection
+     * is initiated, but not waited for; the selector Thread to which it is assigned completes it.
+     *
+     * @param to the remote address
+     * @return the Connection
+     * @throws IOException thrown if no connection could be initiated
+     */
+    protected Connection obtainConnectionTo(
+            InetSocketAddress to )
+        throws
+            IOException
+    {
+        synchronized( theOutgoing ) {
+            Connection ret = theOutgoing.get( to );
+            if( ret != null && ret.isOpen() ) {
+                return ret;
+            }
+            if( isClosed ) {
+                throw new ClosedChannelException();
+            }
+
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.configureBlocking( false );
+                channel.socket().setTcpNoDelay( true );
+                channel.socket().setKeepAlive( true );
+
+                boolean connected = channel.connect( to );
+
+                ret = assign( channel, to, !connected );
+
+            } catch( IOException ex ) {
+                channel.close();
+                throw ex;
+            }
+            theOutgoing.put( to, ret );
+            return ret;
+        }
+    }
+
+    /**
+     * Assign a newly opened channel to a selector Thread that has capacity, starting a new
+     * one if needed.
+     *
+     * @param channel the channel
+     * @param remote the remote address for outgoing connections, or null for accepted ones
+     * @param isConnecting true if the connection still needs to be completed
+     * @return the created Connection
+     */
+    protected Connection assign(
+            SocketChannel     channel,
+            InetSocketAddress remote,
+            boolean           isConnecting )
+    {
+        SelectorLoop loop = null;
+        synchronized( theLoops ) {
+            for( SelectorLoop current : theLoops ) {
+                if( current.theConnectionCount < theConnectionsPerSelector ) {
+                    loop = current;
+                    break;
+                }
+            }
+            if( loop == null ) {
+                loop = startLoop();
+            }
+            ++loop.theConnectionCount;
+        }
+
+        final Connection ret = new Connection( channel, loop, remote, isConnecting );
+        loop.execute( new Runnable() {
+                public void run()
+                {
+                    ret.register();
+                }
+        });
+        return ret;
+    }
+
+    /**
+     * Start a new selector Thread. This must be invoked while holding the lock on theLoops.
+     *
+     * @return the started SelectorLoop
+     */
+    protected SelectorLoop startLoop()
+    {
+        try {
+            SelectorLoop ret = new SelectorLoop( Selector.open(), theLoops.size() );
+            theLoops.add( ret );
+
+            ret.theThread.start();
+            return ret;
+
+        } catch( IOException ex ) {
+            throw new RuntimeException( ex ); // not recoverable
+        }
+    }
+
+    /**
+     * Determine whether this NioMessageTransport is still open.
+     *
+     * @return true if open
+     */
+    public boolean isOpen()
+    {
+        synchronized( theOutgoing ) {
+            return !isClosed;
+        }
+    }
+
+    /**
+     * Close all connections and stop all selector Threads.
+     */
+    public void close()
+    {
+        synchronized( theOutgoing ) {
+            isClosed = true;
+            theOutgoing.clear();
+        }
+        try {
+            theServerChannel.close();
+        } catch( IOException ex ) {
+            log.warn( ex );
+        }
+        synchronized( theLoops ) {
+            for( SelectorLoop current : theLoops ) {
+                current.shutdown();
+            }
+            theLoops.clear();
+        }
+    }
+
+    /**
+     * Accept an incoming connection.
+     */
+    protected void accept()
+    {
+        try {
+            SocketChannel channel = theServerChannel.accept();
+            if( channel != null ) {
+                channel.configureBlocking( false );
+                channel.socket().setTcpNoDelay( true );
+                channel.socket().setKeepAlive( true );
+                assign( channel, null, false );
+            }
+        } catch( IOException ex ) {
+            log.warn( ex );
+        }
+    }
+
+    /**
+     * The listen socket.
+     */
+    protected ServerSocketChannel theServerChannel;
+
+    /**
+     * The currently running selector Threads.
+     */
+    protected final ArrayList<SelectorLoop> theLoops = new ArrayList<SelectorLoop>();
+
+    /**
+     * The outgoing connections, keyed by remote address.
+     */
+    protected final HashMap<InetSocketAddress,Connection> theOutgoing = new HashMap<InetSocketAddress,Connection>();
+
+    /**
+     * The maximum number of connections served by one selector Thread.
+     */
+    protected final int theConnectionsPerSelector;
+
+    /**
+     * The timeout, in milliseconds, for completing an outgoing connection.
+     */
+    protected final int theConnectTimeout;
+
+    /**
+     * The maximum size of an incoming frame.
+     */
+    protected final int theMaxFrameSize;
+
+    /**
+     * The FrameListener to notify of incoming frames.
+     */
+    protected final FrameListener theListener;
+
+    /**
+     * Set once this NioMessageTransport has been closed.
+     */
+    protected boolean isClosed;
+
+    /**
+     * Notified of incoming frames.
+     */
+    public static interface FrameListener
+    {
+        /**
+         * A frame has been received. This is invoked on the selector Thread serving the connection,
+         * in the order in which the frames arrived, so implementations must return quickly.
+         *
+         * @param from the Connection on which the frame was received
+         * @param frame the content of the frame, without length prefix
+         */
+        public void frameReceived(
+                Connection from,
+                byte []    frame );
+
+        /**
+         * A Connection has been closed. No more frames will be received on it.
+         *
+         * @param closed the Connection
+         */
+        public void connectionClosed(
+                Connection closed );
+    }
+
+    /**
+     * One selector Thread and the connections it serves.
+     */
+    protected class SelectorLoop
+            implements
+                Runnable
+    {
+        /**
+         * Constructor.
+         *
+         * @param selector the Selector to use
+         * @param index index of this SelectorLoop, for naming its Thread
+         */
+        protected SelectorLoop(
+                Selector selector,
+                int      index )
+        {
+            theSelector = selector;
+            theThread   = new Thread( this, "NioMessageTransport-" + index );
+            theThread.setDaemon( true );
+        }
+
+        /**
+         * Run a task on this selector Thread.
+         *
+         * @param task the task
+         */
+        public void execute(
+                Runnable task )
+        {
+            theTasks.add( task );
+            theSelector.wakeup();
+        }
+
+        /**
+         * Stop this selector Thread and close its connections.
+         */
+        public void shutdown()
+        {
+            isRunning = false;
+            theSelector.wakeup();
+        }
+
+        /**
+         * Main loop.
+         */
+        public void run()
+        {
+            while( isRunning ) {
+                try {
+                    theSelector.select( untilNextConnectDeadline() );
+
+                    Runnable task;
+                    while( ( task = theTasks.poll() ) != null ) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> iter = theSelector.selectedKeys().iterator();
+                    while( iter.hasNext() ) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+
+                        if( !key.isValid() ) {
+                            continue;
+                        }
+                        if( key.isAcceptable() ) {
+                            accept();
+                            continue;
+                        }
+                        Connection conn = (Connection) key.attachment();
+                        if( key.isConnectable() ) {
+                            conn.handleConnect();
+                            continue;
+                        }
+                        if( key.isReadable() ) {
+                            conn.handleRead();
+                        }
+                        if( key.isValid() && key.isWritable() ) {
+                            conn.handleWrite();
+                        }
+                    }
+                    expireConnects();
+
+                } catch( IOException ex ) {
+                    log.error( ex );
+                } catch( RuntimeException ex ) {
+                    log.error( ex );
+                }
+            }
+
+            for( SelectionKey key : theSelector.keys() ) {
+                if( key.attachment() instanceof Connection ) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                theSelector.close();
+            } catch( IOException ex ) {
+                log.warn( ex );
+            }
+        }
+
+        /**
+         * Determine how long the next select may block, so connections that take too long
+         * to complete are noticed.
+         *
+         * @return the number of milliseconds, or 0 for no limit
+         */
+        protected long untilNextConnectDeadline()
+        {
+            long ret = 0L;
+            long now = System.currentTimeMillis();
+
+            for( Connection current : theConnecting ) {
+                long left = Math.max( 1L, current.theConnectDeadline - now );
+                if( ret == 0L || left < ret ) {
+                    ret = left;
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Close the connections that could not be completed in time.
+         */
+        protected void expireConnects()
+        {
+            if( theConnecting.isEmpty() ) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+
+            Iterator<Connection> iter = theConnecting.iterator();
+            while( iter.hasNext() ) {
+                Connection current = iter.next();
+                if( !current.isConnecting || !current.isOpen() ) {
+                    iter.remove();
+
+                } else if( now >= current.theConnectDeadline ) {
+                    iter.remove();
+                    log.warn( "Timed out connecting to " + current.theRemote );
+                    current.close();
+                }
+            }
+        }
+
+        /**
+         * The Selector.
+         */
+        protected final Selector theSelector;
+
+        /**
+         * The Thread running this SelectorLoop.
+         */
+        protected final Thread theThread;
+
+        /**
+         * Tasks to run on this selector Thread.
+         */
+        protected final ConcurrentLinkedQueue<Runnable> theTasks = new ConcurrentLinkedQueue<Runnable>();
+
+        /**
+         * The connections that are still being completed. Only accessed on the selector Thread.
+         */
+        protected final ArrayList<Connection> theConnecting = new ArrayList<Connection>();
+
+        /**
+         * Number of connections assigned to this SelectorLoop. Guarded by theLoops.
+         */
+        protected int theConnectionCount;
+
+        /**
+         * Set to false to stop.
+         */
+        protected volatile boolean isRunning = true;
+    }
+
+    /**
+     * One open socket connection.
+     */
+    public class Connection
+    {
+        /**
+         * Constructor.
+         *
+         * @param channel the underlying channel
+         * @param loop the SelectorLoop serving this Connection
+         * @param remote the remote address for outgoing connections, or null for accepted ones
+         * @param connecting true if the connection still needs to be completed
+         */
+        protected Connection(
+                SocketChannel     channel,
+                SelectorLoop      loop,
+                InetSocketAddress remote,
+                boolean           connecting )
+        {
+            theChannel     = channel;
+            theLoop        = loop;
+            theRemote      = remote;
+            thePeerAddress = remote != null ? remote : (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+            isConnecting   = connecting;
+        }
+
+        /**
+         * Register with the Selector. Invoked on the selector Thread.
+         */
+        protected void register()
+        {
+            try {
+                int ops;
+                if( isConnecting ) {
+                    ops = SelectionKey.OP_CONNECT;
+
+                    theConnectDeadline = System.currentTimeMillis() + theConnectTimeout;
+                    theLoop.theConnecting.add( this );
+
+                } else {
+                    ops = readyOps();
+                }
+                theKey = theChannel.register( theLoop.theSelector, ops, this );
+
+            } catch( ClosedChannelException ex ) {
+                close();
+            }
+        }
+
+        /**
+         * Determine the interest set of a completed connection.
+         *
+         * @return the interest set
+         */
+        protected int readyOps()
+        {
+            synchronized( theWriteQueue ) {
+                return theWriteQueue.isEmpty() ? SelectionKey.OP_READ : ( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+            }
+        }
+
+        /**
+         * Obtain the address of the remote end of this Connection.
+         *
+         * @return the address
+         */
+        public InetSocketAddress getRemoteAddress()
+        {
+            return thePeerAddress;
+        }
+
+        /**
+         * Obtain the object that the FrameListener associated with this Connection.
+         *
+         * @return the object, if any
+         */
+        public Object getAttachment()
+        {
+            return theAttachment;
+        }
+
+        /**
+         * Associate an object with this Connection, on behalf of the FrameListener.
+         *
+         * @param newValue the object
+         */
+        public void setAttachment(
+                Object newValue )
+        {
+            theAttachment = newValue;
+        }
+
+        /**
+         * Determine whether this Connection is still open.
+         *
+         * @return true if open
+         */
+        public boolean isOpen()
+        {
+            return theChannel.isOpen();
+        }
+
+        /**
+         * Queue a buffer for writing.
+         *
+         * @param buf the buffer, including the length prefix
+         * @throws ClosedChannelException thrown if this Connection has been closed
+         */
+        public void enqueue(
+                ByteBuffer buf )
+            throws
+                ClosedChannelException
+        {
+            if( !theChannel.isOpen() ) {
+                throw new ClosedChannelException();
+            }
+            synchronized( theWriteQueue ) {
+                theWriteQueue.add( buf );
+            }
+            theLoop.execute( new Runnable() {
+                    public void run()
+                    {
+                        if( theKey != null && theKey.isValid() && !isConnecting ) {
+                            theKey.interestOps( SelectionKey.OP_READ | SelectionKey.OP_WRITE );
+                        }
+                    }
+            });
+        }
+
+        /**
+         * Complete the connection. Invoked on the selector Thread.
+         */
+        protected void handleConnect()
+        {
+            try {
+                if( theChannel.finishConnect() ) {
+                    isConnecting = false;
+                    theLoop.theConnecting.remove( this );
+
+                    theKey.interestOps( readyOps() );
+                }
+            } catch( IOException ex ) {
+                log.warn( "Could not connect to " + theRemote + ": " + ex.getMessage() );
+                close();
+            }
+        }
+
+        /**
+         * Read what is available. Invoked on the selector Thread.
+         */
+        protected void handleRead()
+        {
+            try {
+                while( true ) {
+                    ByteBuffer current = theBody != null ? theBody : theLength;
+                    int        read    = theChannel.read( current );
+
+                    if( read < 0 ) {
+                        close();
+                        return;
+                    }
+                    if( current.hasRemaining() ) {
+                        return; // wait for more
+                    }
+                    if( current == theLength ) {
+                        theLength.flip();
+                        int length = theLength.getInt();
+                        theLength.clear();
+
+                        if( length < 0 || length > theMaxFrameSize ) {
+                            log.error( "Invalid frame length " + length + " from " + theChannel );
+                            close();
+                            return;
+                        }
+                        theBody = ByteBuffer.allocate( length );
+
+                    } else {
+                        byte [] frame = theBody.array();
+                        theBody = null;
+
+                        try {
+                            theListener.frameReceived( this, frame );
+                        } catch( RuntimeException ex ) {
+                            log.error( ex );
+                        }
+                    }
+                }
+            } catch( IOException ex ) {
+                if( log.isDebugEnabled() ) {
+                    log.debug( ex );
+                }
+                close();
+            }
+        }
+
+        /**
+         * Write what can be written. Invoked on the selector Thread.
+         */
+        protected void handleWrite()
+        {
+            try {
+                synchronized( theWriteQueue ) {
+                    while( !theWriteQueue.isEmpty() ) {
+                        ByteBuffer current = theWriteQueue.getFirst();
+                        theChannel.write( current );
+                        if( current.hasRemaining() ) {
+                            return; // socket buffer is full, wait for OP_WRITE
+                        }
+                        theWriteQueue.removeFirst();
+                    }
+                    theKey.interestOps( SelectionKey.OP_READ );
+                }
+            } catch( IOException ex ) {
+                if( log.isDebugEnabled() ) {
+                    log.debug( ex );
+                }
+                close();
+            }
+        }
+
+        /**
+         * Close this Connection. Frames not written yet are lost; the ping-pong protocol
+         * recovers from that.
+         */
+        public void close()
+        {
+            try {
+                theChannel.close();
+            } catch( IOException ex ) {
+                log.warn( ex );
+            }
+            if( theRemote != null ) {
+                synchronized( theOutgoing ) {
+                    if( theOutgoing.get( theRemote ) == this ) {
+                        theOutgoing.remove( theRemote );
+                    }
+                }
+            }
+            synchronized( theLoops ) {
+                if( !isCounted ) {
+                    return;
+                }
+                isCounted = false;
+                --theLoop.theConnectionCount;
+            }
+            try {
+                theListener.connectionClosed( this );
+            } catch( RuntimeException ex ) {
+                log.error( ex );
+            }
+        }
+
+        /**
+         * Convert to String, for debugging only.
+         *
+         * @return String representation
+         */
+        @Override
+        public String toString()
+        {
+            return "Connection " + ( theRemote != null ? "to " : "from " ) + thePeerAddress;
+        }
+
+        /**
+         * The underlying channel.
+         */
+        protected final SocketChannel theChannel;
+
+        /**
+         * The SelectorLoop serving this Connection.
+         */
+        protected final SelectorLoop theLoop;
+
+        /**
+         * The remote address for outgoing connections, or null for accepted ones.
+         */
+        protected final InetSocketAddress theRemote;
+
+        /**
+         * The address of the remote end.
+         */
+        protected final InetSocketAddress thePeerAddress;
+
+        /**
+         * True while the connection still needs to be completed. Only accessed on the selector Thread,
+         * after construction.
+         */
+        protected boolean isConnecting;
+
+        /**
+         * By when the connection must have been completed.
+         */
+        protected long theConnectDeadline;
+
+        /**
+         * The object that the FrameListener associated with this Connection.
+         */
+        protected volatile Object theAttachment;
+
+        /**
+         * The SelectionKey, once registered.
+         */
+        protected SelectionKey theKey;
+
+        /**
+         * Receives the length prefix of the next frame.
+         */
+        protected final ByteBuffer theLength = ByteBuffer.allocate( 4 );
+
+        /**
+         * Receives the body of the current frame, if its length is known.
+         */
+        protected ByteBuffer theBody;
+
+        /**
+         * Buffers waiting to be written.
+         */
+        protected final LinkedList<ByteBuffer> theWriteQueue = new LinkedList<ByteBuffer>();
+
+        /**
+         * True until this Connection has been subtracted from its SelectorLoop's count. Guarded by theLoops.
+         */
+        protected boolean isCounted = true;
+    }
+}
@@ -0,0 +1,776 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.infogrid.comm.MessageSendException;
+import org.infogrid.comm.pingpong.PingPongMessageEndpoint;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.proxy.NoopProxyMetrics;
+import org.infogrid.meshbase.net.proxy.ProxyManager;
+import org.infogrid.meshbase.net.proxy.ProxyMessageEndpoint;
+import org.infogrid.meshbase.net.proxy.ProxyMetrics;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.util.logging.Log;
+
+/**
+ * Subclass of PingPongMessageEndpoint to be used for Proxy communication across
+ * processes. The tokens and messages of the ping-pong protocol are sent as frames
+ * through the NioMessageTransport of the NioNetMessageEndpointFactory that created this
+ * endpoint. Lost frames are recovered from by the ping-pong protocol itself.
+ *
+ * If a coalescing window is given, outgoing messages do not wait for the token, like with
+ * MPushPingPongNetMessageEndpoint: they are collected for the coalescing window, and then pushed
+ * to the partner in a frame of their own. Pushes are numbered, delivered by the partner strictly
+ * in sequence, and resent until the partner acknowledges them. Messages only bypass the token if
+ * no messages are waiting for the token already, and messages wait for the token only if no
+ * pushes are in flight, so the partner receives messages in the order in which they were enqueued.
+ */
+public class NioNetMessageEndpoint
+        extends
+            PingPongMessageEndpoint<XprisoMessage>
+        implements
+            ProxyMessageEndpoint
+{
+    private static final Log log = Log.getLogInstance( NioNetMessageEndpoint.class ); // our own, private logger
+
+    /**
+     * Factory method.
+     *
+     * @param name the name of the PingPongMessageEndpoint (for debugging only)
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param myIdentifier identifier of the NetMeshBase on whose behalf this endpoint communicates
+     * @param factory the NioNetMessageEndpointFactory that created this endpoint and owns the transport
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed,
+     *                       or a negative number if messages are only sent with the token
+     * @param exec the ScheduledExecutorService to schedule timed tasks
+     * @return the created NioNetMessageEndpoint
+     */
+    public static NioNetMessageEndpoint create(
+            String                       name,
+            NetMeshBaseIdentifier        partnerIdentifier,
+            NetMeshBaseIdentifier        myIdentifier,
+            NioNetMessageEndpointFactory factory,
+            long                         deltaRespondNoMessage,
+            long                         deltaRespondWithMessage,
+            long                         deltaResend,
+            long                         deltaRecover,
+            double                       randomVariation,
+            long                         coalesceWindow,
+            ScheduledExecutorService     exec )
+    {
+        NioNetMessageEndpoint ret = new NioNetMessageEndpoint(
+                name,
+                partnerIdentifier,
+                myIdentifier,
+                factory,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec,
+                -1,
+                -1,
+                null,
+                new ArrayList<XprisoMessage>() );
+
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( NioNetMessageEndpoint.class, "create" );
+        }
+        return ret;
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param name the name of the PingPongMessageEndpoint (for debugging only)
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param myIdentifier identifier of the NetMeshBase on whose behalf this endpoint communicates
+     * @param factory the NioNetMessageEndpointFactory that created this endpoint and owns the transport
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed,
+     *                       or a negative number if messages are only sent with the token
+     * @param exec the ScheduledExecutorService to schedule timed tasks
+     * @param lastSentToken the last token sent in a previous instantiation of this MessageEndpoint
+     * @param lastReceivedToken the last token received in a previous instantiation of this MessageEndpoint
+     * @param messagesSentLast the last set of Messages sent in a previous instantiation of this MessageEndpoint
+     * @param messagesToBeSent outgoing message queue (may or may not be empty)
+     * @return the created NioNetMessageEndpoint
+     */
+    public static NioNetMessageEndpoint restore(
+            String                       name,
+            NetMeshBaseIdentifier        partnerIdentifier,
+            NetMeshBaseIdentifier        myIdentifier,
+            NioNetMessageEndpointFactory factory,
+            long                         deltaRespondNoMessage,
+            long                         deltaRespondWithMessage,
+            long                         deltaResend,
+            long                         deltaRecover,
+            double                       randomVariation,
+            long                         coalesceWindow,
+            ScheduledExecutorService     exec,
+            long                         lastSentToken,
+            long                         lastReceivedToken,
+            List<XprisoMessage>          messagesSentLast,
+            List<XprisoMessage>          messagesToBeSent )
+    {
+        NioNetMessageEndpoint ret = new NioNetMessageEndpoint(
+                name,
+                partnerIdentifier,
+                myIdentifier,
+                factory,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec,
+                lastSentToken,
+                lastReceivedToken,
+                messagesSentLast,
+                messagesToBeSent );
+
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( NioNetMessageEndpoint.class, "restore" );
+        }
+        return ret;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the PingPongMessageEndpoint (for debugging only)
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param myIdentifier identifier of the NetMeshBase on whose behalf this endpoint communicates
+     * @param factory the NioNetMessageEndpointFactory that created this endpoint and owns the transport
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed,
+     *                       or a negative number if messages are only sent with the token
+     * @param exec the ScheduledExecutorService to schedule timed tasks
+     * @param lastSentToken the last token sent in a previous instantiation of this MessageEndpoint
+     * @param lastReceivedToken the last token received in a previous instantiation of this MessageEndpoint
+     * @param messagesSentLast the last set of Messages sent in a previous instantiation of this MessageEndpoint
+     * @param messagesToBeSent outgoing message queue (may or may not be empty)
+     */
+    protected NioNetMessageEndpoint(
+            String                       name,
+            NetMeshBaseIdentifier        partnerIdentifier,
+            NetMeshBaseIdentifier        myIdentifier,
+            NioNetMessageEndpointFactory factory,
+            long                         deltaRespondNoMessage,
+            long                         deltaRespondWithMessage,
+            long                         deltaResend,
+            long                         deltaRecover,
+            double                       randomVariation,
+            long                         coalesceWindow,
+            ScheduledExecutorService     exec,
+            long                         lastSentToken,
+            long                         lastReceivedToken,
+            List<XprisoMessage>          messagesSentLast,
+            List<XprisoMessage>          messagesToBeSent )
+    {
+        super(  name,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                exec,
+                lastSentToken,
+                lastReceivedToken,
+                messagesSentLast,
+                messagesToBeSent );
+
+        if( partnerIdentifier.equals( myIdentifier )) {
+            throw new IllegalArgumentException( "Cannot talk to myself: " + myIdentifier.toExternalForm() );
+        }
+
+        thePartnerIdentifier = partnerIdentifier;
+        theMyIdentifier      = myIdentifier;
+        theFactory           = factory;
+        theCoalesceWindow    = coalesceWindow;
+        theDeltaResend       = deltaResend;
+        thePushExec          = exec;
+
+        long session;
+        do {
+            session = ThreadLocalRandom.current().nextLong();
+        } while( session == 0L );
+        thePushSession = session;
+    }
+
+    /**
+     * Determine the NetMeshBaseIdentifier of the partner MeshBase.
+     *
+     * @return the NetMeshBaseIdentifier of the partner MeshBase
+     */
+    public NetMeshBaseIdentifier getNetworkIdentifierOfPartner()
+    {
+        return thePartnerIdentifier;
+    }
+
+    /**
+     * Do the message send.
+     *
+     * @param token the token of the message
+     * @param content the content to send.
+     * @throws MessageSendException thrown if the message could not be sent
+     */
+    @Override
+    protected void sendMessage(
+            long                token,
+            List<XprisoMessage> content )
+        throws
+            MessageSendException
+    {
+        InetSocketAddress partnerAddress = theFactory.getAddressOf( thePartnerIdentifier );
+        if( partnerAddress == null ) {
+            throw new MessageSendException( content, "No address known for NetMeshBase with identifier " + thePartnerIdentifier );
+        }
+
+        try {
+            byte [] frame = theFactory.encodeFrame( theMyIdentifier, thePartnerIdentifier, NioNetMessageEndpointFactory.FRAME_TOKEN, 0L, token, content );
+
+            theFactory.getTransport().send( partnerAddress, frame );
+
+            getMetrics().bytesSent( frame.length );
+
+        } catch( EncodingException ex ) {
+            throw new MessageSendException( content, ex );
+
+        } catch( IOException ex ) {
+            throw new MessageSendException( content, ex );
+        }
+    }
+
+    /**
+     * Send a message as soon as possible. If pushing is enabled, and no other messages are waiting
+     * for the token, the message is pushed to the partner after the coalescing window.
+     *
+     * @param msg the Message to send
+     */
+    @Override
+    public void sendMessageAsap(
+            XprisoMessage msg )
+    {
+        if( theCoalesceWindow < 0 ) {
+            super.sendMessageAsap( msg );
+            return;
+        }
+        synchronized( thePushQueue ) {
+            if( !thePushFallback.isEmpty() ) {
+                // must not overtake the messages that could not be pushed
+                thePushFallback.add( msg );
+                return;
+            }
+            if( !thePushIsScheduled ) {
+                if( thePushesInFlight.isEmpty() && ( thePushIsDisabled || !super.messagesToBeSent().isEmpty() )) {
+                    // must not overtake what is already waiting for the token
+                    super.sendMessageAsap( msg );
+                    return;
+                }
+                // while earlier pushes have not been acknowledged, keep pushing, so nothing overtakes them
+                thePushIsScheduled = true;
+                thePushExec.schedule(
+                        new Runnable() {
+                            public void run() {
+                                flushPushQueue();
+                            }
+                        },
+                        theCoalesceWindow,
+                        TimeUnit.MILLISECONDS );
+            }
+            thePushQueue.add( msg );
+        }
+    }
+
+    /**
+     * Attempt to send the outgoing messages, but stop receiving incoming messages.
+     */
+    @Override
+    public void gracefulDie()
+    {
+        synchronized( thePushQueue ) {
+            thePushIsDisabled = true;
+        }
+        if( theCoalesceWindow >= 0 ) {
+            flushPushQueue(); // pushes in flight continue to be resent until acknowledged
+        }
+        super.gracefulDie();
+    }
+
+    /**
+     * Obtain the messages that have not been delivered to the partner yet: the pushes that
+     * have not been acknowledged, the messages collected for the next push or waiting for the
+     * pushes in flight, and the messages waiting for the token, in this order.
+     *
+     * @return the messages
+     */
+    @Override
+    public List<XprisoMessage> messagesToBeSent()
+    {
+        List<XprisoMessage> ret = new ArrayList<XprisoMessage>();
+        synchronized( thePushQueue ) {
+            for( PendingPush current : thePushesInFlight.values() ) {
+                ret.addAll( current.theMessages );
+            }
+            ret.addAll( thePushQueue );
+            ret.addAll( thePushFallback );
+        }
+        ret.addAll( super.messagesToBeSent() );
+        return ret;
+    }
+
+    /**
+     * Push the messages collected during the coalescing window to the partner. The push is
+     * resent until the partner acknowledges it. If the messages cannot be encoded into a push,
+     * they go with the token, but not before all pushes in flight have been acknowledged.
+     */
+    protected void flushPushQueue()
+    {
+        synchronized( thePushLock ) {
+            List<XprisoMessage> batch;
+            long                sequence;
+            byte []             frame;
+
+            synchronized( thePushQueue ) {
+                batch = new ArrayList<XprisoMessage>( thePushQueue );
+                thePushQueue.clear();
+
+                if( batch.isEmpty() ) {
+                    thePushIsScheduled = false;
+                    return;
+                }
+                sequence = thePushSequence + 1;
+                try {
+                    frame = theFactory.encodeFrame( theMyIdentifier, thePartnerIdentifier, NioNetMessageEndpointFactory.FRAME_PUSH, thePushSession, sequence, batch );
+
+                } catch( EncodingException ex ) {
+                    log.error( this + ": cannot push, falling back to token", ex );
+                    frame = null;
+                } catch( IOException ex ) {
+                    log.error( this + ": cannot push, falling back to token", ex );
+                    frame = null;
+                }
+
+                if( frame != null ) {
+                    thePushSequence = sequence;
+                    thePushesInFlight.put( sequence, new PendingPush( batch, frame ));
+
+                } else if( thePushesInFlight.isEmpty() ) {
+                    for( XprisoMessage current : batch ) {
+                        super.sendMessageAsap( current );
+                    }
+                } else {
+                    // must not overtake the pushes in flight; released to the token once they have been acknowledged
+                    thePushFallback.addAll( batch );
+                }
+                // the batch is in flight, so messages sent from now on are pushed after it
+                thePushIsScheduled = false;
+            }
+
+            if( frame != null ) {
+                sendPushFrame( frame );
+                scheduleResendPushes();
+            }
+        }
+    }
+
+    /**
+     * Send the frame of a push.
+     *
+     * @param frame the frame
+     */
+    protected void sendPushFrame(
+            byte [] frame )
+    {
+        InetSocketAddress partnerAddress = theFactory.getAddressOf( thePartnerIdentifier );
+        if( partnerAddress == null ) {
+            if( log.isDebugEnabled() ) {
+                log.debug( this + ": no address known for " + thePartnerIdentifier + ", will resend push" );
+            }
+            return;
+        }
+        try {
+            theFactory.getTransport().send( partnerAddress, frame );
+
+            getMetrics().bytesSent( frame.length );
+
+        } catch( IOException ex ) {
+            if( log.isDebugEnabled() ) {
+                log.debug( this + ": push failed, will resend", ex );
+            }
+        }
+    }
+
+    /**
+     * Make sure the pushes in flight are resent if they are not acknowledged in time.
+     */
+    protected void scheduleResendPushes()
+    {
+        synchronized( thePushQueue ) {
+            if( theResendIsScheduled || thePushesInFlight.isEmpty() ) {
+                return;
+            }
+            theResendIsScheduled = true;
+        }
+        thePushExec.schedule(
+                new Runnable() {
+                    public void run() {
+                        resendPushes();
+                    }
+                },
+                theDeltaResend,
+                TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Resend all pushes that have not been acknowledged yet, in sequence.
+     */
+    protected void resendPushes()
+    {
+        synchronized( thePushLock ) {
+            List<PendingPush> pending;
+            synchronized( thePushQueue ) {
+                theResendIsScheduled = false;
+                pending = new ArrayList<PendingPush>( thePushesInFlight.values() );
+            }
+            if( pending.isEmpty() ) {
+                return;
+            }
+            if( !theFactory.getTransport().isOpen() ) {
+                log.warn( this + ": transport closed, dropping " + pending.size() + " unacknowledged pushes" );
+                synchronized( thePushQueue ) {
+                    thePushesInFlight.clear();
+                    releasePushFallback();
+                }
+                return;
+            }
+            for( PendingPush current : pending ) {
+                sendPushFrame( current.theFrame );
+            }
+        }
+        scheduleResendPushes();
+    }
+
+    /**
+     * A frame for this endpoint has arrived and has been decoded. To be invoked by the
+     * NioNetMessageEndpointFactory only.
+     *
+     * @param token the token of the message
+     * @param content the received messages
+     */
+    protected void frameReceived(
+            long                token,
+            List<XprisoMessage> content )
+    {
+        incomingMessage( token, content );
+    }
+
+    /**
+     * A push has arrived from the partner endpoint. It is delivered to the regular listeners
+     * if it is the next one in sequence; then the last push delivered in sequence is acknowledged,
+     * so the partner stops resending. To be invoked by the
+     * NioNetMessageEndpointFactory only, for the frames of one connection one after the other.
+     *
+     * @param session identifies the instance of the partner endpoint that pushed
+     * @param sequence the sequence number of the push within the session
+     * @param content the pushed messages
+     */
+    protected void pushReceived(
+            long                session,
+            long                sequence,
+            List<XprisoMessage> content )
+    {
+        boolean deliver;
+        long    acknowledge;
+
+        synchronized( thePushQueue ) {
+            if( session != theReceivedPushSession ) {
+                if( sequence != 1L ) {
+                    return; // missed the start of a new session; the partner will resend
+                }
+                theReceivedPushSession  = session;
+                theReceivedPushSequence = 0L;
+            }
+            deliver = sequence == theReceivedPushSequence + 1;
+            if( deliver ) {
+                theReceivedPushSequence = sequence;
+            }
+            acknowledge = theReceivedPushSequence;
+        }
+
+        if( deliver ) {
+            notifyMessageReceived( content );
+        }
+
+        InetSocketAddress partnerAddress = theFactory.getAddressOf( thePartnerIdentifier );
+        if( partnerAddress == null ) {
+            return;
+        }
+        try {
+            byte [] frame = theFactory.encodeFrame( theMyIdentifier, thePartnerIdentifier, NioNetMessageEndpointFactory.FRAME_PUSH_ACK, session, acknowledge, null );
+
+            theFactory.getTransport().send( partnerAddress, frame );
+
+        } catch( EncodingException ex ) {
+            log.error( ex );
+        } catch( IOException ex ) {
+            if( log.isDebugEnabled() ) {
+                log.debug( this + ": could not acknowledge push", ex );
+            }
+        }
+    }
+
+    /**
+     * The partner endpoint has acknowledged all pushes up to and including a sequence number.
+     * To be invoked by the NioNetMessageEndpointFactory only.
+     *
+     * @param session identifies the instance of this endpoint that pushed
+     * @param sequence the highest sequence number received by the partner
+     */
+    protected void pushAcknowledged(
+            long session,
+            long sequence )
+    {
+        if( session != thePushSession ) {
+            return; // meant for an earlier instance of this endpoint
+        }
+        List<PendingPush> done = new ArrayList<PendingPush>();
+        synchronized( thePushQueue ) {
+            Iterator<Map.Entry<Long,PendingPush>> iter = thePushesInFlight.entrySet().iterator();
+            while( iter.hasNext() ) {
+                Map.Entry<Long,PendingPush> current = iter.next();
+                if( current.getKey() > sequence ) {
+                    break;
+                }
+                done.add( current.getValue() );
+                iter.remove();
+            }
+            releasePushFallback();
+        }
+        for( PendingPush current : done ) {
+            for( XprisoMessage msg : current.theMessages ) {
+                notifyMessageSent( msg );
+            }
+        }
+    }
+
+    /**
+     * Once no pushes are in flight any more, hand the messages that could not be pushed to the
+     * token, in the order in which they were enqueued. To be invoked while holding thePushQueue.
+     */
+    protected void releasePushFallback()
+    {
+        if( !thePushesInFlight.isEmpty() || thePushFallback.isEmpty() ) {
+            return;
+        }
+        for( XprisoMessage current : thePushFallback ) {
+            super.sendMessageAsap( current );
+        }
+        thePushFallback.clear();
+    }
+
+    /**
+     * Convert to String, for debugging only.
+     *
+     * @return String representation
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append( super.toString() );
+        buf.append( "{ " );
+        buf.append( theMyIdentifier.toExternalForm() );
+        buf.append( " -> " );
+        buf.append( thePartnerIdentifier.toExternalForm() );
+        buf.append( " }" );
+        return buf.toString();
+    }
+
+    /**
+     * Obtain the ProxyMetrics on which to record the traffic with the partner. The ProxyManager
+     * of the local NetMeshBase is looked up once, and then kept.
+     *
+     * @return the ProxyMetrics, or a no-op instance if the local NetMeshBase could not be found
+     */
+    protected ProxyMetrics getMetrics()
+    {
+        ProxyManager manager = theProxyManager;
+        if( manager == null ) {
+            manager = theFactory.proxyManagerFor( theMyIdentifier );
+            if( manager == null ) {
+                return NoopProxyMetrics.SINGLETON;
+            }
+            theProxyManager = manager;
+        }
+        return manager.obtainMetricsFor( thePartnerIdentifier );
+    }
+
+    /**
+     * Identifier of the local MeshBase.
+     */
+    protected NetMeshBaseIdentifier theMyIdentifier;
+
+    /**
+     * Identifier of the partner MeshBase.
+     */
+    protected NetMeshBaseIdentifier thePartnerIdentifier;
+
+    /**
+     * The factory that created this endpoint and owns the transport.
+     */
+    protected NioNetMessageEndpointFactory theFactory;
+
+    /**
+     * The ProxyManager of the local NetMeshBase, once found.
+     */
+    protected volatile ProxyManager theProxyManager;
+
+    /**
+     * The number of milliseconds during which outgoing messages are collected before they are pushed,
+     * or a negative number if pushing is disabled.
+     */
+    protected long theCoalesceWindow;
+
+    /**
+     * The number of milliseconds after which unacknowledged pushes are resent.
+     */
+    protected long theDeltaResend;
+
+    /**
+     * The ScheduledExecutorService on which pushes are performed.
+     */
+    protected ScheduledExecutorService thePushExec;
+
+    /**
+     * Identifies this instance of the endpoint to the partner, so the partner can tell a restarted endpoint's pushes
+     * from late copies of earlier ones.
+     */
+    protected final long thePushSession;
+
+    /**
+     * The messages collected for the next push.
+     */
+    protected final List<XprisoMessage> thePushQueue = new ArrayList<XprisoMessage>();
+
+    /**
+     * True while a push has been scheduled but its batch has not been taken yet. Guarded by thePushQueue.
+     */
+    protected boolean thePushIsScheduled;
+
+    /**
+     * Set once this endpoint is dying; from then on, new messages go with the token unless pushes are in flight.
+     * Guarded by thePushQueue.
+     */
+    protected boolean thePushIsDisabled;
+
+    /**
+     * The sequence number of the most recent push. Guarded by thePushQueue.
+     */
+    protected long thePushSequence;
+
+    /**
+     * The pushes not acknowledged yet, keyed by sequence number, in sequence. Guarded by thePushQueue.
+     */
+    protected final TreeMap<Long,PendingPush> thePushesInFlight = new TreeMap<Long,PendingPush>();
+
+    /**
+     * The messages that could not be pushed, and that wait for the pushes in flight to be acknowledged
+     * before they go with the token. Messages enqueued in the meantime are appended, so they cannot
+     * overtake them. Guarded by thePushQueue.
+     */
+    protected final List<XprisoMessage> thePushFallback = new ArrayList<XprisoMessage>();
+
+    /**
+     * True while a resend of the pushes in flight has been scheduled. Guarded by thePushQueue.
+     */
+    protected boolean theResendIsScheduled;
+
+    /**
+     * Serializes the sending of pushes.
+     */
+    protected final Object thePushLock = new Object();
+
+    /**
+     * The session of the partner endpoint from which pushes are currently accepted. Guarded by thePushQueue.
+     */
+    protected long theReceivedPushSession;
+
+    /**
+     * The sequence number of the last push delivered from the partner endpoint's current session. Guarded by thePushQueue.
+     */
+    protected long theReceivedPushSequence;
+
+    /**
+     * A push that has been sent, but not acknowledged yet.
+     */
+    protected static class PendingPush
+    {
+        /**
+         * Constructor.
+         *
+         * @param messages the pushed messages
+         * @param frame the encoded frame
+         */
+        protected PendingPush(
+                List<XprisoMessage> messages,
+                byte []             frame )
+        {
+            theMessages = messages;
+            theFrame    = frame;
+        }
+
+        /**
+         * The pushed messages.
+         */
+        protected final List<XprisoMessage> theMessages;
+
+        /**
+         * The encoded frame, ready to be resent.
+         */
+        protected final byte [] theFrame;
+    }
+}
@@ -0,0 +1,862 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.proxy.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifierFactory;
+import org.infogrid.meshbase.net.NetMeshBaseNameServer;
+import org.infogrid.meshbase.net.proxy.Proxy;
+import org.infogrid.meshbase.net.proxy.ProxyManager;
+import org.infogrid.meshbase.net.proxy.ProxyMessageEndpoint;
+import org.infogrid.meshbase.net.proxy.ProxyMessageEndpointFactory;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoder;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoders;
+import org.infogrid.model.primitives.externalized.DecodingException;
+import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.util.AbstractFactory;
+import org.infogrid.util.FactoryException;
+import org.infogrid.util.ResourceHelper;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>Manufactures MessageEndpoints that do not persist their data themselves, and that
+ *    communicate via the ping-pong protocol over non-blocking sockets. This allows
+ *    NetMeshBases in different processes, and on different hosts, to replicate from each other.</p>
+ * <p>All endpoints created by one instance of this class share one NioMessageTransport, and thus
+ *    one listen port. Partner NetMeshBases are found through the addresses registered with
+ *    {@link #registerAddress}; in addition, the address of each partner that sends a frame
+ *    is remembered, so only one of two partners needs to know the address of the other.</p>
+ * <p>The first frame from a partner NetMeshBase binds its identifier to the connection on which
+ *    it arrived. Until that connection closes, frames claiming to come from the same partner on
+ *    any other connection are dropped. Frames received on the same connection are dispatched
+ *    one after the other, in the order in which they arrived.</p>
+ * <p>Before the first frame to a partner NetMeshBase, a hello frame offers the XprisoMessage
+ *    encodings supported here; the partner answers with its own. Until the answer has arrived,
+ *    XprisoMessages are encoded with the fallback encoding that every party supports; after
+ *    that, with the encoding negotiated by {@link XprisoMessageEncoders#negotiate}. When the
+ *    connection from the partner closes, the negotiation starts over.</p>
+ */
+public class NioNetMessageEndpointFactory
+        extends
+            AbstractFactory<NetMeshBaseIdentifier,ProxyMessageEndpoint,NetMeshBaseIdentifier>
+        implements
+            ProxyMessageEndpointFactory,
+            NioMessageTransport.FrameListener
+{
+    private static final Log log = Log.getLogInstance( NioNetMessageEndpointFactory.class ); // our own, private logger
+
+    /**
+     * Factory method.
+     *
+     * @param listenAddress the local address to listen on; a port of 0 picks any free port
+     * @param meshBaseIdentifierFactory parses the NetMeshBaseIdentifiers in incoming frames
+     * @param exec the ScheduledExecutorService to schedule communication-related events
+     * @return the created NioNetMessageEndpointFactory
+     * @throws IOException thrown if the listen socket could not be opened
+     */
+    public static NioNetMessageEndpointFactory create(
+            InetSocketAddress            listenAddress,
+            NetMeshBaseIdentifierFactory meshBaseIdentifierFactory,
+            ScheduledExecutorService     exec )
+        throws
+            IOException
+    {
+        return create(
+                listenAddress,
+                meshBaseIdentifierFactory,
+                theResourceHelper.getResourceLongOrDefault( "CoalesceWindow", -1L ), // push is off by default
+                exec );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param listenAddress the local address to listen on; a port of 0 picks any free port
+     * @param meshBaseIdentifierFactory parses the NetMeshBaseIdentifiers in incoming frames
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed,
+     *                       or a negative number if messages are only sent with the token
+     * @param exec the ScheduledExecutorService to schedule communication-related events
+     * @return the created NioNetMessageEndpointFactory
+     * @throws IOException thrown if the listen socket could not be opened
+     */
+    public static NioNetMessageEndpointFactory create(
+            InetSocketAddress            listenAddress,
+            NetMeshBaseIdentifierFactory meshBaseIdentifierFactory,
+            long                         coalesceWindow,
+            ScheduledExecutorService     exec )
+        throws
+            IOException
+    {
+        long   deltaRespondNoMessage   = theResourceHelper.getResourceLongOrDefault(   "DeltaRespondNoMessage",   60L * 1000L ); // 1 minute
+        long   deltaRespondWithMessage = theResourceHelper.getResourceLongOrDefault(   "DeltaRespondWithMessage", 10L ); // quickly but still deterministic
+        long   deltaResend             = theResourceHelper.getResourceLongOrDefault(   "DeltaResend",             500L );
+        long   deltaRecover            = theResourceHelper.getResourceLongOrDefault(   "DeltaRecover",            deltaRespondNoMessage * 5L ); // 5 times longer
+        double randomVariation         = theResourceHelper.getResourceDoubleOrDefault( "RandomVariation",         0.02 ); // 2%
+
+        NioNetMessageEndpointFactory ret = new NioNetMessageEndpointFactory(
+                meshBaseIdentifierFactory,
+                deltaRespondNoMessage,
+                deltaRespondWithMessage,
+                deltaResend,
+                deltaRecover,
+                randomVariation,
+                coalesceWindow,
+                exec );
+
+        ret.theTransport = NioMessageTransport.create(
+                listenAddress,
+                CONNECTIONS_PER_SELECTOR,
+                CONNECT_TIMEOUT,
+                MAX_FRAME_SIZE,
+                ret );
+        return ret;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param meshBaseIdentifierFactory parses the NetMeshBaseIdentifiers in incoming frames
+     * @param deltaRespondNoMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if no message is in the queue
+     * @param deltaRespondWithMessage the number of milliseconds until this PingPongMessageEndpoint returns the token if a message is in the queue
+     * @param deltaResend  the number of milliseconds until this PingPongMessageEndpoint resends the token if sending the token failed
+     * @param deltaRecover the number of milliseconds until this PingPongMessageEndpoint decides that the token
+     *                     was not received by the partner PingPongMessageEndpoint, and resends
+     * @param randomVariation the random component to add to the various times
+     * @param coalesceWindow the number of milliseconds during which outgoing messages are collected before they are pushed,
+     *                       or a negative number if messages are only sent with the token
+     * @param exec the ScheduledExecutorService to schedule communication-related events
+     */
+    protected NioNetMessageEndpointFactory(
+            NetMeshBaseIdentifierFactory meshBaseIdentifierFactory,
+            long                         deltaRespondNoMessage,
+            long                         deltaRespondWithMessage,
+            long                         deltaResend,
+            long                         deltaRecover,
+            double                       randomVariation,
+            long                         coalesceWindow,
+            ScheduledExecutorService     exec )
+    {
+        theMeshBaseIdentifierFactory = meshBaseIdentifierFactory;
+        theDeltaRespondNoMessage     = deltaRespondNoMessage;
+        theDeltaRespondWithMessage   = deltaRespondWithMessage;
+        theDeltaResend               = deltaResend;
+        theDeltaRecover              = deltaRecover;
+        theRandomVariation           = randomVariation;
+        theCoalesceWindow            = coalesceWindow;
+
+        theExecService = exec;
+    }
+
+    /**
+     * Set the NameServer to use to find the local NetMeshBases to which incoming frames are addressed.
+     * This is a separate method and not in the constructor because there are situations where the NameServer
+     * is not available at the time of construction of an instance.
+     *
+     * @param nameServer the NameServer
+     */
+    public void setNameServer(
+            NetMeshBaseNameServer<NetMeshBaseIdentifier,NetMeshBase> nameServer )
+    {
+        theNameServer = nameServer;
+    }
+
+    /**
+     * Register the address at which the NioNetMessageEndpointFactory serving a partner NetMeshBase listens.
+     *
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @param address the address
+     */
+    public void registerAddress(
+            NetMeshBaseIdentifier partnerIdentifier,
+            InetSocketAddress     address )
+    {
+        synchronized( theAddresses ) {
+            theAddresses.put( partnerIdentifier, address );
+        }
+    }
+
+    /**
+     * Obtain the address at which a partner NetMeshBase can be reached.
+     *
+     * @param partnerIdentifier identifier of the partner NetMeshBase
+     * @return the address, or null if not known
+     */
+    public InetSocketAddress getAddressOf(
+            NetMeshBaseIdentifier partnerIdentifier )
+    {
+        synchronized( theAddresses ) {
+            return theAddresses.get( partnerIdentifier );
+        }
+    }
+
+    /**
+     * Obtain the local address on which this factory's endpoints receive frames.
+     *
+     * @return the address
+     */
+    public InetSocketAddress getListenAddress()
+    {
+        return theTransport.getListenAddress();
+    }
+
+    /**
+     * Obtain the NioMessageTransport shared by this factory's endpoints.
+     *
+     * @return the NioMessageTransport
+     */
+    public NioMessageTransport getTransport()
+    {
+        return theTransport;
+    }
+
+    /**
+     * Close the NioMessageTransport. The endpoints created by this factory cannot communicate afterwards.
+     */
+    public void close()
+    {
+        theTransport.close();
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param partnerIdentifier the key information required for object creation
+     * @param myIdentifier any argument-style information required for object creation
+     * @return the created object
+     * @throws FactoryException catch-all Exception, consider its cause
+     */
+    public NioNetMessageEndpoint obtainFor(
+            NetMeshBaseIdentifier partnerIdentifier,
+            NetMeshBaseIdentifier myIdentifier )
+        throws
+            FactoryException
+    {
+        NioNetMessageEndpoint ret = NioNetMessageEndpoint.create(
+                "Endpoint " + myIdentifier.toExternalForm() + " -> " + partnerIdentifier.toExternalForm(),
+                partnerIdentifier,
+                myIdentifier,
+                this,
+                theDeltaRespondNoMessage,
+                theDeltaRespondWithMessage,
+                theDeltaResend,
+                theDeltaRecover,
+                theRandomVariation,
+                theCoalesceWindow,
+                theExecService );
+
+        return ret;
+    }
+
+    /**
+     * Restore a ProxyMessageEndpoint from storage.
+     *
+     * @param partnerIdentifier the NetMeshBaseIdentifier of the NetMeshBase to communicate with
+     * @param myIdentifier      the NetMeshBaseIdentifier of the NetMeshBase on whose behalf the restored ProxyMessageEndpoint will communicate
+     * @param lastTokenSent     the last token sent by this ProxyMessageEndpoint prior to being saved to storage
+     * @param lastTokenReceived the last token received by this ProxyMessageEndpoint prior to being saved to storage
+     * @param lastMessagesSent  the last messages sent whose receipt had not been acknowledged yet at the time of being saved to storage
+     * @param messagesToBeSent  the messages still to be sent at the time of being saved to storage
+     * @return the restored ProxyMessageEndpoint
+     * @throws FactoryException catch-all Exception, consider its cause
+     */
+    public ProxyMessageEndpoint restoreNetMessageEndpoint(
+            NetMeshBaseIdentifier partnerIdentifier,
+            NetMeshBaseIdentifier myIdentifier,
+            long                  lastTokenSent,
+            long                  lastTokenReceived,
+            List<XprisoMessage>   lastMessagesSent,
+            List<XprisoMessage>   messagesToBeSent )
+        throws
+            FactoryException
+    {
+        NioNetMessageEndpoint ret = NioNetMessageEndpoint.restore(
+                "Endpoint " + myIdentifier.toExternalForm() + " -> " + partnerIdentifier.toExternalForm(),
+                partnerIdentifier,
+                myIdentifier,
+                this,
+                theDeltaRespondNoMessage,
+                theDeltaRespondWithMessage,
+                theDeltaResend,
+                theDeltaRecover,
+                theRandomVariation,
+                theCoalesceWindow,
+                theExecService,
+                lastTokenSent,
+                lastTokenReceived,
+                lastMessagesSent,
+                messagesToBeSent );
+
+        return ret;
+    }
+
+    /**
+     * Encode a frame. A frame consists of the identifiers of sender and receiver, the port on which
+     * the sender listens, the kind of frame, the push session and the token or push sequence number,
+     * and the messages, each of which is framed with its encoding id. The messages are encoded
+     * with the encoding negotiated with the receiver.
+     *
+     * @param senderIdentifier identifier of the sending NetMeshBase
+     * @param receiverIdentifier identifier of the receiving NetMeshBase
+     * @param kind the kind of frame, such as FRAME_TOKEN
+     * @param session the push session, or 0 for tokens
+     * @param number the token, or the push sequence number
+     * @param content the messages, may be null
+     * @return the frame
+     * @throws EncodingException thrown if a message could not be encoded
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public byte [] encodeFrame(
+            NetMeshBaseIdentifier senderIdentifier,
+            NetMeshBaseIdentifier receiverIdentifier,
+            byte                  kind,
+            long                  session,
+            long                  number,
+            List<XprisoMessage>   content )
+        throws
+            EncodingException,
+            IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream      out   = new DataOutputStream( bytes );
+
+        out.writeUTF( senderIdentifier.getCanonicalForm() );
+        out.writeUTF( receiverIdentifier.getCanonicalForm() );
+        out.writeInt( getListenAddress().getPort() );
+        out.writeByte( kind );
+        out.writeLong( session );
+        out.writeLong( number );
+
+        int n = content != null ? content.size() : 0;
+        out.writeInt( n );
+
+        XprisoMessageEncoder  encoder    = n > 0 ? obtainEncoderFor( senderIdentifier, receiverIdentifier ) : null;
+        ByteArrayOutputStream msgBytes   = new ByteArrayOutputStream();
+        for( int i=0 ; i<n ; ++i ) {
+            msgBytes.reset();
+            XprisoMessageEncoders.encodeFramed( content.get( i ), encoder, msgBytes );
+
+            out.writeInt( msgBytes.size() );
+            msgBytes.writeTo( out );
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Determine the XprisoMessageEncoder to use for messages to a partner NetMeshBase. If nothing
+     * has been negotiated with the partner yet, offer the encodings supported here, and use the
+     * fallback encoding until the partner has answered.
+     *
+     * @param senderIdentifier identifier of the sending NetMeshBase
+     * @param receiverIdentifier identifier of the receiving NetMeshBase
+     * @return the XprisoMessageEncoder
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected XprisoMessageEncoder obtainEncoderFor(
+            NetMeshBaseIdentifier senderIdentifier,
+            NetMeshBaseIdentifier receiverIdentifier )
+        throws
+            IOException
+    {
+        synchronized( theNegotiatedEncoders ) {
+            XprisoMessageEncoder ret = theNegotiatedEncoders.get( receiverIdentifier );
+            if( ret != null ) {
+                return ret;
+            }
+            if( !theHellosSent.add( receiverIdentifier )) {
+                return XprisoMessageEncoders.negotiate( null );
+            }
+        }
+        sendHello( senderIdentifier, receiverIdentifier, HELLO_OFFER );
+
+        return XprisoMessageEncoders.negotiate( null );
+    }
+
+    /**
+     * Send a hello frame with the encodings supported here.
+     *
+     * @param senderIdentifier identifier of the sending NetMeshBase
+     * @param receiverIdentifier identifier of the receiving NetMeshBase
+     * @param helloKind HELLO_OFFER or HELLO_ANSWER
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected void sendHello(
+            NetMeshBaseIdentifier senderIdentifier,
+            NetMeshBaseIdentifier receiverIdentifier,
+            long                  helloKind )
+        throws
+            IOException
+    {
+        InetSocketAddress partnerAddress = getAddressOf( receiverIdentifier );
+        if( partnerAddress == null ) {
+            synchronized( theNegotiatedEncoders ) {
+                theHellosSent.remove( receiverIdentifier ); // try again next time
+            }
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream      out   = new DataOutputStream( bytes );
+
+        out.writeUTF( senderIdentifier.getCanonicalForm() );
+        out.writeUTF( receiverIdentifier.getCanonicalForm() );
+        out.writeInt( getListenAddress().getPort() );
+        out.writeByte( FRAME_HELLO );
+        out.writeLong( 0L );
+        out.writeLong( helloKind );
+
+        String [] supported = XprisoMessageEncoders.getSupportedEncodingIds();
+        out.writeInt( supported.length );
+        for( String current : supported ) {
+            out.writeUTF( current );
+        }
+        out.flush();
+
+        theTransport.send( partnerAddress, bytes.toByteArray() );
+    }
+
+    /**
+     * A hello frame has been received. Remember what to use for messages to the partner, and
+     * answer an offer with the encodings supported here.
+     *
+     * @param senderIdentifier identifier of the partner NetMeshBase that sent the hello
+     * @param receiverIdentifier identifier of the local NetMeshBase
+     * @param helloKind HELLO_OFFER or HELLO_ANSWER
+     * @param in the rest of the frame
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected void helloReceived(
+            NetMeshBaseIdentifier senderIdentifier,
+            NetMeshBaseIdentifier receiverIdentifier,
+            long                  helloKind,
+            DataInputStream       in )
+        throws
+            IOException
+    {
+        String [] partnerEncodingIds = new String[ in.readInt() ];
+        for( int i=0 ; i<partnerEncodingIds.length ; ++i ) {
+            partnerEncodingIds[i] = in.readUTF();
+        }
+        XprisoMessageEncoder negotiated = XprisoMessageEncoders.negotiate( partnerEncodingIds );
+
+        if( log.isDebugEnabled() ) {
+            log.debug( this + ": using " + negotiated.getEncodingId() + " for " + senderIdentifier );
+        }
+        synchronized( theNegotiatedEncoders ) {
+            theNegotiatedEncoders.put( senderIdentifier, negotiated );
+            theHellosSent.add( senderIdentifier );
+        }
+        if( helloKind == HELLO_OFFER ) {
+            sendHello( receiverIdentifier, senderIdentifier, HELLO_ANSWER );
+        }
+    }
+
+    /**
+     * A frame has been received. Decoding and dispatching happens on the ScheduledExecutorService, so
+     * the selector Thread can go on serving its connections, but never for more than one frame of the same
+     * connection at a time.
+     *
+     * @param from the Connection on which the frame was received
+     * @param frame the content of the frame, without length prefix
+     */
+    public void frameReceived(
+            NioMessageTransport.Connection from,
+            byte []                        frame )
+    {
+        ConnectionState state = (ConnectionState) from.getAttachment(); // only ever set on this selector Thread
+        if( state == null ) {
+            state = new ConnectionState( from );
+            from.setAttachment( state );
+        }
+        state.enqueue( frame );
+    }
+
+    /**
+     * A Connection has been closed. Release the partner identifiers bound to it, and forget
+     * the encodings negotiated with them.
+     *
+     * @param closed the Connection
+     */
+    public void connectionClosed(
+            NioMessageTransport.Connection closed )
+    {
+        ConnectionState state = (ConnectionState) closed.getAttachment();
+        if( state == null ) {
+            return;
+        }
+        synchronized( theSenderBindings ) {
+            for( NetMeshBaseIdentifier current : state.theSenderIdentifiers ) {
+                if( theSenderBindings.get( current ) == state ) {
+                    theSenderBindings.remove( current );
+
+                    synchronized( theNegotiatedEncoders ) {
+                        // the partner may come back with different encodings
+                        theNegotiatedEncoders.remove( current );
+                        theHellosSent.remove( current );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a frame and pass its content to the endpoint to which it is addressed.
+     *
+     * @param from the state of the Connection on which the frame was received
+     * @param frame the content of the frame, without length prefix
+     */
+    protected void dispatchFrame(
+            ConnectionState from,
+            byte []         frame )
+    {
+        try {
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( frame ));
+
+            NetMeshBaseIdentifier senderIdentifier   = theMeshBaseIdentifierFactory.guessFromExternalForm( in.readUTF() );
+            NetMeshBaseIdentifier receiverIdentifier = theMeshBaseIdentifierFactory.guessFromExternalForm( in.readUTF() );
+            int                   senderPort         = in.readInt();
+            byte                  kind               = in.readByte();
+            long                  session            = in.readLong();
+            long                  number             = in.readLong();
+
+            if( !bindSender( senderIdentifier, from, senderPort )) {
+                log.warn( "Dropping frame from " + from.theConnection + " claiming to be from " + senderIdentifier + ", which is bound to another connection" );
+                return;
+            }
+
+            NetMeshBase receiver = theNameServer != null ? theNameServer.get( receiverIdentifier ) : null;
+            if( receiver == null ) {
+                log.warn( "Received frame for unknown NetMeshBase " + receiverIdentifier + " from " + senderIdentifier );
+                return;
+            }
+
+            if( kind == FRAME_HELLO ) {
+                helloReceived( senderIdentifier, receiverIdentifier, number, in );
+                return;
+            }
+
+            int                      n       = in.readInt();
+            ArrayList<XprisoMessage> content = new ArrayList<XprisoMessage>( n );
+            for( int i=0 ; i<n ; ++i ) {
+                byte [] msgBytes = new byte[ in.readInt() ];
+                in.readFully( msgBytes );
+
+                content.add( XprisoMessageEncoders.decodeFramed( new ByteArrayInputStream( msgBytes ), receiver ));
+            }
+
+            // no ProxyParameters: the partner initiated this conversation, and states what it needs in its messages
+            Proxy partnerProxy = receiver.obtainProxyFor( senderIdentifier, null );
+            if( partnerProxy == null ) {
+                log.error( "Could not obtain proxy for " + senderIdentifier + " from NetMeshBase " + receiverIdentifier );
+                return;
+            }
+
+            partnerProxy.getMetrics().bytesReceived( frame.length );
+
+            NioNetMessageEndpoint endpoint = (NioNetMessageEndpoint) partnerProxy.getMessageEndpoint();
+            switch( kind ) {
+                case FRAME_TOKEN:
+                    endpoint.frameReceived( number, content );
+                    break;
+
+                case FRAME_PUSH:
+                    endpoint.pushReceived( session, number, content );
+                    break;
+
+                case FRAME_PUSH_ACK:
+                    endpoint.pushAcknowledged( session, number );
+                    break;
+
+                default:
+                    log.warn( "Received frame of unknown kind " + kind + " from " + senderIdentifier );
+                    break;
+            }
+
+        } catch( ParseException ex ) {
+            log.error( ex );
+        } catch( DecodingException ex ) {
+            log.error( ex );
+        } catch( FactoryException ex ) {
+            log.error( ex );
+        } catch( IOException ex ) {
+            log.error( ex );
+        } catch( RuntimeException ex ) {
+            log.error( ex );
+        }
+    }
+
+    /**
+     * Bind the identifier of a partner NetMeshBase to the Connection on which its frame arrived,
+     * unless it is bound to another Connection that is still open. Also remember the address at
+     * which the partner can be reached, if not known yet.
+     *
+     * @param senderIdentifier the identifier claimed by the frame
+     * @param from the state of the Connection on which the frame arrived
+     * @param senderPort the port on which the partner claims to listen
+     * @return true if the frame may be dispatched
+     */
+    protected boolean bindSender(
+            NetMeshBaseIdentifier senderIdentifier,
+            ConnectionState       from,
+            int                   senderPort )
+    {
+        synchronized( theSenderBindings ) {
+            ConnectionState bound = theSenderBindings.get( senderIdentifier );
+            if( bound == from ) {
+                return true;
+            }
+            if( bound != null && bound.theConnection.isOpen() ) {
+                return false;
+            }
+            theSenderBindings.put( senderIdentifier, from );
+            from.theSenderIdentifiers.add( senderIdentifier );
+        }
+
+        synchronized( theAddresses ) {
+            if( !theAddresses.containsKey( senderIdentifier )) {
+                theAddresses.put( senderIdentifier, new InetSocketAddress( from.theConnection.getRemoteAddress().getAddress(), senderPort ));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the ProxyManager of a local NetMeshBase, which keeps the ProxyMetrics on which the
+     * local NetMeshBase records its traffic with its partners.
+     *
+     * @param myIdentifier the NetMeshBaseIdentifier of the local NetMeshBase
+     * @return the ProxyManager, or null if the local NetMeshBase could not be found
+     */
+    protected ProxyManager proxyManagerFor(
+            NetMeshBaseIdentifier myIdentifier )
+    {
+        NetMeshBase local = theNameServer != null ? theNameServer.get( myIdentifier ) : null;
+
+        if( local != null && local.getAsProxyNameServer() instanceof ProxyManager ) {
+            return (ProxyManager) local.getAsProxyNameServer();
+        }
+        return null;
+    }
+
+    /**
+     * Parses the NetMeshBaseIdentifiers in incoming frames.
+     */
+    protected NetMeshBaseIdentifierFactory theMeshBaseIdentifierFactory;
+
+    /**
+     * The NioMessageTransport shared by this factory's endpoints.
+     */
+    protected NioMessageTransport theTransport;
+
+    /**
+     * Known addresses of partner NetMeshBases.
+     */
+    protected final HashMap<NetMeshBaseIdentifier,InetSocketAddress> theAddresses = new HashMap<NetMeshBaseIdentifier,InetSocketAddress>();
+
+    /**
+     * The ScheduledExecutorService to use.
+     */
+    protected ScheduledExecutorService theExecService;
+
+    /**
+     * The Connections to which the identifiers of partner NetMeshBases are bound.
+     */
+    protected final HashMap<NetMeshBaseIdentifier,ConnectionState> theSenderBindings = new HashMap<NetMeshBaseIdentifier,ConnectionState>();
+
+    /**
+     * The XprisoMessageEncoders negotiated with partner NetMeshBases. Also guards theHellosSent.
+     */
+    protected final HashMap<NetMeshBaseIdentifier,XprisoMessageEncoder> theNegotiatedEncoders = new HashMap<NetMeshBaseIdentifier,XprisoMessageEncoder>();
+
+    /**
+     * The partner NetMeshBases to which the encodings supported here have been offered.
+     */
+    protected final HashSet<NetMeshBaseIdentifier> theHellosSent = new HashSet<NetMeshBaseIdentifier>();
+
+    /**
+     * The NameServer to find the local NetMeshBases to which incoming frames are addressed.
+     */
+    protected NetMeshBaseNameServer<NetMeshBaseIdentifier,NetMeshBase> theNameServer;
+
+    /**
+     * Our ResourceHelper.
+     */
+    protected static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( NioNetMessageEndpointFactory.class );
+
+    /**
+     * Maximum number of connections served by one selector Thread.
+     */
+    protected static final int CONNECTIONS_PER_SELECTOR = theResourceHelper.getResourceIntegerOrDefault( "ConnectionsPerSelector", 64 );
+
+    /**
+     * Timeout, in milliseconds, for completing a connection.
+     */
+    protected static final int CONNECT_TIMEOUT = theResourceHelper.getResourceIntegerOrDefault( "ConnectTimeout", 5000 );
+
+    /**
+     * Maximum size of an incoming frame, in bytes.
+     */
+    protected static final int MAX_FRAME_SIZE = theResourceHelper.getResourceIntegerOrDefault( "MaxFrameSize", 64 * 1024 * 1024 );
+
+    /**
+     * Milliseconds from ping to pong if no message is in the queue.
+     */
+    protected long theDeltaRespondNoMessage;
+
+    /**
+     * Milliseconds from ping to pong if a message is in the queue.
+     */
+    protected long theDeltaRespondWithMessage;
+
+    /**
+     * Millisecond until we attempt to resend failed messages.
+     */
+    protected long theDeltaResend;
+
+    /**
+     * Millisecond until we attempt to recover.
+     */
+    protected long theDeltaRecover;
+
+    /**
+     * Random variation, as percentage, of the respond and recover times.
+     */
+    protected double theRandomVariation;
+
+    /**
+     * Milliseconds during which outgoing messages are collected before they are pushed, or negative if push is off.
+     */
+    protected long theCoalesceWindow;
+
+    /**
+     * Kind of frame: messages sent with the ping-pong token.
+     */
+    public static final byte FRAME_TOKEN = 0;
+
+    /**
+     * Kind of frame: messages pushed without the token.
+     */
+    public static final byte FRAME_PUSH = 1;
+
+    /**
+     * Kind of frame: acknowledges pushed messages.
+     */
+    public static final byte FRAME_PUSH_ACK = 2;
+
+    /**
+     * Kind of frame: offers or answers the supported encodings.
+     */
+    public static final byte FRAME_HELLO = 3;
+
+    /**
+     * Hello frame that asks for an answer.
+     */
+    protected static final long HELLO_OFFER = 0L;
+
+    /**
+     * Hello frame that answers an offer.
+     */
+    protected static final long HELLO_ANSWER = 1L;
+
+    /**
+     * What this factory knows about one incoming Connection.
+     */
+    protected class ConnectionState
+            implements
+                Runnable
+    {
+        /**
+         * Constructor.
+         *
+         * @param conn the Connection
+         */
+        protected ConnectionState(
+                NioMessageTransport.Connection conn )
+        {
+            theConnection = conn;
+        }
+
+        /**
+         * Queue a received frame for dispatching, and make sure the frames of this Connection are being dispatched.
+         *
+         * @param frame the content of the frame, without length prefix
+         */
+        public void enqueue(
+                byte [] frame )
+        {
+            synchronized( theFrames ) {
+                theFrames.add( frame );
+                if( isScheduled ) {
+                    return;
+                }
+                isScheduled = true;
+            }
+            theExecService.execute( this );
+        }
+
+        /**
+         * Dispatch the queued frames, one after the other.
+         */
+        public void run()
+        {
+            while( true ) {
+                byte [] frame;
+                synchronized( theFrames ) {
+                    frame = theFrames.poll();
+                    if( frame == null ) {
+                        isScheduled = false;
+                        return;
+                    }
+                }
+                dispatchFrame( this, frame );
+            }
+        }
+
+        /**
+         * The Connection.
+         */
+        protected final NioMessageTransport.Connection theConnection;
+
+        /**
+         * The frames received, but not dispatched yet.
+         */
+        protected final LinkedList<byte []> theFrames = new LinkedList<byte []>();
+
+        /**
+         * True while a task dispatches the frames of this Connection. Guarded by theFrames.
+         */
+        protected boolean isScheduled;
+
+        /**
+         * The identifiers of the partner NetMeshBases bound to this Connection. Guarded by theSenderBindings.
+         */
+        protected final HashSet<NetMeshBaseIdentifier> theSenderIdentifiers = new HashSet<NetMeshBaseIdentifier>();
+    }
+}
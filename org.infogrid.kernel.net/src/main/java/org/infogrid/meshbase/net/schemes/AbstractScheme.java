@@ -42,6 +42,20 @@ public abstract class AbstractScheme
         return theName;
     }
 
+    /**
+     * Determine whether strictlyMatchAndCreate may succeed, without a context, for a candidate
+     * String that starts with this URI scheme prefix followed by a colon. By default, we
+     * cannot tell, so subclasses should override this if they can.
+     *
+     * @param prefix the lower-case URI scheme prefix
+     * @return false if this Scheme cannot strictly match such a String
+     */
+    public boolean mayStrictlyMatchPrefix(
+            String prefix )
+    {
+        return true;
+    }
+
     /**
      * The name of the scheme.
      */
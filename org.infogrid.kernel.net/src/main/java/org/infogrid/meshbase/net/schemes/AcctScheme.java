@@ -74,6 +74,23 @@ public class AcctScheme
         return null;
     }
 
+    /**
+     * Determine whether strictlyMatchAndCreate may succeed, without a context, for a candidate
+     * String that starts with this URI scheme prefix followed by a colon.
+     *
+     * @param prefix the lower-case URI scheme prefix
+     * @return false if this Scheme cannot strictly match such a String
+     */
+    @Override
+    public boolean mayStrictlyMatchPrefix(
+            String prefix )
+    {
+        if( thePattern == ACCT_PATTERN ) {
+            return "acct".equals( prefix ); // the Pattern requires it
+        }
+        return super.mayStrictlyMatchPrefix( prefix );
+    }
+
     /**
      * Determine whether this Scheme is restful.
      *
@@ -32,6 +32,23 @@ public class HttpsScheme
         super( "https", HTTPS_PATTERN );
     }
 
+    /**
+     * Determine whether strictlyMatchAndCreate may succeed, without a context, for a candidate
+     * String that starts with this URI scheme prefix followed by a colon.
+     *
+     * @param prefix the lower-case URI scheme prefix
+     * @return false if this Scheme cannot strictly match such a String
+     */
+    @Override
+    public boolean mayStrictlyMatchPrefix(
+            String prefix )
+    {
+        if( thePattern == HTTPS_PATTERN ) {
+            return "https".equals( prefix ); // the Pattern requires it
+        }
+        return super.mayStrictlyMatchPrefix( prefix );
+    }
+
     /**
      * Helper method to remove an unnecessary port specification.
      *
@@ -42,6 +42,17 @@ public interface Scheme
             String                       candidate,
             NetMeshBaseIdentifierFactory fact );
 
+    /**
+     * Determine whether strictlyMatchAndCreate may succeed, without a context, for a candidate
+     * String that starts with this URI scheme prefix followed by a colon. Returning true is
+     * always safe; returning false lets the DefaultNetMeshBaseIdentifierFactory skip this Scheme.
+     *
+     * @param prefix the lower-case URI scheme prefix
+     * @return false if this Scheme cannot strictly match such a String
+     */
+    public abstract boolean mayStrictlyMatchPrefix(
+            String prefix );
+
     /**
      * Attempt to convert this candidate identifier String into an identifier with this
      * scheme, taking creative license if needed. If successful, return the identifier,
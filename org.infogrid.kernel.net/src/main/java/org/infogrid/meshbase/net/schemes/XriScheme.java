@@ -90,6 +90,21 @@ public class XriScheme
         return ret;
     }
 
+    /**
+     * Determine whether strictlyMatchAndCreate may succeed, without a context, for a candidate
+     * String that starts with this URI scheme prefix followed by a colon. This is only the case
+     * for the prefix of the XRI resolver, e.g. http.
+     *
+     * @param prefix the lower-case URI scheme prefix
+     * @return false if this Scheme cannot strictly match such a String
+     */
+    @Override
+    public boolean mayStrictlyMatchPrefix(
+            String prefix )
+    {
+        return theXriResolverPrefix.toLowerCase().startsWith( prefix + ":" );
+    }
+
     /**
      * Determine whether this Scheme is restful.
      *
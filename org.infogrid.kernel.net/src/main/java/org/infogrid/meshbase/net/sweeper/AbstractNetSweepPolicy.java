@@ -14,9 +14,12 @@
 
 package org.infogrid.meshbase.net.sweeper;
 
+import java.util.ArrayList;
+import java.util.List;
 import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.security.MustNotDeleteHomeObjectException;
 import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
 import org.infogrid.meshbase.net.NetSweepPolicy;
 import org.infogrid.meshbase.sweeper.AbstractSweepPolicy;
 import org.infogrid.meshbase.transaction.Transaction;
@@ -61,6 +64,74 @@ public abstract class AbstractNetSweepPolicy
         }
     }
 
+    /**
+     * Invoked by a background sweep process, the Sweeper will purge those of the
+     * NetMeshObjects that should be purged. All of them are purged in the same
+     * Transaction, so the NetMeshBase's Proxies only need to notify their partners once.
+     *
+     * @param candidates the NetMeshObjects that are candidates for purging
+     * @return the number of NetMeshObjects that were purged
+     */
+    public int potentiallyPurge(
+            NetMeshObject [] candidates )
+    {
+        ArrayList<NetMeshObject> toPurge = new ArrayList<NetMeshObject>( candidates.length );
+        for( NetMeshObject current : candidates ) {
+            if( current == null || current.getIsDead() ) {
+                continue; // may have happened since we collected the candidates
+            }
+            if( shouldBePurged( current )) {
+                toPurge.add( current );
+            }
+        }
+        if( toPurge.isEmpty() ) {
+            return 0;
+        }
+        return purgeMeshObjects( toPurge );
+    }
+
+    /**
+     * Purge several MeshObjects in the same Transaction. This is a convenience method.
+     *
+     * @param toPurge the MeshObjects to purge, all in the same NetMeshBase
+     * @return the number of MeshObjects that were purged
+     */
+    protected int purgeMeshObjects(
+            List<NetMeshObject> toPurge )
+    {
+        if( log.isTraceEnabled() ) {
+            log.traceMethodCallEntry( this, ".purgeMeshObjects", toPurge.size() );
+        }
+
+        NetMeshBase base  = toPurge.get( 0 ).getMeshBase();
+        int         count = 0;
+
+        Transaction tx = null;
+        try {
+            tx = base.createTransactionAsapIfNeeded();
+
+            NetMeshBaseLifecycleManager life = base.getMeshBaseLifecycleManager();
+            for( NetMeshObject current : toPurge ) {
+                try {
+                    life.purgeReplica( current );
+                    ++count;
+
+                } catch( MustNotDeleteHomeObjectException ex ) {
+                    log.error( ex );
+                }
+            }
+
+        } catch( TransactionException ex ) {
+            log.error( ex );
+
+        } finally {
+            if( tx != null ) {
+                tx.commitTransaction();
+            }
+        }
+        return count;
+    }
+
     /**
      * Purge a MeshObject. This is a convenience method.
      *
@@ -14,12 +14,23 @@
 
 package org.infogrid.meshbase.net.sweeper;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import org.infogrid.mesh.MeshObject;
 import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.meshbase.net.IterableNetMeshBase;
 import org.infogrid.meshbase.net.NetSweepPolicy;
+import org.infogrid.meshbase.net.ReadTimeIndexedNetMeshBase;
 import org.infogrid.meshbase.sweeper.DefaultIterableSweeper;
+import org.infogrid.util.CursorIterator;
+import org.infogrid.util.logging.Log;
 
 /**
  * Adds functionality to DefaultIterableSweeper that deals with replicas.
@@ -28,6 +39,8 @@ public class DefaultNetIterableSweeper
         extends
             DefaultIterableSweeper
 {
+    private static final Log log = Log.getLogInstance( DefaultNetIterableSweeper.class ); // our own, private logger
+
     /**
      * Factory method if the Sweeper is only supposed to be invoked manually.
      *
@@ -68,6 +81,31 @@ public class DefaultNetIterableSweeper
                 DEFAULT_WAITBETWEENLOTS );
     }
 
+    /**
+     * Factory method.
+     *
+     * @param mb the IterableMeshBase on which this Sweeper works
+     * @param policy the SweepPolicy to use
+     * @param scheduler the scheduler to use, if any
+     * @param lotSize the number of MeshObjects to sweep, and purge together, in one lot
+     * @param waitBetweenLots the time to wait between lots, in milliseconds
+     * @return the created DefaultIterableSweeper
+     */
+    public static DefaultNetIterableSweeper create(
+            IterableNetMeshBase      mb,
+            NetSweepPolicy           policy,
+            ScheduledExecutorService scheduler,
+            int                      lotSize,
+            long                     waitBetweenLots )
+    {
+        return new DefaultNetIterableSweeper(
+                mb,
+                policy,
+                scheduler,
+                lotSize,
+                waitBetweenLots );
+    }
+
     /**
      * Private constructor, use factory method.
      *
@@ -82,11 +120,17 @@ public class DefaultNetIterableSweeper
             long                     waitBetweenLots )
     {
         super( mb, policy, scheduler, lotSize, waitBetweenLots );
+
+        theNetMeshBase = mb;
+        theNetLotSize  = lotSize;
     }
 
     /**
      * Perform a sweep on this MeshObject. This method
      * may be overridden by subclasses.
+     *
+     * MeshObjects that are not deleted are collected as candidates for purging, and
+     * purged in a single Transaction once a lot's worth has been collected.
      */
     @Override
     public void sweepObject(
@@ -95,8 +139,245 @@ public class DefaultNetIterableSweeper
         NetSweepPolicy realPolicy = (NetSweepPolicy) thePolicy;
 
         boolean done = realPolicy.potentiallyDelete( current );
-        if( !done ) {
-            realPolicy.potentiallyPurge( (NetMeshObject) current );
+        if( done ) {
+            return;
+        }
+
+        NetMeshObject [] lot = null;
+        synchronized( thePurgeCandidates ) {
+            thePurgeCandidates.add( (NetMeshObject) current );
+
+            if( thePurgeCandidates.size() >= theNetLotSize ) {
+                lot = thePurgeCandidates.toArray( new NetMeshObject[ thePurgeCandidates.size() ] );
+                thePurgeCandidates.clear();
+            }
+        }
+        if( lot != null ) {
+            realPolicy.potentiallyPurge( lot );
+        }
+    }
+
+    /**
+     * Sweep the next lot of MeshObjects, and purge whatever candidates are left over
+     * at the end, so purge candidates do not wait for the next lot.
+     */
+    @Override
+    public void sweepNextLot()
+    {
+        super.sweepNextLot();
+
+        flushPurgeCandidates();
+    }
+
+    /**
+     * Sweep all MeshObjects in the MeshBase, and purge whatever candidates are left over
+     * at the end, so the MeshBase is fully swept when this returns. If the NetMeshBase
+     * indexes its replicas by read time, and the policy only purges expired replicas,
+     * only the expired replicas are visited.
+     */
+    @Override
+    public void sweepAllNow()
+    {
+        if( canSweepExpiredReplicasOnly() ) {
+            sweepExpiredReplicasNow();
+            return;
+        }
+        super.sweepAllNow();
+
+        flushPurgeCandidates();
+    }
+
+    /**
+     * Determine whether it is sufficient to only visit the expired replicas, as
+     * determined by the NetMeshBase's read time index, instead of all MeshObjects.
+     * Subclasses may override this.
+     *
+     * @return true if it is sufficient
+     */
+    protected boolean canSweepExpiredReplicasOnly()
+    {
+        return theNetMeshBase instanceof ReadTimeIndexedNetMeshBase
+            && thePolicy instanceof UnnecessaryReplicasSweepPolicy;
+    }
+
+    /**
+     * Sweep only the replicas that the NetMeshBase's read time index reports as expired
+     * according to the UnnecessaryReplicasSweepPolicy, purging them one lot at a time.
+     * Replicas that turn out to have been read since they were indexed, or that must be
+     * kept for other reasons, are re-indexed so they are not visited again until they expire.
+     *
+     * @return the number of NetMeshObjects purged
+     */
+    public int sweepExpiredReplicasNow()
+    {
+        ReadTimeIndexedNetMeshBase     realBase   = (ReadTimeIndexedNetMeshBase) theNetMeshBase;
+        UnnecessaryReplicasSweepPolicy realPolicy = (UnnecessaryReplicasSweepPolicy) thePolicy;
+
+        long                       cutoff     = System.currentTimeMillis() - realPolicy.getUnusedSlaveReplicaExpiration();
+        NetMeshObjectIdentifier [] candidates = realBase.findReplicasReadBefore( cutoff );
+
+        if( log.isDebugEnabled() ) {
+            log.debug( this + ": " + candidates.length + " expiration candidates" );
         }
+
+        int ret = 0;
+        for( int start = 0 ; start < candidates.length ; start += theNetLotSize ) {
+            int              end = Math.min( start + theNetLotSize, candidates.length );
+            NetMeshObject [] lot = new NetMeshObject[ end - start ];
+
+            for( int i=start ; i<end ; ++i ) {
+                lot[i-start] = theNetMeshBase.findMeshObjectByIdentifier( candidates[i] );
+            }
+            ret += realPolicy.potentiallyPurge( lot );
+
+            for( NetMeshObject current : lot ) {
+                if( current != null && !current.getIsDead() ) {
+                    realBase.updateReadTimeIndex( current );
+                }
+            }
+        }
+        return ret;
     }
+
+    /**
+     * Sweep all MeshObjects in the MeshBase, processing lots in parallel. The calling Thread
+     * only moves through the MeshBase's iterator to find where each lot starts, without
+     * reading the MeshObjects. Each lot is then read, swept and purged by one of the
+     * ExecutorService's Threads, in a single Transaction.
+     *
+     * @param exec the ExecutorService to use
+     * @param maxLotsInProgress the maximum number of lots not yet swept, which limits the memory used
+     * @return the number of NetMeshObjects purged
+     */
+    public int sweepAllNowInParallel(
+            ExecutorService exec,
+            int             maxLotsInProgress )
+    {
+        final NetSweepPolicy realPolicy = (NetSweepPolicy) thePolicy;
+
+        LinkedList<Future<Integer>> inProgress = new LinkedList<Future<Integer>>();
+        int                         ret        = 0;
+
+        CursorIterator<MeshObject> iter = theNetMeshBase.iterator();
+        while( iter.hasNext() ) {
+            final CursorIterator<MeshObject> lotStart = iter.createCopy();
+
+            if( iter.hasNext( theNetLotSize )) {
+                iter.moveBy( theNetLotSize );
+            } else {
+                iter.moveToAfterLast();
+            }
+
+            while( inProgress.size() >= maxLotsInProgress ) {
+                ret += waitFor( inProgress.removeFirst() );
+            }
+            inProgress.add( exec.submit( new Callable<Integer>() {
+                    public Integer call()
+                    {
+                        return sweepLot( realPolicy, readLot( lotStart ));
+                    }
+                }));
+        }
+        while( !inProgress.isEmpty() ) {
+            ret += waitFor( inProgress.removeFirst() );
+        }
+
+        ret += flushPurgeCandidates();
+        return ret;
+    }
+
+    /**
+     * Read one lot of MeshObjects. This is invoked on the Thread that sweeps the lot.
+     *
+     * @param lotStart iterator positioned at the start of the lot
+     * @return the lot
+     */
+    protected List<MeshObject> readLot(
+            CursorIterator<MeshObject> lotStart )
+    {
+        List<MeshObject> ret = new ArrayList<MeshObject>( theNetLotSize );
+        while( ret.size() < theNetLotSize && lotStart.hasNext() ) {
+            ret.add( lotStart.next() );
+        }
+        return ret;
+    }
+
+    /**
+     * Sweep one lot of MeshObjects.
+     *
+     * @param realPolicy the NetSweepPolicy
+     * @param lot the lot
+     * @return the number of NetMeshObjects purged
+     */
+    protected int sweepLot(
+            NetSweepPolicy   realPolicy,
+            List<MeshObject> lot )
+    {
+        ArrayList<NetMeshObject> candidates = new ArrayList<NetMeshObject>( lot.size() );
+        for( MeshObject current : lot ) {
+            if( !realPolicy.potentiallyDelete( current )) {
+                candidates.add( (NetMeshObject) current );
+            }
+        }
+        if( candidates.isEmpty() ) {
+            return 0;
+        }
+        return realPolicy.potentiallyPurge( candidates.toArray( new NetMeshObject[ candidates.size() ] ));
+    }
+
+    /**
+     * Purge the purge candidates collected so far.
+     *
+     * @return the number of NetMeshObjects purged
+     */
+    public int flushPurgeCandidates()
+    {
+        NetMeshObject [] lot;
+        synchronized( thePurgeCandidates ) {
+            if( thePurgeCandidates.isEmpty() ) {
+                return 0;
+            }
+            lot = thePurgeCandidates.toArray( new NetMeshObject[ thePurgeCandidates.size() ] );
+            thePurgeCandidates.clear();
+        }
+        return ((NetSweepPolicy) thePolicy).potentiallyPurge( lot );
+    }
+
+    /**
+     * Wait for a lot to be swept.
+     *
+     * @param lot the Future representing the lot
+     * @return the number of NetMeshObjects purged
+     */
+    protected int waitFor(
+            Future<Integer> lot )
+    {
+        try {
+            return lot.get();
+
+        } catch( InterruptedException ex ) {
+            log.error( ex );
+            Thread.currentThread().interrupt();
+
+        } catch( ExecutionException ex ) {
+            log.error( ex.getCause() );
+        }
+        return 0;
+    }
+
+    /**
+     * The NetMeshBase being swept.
+     */
+    protected IterableNetMeshBase theNetMeshBase;
+
+    /**
+     * The number of MeshObjects per lot.
+     */
+    protected int theNetLotSize;
+
+    /**
+     * The MeshObjects that were swept, but not deleted, and that have not been
+     * considered for purging yet.
+     */
+    protected final ArrayList<NetMeshObject> thePurgeCandidates = new ArrayList<NetMeshObject>();
 }
@@ -60,6 +60,17 @@ public class UnnecessaryReplicasSweepPolicy
         theUnusedSlaveReplicaExpiration = unusedSlaveReplicaExpiration;
     }
     
+    /**
+     * Obtain the duration for which a slave replica must be unused until it becomes
+     * a candidate for sweeping.
+     *
+     * @return the duration, in milliseconds
+     */
+    public long getUnusedSlaveReplicaExpiration()
+    {
+        return theUnusedSlaveReplicaExpiration;
+    }
+
     /**
      * Determine whether this candidate MeshObject should be swept, according
      * to this Sweeper.
@@ -146,6 +146,19 @@ public abstract class AbstractNetMeshObjectDeletedEvent
         }
     }
 
+    /**
+     * Obtain the NetMeshBaseIdentifiers of the Proxies that the deleted NetMeshObject had
+     * at the time it was deleted.
+     *
+     * @return the NetMeshBaseIdentifiers, if any
+     */
+    public NetMeshBaseIdentifier [] getProxyIdentifiers()
+    {
+        ExternalizedNetMeshObject realExternalized = (ExternalizedNetMeshObject)theExternalizedMeshObject;
+
+        return realExternalized != null ? realExternalized.getProxyIdentifiers() : null;
+    }
+
     /**
      * Determine whether this NetChange should be forwarded through the given, outgoing Proxy.
      * If specified, {@link #getOriginNetworkIdentifier} specifies where the NetChange came from.
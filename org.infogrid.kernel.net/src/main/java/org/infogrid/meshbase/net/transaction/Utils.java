@@ -15,8 +15,10 @@
 package org.infogrid.meshbase.net.transaction;
 
 import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
 import org.infogrid.meshbase.net.proxy.Proxy;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.util.ArrayHelper;
 
 /**
  * Utility methods for this package.
@@ -138,4 +140,51 @@ public abstract class Utils
         }
         return false;
     }
+
+    /**
+     * Determine the Proxies through which a NetChange might have to be forwarded. Every Proxy
+     * for which {@link NetChange#shouldBeSent} returns true is contained in the result, but not every
+     * Proxy in the result necessarily passes that test. This allows the NetMeshBase to only
+     * consider the replicas of the affected NetMeshObjects when a Transaction commits, instead of
+     * all of its Proxies.
+     *
+     * @param change the NetChange
+     * @param base the NetMeshBase in which the NetChange occurred
+     * @return the Proxies, if any
+     */
+    public static Proxy [] potentialRecipients(
+            NetChange   change,
+            NetMeshBase base )
+    {
+        if( change instanceof AbstractNetMeshObjectCreatedEvent ) {
+            return null;
+        }
+        if( change instanceof AbstractNetMeshObjectDeletedEvent ) {
+            // the NetMeshObject is gone, but its externalized form remembers its Proxies
+            NetMeshBaseIdentifier [] identifiers = ((AbstractNetMeshObjectDeletedEvent)change).getProxyIdentifiers();
+            if( identifiers == null ) {
+                return null;
+            }
+            Proxy [] ret   = new Proxy[ identifiers.length ];
+            int      count = 0;
+            for( NetMeshBaseIdentifier current : identifiers ) {
+                Proxy found = base.getProxyFor( current );
+                if( found != null ) {
+                    ret[ count++ ] = found;
+                }
+            }
+            if( count < ret.length ) {
+                ret = ArrayHelper.subarray( ret, 0, count, Proxy.class );
+            }
+            return ret;
+        }
+
+        change.setResolver( base );
+
+        NetMeshObject affectedMeshObject = change.getAffectedMeshObject();
+        if( affectedMeshObject == null ) {
+            return null;
+        }
+        return affectedMeshObject.getAllProxies();
+    }
 }
@@ -14,7 +14,6 @@
 
 package org.infogrid.meshbase.net.xpriso;
 
-import java.util.ArrayList;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
@@ -29,7 +28,6 @@ import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleAddedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleRemovedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeAddedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeRemovedEvent;
-import org.infogrid.util.ArrayHelper;
 import org.infogrid.util.logging.CanBeDumped;
 import org.infogrid.util.logging.Dumper;
 import org.infogrid.util.logging.Log;
@@ -130,10 +128,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theConveyedMeshObjects.contains( toAdd )) {
+        if( !theConveyedMeshObjects.add( toAdd.getIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theConveyedMeshObjects.add( toAdd );
     }
 
     /**
@@ -149,10 +146,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theConveyedMeshObjects.contains( toAdd[i] )) {
+            if( !theConveyedMeshObjects.add( toAdd[i].getIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theConveyedMeshObjects.add( toAdd[i] );
         }
     }
 
@@ -164,10 +160,23 @@ public class ParserFriendlyXprisoMessage
      */
     public ExternalizedNetMeshObject [] getConveyedMeshObjects()
     {
-        ExternalizedNetMeshObject [] ret = ArrayHelper.copyIntoNewArray( theConveyedMeshObjects, ExternalizedNetMeshObject.class );
+        ExternalizedNetMeshObject [] ret = theConveyedMeshObjects.toArray( ExternalizedNetMeshObject.class );
         return ret;
     }
 
+    /**
+     * Determine whether an externalized representation of the NetMeshObject with this identifier
+     * is being conveyed already.
+     *
+     * @param identifier the identifier of the NetMeshObject
+     * @return true if the NetMeshObject is being conveyed already
+     */
+    public boolean hasConveyedMeshObject(
+            NetMeshObjectIdentifier identifier )
+    {
+        return theConveyedMeshObjects.containsKey( identifier );
+    }
+
     /**
      * Add a NetMeshObjectAccessSpecification to a NetMeshObject for which the sender requests
      * a lease for the first time.
@@ -180,10 +189,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRequestedFirstTimeObjects.contains( toAdd )) {
+        if( !theRequestedFirstTimeObjects.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRequestedFirstTimeObjects.add( toAdd );
     }
 
     /**
@@ -199,10 +207,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRequestedFirstTimeObjects.contains( toAdd[i] )) {
+            if( !theRequestedFirstTimeObjects.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRequestedFirstTimeObjects.add( toAdd[i] );
         }
     }
 
@@ -214,7 +221,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectAccessSpecification[] getRequestedFirstTimeObjects()
     {
-        NetMeshObjectAccessSpecification [] ret = ArrayHelper.copyIntoNewArray( theRequestedFirstTimeObjects, NetMeshObjectAccessSpecification.class );
+        NetMeshObjectAccessSpecification [] ret = theRequestedFirstTimeObjects.toArray( NetMeshObjectAccessSpecification.class );
         return ret;
     }
 
@@ -230,10 +237,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRequestedCanceledObjects.contains( toAdd )) {
+        if( !theRequestedCanceledObjects.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRequestedCanceledObjects.add( toAdd );
     }
     
     /**
@@ -249,10 +255,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRequestedCanceledObjects.contains( toAdd[i] )) {
+            if( !theRequestedCanceledObjects.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRequestedCanceledObjects.add( toAdd[i] );
         }
     }
 
@@ -264,7 +269,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getRequestedCanceledObjects()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( theRequestedCanceledObjects, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = theRequestedCanceledObjects.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
 
@@ -280,10 +285,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRequestedFreshenReplicas.contains( toAdd )) {
+        if( !theRequestedFreshenReplicas.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRequestedFreshenReplicas.add( toAdd );
     }
 
     /**
@@ -299,10 +303,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRequestedFreshenReplicas.contains( toAdd[i] )) {
+            if( !theRequestedFreshenReplicas.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRequestedFreshenReplicas.add( toAdd[i] );
         }
     }
 
@@ -314,7 +317,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getRequestedFreshenReplicas()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( theRequestedFreshenReplicas, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = theRequestedFreshenReplicas.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
 
@@ -330,10 +333,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRequestedResynchronizeReplicas.contains( toAdd )) {
+        if( !theRequestedResynchronizeReplicas.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRequestedResynchronizeReplicas.add( toAdd );
     }
 
     /**
@@ -349,10 +351,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRequestedResynchronizeReplicas.contains( toAdd[i] )) {
+            if( !theRequestedResynchronizeReplicas.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRequestedResynchronizeReplicas.add( toAdd[i] );
         }
     }
 
@@ -364,7 +365,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getRequestedResynchronizeReplicas()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( theRequestedResynchronizeReplicas, NetMeshObjectIdentifier.class  );
+        NetMeshObjectIdentifier [] ret = theRequestedResynchronizeReplicas.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
 
@@ -380,10 +381,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRequestedLockObjects.contains( toAdd )) {
+        if( !theRequestedLockObjects.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRequestedLockObjects.add( toAdd );
     }
 
     /**
@@ -399,10 +399,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRequestedLockObjects.contains( toAdd[i] )) {
+            if( !theRequestedLockObjects.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRequestedLockObjects.add( toAdd[i] );
         }
     }
 
@@ -414,7 +413,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getRequestedLockObjects()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( theRequestedLockObjects, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = theRequestedLockObjects.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
 
@@ -430,10 +429,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( thePushLockObjects.contains( toAdd )) {
+        if( !thePushLockObjects.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        thePushLockObjects.add( toAdd );
     }
 
     /**
@@ -449,10 +447,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( thePushLockObjects.contains( toAdd[i] )) {
+            if( !thePushLockObjects.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            thePushLockObjects.add( toAdd[i] );
         }
     }
 
@@ -464,7 +461,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getPushLockObjects()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( thePushLockObjects, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = thePushLockObjects.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
     
@@ -480,10 +477,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theReclaimedLockObjects.contains( toAdd )) {
+        if( !theReclaimedLockObjects.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theReclaimedLockObjects.add( toAdd );
     }
 
     /**
@@ -499,10 +495,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theReclaimedLockObjects.contains( toAdd[i] )) {
+            if( !theReclaimedLockObjects.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theReclaimedLockObjects.add( toAdd[i] );
         }
     }
 
@@ -514,7 +509,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getReclaimedLockObjects()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( theReclaimedLockObjects, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = theReclaimedLockObjects.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
     
@@ -530,10 +525,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRequestedHomeReplicas.contains( toAdd )) {
+        if( !theRequestedHomeReplicas.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRequestedHomeReplicas.add( toAdd );
     }
 
     /**
@@ -549,10 +543,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRequestedHomeReplicas.contains( toAdd[i] )) {
+            if( !theRequestedHomeReplicas.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRequestedHomeReplicas.add( toAdd[i] );
         }
     }
 
@@ -564,7 +557,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getRequestedHomeReplicas()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( theRequestedHomeReplicas, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = theRequestedHomeReplicas.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
 
@@ -580,10 +573,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( thePushHomeReplicas.contains( toAdd )) {
+        if( !thePushHomeReplicas.add( toAdd, toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        thePushHomeReplicas.add( toAdd );
     }
 
     /**
@@ -599,10 +591,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( thePushHomeReplicas.contains( toAdd[i] )) {
+            if( !thePushHomeReplicas.add( toAdd[i], toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            thePushHomeReplicas.add( toAdd[i] );
         }
     }
 
@@ -614,7 +605,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectIdentifier [] getPushHomeReplicas()
     {
-        NetMeshObjectIdentifier [] ret = ArrayHelper.copyIntoNewArray( thePushHomeReplicas, NetMeshObjectIdentifier.class );
+        NetMeshObjectIdentifier [] ret = thePushHomeReplicas.toArray( NetMeshObjectIdentifier.class );
         return ret;
     }
     
@@ -630,10 +621,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theTypeAdditions.contains( toAdd )) {
+        if( !theTypeAdditions.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theTypeAdditions.add( toAdd );
     }
 
     /**
@@ -649,10 +639,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theTypeAdditions.contains( toAdd[i] )) {
+            if( !theTypeAdditions.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theTypeAdditions.add( toAdd[i] );
         }
     }
 
@@ -664,7 +653,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectTypeAddedEvent [] getTypeAdditions()
     {
-        NetMeshObjectTypeAddedEvent [] ret = ArrayHelper.copyIntoNewArray( theTypeAdditions, NetMeshObjectTypeAddedEvent.class );
+        NetMeshObjectTypeAddedEvent [] ret = theTypeAdditions.toArray( NetMeshObjectTypeAddedEvent.class );
         return ret;
     }
 
@@ -680,10 +669,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theTypeRemovals.contains( toAdd )) {
+        if( !theTypeRemovals.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theTypeRemovals.add( toAdd );
     }
 
     /**
@@ -699,10 +687,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theTypeRemovals.contains( toAdd[i] )) {
+            if( !theTypeRemovals.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theTypeRemovals.add( toAdd[i] );
         }
     }
 
@@ -714,7 +701,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectTypeRemovedEvent [] getTypeRemovals()
     {
-        NetMeshObjectTypeRemovedEvent [] ret = ArrayHelper.copyIntoNewArray( theTypeRemovals, NetMeshObjectTypeRemovedEvent.class );
+        NetMeshObjectTypeRemovedEvent [] ret = theTypeRemovals.toArray( NetMeshObjectTypeRemovedEvent.class );
         return ret;
     }
 
@@ -730,10 +717,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( thePropertyChanges.contains( toAdd )) {
+        if( !thePropertyChanges.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        thePropertyChanges.add( toAdd );
     }
 
     /**
@@ -749,10 +735,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( thePropertyChanges.contains( toAdd[i] )) {
+            if( !thePropertyChanges.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            thePropertyChanges.add( toAdd[i] );
         }
     }
 
@@ -764,7 +749,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectPropertyChangeEvent [] getPropertyChanges()
     {
-        NetMeshObjectPropertyChangeEvent [] ret = ArrayHelper.copyIntoNewArray( thePropertyChanges, NetMeshObjectPropertyChangeEvent.class );
+        NetMeshObjectPropertyChangeEvent [] ret = thePropertyChanges.toArray( NetMeshObjectPropertyChangeEvent.class );
         return ret;
     }
 
@@ -780,10 +765,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theNeighborAdditions.contains( toAdd )) {
+        if( !theNeighborAdditions.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theNeighborAdditions.add( toAdd );
     }
 
     /**
@@ -799,10 +783,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theNeighborAdditions.contains( toAdd[i] )) {
+            if( !theNeighborAdditions.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theNeighborAdditions.add( toAdd[i] );
         }
     }
 
@@ -814,7 +797,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectNeighborAddedEvent [] getNeighborAdditions()
     {
-        NetMeshObjectNeighborAddedEvent [] ret = ArrayHelper.copyIntoNewArray( theNeighborAdditions, NetMeshObjectNeighborAddedEvent.class );
+        NetMeshObjectNeighborAddedEvent [] ret = theNeighborAdditions.toArray( NetMeshObjectNeighborAddedEvent.class );
         return ret;
     }
 
@@ -830,10 +813,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theNeighborRemovals.contains( toAdd )) {
+        if( !theNeighborRemovals.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theNeighborRemovals.add( toAdd );
     }
 
     /**
@@ -849,10 +831,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theNeighborRemovals.contains( toAdd[i] )) {
+            if( !theNeighborRemovals.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theNeighborRemovals.add( toAdd[i] );
         }
     }
 
@@ -864,7 +845,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectNeighborRemovedEvent [] getNeighborRemovals()
     {
-        NetMeshObjectNeighborRemovedEvent [] ret = ArrayHelper.copyIntoNewArray( theNeighborRemovals, NetMeshObjectNeighborRemovedEvent.class );
+        NetMeshObjectNeighborRemovedEvent [] ret = theNeighborRemovals.toArray( NetMeshObjectNeighborRemovedEvent.class );
         return ret;
     }
     
@@ -880,10 +861,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theEquivalentsAdditions.contains( toAdd )) {
+        if( !theEquivalentsAdditions.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theEquivalentsAdditions.add( toAdd );
     }
 
     /**
@@ -899,10 +879,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theEquivalentsAdditions.contains( toAdd[i] )) {
+            if( !theEquivalentsAdditions.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theEquivalentsAdditions.add( toAdd[i] );
         }
     }
 
@@ -914,7 +893,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectEquivalentsAddedEvent [] getEquivalentsAdditions()
     {
-        NetMeshObjectEquivalentsAddedEvent [] ret = ArrayHelper.copyIntoNewArray( theEquivalentsAdditions, NetMeshObjectEquivalentsAddedEvent.class );
+        NetMeshObjectEquivalentsAddedEvent [] ret = theEquivalentsAdditions.toArray( NetMeshObjectEquivalentsAddedEvent.class );
         return ret;
     }
 
@@ -930,10 +909,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theEquivalentsRemovals.contains( toAdd )) {
+        if( !theEquivalentsRemovals.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theEquivalentsRemovals.add( toAdd );
     }
 
     /**
@@ -949,10 +927,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theEquivalentsRemovals.contains( toAdd[i] )) {
+            if( !theEquivalentsRemovals.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theEquivalentsRemovals.add( toAdd[i] );
         }
     }
 
@@ -964,7 +941,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectEquivalentsRemovedEvent [] getEquivalentsRemovals()
     {
-        NetMeshObjectEquivalentsRemovedEvent [] ret = ArrayHelper.copyIntoNewArray( theEquivalentsRemovals, NetMeshObjectEquivalentsRemovedEvent.class );
+        NetMeshObjectEquivalentsRemovedEvent [] ret = theEquivalentsRemovals.toArray( NetMeshObjectEquivalentsRemovedEvent.class );
         return ret;
     }    
     
@@ -980,10 +957,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRoleAdditions.contains( toAdd )) {
+        if( !theRoleAdditions.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRoleAdditions.add( toAdd );
     }
 
     /**
@@ -999,10 +975,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRoleAdditions.contains( toAdd[i] )) {
+            if( !theRoleAdditions.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRoleAdditions.add( toAdd[i] );
         }
     }
 
@@ -1014,7 +989,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectRoleAddedEvent [] getRoleAdditions()
     {
-        NetMeshObjectRoleAddedEvent [] ret = ArrayHelper.copyIntoNewArray( theRoleAdditions, NetMeshObjectRoleAddedEvent.class );
+        NetMeshObjectRoleAddedEvent [] ret = theRoleAdditions.toArray( NetMeshObjectRoleAddedEvent.class );
         return ret;        
         
     }
@@ -1031,10 +1006,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theRoleRemovals.contains( toAdd )) {
+        if( !theRoleRemovals.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theRoleRemovals.add( toAdd );
     }
 
     /**
@@ -1050,10 +1024,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theRoleRemovals.contains( toAdd[i] )) {
+            if( !theRoleRemovals.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theRoleRemovals.add( toAdd[i] );
         }
     }
 
@@ -1065,7 +1038,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectRoleRemovedEvent [] getRoleRemovals()
     {
-        NetMeshObjectRoleRemovedEvent [] ret = ArrayHelper.copyIntoNewArray( theRoleRemovals, NetMeshObjectRoleRemovedEvent.class );
+        NetMeshObjectRoleRemovedEvent [] ret = theRoleRemovals.toArray( NetMeshObjectRoleRemovedEvent.class );
         return ret;
     }
 
@@ -1081,10 +1054,9 @@ public class ParserFriendlyXprisoMessage
         if( toAdd == null ) {
             throw new NullPointerException();
         }
-        if( theDeleteChanges.contains( toAdd )) {
+        if( !theDeleteChanges.add( toAdd.getAffectedMeshObjectIdentifier(), toAdd )) {
             throw new IllegalStateException( "Have element already: " + toAdd );
         }
-        theDeleteChanges.add( toAdd );
     }
 
     /**
@@ -1100,10 +1072,9 @@ public class ParserFriendlyXprisoMessage
             if( toAdd[i] == null ) {
                 throw new NullPointerException();
             }
-            if( theDeleteChanges.contains( toAdd[i] )) {
+            if( !theDeleteChanges.add( toAdd[i].getAffectedMeshObjectIdentifier(), toAdd[i] )) {
                 throw new IllegalStateException( "Have element already: " + toAdd[i] );
             }
-            theDeleteChanges.add( toAdd[i] );
         }
     }
 
@@ -1115,7 +1086,7 @@ public class ParserFriendlyXprisoMessage
      */
     public NetMeshObjectDeletedEvent [] getDeletions()
     {
-        NetMeshObjectDeletedEvent [] ret = ArrayHelper.copyIntoNewArray( theDeleteChanges, NetMeshObjectDeletedEvent.class );
+        NetMeshObjectDeletedEvent [] ret = theDeleteChanges.toArray( NetMeshObjectDeletedEvent.class );
         return ret;
     }
 
@@ -1248,26 +1219,26 @@ public class ParserFriendlyXprisoMessage
                     theRequestId,
                     theResponseId,
                     theCeaseCommunications,
-                    theConveyedMeshObjects,
-                    theDeleteChanges,
-                    theEquivalentsAdditions,
-                    theEquivalentsRemovals,
-                    theNeighborAdditions,
-                    theNeighborRemovals,
-                    thePropertyChanges,
-                    thePushHomeReplicas,
-                    thePushLockObjects,
-                    theReclaimedLockObjects,
-                    theRequestedCanceledObjects,
-                    theRequestedFirstTimeObjects,
-                    theRequestedFreshenReplicas,
-                    theRequestedHomeReplicas,
-                    theRequestedLockObjects,
-                    theRequestedResynchronizeReplicas,
-                    theRoleAdditions,
-                    theRoleRemovals,
-                    theTypeAdditions,
-                    theTypeRemovals,
+                    theConveyedMeshObjects.getElements(),
+                    theDeleteChanges.getElements(),
+                    theEquivalentsAdditions.getElements(),
+                    theEquivalentsRemovals.getElements(),
+                    theNeighborAdditions.getElements(),
+                    theNeighborRemovals.getElements(),
+                    thePropertyChanges.getElements(),
+                    thePushHomeReplicas.getElements(),
+                    thePushLockObjects.getElements(),
+                    theReclaimedLockObjects.getElements(),
+                    theRequestedCanceledObjects.getElements(),
+                    theRequestedFirstTimeObjects.getElements(),
+                    theRequestedFreshenReplicas.getElements(),
+                    theRequestedHomeReplicas.getElements(),
+                    theRequestedLockObjects.getElements(),
+                    theRequestedResynchronizeReplicas.getElements(),
+                    theRoleAdditions.getElements(),
+                    theRoleRemovals.getElements(),
+                    theTypeAdditions.getElements(),
+                    theTypeRemovals.getElements(),
                 });
     }
 
@@ -1275,112 +1246,112 @@ public class ParserFriendlyXprisoMessage
      * The set of MeshObjects that is being conveyed by the sender to the receiver,
      * e.g. in response to a first-time lease requested.
      */
-    protected ArrayList<ExternalizedNetMeshObject> theConveyedMeshObjects = new ArrayList<ExternalizedNetMeshObject>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,ExternalizedNetMeshObject> theConveyedMeshObjects = new XprisoMessageSection<NetMeshObjectIdentifier,ExternalizedNetMeshObject>();
 
     /**
      * The set of MeshObjects, identified by their NetMeshObjectAccessSpecifications, for which the
      * sender would like to obtain a first-time lease.
      */
-    protected ArrayList<NetMeshObjectAccessSpecification> theRequestedFirstTimeObjects = new ArrayList<NetMeshObjectAccessSpecification>();
+    protected XprisoMessageSection<NetMeshObjectAccessSpecification,NetMeshObjectAccessSpecification> theRequestedFirstTimeObjects = new XprisoMessageSection<NetMeshObjectAccessSpecification,NetMeshObjectAccessSpecification>();
     
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, for which the
      * sender currently has a lease, but whose lease the sender would like to
      * cancel.
      */
-    protected ArrayList<NetMeshObjectIdentifier> theRequestedCanceledObjects = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> theRequestedCanceledObjects = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
 
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, for which the
      * sender requests a freshening.
      */
-    protected ArrayList<NetMeshObjectIdentifier> theRequestedFreshenReplicas = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> theRequestedFreshenReplicas = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
 
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, that the sender
      * wishes to resynchronize as dependent replicas.
      */
-    protected ArrayList<NetMeshObjectIdentifier> theRequestedResynchronizeReplicas = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> theRequestedResynchronizeReplicas = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
     
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, for which the
      * sender requests the lock.
      */
-    protected ArrayList<NetMeshObjectIdentifier> theRequestedLockObjects = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> theRequestedLockObjects = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
     
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, whose lock
      * the sender surrenders to the receiver.
      */
-    protected ArrayList<NetMeshObjectIdentifier> thePushLockObjects = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> thePushLockObjects = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
     
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, whose lock
      * the sender has forcefully reclaimed.
      */
-    protected ArrayList<NetMeshObjectIdentifier> theReclaimedLockObjects = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> theReclaimedLockObjects = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
     
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifiers, whose which the
      * sender requests the homeReplica status.
      */
-    protected ArrayList<NetMeshObjectIdentifier> theRequestedHomeReplicas = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> theRequestedHomeReplicas = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
 
     /**
      * The set of MeshObjects, identified by the MeshObjectIdentifiers, whose homeReplica status
      * the sender surrenders to the receiver.
      */
-    protected ArrayList<NetMeshObjectIdentifier> thePushHomeReplicas = new ArrayList<NetMeshObjectIdentifier>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier> thePushHomeReplicas = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectIdentifier>();
     
     /**
      * The set of TypeAddedEvents that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectTypeAddedEvent> theTypeAdditions = new ArrayList<NetMeshObjectTypeAddedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectTypeAddedEvent> theTypeAdditions = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectTypeAddedEvent>();
     
     /**
      * The set of TypeRemovedEvents that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectTypeRemovedEvent> theTypeRemovals = new ArrayList<NetMeshObjectTypeRemovedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectTypeRemovedEvent> theTypeRemovals = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectTypeRemovedEvent>();
 
     /**
      * The set of PropertyChanges that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectPropertyChangeEvent> thePropertyChanges = new ArrayList<NetMeshObjectPropertyChangeEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectPropertyChangeEvent> thePropertyChanges = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectPropertyChangeEvent>();
 
     /**
      * The set of NeighborAddedEvents that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectNeighborAddedEvent> theNeighborAdditions = new ArrayList<NetMeshObjectNeighborAddedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectNeighborAddedEvent> theNeighborAdditions = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectNeighborAddedEvent>();
     
     /**
      * The set of NeighborAddedEvents that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectNeighborRemovedEvent> theNeighborRemovals = new ArrayList<NetMeshObjectNeighborRemovedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectNeighborRemovedEvent> theNeighborRemovals = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectNeighborRemovedEvent>();
     
     /**
      * The set of EquivalentsAddedEvents that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectEquivalentsAddedEvent> theEquivalentsAdditions = new ArrayList<NetMeshObjectEquivalentsAddedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectEquivalentsAddedEvent> theEquivalentsAdditions = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectEquivalentsAddedEvent>();
     
     /**
      * The set of EquivalentsRemovedEvents that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectEquivalentsRemovedEvent> theEquivalentsRemovals = new ArrayList<NetMeshObjectEquivalentsRemovedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectEquivalentsRemovedEvent> theEquivalentsRemovals = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectEquivalentsRemovedEvent>();
     
     /**
      * The set of RoleChanges that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectRoleAddedEvent> theRoleAdditions = new ArrayList<NetMeshObjectRoleAddedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectRoleAddedEvent> theRoleAdditions = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectRoleAddedEvent>();
     
     /**
      * The set of RoleChanges that the sender needs to convey to the receiver.
      */
-    protected ArrayList<NetMeshObjectRoleRemovedEvent> theRoleRemovals = new ArrayList<NetMeshObjectRoleRemovedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectRoleRemovedEvent> theRoleRemovals = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectRoleRemovedEvent>();
     
     /**
      * The set of MeshObjects, identified by their MeshObjectIdentifier, that have been
      * deleted semantically by the sender, and of whose deletion the receiver
      * needs to be notified.
      */
-    protected ArrayList<NetMeshObjectDeletedEvent> theDeleteChanges = new ArrayList<NetMeshObjectDeletedEvent>();
+    protected XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectDeletedEvent> theDeleteChanges = new XprisoMessageSection<NetMeshObjectIdentifier,NetMeshObjectDeletedEvent>();
 }
@@ -0,0 +1,66 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.xpriso;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.model.primitives.externalized.DecodingException;
+import org.infogrid.model.primitives.externalized.EncodingException;
+
+/**
+ * Knows how to serialize and deserialize an XprisoMessage.
+ */
+public interface XprisoMessageEncoder
+{
+    /**
+     * Serialize an XprisoMessage to an OutputStream.
+     *
+     * @param msg the XprisoMessage
+     * @param out the OutputStream to which to append the XprisoMessage
+     * @throws EncodingException thrown if a problem occurred during encoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public void encodeXprisoMessage(
+            XprisoMessage msg,
+            OutputStream  out )
+        throws
+            EncodingException,
+            IOException;
+
+    /**
+     * Deserialize an XprisoMessage from a stream.
+     *
+     * @param contentAsStream the byte [] stream in which the XprisoMessage is encoded
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return return the just-instantiated XprisoMessage
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public XprisoMessage decodeXprisoMessage(
+            InputStream contentAsStream,
+            NetMeshBase mb )
+        throws
+            DecodingException,
+            IOException;
+
+    /**
+     * Obtain an encodingId that reflects this XprisoMessageEncoder.
+     *
+     * @return the encodingId.
+     */
+    public String getEncodingId();
+}
@@ -0,0 +1,180 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.xpriso;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.xpriso.binary.XprisoMessageBinaryEncoder;
+import org.infogrid.meshbase.net.xpriso.xml.XprisoMessageXmlEncoder;
+import org.infogrid.model.primitives.externalized.DecodingException;
+import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>Knows the XprisoMessageEncoders available in this process, and helps two parties
+ *    agree on one. Each encoded message may be framed with the encodingId of the encoder used,
+ *    so the receiver can always pick the matching decoder.</p>
+ * <p>A party offers its supported encodingIds in preference order (see {@link #getSupportedEncodingIds}); the
+ *    other party picks the first of its own encoders that is also supported by the partner
+ *    (see {@link #negotiate}). If there is none in common, XML is used.</p>
+ */
+public abstract class XprisoMessageEncoders
+{
+    private static final Log log = Log.getLogInstance( XprisoMessageEncoders.class ); // our own, private logger
+
+    /**
+     * Keep this abstract.
+     */
+    private XprisoMessageEncoders()
+    {
+        // noop
+    }
+
+    /**
+     * Obtain the XprisoMessageEncoder with a certain id.
+     *
+     * @param encoderId the encodingId
+     * @return the XprisoMessageEncoder, or null
+     */
+    public static XprisoMessageEncoder getEncoderFor(
+            String encoderId )
+    {
+        for( XprisoMessageEncoder current : theEncoders ) {
+            if( current.getEncodingId().equals( encoderId )) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Obtain the preferred encodingId.
+     *
+     * @return the preferred encodingId
+     */
+    public static String getPreferredEncodingId()
+    {
+        return PREFERRED_ENCODING.getEncodingId();
+    }
+
+    /**
+     * Obtain the encodingIds supported by this process, in sequence of preference.
+     *
+     * @return the encodingIds
+     */
+    public static String [] getSupportedEncodingIds()
+    {
+        String [] ret = new String[ theEncoders.length ];
+        for( int i=0 ; i<ret.length ; ++i ) {
+            ret[i] = theEncoders[i].getEncodingId();
+        }
+        return ret;
+    }
+
+    /**
+     * Determine the XprisoMessageEncoder to use when communicating with a partner that supports
+     * the given encodingIds.
+     *
+     * @param partnerEncodingIds the encodingIds supported by the partner, or null if not known
+     * @return the XprisoMessageEncoder to use
+     */
+    public static XprisoMessageEncoder negotiate(
+            String [] partnerEncodingIds )
+    {
+        if( partnerEncodingIds != null ) {
+            for( XprisoMessageEncoder current : theEncoders ) {
+                for( String partnerId : partnerEncodingIds ) {
+                    if( current.getEncodingId().equals( partnerId )) {
+                        return current;
+                    }
+                }
+            }
+        }
+        return FALLBACK_ENCODING;
+    }
+
+    /**
+     * Serialize an XprisoMessage to an OutputStream, preceded by the encodingId of the
+     * XprisoMessageEncoder used.
+     *
+     * @param msg the XprisoMessage
+     * @param encoder the XprisoMessageEncoder to use
+     * @param out the OutputStream to which to append the XprisoMessage
+     * @throws EncodingException thrown if a problem occurred during encoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static void encodeFramed(
+            XprisoMessage        msg,
+            XprisoMessageEncoder encoder,
+            OutputStream         out )
+        throws
+            EncodingException,
+            IOException
+    {
+        DataOutputStream dataOut = new DataOutputStream( out );
+        dataOut.writeUTF( encoder.getEncodingId() );
+        dataOut.flush();
+
+        encoder.encodeXprisoMessage( msg, out );
+    }
+
+    /**
+     * Deserialize an XprisoMessage that was written with encodeFramed.
+     *
+     * @param in the InputStream from which to read
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return the XprisoMessage
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static XprisoMessage decodeFramed(
+            InputStream in,
+            NetMeshBase mb )
+        throws
+            DecodingException,
+            IOException
+    {
+        String               encodingId = new DataInputStream( in ).readUTF();
+        XprisoMessageEncoder encoder    = getEncoderFor( encodingId );
+
+        if( encoder == null ) {
+            log.error( "Unknown encoding ID: " + encodingId );
+            throw new IOException( "Unknown encoding ID: " + encodingId );
+        }
+        return encoder.decodeXprisoMessage( in, mb );
+    }
+
+    /**
+     * The set of encoders / decoders currently known, in sequence of preference.
+     */
+    protected static final XprisoMessageEncoder [] theEncoders = {
+            new XprisoMessageBinaryEncoder(),
+            new XprisoMessageXmlEncoder()
+    };
+
+    /**
+     * Preferred encoding type.
+     */
+    protected static final XprisoMessageEncoder PREFERRED_ENCODING = theEncoders[0];
+
+    /**
+     * Encoding type to use if nothing else has been agreed on.
+     */
+    protected static final XprisoMessageEncoder FALLBACK_ENCODING = theEncoders[1];
+}
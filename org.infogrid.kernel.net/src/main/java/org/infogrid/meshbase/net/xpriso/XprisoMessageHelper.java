@@ -15,6 +15,7 @@
 package org.infogrid.meshbase.net.xpriso;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
@@ -29,7 +30,6 @@ import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleAddedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleRemovedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeAddedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeRemovedEvent;
-import org.infogrid.meshbase.transaction.Change;
 import org.infogrid.util.logging.Log;
 
 /**
@@ -47,6 +47,8 @@ public abstract class XprisoMessageHelper
     /**
      * Given a list of XprisoMessages that arrived, construct a semantically equivalent but shorter list of
      * XprisoMessages. If shortening is not possible, this will return the same list.
+     * Consecutive XprisoMessages that can be merged are merged in a single pass, so the
+     * effort is linear in the total size of the candidates.
      *
      * @param candidates the candidates to be consolidated
      * @return the consolidated list
@@ -60,27 +62,29 @@ public abstract class XprisoMessageHelper
         if( candidates == null || candidates.size() <= 1 ) {
             return candidates;
         }
-        List<XprisoMessage> ret = new ArrayList<XprisoMessage>( candidates.size() );
+        try {
+            List<XprisoMessage> ret = new ArrayList<XprisoMessage>( candidates.size() );
 
-        XprisoMessage currentRet = null;
-        for( XprisoMessage currentCandidate : candidates ) {
+            Merger currentMerger = null;
+            for( XprisoMessage currentCandidate : candidates ) {
 
-            if( currentRet == null ) {
-                currentRet = currentCandidate;
-                continue;
+                if( currentMerger != null ) {
+                    if( currentMerger.add( currentCandidate )) {
+                        continue;
+                    }
+                    ret.add( currentMerger.getResult() );
+                }
+                currentMerger = new Merger( currentCandidate );
             }
-            XprisoMessage merged = merge( currentRet, currentCandidate );
-            if( merged != null ) {
-                currentRet = merged;
-                continue;
+            if( currentMerger != null ) {
+                ret.add( currentMerger.getResult() );
             }
-            ret.add( currentRet );
-            currentRet = currentCandidate;
-        }
-        if( currentRet != null ) {
-            ret.add( currentRet );
+            return ret;
+
+        } catch( Throwable t ) {
+            log.error( t );
+            return candidates;
         }
-        return ret;
     }
 
     /**
@@ -94,397 +98,584 @@ public abstract class XprisoMessageHelper
             XprisoMessage first,
             XprisoMessage second )
     {
-        // we can merge if:
-        // 1. sender and receiver are the same
-        // 2. only one of the two messages carries request and/or response ids
-
         try {
-            if( !first.getSenderIdentifier().equals( second.getSenderIdentifier() )) {
-                return null;
-            }
-            if( !first.getReceiverIdentifier().equals( second.getReceiverIdentifier() )) {
-                return null;
-            }
-            if( first.getRequestId() != 0 && second.getRequestId() != 0 ) {
+            Merger merger = new Merger( first );
+            if( !merger.add( second )) {
                 return null;
             }
-            if( first.getResponseId() != 0 && second.getResponseId() != 0 ) {
-                return null;
-            }
-
-            ParserFriendlyXprisoMessage ret = ParserFriendlyXprisoMessage.create(
-                    first.getSenderIdentifier(),
-                    first.getReceiverIdentifier() );
+            return merger.getResult();
 
-            //
+        } catch( Throwable t ) {
+            log.error( t );
+            return null;
+        }
+    }
 
-            if( first.getRequestId() != 0 ) {
-                ret.setRequestId( first.getRequestId() );
-            } else if( second.getRequestId() != 0 ) {
-                ret.setRequestId( second.getRequestId() );
-            } // else no request id
+    /**
+     * Merges a sequence of XprisoMessages into one. Changes that are undone or superseded by
+     * a later XprisoMessage in the sequence are found through indices keyed by the identifier of
+     * the affected NetMeshObject, instead of by comparing each pair of XprisoMessages.
+     */
+    protected static class Merger
+    {
+        /**
+         * Constructor.
+         *
+         * @param first the first XprisoMessage in the sequence
+         */
+        public Merger(
+                XprisoMessage first )
+        {
+            theFirst = first;
+
+            if( hasEquivalentsChanges( first )) {
+                // equivalents: for right now, we just don't merge
+                theIsMergeable = false;
+            } else {
+                absorb( first );
+            }
+        }
 
-            if( first.getResponseId() != 0 ) {
-                ret.setResponseId( first.getResponseId() );
-            } else if( second.getResponseId() != 0 ) {
-                ret.setResponseId( second.getResponseId() );
-            } // else no respohse id
+        /**
+         * Attempt to add the next XprisoMessage in the sequence.
+         *
+         * @param next the next XprisoMessage
+         * @return true if it was added, false if it cannot be merged
+         */
+        public boolean add(
+                XprisoMessage next )
+        {
+            // we can merge if:
+            // 1. sender and receiver are the same
+            // 2. only one of the messages carries request and/or response ids
 
-            //
+            if( !theIsMergeable ) {
+                return false;
+            }
+            if( !theFirst.getSenderIdentifier().equals( next.getSenderIdentifier() )) {
+                return false;
+            }
+            if( !theFirst.getReceiverIdentifier().equals( next.getReceiverIdentifier() )) {
+                return false;
+            }
+            if( theRequestId != 0 && next.getRequestId() != 0 ) {
+                return false;
+            }
+            if( theResponseId != 0 && next.getResponseId() != 0 ) {
+                return false;
+            }
+            if( hasEquivalentsChanges( next )) {
+                return false;
+            }
 
-            ret.setCeaseCommunications( first.getCeaseCommunications() || second.getCeaseCommunications() );
+            absorb( next );
+            ++theCount;
 
-            //
+            return true;
+        }
 
-            ExternalizedNetMeshObject [] firstConveyed  = first.getConveyedMeshObjects();
-            ExternalizedNetMeshObject [] secondConveyed = second.getConveyedMeshObjects();
-            try {
-                ret.addConveyedMeshObjects( firstConveyed );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            try {
-                ret.addConveyedMeshObjects( secondConveyed ); // will complain if we have it already
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+        /**
+         * Obtain the merged XprisoMessage.
+         *
+         * @return the merged XprisoMessage, or the first XprisoMessage if nothing was merged
+         */
+        public XprisoMessage getResult()
+        {
+            if( theCount == 1 ) {
+                return theFirst;
             }
 
-            //
-
-            NetMeshObjectAccessSpecification [] firstRequestedFirstTime  = first.getRequestedFirstTimeObjects();
-            NetMeshObjectAccessSpecification [] secondRequestedFirstTime = second.getRequestedFirstTimeObjects();
-            try {
-                ret.addRequestedFirstTimeObjects( firstRequestedFirstTime );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            ParserFriendlyXprisoMessage ret = ParserFriendlyXprisoMessage.create(
+                    theFirst.getSenderIdentifier(),
+                    theFirst.getReceiverIdentifier() );
+
+            ret.setRequestId( theRequestId );
+            ret.setResponseId( theResponseId );
+            ret.setCeaseCommunications( theCeaseCommunications );
+
+            for( ExternalizedNetMeshObject current : theConveyed ) {
+                try {
+                    ret.addConveyedMeshObject( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addRequestedFirstTimeObjects( secondRequestedFirstTime );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectAccessSpecification current : theRequestedFirstTime ) {
+                try {
+                    ret.addRequestedFirstTimeObject( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstRequestedCanceled  = first.getRequestedCanceledObjects();
-            NetMeshObjectIdentifier [] secondRequestedCanceled = second.getRequestedCanceledObjects();
-            try {
-                ret.addRequestedCanceledObjects( firstRequestedCanceled );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : theRequestedCanceled ) {
+                try {
+                    ret.addRequestedCanceledObject( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addRequestedCanceledObjects( secondRequestedCanceled );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : theRequestedFreshen ) {
+                try {
+                    ret.addRequestedFreshenReplica( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstRequestedFreshen  = first.getRequestedFreshenReplicas();
-            NetMeshObjectIdentifier [] secondRequestedFreshen = second.getRequestedFreshenReplicas();
-            try {
-                ret.addRequestedFreshenReplicas( firstRequestedFreshen );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : theRequestedResync ) {
+                try {
+                    ret.addRequestedResynchronizeReplica( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addRequestedFreshenReplicas( secondRequestedFreshen );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : theRequestedLocks ) {
+                try {
+                    ret.addRequestedLockObject( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstRequestedResync  = first.getRequestedResynchronizeReplicas();
-            NetMeshObjectIdentifier [] secondRequestedResync = second.getRequestedResynchronizeReplicas();
-            try {
-                ret.addRequestedResynchronizeReplicas( firstRequestedResync );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : thePushLocks ) {
+                try {
+                    ret.addPushLockObject( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addRequestedResynchronizeReplicas( secondRequestedResync );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : theReclaimedLocks ) {
+                try {
+                    ret.addReclaimedLockObject( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstRequestedLocks  = first.getRequestedLockObjects();
-            NetMeshObjectIdentifier [] secondRequestedLocks = second.getRequestedLockObjects();
-            try {
-                ret.addRequestedLockObjects( firstRequestedLocks );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : theRequestedHome ) {
+                try {
+                    ret.addRequestedHomeReplica( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addRequestedLockObjects( secondRequestedLocks );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectIdentifier current : thePushHome ) {
+                try {
+                    ret.addPushHomeReplica( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstPushLocks  = first.getPushLockObjects();
-            NetMeshObjectIdentifier [] secondPushLocks = second.getPushLockObjects();
-            try {
-                ret.addPushLockObjects( firstPushLocks );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectTypeAddedEvent current : theTypesAdded.live() ) {
+                try {
+                    ret.addTypeAddition( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addPushLockObjects( secondPushLocks );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectTypeRemovedEvent current : theTypesRemoved ) {
+                try {
+                    ret.addTypeRemoval( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstReclaimedLocks  = first.getReclaimedLockObjects();
-            NetMeshObjectIdentifier [] secondReclaimedLocks = second.getReclaimedLockObjects();
-            try {
-                ret.addReclaimedLockObjects( firstReclaimedLocks );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectPropertyChangeEvent current : thePropertyChanges.live() ) {
+                try {
+                    ret.addPropertyChange( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addReclaimedLockObjects( secondReclaimedLocks );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectNeighborAddedEvent current : theNeighborsAdded.live() ) {
+                try {
+                    ret.addNeighborAddition( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstRequestedHome  = first.getRequestedHomeReplicas();
-            NetMeshObjectIdentifier [] secondRequestedHome = second.getRequestedHomeReplicas();
-            try {
-                ret.addRequestedHomeReplicas( firstRequestedHome );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectNeighborRemovedEvent current : theNeighborsRemoved ) {
+                try {
+                    ret.addNeighborRemoval( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addRequestedHomeReplicas( secondRequestedHome );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectRoleAddedEvent current : theRolesAdded.live() ) {
+                try {
+                    ret.addRoleAddition( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-
-            //
-
-            NetMeshObjectIdentifier [] firstPushHome  = first.getPushHomeReplicas();
-            NetMeshObjectIdentifier [] secondPushHome = second.getPushHomeReplicas();
-            try {
-                ret.addPushHomeReplicas( firstPushHome );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectRoleRemovedEvent current : theRolesRemoved ) {
+                try {
+                    ret.addRoleRemoval( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
-            try {
-                ret.addPushHomeReplicas( secondPushHome );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectDeletedEvent current : theDeletions ) {
+                try {
+                    ret.addDeleteChange( current );
+                } catch( IllegalStateException ex ) {
+                    log.warn( ex );
+                }
             }
+            return ret;
+        }
+
+        /**
+         * Absorb the content of an XprisoMessage. Changes in this XprisoMessage only cancel
+         * out changes in earlier XprisoMessages, not in the same one.
+         *
+         * @param msg the XprisoMessage
+         */
+        protected void absorb(
+                XprisoMessage msg )
+        {
+            if( theRequestId == 0 ) {
+                theRequestId = msg.getRequestId();
+            }
+            if( theResponseId == 0 ) {
+                theResponseId = msg.getResponseId();
+            }
+            theCeaseCommunications |= msg.getCeaseCommunications();
+
+            addAll( theConveyed,           msg.getConveyedMeshObjects() );
+            addAll( theRequestedFirstTime, msg.getRequestedFirstTimeObjects() );
+            addAll( theRequestedCanceled,  msg.getRequestedCanceledObjects() );
+            addAll( theRequestedFreshen,   msg.getRequestedFreshenReplicas() );
+            addAll( theRequestedResync,    msg.getRequestedResynchronizeReplicas() );
+            addAll( theRequestedLocks,     msg.getRequestedLockObjects() );
+            addAll( thePushLocks,          msg.getPushLockObjects() );
+            addAll( theReclaimedLocks,     msg.getReclaimedLockObjects() );
+            addAll( theRequestedHome,      msg.getRequestedHomeReplicas() );
+            addAll( thePushHome,           msg.getPushHomeReplicas() );
 
             // only added types that aren't being removed again later.
             // The inverse is not true because it would reset properties
 
-            NetMeshObjectTypeAddedEvent   [] firstTypesAdded    = first.getTypeAdditions();
-            NetMeshObjectTypeAddedEvent   [] secondTypesAdded   = second.getTypeAdditions();
-            NetMeshObjectTypeRemovedEvent [] firstTypesRemoved  = first.getTypeRemovals();
-            NetMeshObjectTypeRemovedEvent [] secondTypesRemoved = second.getTypeRemovals();
-
-            //
-
-            ArrayList<NetMeshObjectTypeRemovedEvent> secondTypesRemovedDontAdd = new ArrayList<NetMeshObjectTypeRemovedEvent>();
-            for( NetMeshObjectTypeAddedEvent currentAdded : firstTypesAdded ) {
-                NetMeshObjectTypeRemovedEvent inverse = null;
-                for( NetMeshObjectTypeRemovedEvent currentRemoved : secondTypesRemoved ) {
-                    if( currentAdded.isInverse( currentRemoved )) {
-                        inverse = currentRemoved;
+            NetMeshObjectTypeAddedEvent [] typesAdded = msg.getTypeAdditions();
+            for( NetMeshObjectTypeRemovedEvent current : msg.getTypeRemovals() ) {
+                boolean canceled = false;
+                for( Entry<NetMeshObjectTypeAddedEvent> candidate : theTypesAdded.bucket( current.getAffectedMeshObjectIdentifier() )) {
+                    if( candidate.theIsLive && candidate.theEvent.isInverse( current )) {
+                        candidate.theIsLive = false;
+                        canceled = true;
                         break;
                     }
                 }
-                if( inverse == null ) {
-                    try {
-                        ret.addTypeAddition( currentAdded );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
-                    }
-                } else {
-                    secondTypesRemovedDontAdd.add( inverse );
+                if( !canceled ) {
+                    theTypesRemoved.add( current );
                 }
             }
-            try {
-                ret.addTypeAdditions( secondTypesAdded );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            try {
-                ret.addTypeRemovals( firstTypesRemoved );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            for( NetMeshObjectTypeRemovedEvent current : secondTypesRemoved ) {
-                if( !secondTypesRemovedDontAdd.contains( current )) {
-                    try {
-                        ret.addTypeRemoval( current );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
-                    }
-                }
+            for( NetMeshObjectTypeAddedEvent current : typesAdded ) {
+                theTypesAdded.append( current.getAffectedMeshObjectIdentifier(), current );
             }
 
             // only property changes that aren't undone later
 
-            NetMeshObjectPropertyChangeEvent [] firstPropertyChanges  = first.getPropertyChanges();
-            NetMeshObjectPropertyChangeEvent [] secondPropertyChanges = second.getPropertyChanges();
-
-            for( NetMeshObjectPropertyChangeEvent currentFirst : firstPropertyChanges ) {
-                boolean skip = false;
-                for( NetMeshObjectPropertyChangeEvent currentSecond : secondPropertyChanges ) {
-                    if( currentFirst.affectsSamePropertyAs( currentSecond )) {
-                        skip = true;
-                        break;
-                    }
-                }
-                if( !skip ) {
-                    try {
-                        ret.addPropertyChange( currentFirst );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
+            NetMeshObjectPropertyChangeEvent [] propertyChanges = msg.getPropertyChanges();
+            for( NetMeshObjectPropertyChangeEvent current : propertyChanges ) {
+                for( Entry<NetMeshObjectPropertyChangeEvent> candidate : thePropertyChanges.bucket( current.getAffectedMeshObjectIdentifier() )) {
+                    if( candidate.theIsLive && candidate.theEvent.affectsSamePropertyAs( current )) {
+                        candidate.theIsLive = false;
                     }
                 }
             }
-            try {
-                ret.addPropertyChanges( secondPropertyChanges );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            for( NetMeshObjectPropertyChangeEvent current : propertyChanges ) {
+                thePropertyChanges.append( current.getAffectedMeshObjectIdentifier(), current );
             }
 
             // only neighbor additions that aren't removed again later
 
-            NetMeshObjectNeighborAddedEvent   [] firstNeighborAdditions  = first.getNeighborAdditions();
-            NetMeshObjectNeighborAddedEvent   [] secondNeighborAdditions = second.getNeighborAdditions();
-            NetMeshObjectNeighborRemovedEvent [] firstNeighborRemovals   = first.getNeighborRemovals();
-            NetMeshObjectNeighborRemovedEvent [] secondNeighborRemovals  = second.getNeighborRemovals();
-
-            ArrayList<NetMeshObjectNeighborRemovedEvent> secondRemovalsDontAdd = new ArrayList<NetMeshObjectNeighborRemovedEvent>();
-            for( NetMeshObjectNeighborAddedEvent currentFirst : firstNeighborAdditions ) {
-                NetMeshObjectNeighborRemovedEvent inverse = null;
-                for( NetMeshObjectNeighborRemovedEvent currentSecond : secondNeighborRemovals ) {
-                    if( currentFirst.isInverse( currentSecond )) {
-                        inverse = currentSecond;
+            NetMeshObjectNeighborAddedEvent [] neighborsAdded = msg.getNeighborAdditions();
+            for( NetMeshObjectNeighborRemovedEvent current : msg.getNeighborRemovals() ) {
+                boolean canceled = false;
+                for( Entry<NetMeshObjectNeighborAddedEvent> candidate : theNeighborsAdded.bucket( current.getAffectedMeshObjectIdentifier() )) {
+                    if( candidate.theIsLive && candidate.theEvent.isInverse( current )) {
+                        candidate.theIsLive = false;
+                        canceled = true;
                         break;
                     }
                 }
-                if( inverse == null ) {
-                    try {
-                        ret.addNeighborAddition( currentFirst );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
-                    }
-                } else {
-                    secondRemovalsDontAdd.add( inverse );
+                if( !canceled ) {
+                    theNeighborsRemoved.add( current );
                 }
             }
-            try {
-                ret.addNeighborRemovals( firstNeighborRemovals );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            try {
-                ret.addNeighborAdditions( secondNeighborAdditions );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            for( NetMeshObjectNeighborRemovedEvent current : secondNeighborRemovals ) {
-                if( !secondRemovalsDontAdd.contains( current )) {
-                    try {
-                        ret.addNeighborRemoval( current );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
-                    }
-                }
-            }
-
-            // equivalents: for right now, we just don't merge
-            NetMeshObjectEquivalentsAddedEvent   [] firstEquivalentAdditions  = first.getEquivalentsAdditions();
-            NetMeshObjectEquivalentsAddedEvent   [] secondEquivalentAdditions = second.getEquivalentsAdditions();
-            NetMeshObjectEquivalentsRemovedEvent [] firstEquivalentRemovals   = first.getEquivalentsRemovals();
-            NetMeshObjectEquivalentsRemovedEvent [] secondEquivalentRemovals  = second.getEquivalentsRemovals();
-
-            if( firstEquivalentAdditions.length > 0 || secondEquivalentAdditions.length > 0 || firstEquivalentRemovals.length > 0 || secondEquivalentRemovals.length > 0 ) {
-                return null;
+            for( NetMeshObjectNeighborAddedEvent current : neighborsAdded ) {
+                theNeighborsAdded.append( current.getAffectedMeshObjectIdentifier(), current );
             }
 
             // only role additions that aren't removed later
-            // only role removals that aren't added later
-
-            NetMeshObjectRoleAddedEvent   [] firstRoleAdditions  = first.getRoleAdditions();
-            NetMeshObjectRoleAddedEvent   [] secondRoleAdditions = second.getRoleAdditions();
-            NetMeshObjectRoleRemovedEvent [] firstRoleRemovals   = first.getRoleRemovals();
-            NetMeshObjectRoleRemovedEvent [] secondRoleRemovals  = second.getRoleRemovals();
-
-            ArrayList<NetMeshObjectRoleRemovedEvent> secondRoleRemovalsDontAdd = new ArrayList<NetMeshObjectRoleRemovedEvent>();
-            for( NetMeshObjectRoleAddedEvent currentFirst : firstRoleAdditions ) {
-                NetMeshObjectRoleRemovedEvent inverse = null;
-                for( NetMeshObjectRoleRemovedEvent currentSecond : secondRoleRemovals ) {
-                    if( currentFirst.isInverse( currentSecond )) {
-                        inverse = currentSecond;
+
+            NetMeshObjectRoleAddedEvent [] rolesAdded = msg.getRoleAdditions();
+            for( NetMeshObjectRoleRemovedEvent current : msg.getRoleRemovals() ) {
+                boolean canceled = false;
+                for( Entry<NetMeshObjectRoleAddedEvent> candidate : theRolesAdded.bucket( current.getAffectedMeshObjectIdentifier() )) {
+                    if( candidate.theIsLive && candidate.theEvent.isInverse( current )) {
+                        candidate.theIsLive = false;
+                        canceled = true;
                         break;
                     }
                 }
-                if( inverse == null ) {
-                    try {
-                        ret.addRoleAddition( currentFirst );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
-                    }
-                } else {
-                    secondRoleRemovalsDontAdd.add( inverse );
+                if( !canceled ) {
+                    theRolesRemoved.add( current );
                 }
             }
-            try {
-                ret.addRoleRemovals( firstRoleRemovals );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            try {
-                ret.addRoleAdditions( secondRoleAdditions );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            for( NetMeshObjectRoleRemovedEvent current : secondRoleRemovals ) {
-                if( !secondRoleRemovalsDontAdd.contains( current )) {
-                    try {
-                        ret.addRoleRemoval( current );
-                    } catch( IllegalStateException ex ) {
-                        log.warn( ex );
-                    }
-                }
+            for( NetMeshObjectRoleAddedEvent current : rolesAdded ) {
+                theRolesAdded.append( current.getAffectedMeshObjectIdentifier(), current );
             }
 
             //
 
-            NetMeshObjectDeletedEvent [] firstDeletions  = first.getDeletions();
-            NetMeshObjectDeletedEvent [] secondDeletions = second.getDeletions();
-            try {
-                ret.addDeleteChanges( firstDeletions );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
-            }
-            try {
-                ret.addDeleteChanges( secondDeletions );
-            } catch( IllegalStateException ex ) {
-                log.warn( ex );
+            addAll( theDeletions, msg.getDeletions() );
+        }
+
+        /**
+         * Determine whether an XprisoMessage carries changes to equivalents.
+         *
+         * @param msg the XprisoMessage
+         * @return true if it does
+         */
+        protected static boolean hasEquivalentsChanges(
+                XprisoMessage msg )
+        {
+            return msg.getEquivalentsAdditions().length > 0 || msg.getEquivalentsRemovals().length > 0;
+        }
+
+        /**
+         * Append the content of an array to a List.
+         *
+         * @param to the List
+         * @param from the array
+         * @param <T> the type of element
+         */
+        protected static <T> void addAll(
+                List<T> to,
+                T []    from )
+        {
+            for( T current : from ) {
+                to.add( current );
             }
+        }
 
-            //
+        /**
+         * The first XprisoMessage in the sequence.
+         */
+        protected XprisoMessage theFirst;
+
+        /**
+         * The number of XprisoMessages merged so far.
+         */
+        protected int theCount = 1;
+
+        /**
+         * False if no further XprisoMessages may be merged.
+         */
+        protected boolean theIsMergeable = true;
+
+        /**
+         * The request ID carried by one of the XprisoMessages, if any.
+         */
+        protected long theRequestId;
+
+        /**
+         * The response ID carried by one of the XprisoMessages, if any.
+         */
+        protected long theResponseId;
+
+        /**
+         * True if any of the XprisoMessages ceases communications.
+         */
+        protected boolean theCeaseCommunications;
+
+        /**
+         * The conveyed NetMeshObjects.
+         */
+        protected ArrayList<ExternalizedNetMeshObject> theConveyed = new ArrayList<ExternalizedNetMeshObject>();
+
+        /**
+         * The requested first-time objects.
+         */
+        protected ArrayList<NetMeshObjectAccessSpecification> theRequestedFirstTime = new ArrayList<NetMeshObjectAccessSpecification>();
+
+        /**
+         * The requested canceled objects.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> theRequestedCanceled = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The requested freshened replicas.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> theRequestedFreshen = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The requested resynchronized replicas.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> theRequestedResync = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The requested locks.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> theRequestedLocks = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The pushed locks.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> thePushLocks = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The reclaimed locks.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> theReclaimedLocks = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The requested home replicas.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> theRequestedHome = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The pushed home replicas.
+         */
+        protected ArrayList<NetMeshObjectIdentifier> thePushHome = new ArrayList<NetMeshObjectIdentifier>();
+
+        /**
+         * The type additions, some of which may have been canceled by later removals.
+         */
+        protected Index<NetMeshObjectTypeAddedEvent> theTypesAdded = new Index<NetMeshObjectTypeAddedEvent>();
+
+        /**
+         * The type removals that did not cancel an earlier addition.
+         */
+        protected ArrayList<NetMeshObjectTypeRemovedEvent> theTypesRemoved = new ArrayList<NetMeshObjectTypeRemovedEvent>();
+
+        /**
+         * The property changes, some of which may have been superseded by later ones.
+         */
+        protected Index<NetMeshObjectPropertyChangeEvent> thePropertyChanges = new Index<NetMeshObjectPropertyChangeEvent>();
+
+        /**
+         * The neighbor additions, some of which may have been canceled by later removals.
+         */
+        protected Index<NetMeshObjectNeighborAddedEvent> theNeighborsAdded = new Index<NetMeshObjectNeighborAddedEvent>();
+
+        /**
+         * The neighbor removals that did not cancel an earlier addition.
+         */
+        protected ArrayList<NetMeshObjectNeighborRemovedEvent> theNeighborsRemoved = new ArrayList<NetMeshObjectNeighborRemovedEvent>();
+
+        /**
+         * The role additions, some of which may have been canceled by later removals.
+         */
+        protected Index<NetMeshObjectRoleAddedEvent> theRolesAdded = new Index<NetMeshObjectRoleAddedEvent>();
+
+        /**
+         * The role removals that did not cancel an earlier addition.
+         */
+        protected ArrayList<NetMeshObjectRoleRemovedEvent> theRolesRemoved = new ArrayList<NetMeshObjectRoleRemovedEvent>();
+
+        /**
+         * The deletions.
+         */
+        protected ArrayList<NetMeshObjectDeletedEvent> theDeletions = new ArrayList<NetMeshObjectDeletedEvent>();
+    }
 
+    /**
+     * Events in sequence, indexed by the identifier of the affected NetMeshObject.
+     *
+     * @param <T> the type of event
+     */
+    protected static class Index<T>
+    {
+        /**
+         * Append an event.
+         *
+         * @param key the identifier of the affected NetMeshObject
+         * @param event the event
+         */
+        public void append(
+                NetMeshObjectIdentifier key,
+                T                       event )
+        {
+            Entry<T> entry = new Entry<T>( event );
+
+            ArrayList<Entry<T>> bucket = theByObject.get( key );
+            if( bucket == null ) {
+                bucket = new ArrayList<Entry<T>>( 2 );
+                theByObject.put( key, bucket );
+            }
+            bucket.add( entry );
+            theInSequence.add( entry );
+        }
+
+        /**
+         * Obtain the entries for the events affecting a NetMeshObject.
+         *
+         * @param key the identifier of the affected NetMeshObject
+         * @return the entries, possibly empty
+         */
+        public List<Entry<T>> bucket(
+                NetMeshObjectIdentifier key )
+        {
+            ArrayList<Entry<T>> ret = theByObject.get( key );
+            if( ret == null ) {
+                return new ArrayList<Entry<T>>( 0 );
+            }
             return ret;
+        }
 
-        } catch( Throwable t ) {
-            log.error( t );
-            return null;
+        /**
+         * Obtain the events that have not been canceled, in sequence.
+         *
+         * @return the events
+         */
+        public List<T> live()
+        {
+            ArrayList<T> ret = new ArrayList<T>( theInSequence.size() );
+            for( Entry<T> current : theInSequence ) {
+                if( current.theIsLive ) {
+                    ret.add( current.theEvent );
+                }
+            }
+            return ret;
         }
+
+        /**
+         * All entries, in sequence.
+         */
+        protected ArrayList<Entry<T>> theInSequence = new ArrayList<Entry<T>>();
+
+        /**
+         * The entries, by the identifier of the affected NetMeshObject.
+         */
+        protected HashMap<NetMeshObjectIdentifier,ArrayList<Entry<T>>> theByObject = new HashMap<NetMeshObjectIdentifier,ArrayList<Entry<T>>>();
+    }
+
+    /**
+     * An event that may have been canceled.
+     *
+     * @param <T> the type of event
+     */
+    protected static class Entry<T>
+    {
+        /**
+         * Constructor.
+         *
+         * @param event the event
+         */
+        public Entry(
+                T event )
+        {
+            theEvent = event;
+        }
+
+        /**
+         * The event.
+         */
+        protected T theEvent;
+
+        /**
+         * False if the event has been canceled or superseded by a later one.
+         */
+        protected boolean theIsLive = true;
     }
 }
@@ -0,0 +1,166 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.meshbase.net.xpriso;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.infogrid.util.ArrayHelper;
+
+/**
+ * One section of an XprisoMessage that is being assembled, such as the conveyed
+ * NetMeshObjects or the property changes. It keeps the elements in the order in which
+ * they were added, and indexes them by a key, so that adding elements and checking for
+ * duplicates takes constant time regardless of the size of the section.
+ *
+ * Elements with the same key are permitted, as long as they are not equal to each other.
+ * The key is typically the identifier of the affected NetMeshObject, so that events
+ * affecting the same NetMeshObject end up in the same, short bucket.
+ *
+ * @param <K> the type of key
+ * @param <T> the type of element
+ */
+public class XprisoMessageSection<K,T>
+        implements
+            Serializable
+{
+    private static final long serialVersionUID = 1L; // helps with serialization
+
+    /**
+     * Constructor.
+     */
+    public XprisoMessageSection()
+    {
+        // nothing
+    }
+
+    /**
+     * Add an element, unless an equal element has been added already.
+     *
+     * @param key the key of the element
+     * @param toAdd the element
+     * @return true if the element was added, false if an equal element existed already
+     */
+    @SuppressWarnings( "unchecked" )
+    public boolean add(
+            K key,
+            T toAdd )
+    {
+        Object found = theIndex.get( key );
+        if( found == null ) {
+            theIndex.put( key, toAdd );
+
+        } else if( found instanceof Bucket ) {
+            Bucket<T> bucket = (Bucket<T>) found;
+            if( bucket.contains( toAdd )) {
+                return false;
+            }
+            bucket.add( toAdd );
+
+        } else {
+            if( found.equals( toAdd )) {
+                return false;
+            }
+            Bucket<T> bucket = new Bucket<T>();
+            bucket.add( (T) found );
+            bucket.add( toAdd );
+            theIndex.put( key, bucket );
+        }
+        theElements.add( toAdd );
+        return true;
+    }
+
+    /**
+     * Determine whether at least one element with this key has been added.
+     *
+     * @param key the key
+     * @return true if at least one element with this key has been added
+     */
+    public boolean containsKey(
+            K key )
+    {
+        return theIndex.containsKey( key );
+    }
+
+    /**
+     * Obtain the number of elements in this section.
+     *
+     * @return the number of elements
+     */
+    public int size()
+    {
+        return theElements.size();
+    }
+
+    /**
+     * Obtain the elements in this section as an array, in the order in which they were added.
+     *
+     * @param componentType the component type of the array to create
+     * @return the elements
+     */
+    public T [] toArray(
+            Class<T> componentType )
+    {
+        return ArrayHelper.copyIntoNewArray( theElements, componentType );
+    }
+
+    /**
+     * Obtain the elements in this section as a List, in the order in which they were added.
+     * This is meant for dumping and similar purposes; do not modify the returned List.
+     *
+     * @return the elements
+     */
+    public List<T> getElements()
+    {
+        return theElements;
+    }
+
+    /**
+     * Convert to String, for debugging.
+     *
+     * @return String form
+     */
+    @Override
+    public String toString()
+    {
+        return theElements.toString();
+    }
+
+    /**
+     * The elements, in sequence.
+     */
+    protected ArrayList<T> theElements = new ArrayList<T>();
+
+    /**
+     * Maps keys to either the single element with that key, or a Bucket of
+     * elements with that key.
+     */
+    protected HashMap<K,Object> theIndex = new HashMap<K,Object>();
+
+    /**
+     * Holds more than one element with the same key. A separate class so it cannot be
+     * confused with an element that happens to be a List.
+     *
+     * @param <T> the type of element
+     */
+    protected static class Bucket<T>
+            extends
+                ArrayList<T>
+    {
+        private static final long serialVersionUID = 1L; // helps with serialization
+    }
+}
@@ -0,0 +1,1324 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.net.xpriso.binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.infogrid.mesh.MeshObjectIdentifier;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.SimpleExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.xml.ExternalizedNetMeshObjectXmlEncoder;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectDeletedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectNeighborAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectNeighborRemovedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectPropertyChangeEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleRemovedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeRemovedEvent;
+import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoder;
+import org.infogrid.model.primitives.BooleanValue;
+import org.infogrid.model.primitives.FloatValue;
+import org.infogrid.model.primitives.IntegerValue;
+import org.infogrid.model.primitives.MeshTypeIdentifier;
+import org.infogrid.model.primitives.PropertyValue;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.model.primitives.externalized.DecodingException;
+import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.modelbase.MeshTypeIdentifierFactory;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>Encodes and decodes XprisoMessages in a compact, length-prefixed binary format.</p>
+ * <p>Each encoded message starts with a magic number and a version, followed by three
+ *    string tables: one for NetMeshObjectIdentifiers, one for MeshTypeIdentifiers and one for
+ *    NetMeshBaseIdentifiers. The body of the message refers to entries in those tables by index, so
+ *    each identifier is written, and parsed, only once per message no matter how often it occurs.
+ *    Integers are written as variable-length quantities.</p>
+ * <p>PropertyValues of the most common types are written natively. All others are written using the
+ *    XML encoding of an otherwise empty ExternalizedNetMeshObject, so every PropertyValue that can be
+ *    sent in XML can also be sent in this format.</p>
+ * <p>Unlike the XML encoders, this class holds no parse state, so a single instance can be used by
+ *    any number of Threads at the same time.</p>
+ */
+public class XprisoMessageBinaryEncoder
+        implements
+            XprisoMessageEncoder
+{
+    private static final Log log = Log.getLogInstance( XprisoMessageBinaryEncoder.class ); // our own, private logger
+
+    /**
+     * Constructor.
+     */
+    public XprisoMessageBinaryEncoder()
+    {
+        // no op
+    }
+
+    /**
+     * Serialize an XprisoMessage to an OutputStream.
+     *
+     * @param msg the XprisoMessage
+     * @param out the OutputStream to which to append the XprisoMessage
+     * @throws EncodingException thrown if a problem occurred during encoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public void encodeXprisoMessage(
+            XprisoMessage msg,
+            OutputStream  out )
+        throws
+            EncodingException,
+            IOException
+    {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream( 256 );
+        EncodingContext       context   = new EncodingContext( new DataOutputStream( bodyBytes ));
+
+        encodeBody( msg, context );
+        context.theOut.flush();
+
+        DataOutputStream realOut = new DataOutputStream( out );
+
+        realOut.writeInt( MAGIC );
+        realOut.writeByte( VERSION );
+        context.theMeshObjectIdentifiers.write( realOut );
+        context.theMeshTypeIdentifiers.write( realOut );
+        context.theMeshBaseIdentifiers.write( realOut );
+        writeVarInt( bodyBytes.size(), realOut );
+        bodyBytes.writeTo( realOut );
+        realOut.flush();
+    }
+
+    /**
+     * Encode the body of the message, filling the string tables as a side effect.
+     *
+     * @param msg the XprisoMessage
+     * @param context the EncodingContext
+     * @throws EncodingException thrown if a problem occurred during encoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected void encodeBody(
+            XprisoMessage   msg,
+            EncodingContext context )
+        throws
+            EncodingException,
+            IOException
+    {
+        DataOutputStream out = context.theOut;
+
+        writeVarLong( msg.getRequestId(),  out );
+        writeVarLong( msg.getResponseId(), out );
+        context.writeMeshBaseIdentifier( msg.getSenderIdentifier() );
+        context.writeMeshBaseIdentifier( msg.getReceiverIdentifier() );
+
+        NetMeshObjectAccessSpecification [] requestedFirstTimeObjects = msg.getRequestedFirstTimeObjects();
+        if( requestedFirstTimeObjects != null && requestedFirstTimeObjects.length > 0 ) {
+            out.writeByte( REQUESTED_FIRST_TIME_OBJECTS_SECTION );
+            writeVarInt( requestedFirstTimeObjects.length, out );
+            for( NetMeshObjectAccessSpecification current : requestedFirstTimeObjects ) {
+                out.writeUTF( current.toExternalForm() );
+            }
+        }
+        encodeIdentifierSection( REQUESTED_CANCELED_OBJECTS_SECTION,    msg.getRequestedCanceledObjects(),         context );
+        encodeIdentifierSection( REQUESTED_FRESHEN_REPLICAS_SECTION,    msg.getRequestedFreshenReplicas(),         context );
+        encodeIdentifierSection( REQUESTED_RESYNCHRONIZE_SECTION,       msg.getRequestedResynchronizeReplicas(),   context );
+        encodeIdentifierSection( REQUESTED_LOCK_OBJECTS_SECTION,        msg.getRequestedLockObjects(),             context );
+        encodeIdentifierSection( PUSH_LOCK_OBJECTS_SECTION,             msg.getPushLockObjects(),                  context );
+        encodeIdentifierSection( RECLAIMED_LOCK_OBJECTS_SECTION,        msg.getReclaimedLockObjects(),             context );
+        encodeIdentifierSection( REQUESTED_HOME_REPLICAS_SECTION,       msg.getRequestedHomeReplicas(),            context );
+        encodeIdentifierSection( PUSH_HOME_REPLICAS_SECTION,            msg.getPushHomeReplicas(),                 context );
+
+        NetMeshObjectDeletedEvent [] deletions = msg.getDeletions();
+        if( deletions != null && deletions.length > 0 ) {
+            out.writeByte( DELETIONS_SECTION );
+            writeVarInt( deletions.length, out );
+            for( NetMeshObjectDeletedEvent current : deletions ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+            }
+        }
+        ExternalizedNetMeshObject [] conveyed = msg.getConveyedMeshObjects();
+        if( conveyed != null && conveyed.length > 0 ) {
+            out.writeByte( CONVEYED_MESH_OBJECTS_SECTION );
+            writeVarInt( conveyed.length, out );
+            for( ExternalizedNetMeshObject current : conveyed ) {
+                encodeExternalizedNetMeshObject( current, context );
+            }
+        }
+        NetMeshObjectNeighborAddedEvent [] neighborAdditions = msg.getNeighborAdditions();
+        if( neighborAdditions != null && neighborAdditions.length > 0 ) {
+            out.writeByte( NEIGHBOR_ADDITIONS_SECTION );
+            writeVarInt( neighborAdditions.length, out );
+            for( NetMeshObjectNeighborAddedEvent current : neighborAdditions ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                context.writeMeshObjectIdentifier( current.getNeighborMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+                context.writeMeshTypeIdentifiers( current.getAffectedRoleTypeIdentifiers() );
+            }
+        }
+        NetMeshObjectNeighborRemovedEvent [] neighborRemovals = msg.getNeighborRemovals();
+        if( neighborRemovals != null && neighborRemovals.length > 0 ) {
+            out.writeByte( NEIGHBOR_REMOVALS_SECTION );
+            writeVarInt( neighborRemovals.length, out );
+            for( NetMeshObjectNeighborRemovedEvent current : neighborRemovals ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                context.writeMeshObjectIdentifier( current.getNeighborMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+            }
+        }
+        NetMeshObjectPropertyChangeEvent [] propertyChanges = msg.getPropertyChanges();
+        if( propertyChanges != null && propertyChanges.length > 0 ) {
+            out.writeByte( PROPERTY_CHANGES_SECTION );
+            writeVarInt( propertyChanges.length, out );
+            for( NetMeshObjectPropertyChangeEvent current : propertyChanges ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                context.writeMeshTypeIdentifier( current.getPropertyTypeIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+                encodePropertyValue( current.getAffectedMeshObjectIdentifier(), current.getPropertyTypeIdentifier(), current.getDeltaValue(), context );
+            }
+        }
+        NetMeshObjectRoleAddedEvent [] roleAdditions = msg.getRoleAdditions();
+        if( roleAdditions != null && roleAdditions.length > 0 ) {
+            out.writeByte( ROLE_ADDITIONS_SECTION );
+            writeVarInt( roleAdditions.length, out );
+            for( NetMeshObjectRoleAddedEvent current : roleAdditions ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                context.writeMeshObjectIdentifier( current.getNeighborMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+                context.writeMeshTypeIdentifiers( current.getAffectedRoleTypeIdentifiers() );
+            }
+        }
+        NetMeshObjectRoleRemovedEvent [] roleRemovals = msg.getRoleRemovals();
+        if( roleRemovals != null && roleRemovals.length > 0 ) {
+            out.writeByte( ROLE_REMOVALS_SECTION );
+            writeVarInt( roleRemovals.length, out );
+            for( NetMeshObjectRoleRemovedEvent current : roleRemovals ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                context.writeMeshObjectIdentifier( current.getNeighborMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+                context.writeMeshTypeIdentifiers( current.getAffectedRoleTypeIdentifiers() );
+            }
+        }
+        NetMeshObjectTypeAddedEvent [] typeAdditions = msg.getTypeAdditions();
+        if( typeAdditions != null && typeAdditions.length > 0 ) {
+            out.writeByte( TYPE_ADDITIONS_SECTION );
+            writeVarInt( typeAdditions.length, out );
+            for( NetMeshObjectTypeAddedEvent current : typeAdditions ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+                context.writeMeshTypeIdentifiers( current.getEntityTypeIdentifiers() );
+            }
+        }
+        NetMeshObjectTypeRemovedEvent [] typeRemovals = msg.getTypeRemovals();
+        if( typeRemovals != null && typeRemovals.length > 0 ) {
+            out.writeByte( TYPE_REMOVALS_SECTION );
+            writeVarInt( typeRemovals.length, out );
+            for( NetMeshObjectTypeRemovedEvent current : typeRemovals ) {
+                context.writeMeshObjectIdentifier( current.getAffectedMeshObjectIdentifier() );
+                writeVarLong( current.getTimeEventOccurred(), out );
+                context.writeMeshTypeIdentifiers( current.getEntityTypeIdentifiers() );
+            }
+        }
+        if( msg.getCeaseCommunications() ) {
+            out.writeByte( CEASE_COMMUNICATIONS_SECTION );
+        }
+        out.writeByte( END_SECTION );
+    }
+
+    /**
+     * Encode a section that consists of a list of NetMeshObjectIdentifiers only.
+     *
+     * @param section the section code
+     * @param ids the NetMeshObjectIdentifiers, may be null
+     * @param context the EncodingContext
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected void encodeIdentifierSection(
+            int                        section,
+            NetMeshObjectIdentifier [] ids,
+            EncodingContext            context )
+        throws
+            IOException
+    {
+        if( ids == null || ids.length == 0 ) {
+            return;
+        }
+        context.theOut.writeByte( section );
+        writeVarInt( ids.length, context.theOut );
+        for( NetMeshObjectIdentifier current : ids ) {
+            context.writeMeshObjectIdentifier( current );
+        }
+    }
+
+    /**
+     * Encode a conveyed ExternalizedNetMeshObject.
+     *
+     * @param obj the ExternalizedNetMeshObject
+     * @param context the EncodingContext
+     * @throws EncodingException thrown if a problem occurred during encoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected void encodeExternalizedNetMeshObject(
+            ExternalizedNetMeshObject obj,
+            EncodingContext           context )
+        throws
+            EncodingException,
+            IOException
+    {
+        DataOutputStream out = context.theOut;
+
+        context.writeMeshObjectIdentifier( obj.getIdentifier() );
+        writeVarLong( obj.getTimeCreated(), out );
+        writeVarLong( obj.getTimeUpdated(), out );
+        writeVarLong( obj.getTimeRead(),    out );
+        writeVarLong( obj.getTimeExpires(), out );
+        out.writeByte( ( obj.getGiveUpHomeReplica() ? 1 : 0 ) | ( obj.getGiveUpLock() ? 2 : 0 ));
+
+        context.writeMeshTypeIdentifiers( obj.getExternalTypeIdentifiers() );
+
+        MeshTypeIdentifier [] propertyTypes  = obj.getPropertyTypes();
+        PropertyValue      [] propertyValues = obj.getPropertyValues();
+        int                   nProperties    = propertyTypes != null ? propertyTypes.length : 0;
+
+        writeVarInt( nProperties, out );
+        for( int i=0 ; i<nProperties ; ++i ) {
+            context.writeMeshTypeIdentifier( propertyTypes[i] );
+            encodePropertyValue( obj.getIdentifier(), propertyTypes[i], propertyValues[i], context );
+        }
+
+        NetMeshObjectIdentifier [] neighbors = obj.getNeighbors();
+        int                        nNeighbors = neighbors != null ? neighbors.length : 0;
+
+        writeVarInt( nNeighbors, out );
+        for( int i=0 ; i<nNeighbors ; ++i ) {
+            context.writeMeshObjectIdentifier( neighbors[i] );
+            context.writeMeshTypeIdentifiers( obj.getRoleTypesFor( neighbors[i] ));
+            context.writeMeshBaseIdentifiers( obj.getRelationshipProxyIdentifiersFor( neighbors[i] ));
+        }
+
+        NetMeshObjectIdentifier [] equivalents = obj.getEquivalents();
+        int                        nEquivalents = equivalents != null ? equivalents.length : 0;
+
+        writeVarInt( nEquivalents, out );
+        for( int i=0 ; i<nEquivalents ; ++i ) {
+            context.writeMeshObjectIdentifier( equivalents[i] );
+        }
+
+        NetMeshBaseIdentifier [] proxies   = obj.getProxyIdentifiers();
+        NetMeshBaseIdentifier    homeProxy = obj.getProxyTowardsHomeNetworkIdentifier();
+        NetMeshBaseIdentifier    lockProxy = obj.getProxyTowardsLockNetworkIdentifier();
+        int                      homeIndex = -1;
+        int                      lockIndex = -1;
+
+        context.writeMeshBaseIdentifiers( proxies );
+        if( proxies != null ) {
+            for( int i=0 ; i<proxies.length ; ++i ) {
+                if( proxies[i] != null && proxies[i].equals( homeProxy )) {
+                    homeIndex = i;
+                }
+                if( proxies[i] != null && proxies[i].equals( lockProxy )) {
+                    lockIndex = i;
+                }
+            }
+        }
+        writeVarInt( homeIndex + 1, out );
+        writeVarInt( lockIndex + 1, out );
+    }
+
+    /**
+     * Encode a PropertyValue.
+     *
+     * @param owner identifies the NetMeshObject that carries the PropertyValue
+     * @param propertyType identifies the PropertyType of the PropertyValue
+     * @param value the PropertyValue, may be null
+     * @param context the EncodingContext
+     * @throws EncodingException thrown if a problem occurred during encoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected void encodePropertyValue(
+            NetMeshObjectIdentifier owner,
+            MeshTypeIdentifier      propertyType,
+            PropertyValue           value,
+            EncodingContext         context )
+        throws
+            EncodingException,
+            IOException
+    {
+        DataOutputStream out = context.theOut;
+
+        if( value == null ) {
+            out.writeByte( NULL_VALUE );
+
+        } else if( value instanceof StringValue ) {
+            out.writeByte( STRING_VALUE );
+            writeString( ((StringValue)value).value(), out );
+
+        } else if( value instanceof BooleanValue ) {
+            out.writeByte( ((BooleanValue)value).value() ? TRUE_VALUE : FALSE_VALUE );
+
+        } else if( value instanceof IntegerValue && ((IntegerValue)value).getUnit() == null ) {
+            // values with a Unit use the XML holder below, so the Unit is not lost
+            out.writeByte( INTEGER_VALUE );
+            writeVarLong( ((IntegerValue)value).value(), out );
+
+        } else if( value instanceof FloatValue && ((FloatValue)value).getUnit() == null ) {
+            out.writeByte( FLOAT_VALUE );
+            out.writeDouble( ((FloatValue)value).value() );
+
+        } else {
+            // use the XML encoding of a holder object
+            ExternalizedNetMeshObject holder = SimpleExternalizedNetMeshObject.create(
+                    owner,
+                    new MeshTypeIdentifier[0],
+                    -1L,
+                    -1L,
+                    -1L,
+                    -1L,
+                    new MeshTypeIdentifier[] { propertyType },
+                    new PropertyValue[] { value },
+                    new NetMeshObjectIdentifier[0],
+                    new MeshTypeIdentifier[0][],
+                    new NetMeshObjectIdentifier[0],
+                    false,
+                    false,
+                    new NetMeshBaseIdentifier[0],
+                    -1,
+                    -1,
+                    new NetMeshBaseIdentifier[0][] );
+
+            ByteArrayOutputStream xmlBytes = new ByteArrayOutputStream();
+            theValueXmlEncoder.encodeExternalizedMeshObject( holder, xmlBytes );
+
+            out.writeByte( XML_VALUE );
+            writeVarInt( xmlBytes.size(), out );
+            xmlBytes.writeTo( out );
+        }
+    }
+
+    /**
+     * Deserialize an XprisoMessage from a stream.
+     *
+     * @param contentAsStream the byte [] stream in which the XprisoMessage is encoded
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return return the just-instantiated XprisoMessage
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public XprisoMessage decodeXprisoMessage(
+            InputStream contentAsStream,
+            NetMeshBase mb )
+        throws
+            DecodingException,
+            IOException
+    {
+        DataInputStream in = new DataInputStream( contentAsStream );
+
+        int magic = in.readInt();
+        if( magic != MAGIC ) {
+            throw new StreamCorruptedException( "Not a binary XprisoMessage, magic is " + Integer.toHexString( magic ));
+        }
+        int version = in.readUnsignedByte();
+        if( version != VERSION ) {
+            throw new StreamCorruptedException( "Unsupported binary XprisoMessage version " + version );
+        }
+
+        DecodingContext context = new DecodingContext( in, mb );
+        try {
+            context.readTables();
+
+        } catch( ParseException ex ) {
+            throw new DecodingException( ex );
+        }
+        readVarInt( in ); // length of the body; we read it in sequence
+
+        long requestId  = readVarLong( in );
+        long responseId = readVarLong( in );
+
+        NetMeshBaseIdentifier senderId   = context.readMeshBaseIdentifier();
+        NetMeshBaseIdentifier receiverId = context.readMeshBaseIdentifier();
+
+        ParserFriendlyXprisoMessage ret = ParserFriendlyXprisoMessage.create( senderId, receiverId );
+        ret.setRequestId( requestId );
+        ret.setResponseId( responseId );
+
+        while( true ) {
+            int section = in.readUnsignedByte();
+            int n;
+
+            switch( section ) {
+                case END_SECTION:
+                    return ret;
+
+                case REQUESTED_FIRST_TIME_OBJECTS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        String pathString = in.readUTF();
+                        try {
+                            ret.addRequestedFirstTimeObject( mb.getNetMeshObjectAccessSpecificationFactory().fromExternalForm( pathString ));
+                        } catch( ParseException ex ) {
+                            log.warn( ex );
+                        }
+                    }
+                    break;
+
+                case REQUESTED_CANCELED_OBJECTS_SECTION:
+                    ret.addRequestedCanceledObjects( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case REQUESTED_FRESHEN_REPLICAS_SECTION:
+                    ret.addRequestedFreshenReplicas( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case REQUESTED_RESYNCHRONIZE_SECTION:
+                    ret.addRequestedResynchronizeReplicas( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case REQUESTED_LOCK_OBJECTS_SECTION:
+                    ret.addRequestedLockObjects( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case PUSH_LOCK_OBJECTS_SECTION:
+                    ret.addPushLockObjects( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case RECLAIMED_LOCK_OBJECTS_SECTION:
+                    ret.addReclaimedLockObjects( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case REQUESTED_HOME_REPLICAS_SECTION:
+                    ret.addRequestedHomeReplicas( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case PUSH_HOME_REPLICAS_SECTION:
+                    ret.addPushHomeReplicas( context.readMeshObjectIdentifierList() );
+                    break;
+
+                case DELETIONS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref  = context.readMeshObjectIdentifier();
+                        long                    time = readVarLong( in );
+                        ret.addDeleteChange( new NetMeshObjectDeletedEvent( null, senderId, null, ref, senderId, null, time ));
+                    }
+                    break;
+
+                case CONVEYED_MESH_OBJECTS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        ret.addConveyedMeshObject( decodeExternalizedNetMeshObject( context ));
+                    }
+                    break;
+
+                case NEIGHBOR_ADDITIONS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref      = context.readMeshObjectIdentifier();
+                        NetMeshObjectIdentifier neighbor = context.readMeshObjectIdentifier();
+                        long                    time     = readVarLong( in );
+                        MeshTypeIdentifier []   types    = context.readMeshTypeIdentifiers();
+                        ret.addNeighborAddition( new NetMeshObjectNeighborAddedEvent( ref, types, neighbor, senderId, time, null ));
+                    }
+                    break;
+
+                case NEIGHBOR_REMOVALS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref      = context.readMeshObjectIdentifier();
+                        NetMeshObjectIdentifier neighbor = context.readMeshObjectIdentifier();
+                        long                    time     = readVarLong( in );
+                        ret.addNeighborRemoval( new NetMeshObjectNeighborRemovedEvent( ref, neighbor, senderId, time, null ));
+                    }
+                    break;
+
+                case PROPERTY_CHANGES_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref   = context.readMeshObjectIdentifier();
+                        MeshTypeIdentifier      type  = context.readMeshTypeIdentifier();
+                        long                    time  = readVarLong( in );
+                        PropertyValue           value = decodePropertyValue( context );
+                        ret.addPropertyChange( new NetMeshObjectPropertyChangeEvent( ref, type, value, senderId, time, null ));
+                    }
+                    break;
+
+                case ROLE_ADDITIONS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref      = context.readMeshObjectIdentifier();
+                        NetMeshObjectIdentifier neighbor = context.readMeshObjectIdentifier();
+                        long                    time     = readVarLong( in );
+                        MeshTypeIdentifier []   types    = context.readMeshTypeIdentifiers();
+                        ret.addRoleAddition( new NetMeshObjectRoleAddedEvent( ref, types, neighbor, senderId, time, null ));
+                    }
+                    break;
+
+                case ROLE_REMOVALS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref      = context.readMeshObjectIdentifier();
+                        NetMeshObjectIdentifier neighbor = context.readMeshObjectIdentifier();
+                        long                    time     = readVarLong( in );
+                        MeshTypeIdentifier []   types    = context.readMeshTypeIdentifiers();
+                        ret.addRoleRemoval( new NetMeshObjectRoleRemovedEvent( ref, types, neighbor, senderId, time, null ));
+                    }
+                    break;
+
+                case TYPE_ADDITIONS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref   = context.readMeshObjectIdentifier();
+                        long                    time  = readVarLong( in );
+                        MeshTypeIdentifier []   types = context.readMeshTypeIdentifiers();
+                        ret.addTypeAddition( new NetMeshObjectTypeAddedEvent( ref, types, senderId, time, null ));
+                    }
+                    break;
+
+                case TYPE_REMOVALS_SECTION:
+                    n = readVarInt( in );
+                    for( int i=0 ; i<n ; ++i ) {
+                        NetMeshObjectIdentifier ref   = context.readMeshObjectIdentifier();
+                        long                    time  = readVarLong( in );
+                        MeshTypeIdentifier []   types = context.readMeshTypeIdentifiers();
+                        ret.addTypeRemoval( new NetMeshObjectTypeRemovedEvent( ref, types, senderId, time, null ));
+                    }
+                    break;
+
+                case CEASE_COMMUNICATIONS_SECTION:
+                    ret.setCeaseCommunications( true );
+                    break;
+
+                default:
+                    throw new StreamCorruptedException( "Unknown section in binary XprisoMessage: " + section );
+            }
+        }
+    }
+
+    /**
+     * Decode a conveyed ExternalizedNetMeshObject.
+     *
+     * @param context the DecodingContext
+     * @return the decoded ExternalizedNetMeshObject
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected ExternalizedNetMeshObject decodeExternalizedNetMeshObject(
+            DecodingContext context )
+        throws
+            DecodingException,
+            IOException
+    {
+        DataInputStream in = context.theIn;
+
+        NetMeshObjectIdentifier identifier  = context.readMeshObjectIdentifier();
+        long                    timeCreated = readVarLong( in );
+        long                    timeUpdated = readVarLong( in );
+        long                    timeRead    = readVarLong( in );
+        long                    timeExpires = readVarLong( in );
+        int                     flags       = in.readUnsignedByte();
+
+        MeshTypeIdentifier [] types = context.readMeshTypeIdentifiers();
+
+        int                   nProperties    = readVarInt( in );
+        MeshTypeIdentifier [] propertyTypes  = new MeshTypeIdentifier[ nProperties ];
+        PropertyValue      [] propertyValues = new PropertyValue[ nProperties ];
+        for( int i=0 ; i<nProperties ; ++i ) {
+            propertyTypes[i]  = context.readMeshTypeIdentifier();
+            propertyValues[i] = decodePropertyValue( context );
+        }
+
+        int                        nNeighbors         = readVarInt( in );
+        NetMeshObjectIdentifier [] neighbors          = new NetMeshObjectIdentifier[ nNeighbors ];
+        MeshTypeIdentifier [][]    roleTypes          = new MeshTypeIdentifier[ nNeighbors ][];
+        NetMeshBaseIdentifier [][] relationshipProxies = new NetMeshBaseIdentifier[ nNeighbors ][];
+        for( int i=0 ; i<nNeighbors ; ++i ) {
+            neighbors[i]           = context.readMeshObjectIdentifier();
+            roleTypes[i]           = context.readMeshTypeIdentifiers();
+            relationshipProxies[i] = context.readMeshBaseIdentifiers();
+        }
+
+        int                        nEquivalents = readVarInt( in );
+        NetMeshObjectIdentifier [] equivalents  = new NetMeshObjectIdentifier[ nEquivalents ];
+        for( int i=0 ; i<nEquivalents ; ++i ) {
+            equivalents[i] = context.readMeshObjectIdentifier();
+        }
+
+        NetMeshBaseIdentifier [] proxies   = context.readMeshBaseIdentifiers();
+        int                      homeIndex = readVarInt( in ) - 1;
+        int                      lockIndex = readVarInt( in ) - 1;
+
+        ExternalizedNetMeshObject ret = SimpleExternalizedNetMeshObject.create(
+                identifier,
+                types,
+                timeCreated,
+                timeUpdated,
+                timeRead,
+                timeExpires,
+                propertyTypes,
+                propertyValues,
+                neighbors,
+                roleTypes,
+                equivalents,
+                ( flags & 1 ) != 0,
+                ( flags & 2 ) != 0,
+                proxies != null ? proxies : new NetMeshBaseIdentifier[0],
+                homeIndex,
+                lockIndex,
+                relationshipProxies );
+        return ret;
+    }
+
+    /**
+     * Decode a PropertyValue.
+     *
+     * @param context the DecodingContext
+     * @return the decoded PropertyValue, may be null
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected PropertyValue decodePropertyValue(
+            DecodingContext context )
+        throws
+            DecodingException,
+            IOException
+    {
+        DataInputStream in   = context.theIn;
+        int             kind = in.readUnsignedByte();
+
+        switch( kind ) {
+            case NULL_VALUE:
+                return null;
+
+            case STRING_VALUE:
+                return StringValue.create( readString( in ));
+
+            case TRUE_VALUE:
+                return BooleanValue.create( true );
+
+            case FALSE_VALUE:
+                return BooleanValue.create( false );
+
+            case INTEGER_VALUE:
+                return IntegerValue.create( readVarLong( in ));
+
+            case FLOAT_VALUE:
+                return FloatValue.create( in.readDouble() );
+
+            case XML_VALUE:
+                byte [] xmlBytes = new byte[ readVarInt( in ) ];
+                in.readFully( xmlBytes );
+
+                ExternalizedNetMeshObject holder = theValueXmlEncoder.decodeExternalizedMeshObject(
+                        new ByteArrayInputStream( xmlBytes ),
+                        context.theMeshBase );
+
+                PropertyValue [] values = holder.getPropertyValues();
+                return values != null && values.length > 0 ? values[0] : null;
+
+            default:
+                throw new StreamCorruptedException( "Unknown PropertyValue kind in binary XprisoMessage: " + kind );
+        }
+    }
+
+    /**
+     * Obtain an encodingId that reflects this XprisoMessageEncoder.
+     *
+     * @return the encodingId.
+     */
+    public String getEncodingId()
+    {
+        return ENCODING_ID;
+    }
+
+    /**
+     * Write a non-negative int as a variable-length quantity.
+     *
+     * @param value the value
+     * @param out the DataOutputStream to write to
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static void writeVarInt(
+            int              value,
+            DataOutputStream out )
+        throws
+            IOException
+    {
+        while( ( value & ~0x7f ) != 0 ) {
+            out.writeByte( ( value & 0x7f ) | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( value );
+    }
+
+    /**
+     * Read a non-negative int written as a variable-length quantity.
+     *
+     * @param in the DataInputStream to read from
+     * @return the value
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static int readVarInt(
+            DataInputStream in )
+        throws
+            IOException
+    {
+        int ret   = 0;
+        int shift = 0;
+        while( true ) {
+            int b = in.readUnsignedByte();
+            ret |= ( b & 0x7f ) << shift;
+            if( ( b & 0x80 ) == 0 ) {
+                return ret;
+            }
+            shift += 7;
+            if( shift > 28 ) {
+                throw new StreamCorruptedException( "Malformed variable-length int" );
+            }
+        }
+    }
+
+    /**
+     * Write a long as a zig-zag encoded variable-length quantity, so small negative
+     * values such as -1 are short, too.
+     *
+     * @param value the value
+     * @param out the DataOutputStream to write to
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static void writeVarLong(
+            long             value,
+            DataOutputStream out )
+        throws
+            IOException
+    {
+        long zigZag = ( value << 1 ) ^ ( value >> 63 );
+        while( ( zigZag & ~0x7fL ) != 0 ) {
+            out.writeByte( (int) (( zigZag & 0x7f ) | 0x80 ));
+            zigZag >>>= 7;
+        }
+        out.writeByte( (int) zigZag );
+    }
+
+    /**
+     * Read a long written as a zig-zag encoded variable-length quantity.
+     *
+     * @param in the DataInputStream to read from
+     * @return the value
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static long readVarLong(
+            DataInputStream in )
+        throws
+            IOException
+    {
+        long zigZag = 0;
+        int  shift  = 0;
+        while( true ) {
+            int b = in.readUnsignedByte();
+            zigZag |= (long) ( b & 0x7f ) << shift;
+            if( ( b & 0x80 ) == 0 ) {
+                break;
+            }
+            shift += 7;
+            if( shift > 63 ) {
+                throw new StreamCorruptedException( "Malformed variable-length long" );
+            }
+        }
+        return ( zigZag >>> 1 ) ^ -( zigZag & 1 );
+    }
+
+    /**
+     * Write a String of arbitrary length in UTF-8, prefixed by its length in bytes.
+     *
+     * @param value the String
+     * @param out the DataOutputStream to write to
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static void writeString(
+            String           value,
+            DataOutputStream out )
+        throws
+            IOException
+    {
+        byte [] bytes = value.getBytes( UTF8 );
+        writeVarInt( bytes.length, out );
+        out.write( bytes );
+    }
+
+    /**
+     * Read a String written by writeString.
+     *
+     * @param in the DataInputStream to read from
+     * @return the String
+     * @throws IOException thrown if an I/O error occurred
+     */
+    public static String readString(
+            DataInputStream in )
+        throws
+            IOException
+    {
+        byte [] bytes = new byte[ readVarInt( in ) ];
+        in.readFully( bytes );
+        return new String( bytes, UTF8 );
+    }
+
+    /**
+     * A table of Strings that assigns indices in sequence of first use.
+     */
+    protected static class StringTable
+    {
+        /**
+         * Obtain the index of this String, adding it if needed. 0 is reserved for null.
+         *
+         * @param value the String, may be null
+         * @return the index
+         */
+        public int indexOf(
+                String value )
+        {
+            if( value == null ) {
+                return 0;
+            }
+            Integer ret = theIndices.get( value );
+            if( ret == null ) {
+                theValues.add( value );
+                ret = theValues.size(); // one-based
+                theIndices.put( value, ret );
+            }
+            return ret;
+        }
+
+        /**
+         * Write the table.
+         *
+         * @param out the DataOutputStream to write to
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void write(
+                DataOutputStream out )
+            throws
+                IOException
+        {
+            writeVarInt( theValues.size(), out );
+            for( String current : theValues ) {
+                writeString( current, out );
+            }
+        }
+
+        /**
+         * The Strings, in sequence.
+         */
+        protected final ArrayList<String> theValues = new ArrayList<String>();
+
+        /**
+         * Maps String to index.
+         */
+        protected final HashMap<String,Integer> theIndices = new HashMap<String,Integer>();
+    }
+
+    /**
+     * Holds the state of one encoding operation.
+     */
+    protected static class EncodingContext
+    {
+        /**
+         * Constructor.
+         *
+         * @param out the DataOutputStream for the body of the message
+         */
+        public EncodingContext(
+                DataOutputStream out )
+        {
+            theOut = out;
+        }
+
+        /**
+         * Write a reference to a MeshObjectIdentifier.
+         *
+         * @param id the MeshObjectIdentifier, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void writeMeshObjectIdentifier(
+                MeshObjectIdentifier id )
+            throws
+                IOException
+        {
+            writeVarInt( theMeshObjectIdentifiers.indexOf( id != null ? id.toExternalForm() : null ), theOut );
+        }
+
+        /**
+         * Write a reference to a MeshTypeIdentifier.
+         *
+         * @param id the MeshTypeIdentifier, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void writeMeshTypeIdentifier(
+                MeshTypeIdentifier id )
+            throws
+                IOException
+        {
+            writeVarInt( theMeshTypeIdentifiers.indexOf( id != null ? id.toExternalForm() : null ), theOut );
+        }
+
+        /**
+         * Write references to several MeshTypeIdentifiers.
+         *
+         * @param ids the MeshTypeIdentifiers, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void writeMeshTypeIdentifiers(
+                MeshTypeIdentifier [] ids )
+            throws
+                IOException
+        {
+            if( ids == null ) {
+                writeVarInt( 0, theOut );
+                return;
+            }
+            writeVarInt( ids.length + 1, theOut );
+            for( MeshTypeIdentifier current : ids ) {
+                writeMeshTypeIdentifier( current );
+            }
+        }
+
+        /**
+         * Write a reference to a NetMeshBaseIdentifier.
+         *
+         * @param id the NetMeshBaseIdentifier, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void writeMeshBaseIdentifier(
+                NetMeshBaseIdentifier id )
+            throws
+                IOException
+        {
+            writeVarInt( theMeshBaseIdentifiers.indexOf( id != null ? id.getCanonicalForm() : null ), theOut );
+        }
+
+        /**
+         * Write references to several NetMeshBaseIdentifiers.
+         *
+         * @param ids the NetMeshBaseIdentifiers, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void writeMeshBaseIdentifiers(
+                NetMeshBaseIdentifier [] ids )
+            throws
+                IOException
+        {
+            if( ids == null ) {
+                writeVarInt( 0, theOut );
+                return;
+            }
+            writeVarInt( ids.length + 1, theOut );
+            for( NetMeshBaseIdentifier current : ids ) {
+                writeMeshBaseIdentifier( current );
+            }
+        }
+
+        /**
+         * The stream for the body of the message.
+         */
+        protected final DataOutputStream theOut;
+
+        /**
+         * The table of NetMeshObjectIdentifiers.
+         */
+        protected final StringTable theMeshObjectIdentifiers = new StringTable();
+
+        /**
+         * The table of MeshTypeIdentifiers.
+         */
+        protected final StringTable theMeshTypeIdentifiers = new StringTable();
+
+        /**
+         * The table of NetMeshBaseIdentifiers.
+         */
+        protected final StringTable theMeshBaseIdentifiers = new StringTable();
+    }
+
+    /**
+     * Holds the state of one decoding operation.
+     */
+    protected static class DecodingContext
+    {
+        /**
+         * Constructor.
+         *
+         * @param in the DataInputStream to read from
+         * @param mb the NetMeshBase on whose behalf the decoding is performed
+         */
+        public DecodingContext(
+                DataInputStream in,
+                NetMeshBase     mb )
+        {
+            theIn       = in;
+            theMeshBase = mb;
+        }
+
+        /**
+         * Read the string tables, and parse each identifier exactly once.
+         *
+         * @throws ParseException thrown if an identifier could not be parsed
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public void readTables()
+            throws
+                ParseException,
+                IOException
+        {
+            // use the guessFromExternalForm, rather than the more strict fromExternalForm.
+            // this makes it more likely that the NetMeshBase comes up even if there have been changes in
+            // the Schemes supported
+
+            NetMeshObjectIdentifierFactory meshObjectIdFactory = (NetMeshObjectIdentifierFactory) theMeshBase.getMeshObjectIdentifierFactory();
+            MeshTypeIdentifierFactory      meshTypeIdFactory   = theMeshBase.getModelBase().getMeshTypeIdentifierFactory();
+
+            theMeshObjectIdentifiers = new NetMeshObjectIdentifier[ readVarInt( theIn ) ];
+            for( int i=0 ; i<theMeshObjectIdentifiers.length ; ++i ) {
+                theMeshObjectIdentifiers[i] = meshObjectIdFactory.guessFromExternalForm( readString( theIn ));
+            }
+            theMeshTypeIdentifiers = new MeshTypeIdentifier[ readVarInt( theIn ) ];
+            for( int i=0 ; i<theMeshTypeIdentifiers.length ; ++i ) {
+                theMeshTypeIdentifiers[i] = meshTypeIdFactory.guessFromExternalForm( readString( theIn ));
+            }
+            theMeshBaseIdentifiers = new NetMeshBaseIdentifier[ readVarInt( theIn ) ];
+            for( int i=0 ; i<theMeshBaseIdentifiers.length ; ++i ) {
+                theMeshBaseIdentifiers[i] = theMeshBase.getMeshBaseIdentifierFactory().guessFromExternalForm( readString( theIn ));
+            }
+        }
+
+        /**
+         * Read a reference to a NetMeshObjectIdentifier.
+         *
+         * @return the NetMeshObjectIdentifier, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public NetMeshObjectIdentifier readMeshObjectIdentifier()
+            throws
+                IOException
+        {
+            int index = readIndex( theMeshObjectIdentifiers.length );
+            return index > 0 ? theMeshObjectIdentifiers[ index-1 ] : null;
+        }
+
+        /**
+         * Read a counted list of references to NetMeshObjectIdentifiers.
+         *
+         * @return the NetMeshObjectIdentifiers
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public NetMeshObjectIdentifier [] readMeshObjectIdentifierList()
+            throws
+                IOException
+        {
+            NetMeshObjectIdentifier [] ret = new NetMeshObjectIdentifier[ readVarInt( theIn ) ];
+            for( int i=0 ; i<ret.length ; ++i ) {
+                ret[i] = readMeshObjectIdentifier();
+            }
+            return ret;
+        }
+
+        /**
+         * Read a reference to a MeshTypeIdentifier.
+         *
+         * @return the MeshTypeIdentifier, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public MeshTypeIdentifier readMeshTypeIdentifier()
+            throws
+                IOException
+        {
+            int index = readIndex( theMeshTypeIdentifiers.length );
+            return index > 0 ? theMeshTypeIdentifiers[ index-1 ] : null;
+        }
+
+        /**
+         * Read references to several MeshTypeIdentifiers.
+         *
+         * @return the MeshTypeIdentifiers, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public MeshTypeIdentifier [] readMeshTypeIdentifiers()
+            throws
+                IOException
+        {
+            int n = readVarInt( theIn );
+            if( n == 0 ) {
+                return null;
+            }
+            MeshTypeIdentifier [] ret = new MeshTypeIdentifier[ n-1 ];
+            for( int i=0 ; i<ret.length ; ++i ) {
+                ret[i] = readMeshTypeIdentifier();
+            }
+            return ret;
+        }
+
+        /**
+         * Read a reference to a NetMeshBaseIdentifier.
+         *
+         * @return the NetMeshBaseIdentifier, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public NetMeshBaseIdentifier readMeshBaseIdentifier()
+            throws
+                IOException
+        {
+            int index = readIndex( theMeshBaseIdentifiers.length );
+            return index > 0 ? theMeshBaseIdentifiers[ index-1 ] : null;
+        }
+
+        /**
+         * Read references to several NetMeshBaseIdentifiers.
+         *
+         * @return the NetMeshBaseIdentifiers, may be null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        public NetMeshBaseIdentifier [] readMeshBaseIdentifiers()
+            throws
+                IOException
+        {
+            int n = readVarInt( theIn );
+            if( n == 0 ) {
+                return null;
+            }
+            NetMeshBaseIdentifier [] ret = new NetMeshBaseIdentifier[ n-1 ];
+            for( int i=0 ; i<ret.length ; ++i ) {
+                ret[i] = readMeshBaseIdentifier();
+            }
+            return ret;
+        }
+
+        /**
+         * Read a table index and check its range.
+         *
+         * @param tableLength the length of the table
+         * @return the one-based index, or 0 for null
+         * @throws IOException thrown if an I/O error occurred
+         */
+        protected int readIndex(
+                int tableLength )
+            throws
+                IOException
+        {
+            int ret = readVarInt( theIn );
+            if( ret > tableLength ) {
+                throw new StreamCorruptedException( "Table index out of range: " + ret + " vs. " + tableLength );
+            }
+            return ret;
+        }
+
+        /**
+         * The stream to read from.
+         */
+        protected final DataInputStream theIn;
+
+        /**
+         * The NetMeshBase on whose behalf the decoding is performed.
+         */
+        protected final NetMeshBase theMeshBase;
+
+        /**
+         * The table of NetMeshObjectIdentifiers.
+         */
+        protected NetMeshObjectIdentifier [] theMeshObjectIdentifiers;
+
+        /**
+         * The table of MeshTypeIdentifiers.
+         */
+        protected MeshTypeIdentifier [] theMeshTypeIdentifiers;
+
+        /**
+         * The table of NetMeshBaseIdentifiers.
+         */
+        protected NetMeshBaseIdentifier [] theMeshBaseIdentifiers;
+    }
+
+    /**
+     * The encoding ID of this encoder.
+     */
+    public static final String ENCODING_ID = XprisoMessageBinaryEncoder.class.getName();
+
+    /**
+     * The magic number at the beginning of each encoded message.
+     */
+    public static final int MAGIC = 0x58505242; // "XPRB"
+
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Encodes and decodes the PropertyValues that are not written natively. This can be shared
+     * as it decodes on a separate thread worker for each Thread.
+     */
+    protected static final ExternalizedNetMeshObjectXmlEncoder theValueXmlEncoder = new ExternalizedNetMeshObjectXmlEncoder();
+
+    /**
+     * The character set for Strings.
+     */
+    protected static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /*
+     * Section codes.
+     */
+    protected static final int END_SECTION                          = 0;
+    protected static final int REQUESTED_FIRST_TIME_OBJECTS_SECTION = 1;
+    protected static final int REQUESTED_CANCELED_OBJECTS_SECTION   = 2;
+    protected static final int REQUESTED_FRESHEN_REPLICAS_SECTION   = 3;
+    protected static final int REQUESTED_RESYNCHRONIZE_SECTION      = 4;
+    protected static final int REQUESTED_LOCK_OBJECTS_SECTION       = 5;
+    protected static final int PUSH_LOCK_OBJECTS_SECTION            = 6;
+    protected static final int RECLAIMED_LOCK_OBJECTS_SECTION       = 7;
+    protected static final int REQUESTED_HOME_REPLICAS_SECTION      = 8;
+    protected static final int PUSH_HOME_REPLICAS_SECTION           = 9;
+    protected static final int DELETIONS_SECTION                    = 10;
+    protected static final int CONVEYED_MESH_OBJECTS_SECTION        = 11;
+    protected static final int NEIGHBOR_ADDITIONS_SECTION           = 12;
+    protected static final int NEIGHBOR_REMOVALS_SECTION            = 13;
+    protected static final int PROPERTY_CHANGES_SECTION             = 14;
+    protected static final int ROLE_ADDITIONS_SECTION               = 15;
+    protected static final int ROLE_REMOVALS_SECTION                = 16;
+    protected static final int TYPE_ADDITIONS_SECTION               = 17;
+    protected static final int TYPE_REMOVALS_SECTION                = 18;
+    protected static final int CEASE_COMMUNICATIONS_SECTION         = 19;
+
+    /*
+     * PropertyValue kinds.
+     */
+    protected static final int NULL_VALUE    = 0;
+    protected static final int STRING_VALUE  = 1;
+    protected static final int TRUE_VALUE    = 2;
+    protected static final int FALSE_VALUE   = 3;
+    protected static final int INTEGER_VALUE = 4;
+    protected static final int FLOAT_VALUE   = 5;
+    protected static final int XML_VALUE     = 6;
+}
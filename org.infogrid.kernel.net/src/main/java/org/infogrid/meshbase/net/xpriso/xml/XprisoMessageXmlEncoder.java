@@ -39,6 +39,7 @@ import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeAddedEvent;
 import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeRemovedEvent;
 import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
 import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoder;
 import org.infogrid.model.primitives.MeshTypeIdentifier;
 import org.infogrid.model.primitives.externalized.DecodingException;
 import org.infogrid.model.primitives.externalized.EncodingException;
@@ -54,6 +55,7 @@ public class XprisoMessageXmlEncoder
         extends
             ExternalizedNetMeshObjectXmlEncoder
         implements
+            XprisoMessageEncoder,
             XprisoMessageXmlTags
 {
     private static final Log log = Log.getLogInstance( XprisoMessageXmlEncoder.class ); // our own, private logger
@@ -325,20 +327,44 @@ public class XprisoMessageXmlEncoder
      * @throws DecodingException thrown if a problem occurred during decoding
      * @throws IOException thrown if an I/O error occurred
      */
-    public synchronized XprisoMessage decodeXprisoMessage(
+    public XprisoMessage decodeXprisoMessage(
+            InputStream                                    contentAsStream,
+            NetMeshBase                                    mb )
+        throws
+            DecodingException,
+            IOException
+    {
+        XprisoMessageXmlEncoder worker = (XprisoMessageXmlEncoder) obtainThreadWorker();
+        try {
+            return worker.decodeXprisoMessageOnThisThread( contentAsStream, mb );
+
+        } finally {
+            releaseThreadWorker( worker );
+        }
+    }
+
+    /**
+     * Deserialize a XprisoMessage from a stream, using this instance's parser and parse state.
+     * This must only be invoked on a thread worker obtained from obtainThreadWorker.
+     * 
+     * @param contentAsStream the byte [] stream in which the ExternalizedProxy is encoded
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return return the just-instantiated XprisoMessage
+     * @throws DecodingException thrown if a problem occurred during decoding
+     * @throws IOException thrown if an I/O error occurred
+     */
+    protected XprisoMessage decodeXprisoMessageOnThisThread(
             InputStream                                    contentAsStream,
             NetMeshBase                                    mb )
         throws
             DecodingException,
             IOException
     {
-        // note the synchronized statement
         theMeshBase = mb;
         
         try {
-            synchronized( theParser ) {
-                theParser.parse( contentAsStream, this );
-            }
+            theParser.parse( contentAsStream, this );
+
             return theMessage;
 
         } catch( SAXException ex ) {
@@ -349,6 +375,17 @@ public class XprisoMessageXmlEncoder
         }
     }
 
+    /**
+     * Create a new thread worker.
+     *
+     * @return the thread worker
+     */
+    @Override
+    protected XprisoMessageXmlEncoder createThreadWorker()
+    {
+        return new XprisoMessageXmlEncoder();
+    }
+
     /**
      * Invoked when no previous start-element parsing rule has matched. Allows subclasses to add to parsing.
      *
@@ -0,0 +1,97 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.urls;
+
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.net.a.DefaultAnetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.DefaultNetMeshBaseIdentifierFactory;
+import org.infogrid.meshbase.net.IdentifierInternTable;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.util.logging.Log;
+import org.junit.Test;
+
+/**
+ * Tests that identifier factories return canonical instances for the same identifier.
+ */
+public class UrlTest2
+        extends
+            AbstractUrlTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all sorts of things may go wrong in a test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        DefaultNetMeshBaseIdentifierFactory    mbFact  = DefaultNetMeshBaseIdentifierFactory.create();
+        NetMeshBaseIdentifier                  net1    = mbFact.fromExternalForm( "http://one.local/" );
+        DefaultAnetMeshObjectIdentifierFactory objFact = DefaultAnetMeshObjectIdentifierFactory.create( net1, mbFact );
+
+        //
+
+        log.info( "NetMeshBaseIdentifiers" );
+
+        NetMeshBaseIdentifier strict1 = mbFact.fromExternalForm( "http://two.local/" );
+        NetMeshBaseIdentifier strict2 = mbFact.fromExternalForm( "http://two.local/" );
+        NetMeshBaseIdentifier guessed = mbFact.guessFromExternalForm( "two.local" );
+
+        checkEquals(    strict1, guessed, "Guessed identifier is different" );
+        checkCondition( strict1 == strict2, "Not the same instance" );
+        checkCondition( strict1 != guessed, "Guessed identifier does not keep what was entered" );
+        checkCondition( guessed == mbFact.guessFromExternalForm( "two.local" ), "Guessed identifier is not the same instance" );
+
+        //
+
+        log.info( "NetMeshObjectIdentifiers" );
+
+        NetMeshObjectIdentifier relative1 = objFact.fromExternalForm( "abcd" );
+        NetMeshObjectIdentifier relative2 = objFact.fromExternalForm( "abcd" );
+        NetMeshObjectIdentifier absolute  = objFact.fromExternalForm( "http://one.local/#abcd" );
+        NetMeshObjectIdentifier other     = objFact.fromExternalForm( net1, "http://two.local/#abcd" );
+
+        NetMeshObjectIdentifier contextFree = objFact.fromExternalForm( (NetMeshBaseIdentifier) null, "http://one.local/#abcd" );
+
+        checkCondition( relative1 == relative2, "Not the same instance" );
+        checkEquals(    relative1, absolute, "Absolute identifier is different" );
+        checkCondition( relative1 != absolute,  "Relative identifier does not keep what was entered" );
+        checkCondition( absolute == contextFree, "Identifier parsed without context is not the same instance" );
+        checkCondition( !relative1.equals( other ), "Identifiers in different NetMeshBases are equal" );
+        checkCondition( other.getNetMeshBaseIdentifier() == strict1, "NetMeshBaseIdentifier is not the same instance" );
+
+        //
+
+        log.info( "Bounded size" );
+
+        IdentifierInternTable<String> table = IdentifierInternTable.create( TABLE_SIZE );
+        for( int i=0 ; i<10*TABLE_SIZE ; ++i ) {
+            String key = "key-" + i;
+            checkEquals( table.intern( key, key ), key, "Wrong value interned" );
+        }
+        checkCondition( table.size() <= TABLE_SIZE, "Table too large: " + table.size() );
+        checkEquals( table.get( "key-" + ( 10*TABLE_SIZE-1 )), "key-" + ( 10*TABLE_SIZE-1 ), "Most recent entry gone" );
+    }
+
+    /**
+     * The maximum size of the intern table to test.
+     */
+    protected static final int TABLE_SIZE = 100;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( UrlTest2.class );
+}
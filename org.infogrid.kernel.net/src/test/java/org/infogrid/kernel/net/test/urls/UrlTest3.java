@@ -0,0 +1,95 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.urls;
+
+import java.util.regex.Pattern;
+import org.infogrid.meshbase.net.DefaultNetMeshBaseIdentifierFactory;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.schemes.AcctScheme;
+import org.infogrid.meshbase.net.schemes.FileScheme;
+import org.infogrid.meshbase.net.schemes.HttpScheme;
+import org.infogrid.meshbase.net.schemes.HttpsScheme;
+import org.infogrid.meshbase.net.schemes.Scheme;
+import org.infogrid.meshbase.net.schemes.StrictRegexScheme;
+import org.infogrid.meshbase.net.schemes.XriScheme;
+import org.infogrid.util.logging.Log;
+import org.junit.Test;
+
+/**
+ * Tests that a DefaultNetMeshBaseIdentifierFactory whose Schemes overlap produces the same
+ * NetMeshBaseIdentifiers as trying the Schemes strictly one after the other, regardless of
+ * the scheme prefix of the String being parsed.
+ */
+public class UrlTest3
+        extends
+            AbstractUrlTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all sorts of things may go wrong in a test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        Scheme [] schemes = {
+                new StrictRegexScheme( "intranet", Pattern.compile( "http://intranet\\.local/.*" )),
+                new XriScheme(),
+                new FileScheme(),
+                new HttpScheme(),
+                new HttpsScheme(),
+                new AcctScheme()
+        };
+        DefaultNetMeshBaseIdentifierFactory fact = DefaultNetMeshBaseIdentifierFactory.create( schemes );
+
+        String xriViaResolver = schemes[1].strictlyMatchAndCreate( null, "=foo", fact ).toUri().toString();
+
+        String [] candidates = {
+                "http://intranet.local/abc",
+                xriViaResolver,
+                "=foo",
+                "http://example.com/abc",
+                "https://example.com/abc",
+                "file:/tmp/abc",
+                "acct:foo@example.com"
+        };
+
+        for( String candidate : candidates ) {
+            log.info( "Parsing " + candidate );
+
+            NetMeshBaseIdentifier expected = null;
+            for( Scheme current : schemes ) {
+                expected = current.strictlyMatchAndCreate( null, candidate, fact );
+                if( expected != null ) {
+                    break;
+                }
+            }
+            NetMeshBaseIdentifier found = fact.fromExternalForm( candidate );
+
+            checkObject( expected, "No Scheme matched " + candidate );
+            checkEquals( found, expected, "Different identifier for " + candidate );
+            checkEquals( found.toExternalForm(), expected.toExternalForm(), "Different external form for " + candidate );
+            checkEquals( found.isRestfullyResolvable(), expected.isRestfullyResolvable(), "Different Scheme for " + candidate );
+        }
+
+        checkCondition( !fact.fromExternalForm( "http://intranet.local/abc" ).isRestfullyResolvable(), "Earlier Scheme did not win" );
+        checkEquals( fact.fromExternalForm( xriViaResolver ).toExternalForm(), "=foo", "XRI Scheme did not win" );
+    }
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( UrlTest3.class );
+}
@@ -0,0 +1,142 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.SimpleExternalizedNetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
+import org.infogrid.model.primitives.MeshTypeIdentifier;
+import org.infogrid.model.primitives.PropertyValue;
+import org.infogrid.util.logging.Log;
+import org.junit.Test;
+
+/**
+ * Assembles ParserFriendlyXprisoMessages with growing numbers of conveyed NetMeshObjects
+ * and requested freshens, the way AbstractProxyPolicy does, and checks that each element
+ * ends up in the message exactly once, in order, and that duplicates are rejected.
+ */
+public class XprisoMessageAssemblyTest1
+        extends
+            XprisoMessageSerializationTest1
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    @Test
+    @Override
+    public void run()
+        throws
+            Exception
+    {
+        for( int n : SIZES ) {
+            log.info( "Elements: " + n );
+
+            ParserFriendlyXprisoMessage msg = assemble( n );
+
+            checkEquals( msg.getConveyedMeshObjects().length,      n, "Wrong number of conveyed NetMeshObjects" );
+            checkEquals( msg.getRequestedFreshenReplicas().length, n, "Wrong number of freshened NetMeshObjects" );
+        }
+    }
+
+    /**
+     * Assemble one message of the given size, and check its content.
+     *
+     * @param n the number of elements per message section
+     * @return the assembled message
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    protected ParserFriendlyXprisoMessage assemble(
+            int n )
+        throws
+            Exception
+    {
+        NetMeshObjectIdentifier [] ids = new NetMeshObjectIdentifier[ n ];
+        for( int i=0 ; i<n ; ++i ) {
+            ids[i] = theNetMeshObjectIdentifierFactory.fromExternalForm( "obj-" + i );
+        }
+
+        ParserFriendlyXprisoMessage msg = ParserFriendlyXprisoMessage.create( nmbid0, nmbid1 );
+        for( int i=0 ; i<n ; ++i ) {
+            if( !msg.hasConveyedMeshObject( ids[i] )) {
+                msg.addConveyedMeshObject( externalize( ids[i] ));
+            }
+            msg.addRequestedFreshenReplica( ids[i] );
+        }
+        // the second time around, everything is there already
+        for( int i=0 ; i<n ; ++i ) {
+            checkCondition( msg.hasConveyedMeshObject( ids[i] ), "Not conveyed: " + i );
+        }
+
+        ExternalizedNetMeshObject [] conveyed  = msg.getConveyedMeshObjects();
+        NetMeshObjectIdentifier []   freshened = msg.getRequestedFreshenReplicas();
+
+        for( int i=0 ; i<n ; ++i ) {
+            checkEquals( conveyed[i].getIdentifier(), ids[i], "Wrong order of conveyed NetMeshObjects at " + i );
+            checkEquals( freshened[i],                ids[i], "Wrong order of freshened NetMeshObjects at " + i );
+        }
+
+        try {
+            msg.addRequestedFreshenReplica( ids[0] );
+            reportError( "Duplicate not detected" );
+        } catch( IllegalStateException ex ) {
+            // good
+        }
+        checkEquals( msg.getRequestedFreshenReplicas().length, n, "Duplicate freshen added" );
+
+        return msg;
+    }
+
+    /**
+     * Create a minimal ExternalizedNetMeshObject.
+     *
+     * @param id the identifier of the NetMeshObject
+     * @return the ExternalizedNetMeshObject
+     */
+    protected ExternalizedNetMeshObject externalize(
+            NetMeshObjectIdentifier id )
+    {
+        return SimpleExternalizedNetMeshObject.create(
+                id,
+                new MeshTypeIdentifier[0], // typeNames
+                12L, // timeCreated
+                34L, // timeUpdated
+                56L, // timeRead
+                -1L, // timeExpires
+                new MeshTypeIdentifier[0], // propertyTypes
+                new PropertyValue[0], // propertyValues
+                new NetMeshObjectIdentifier[0], // neighbors
+                new MeshTypeIdentifier[0][], // roleTypes
+                new NetMeshObjectIdentifier[0], // equivalents
+                false, // giveUpHomeReplica
+                false, // giveUpLock
+                new NetMeshBaseIdentifier[] { nmbid0 }, // proxyNames
+                0, // proxyTowardsHomeIndex
+                0, // proxyTowardsLockIndex
+                new NetMeshBaseIdentifier[0][] ); // relationshipProxyNames
+    }
+
+    /**
+     * The number of elements per message section to assemble.
+     */
+    protected static final int [] SIZES = { 1, 2, 6250, 50000 };
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoMessageAssemblyTest1.class );
+}
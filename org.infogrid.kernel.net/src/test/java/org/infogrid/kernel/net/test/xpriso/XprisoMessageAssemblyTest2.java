@@ -0,0 +1,322 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectEquivalentsAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectNeighborAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectNeighborRemovedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectPropertyChangeEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectRoleRemovedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeAddedEvent;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectTypeRemovedEvent;
+import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageHelper;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.primitives.MeshTypeIdentifier;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.util.logging.Log;
+import org.junit.Test;
+
+/**
+ * Consolidates backlogs of XprisoMessages, as they accumulate while a partner is unreachable,
+ * and checks the result: changes undone or superseded by later XprisoMessages in the backlog
+ * must cancel out, and XprisoMessages with changes to equivalents must not be merged.
+ */
+public class XprisoMessageAssemblyTest2
+        extends
+            XprisoMessageSerializationTest1
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    @Test
+    @Override
+    public void run()
+        throws
+            Exception
+    {
+        obj1 = theNetMeshObjectIdentifierFactory.fromExternalForm( "obj1" );
+        obj2 = theNetMeshObjectIdentifierFactory.fromExternalForm( "obj2" );
+        mt1  = theMeshTypeIdentifierFactory.fromExternalForm( "org.infogrid.model.Test/A" );
+        mt2  = theMeshTypeIdentifierFactory.fromExternalForm( "org.infogrid.model.Test/B" );
+        pt1  = theMeshTypeIdentifierFactory.fromExternalForm( "org.infogrid.model.Test/A_P1" );
+        pt2  = theMeshTypeIdentifierFactory.fromExternalForm( "org.infogrid.model.Test/A_P2" );
+
+        //
+
+        log.info( "Backlogs with request ids" );
+
+        for( int n : BACKLOGS ) {
+            checkBacklog( n );
+        }
+
+        //
+
+        log.info( "Type added, then removed" );
+
+        ParserFriendlyXprisoMessage typeAdded = createMessage();
+        typeAdded.addTypeAddition( new NetMeshObjectTypeAddedEvent( obj1, new MeshTypeIdentifier[] { mt1 }, nmbid1, 1L, null ));
+        typeAdded.addTypeAddition( new NetMeshObjectTypeAddedEvent( obj2, new MeshTypeIdentifier[] { mt1 }, nmbid1, 1L, null ));
+
+        ParserFriendlyXprisoMessage typeRemoved = createMessage();
+        typeRemoved.addTypeRemoval( new NetMeshObjectTypeRemovedEvent( obj1, new MeshTypeIdentifier[] { mt1 }, nmbid1, 2L, null ));
+        typeRemoved.addTypeRemoval( new NetMeshObjectTypeRemovedEvent( obj1, new MeshTypeIdentifier[] { mt2 }, nmbid1, 2L, null ));
+
+        XprisoMessage merged = consolidateToOne( typeAdded, typeRemoved );
+
+        checkEquals( merged.getTypeAdditions().length, 1, "Wrong number of type additions" );
+        checkEquals( merged.getTypeAdditions()[0].getAffectedMeshObjectIdentifier(), obj2, "Wrong type addition survived" );
+        checkEquals( merged.getTypeRemovals().length, 1, "Wrong number of type removals" );
+        checkEquals( merged.getTypeRemovals()[0].getAffectedMeshObjectIdentifier(), obj1, "Wrong type removal survived" );
+
+        //
+
+        log.info( "Type removed, then added" );
+
+        merged = consolidateToOne( typeRemoved, typeAdded );
+
+        checkEquals( merged.getTypeAdditions().length, 2, "Later type additions must not cancel earlier removals" );
+        checkEquals( merged.getTypeRemovals().length,  2, "Earlier type removals must not be canceled" );
+
+        //
+
+        log.info( "Property changed, then changed again" );
+
+        ParserFriendlyXprisoMessage propertyChanged1 = createMessage();
+        propertyChanged1.addPropertyChange( createPropertyChange( obj1, pt1, null, "one", 1L ));
+        propertyChanged1.addPropertyChange( createPropertyChange( obj1, pt2, null, "other", 1L ));
+
+        ParserFriendlyXprisoMessage propertyChanged2 = createMessage();
+        propertyChanged2.addPropertyChange( createPropertyChange( obj1, pt1, "one", "two", 2L ));
+        propertyChanged2.addPropertyChange( createPropertyChange( obj2, pt1, null, "elsewhere", 2L ));
+
+        merged = consolidateToOne( propertyChanged1, propertyChanged2 );
+
+        NetMeshObjectPropertyChangeEvent [] propertyChanges = merged.getPropertyChanges();
+        checkEquals( propertyChanges.length, 3, "Wrong number of property changes" );
+        checkEquals( propertyChanges[0].getAffectedMeshObjectIdentifier(), obj1, "Wrong property change first" );
+        checkEquals( propertyChanges[0].getNewValue(), StringValue.create( "other" ), "Wrong value first" );
+        checkEquals( propertyChanges[1].getAffectedMeshObjectIdentifier(), obj1, "Wrong property change second" );
+        checkEquals( propertyChanges[1].getNewValue(), StringValue.create( "two" ), "Superseded value survived" );
+        checkEquals( propertyChanges[2].getAffectedMeshObjectIdentifier(), obj2, "Wrong property change third" );
+
+        //
+
+        log.info( "Neighbor added, then removed" );
+
+        ParserFriendlyXprisoMessage neighborAdded = createMessage();
+        neighborAdded.addNeighborAddition( new NetMeshObjectNeighborAddedEvent( obj1, new MeshTypeIdentifier[0], obj2, nmbid1, 1L, null ));
+
+        ParserFriendlyXprisoMessage neighborRemoved = createMessage();
+        neighborRemoved.addNeighborRemoval( new NetMeshObjectNeighborRemovedEvent( obj1, obj2, nmbid1, 2L, null ));
+        neighborRemoved.addNeighborRemoval( new NetMeshObjectNeighborRemovedEvent( obj2, obj1, nmbid1, 2L, null ));
+
+        merged = consolidateToOne( neighborAdded, neighborRemoved );
+
+        checkEquals( merged.getNeighborAdditions().length, 0, "Neighbor addition not canceled" );
+        checkEquals( merged.getNeighborRemovals().length,  1, "Wrong number of neighbor removals" );
+        checkEquals( merged.getNeighborRemovals()[0].getAffectedMeshObjectIdentifier(), obj2, "Wrong neighbor removal survived" );
+
+        //
+
+        log.info( "Role added, then removed" );
+
+        ParserFriendlyXprisoMessage roleAdded = createMessage();
+        roleAdded.addRoleAddition( new NetMeshObjectRoleAddedEvent( obj1, new MeshTypeIdentifier[] { mt1 }, obj2, nmbid1, 1L, null ));
+        roleAdded.addRoleAddition( new NetMeshObjectRoleAddedEvent( obj1, new MeshTypeIdentifier[] { mt2 }, obj2, nmbid1, 1L, null ));
+
+        ParserFriendlyXprisoMessage roleRemoved = createMessage();
+        roleRemoved.addRoleRemoval( new NetMeshObjectRoleRemovedEvent( obj1, new MeshTypeIdentifier[] { mt1 }, obj2, nmbid1, 2L, null ));
+
+        merged = consolidateToOne( roleAdded, roleRemoved );
+
+        checkEquals( merged.getRoleAdditions().length, 1, "Wrong number of role additions" );
+        checkEquals( merged.getRoleRemovals().length,  0, "Role removal not canceled" );
+
+        //
+
+        log.info( "Merging blocked by changes to equivalents" );
+
+        Transaction tx = theNetMeshBase.createTransactionAsap();
+
+        NetMeshObject withEquivalents = theNetMeshBase.getMeshBaseLifecycleManager().createMeshObject(
+                theNetMeshBase.getMeshObjectIdentifierFactory().fromExternalForm( "#eq" ));
+
+        tx.commitTransaction();
+
+        ParserFriendlyXprisoMessage equivalentsAdded = createMessage();
+        equivalentsAdded.addEquivalentAddition( new NetMeshObjectEquivalentsAddedEvent(
+                withEquivalents,
+                new NetMeshObjectIdentifier[0],
+                new NetMeshObjectIdentifier[] { obj1 },
+                new NetMeshObjectIdentifier[] { obj1 },
+                nmbid1,
+                2L ));
+
+        List<XprisoMessage> backlog = new ArrayList<XprisoMessage>();
+        backlog.add( typeAdded );
+        backlog.add( equivalentsAdded );
+        backlog.add( typeRemoved );
+
+        List<XprisoMessage> consolidated = XprisoMessageHelper.consolidate( backlog );
+
+        checkEquals( consolidated.size(), 3, "Messages merged across changes to equivalents" );
+        checkEquals( consolidated.get( 0 ).getTypeAdditions().length, 2, "Type additions canceled across changes to equivalents" );
+        checkEquals( consolidated.get( 1 ).getEquivalentsAdditions().length, 1, "Lost changes to equivalents" );
+        checkEquals( consolidated.get( 2 ).getTypeRemovals().length, 2, "Type removals canceled across changes to equivalents" );
+
+        backlog.remove( 0 );
+
+        consolidated = XprisoMessageHelper.consolidate( backlog );
+
+        checkEquals( consolidated.size(), 2, "Message with changes to equivalents absorbed a later one" );
+    }
+
+    /**
+     * Consolidate a backlog of the given length, in which two messages carry request ids,
+     * and check the result.
+     *
+     * @param n the number of XprisoMessages in the backlog
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    protected void checkBacklog(
+            int n )
+        throws
+            Exception
+    {
+        List<XprisoMessage> backlog = new ArrayList<XprisoMessage>( n );
+        for( int i=0 ; i<n ; ++i ) {
+            ParserFriendlyXprisoMessage msg = createMessage();
+            for( int j=0 ; j<PER_MESSAGE ; ++j ) {
+                msg.addRequestedFreshenReplica( theNetMeshObjectIdentifierFactory.fromExternalForm( "obj-" + i + "-" + j ));
+            }
+            if( i == n/2 ) {
+                msg.setRequestId( 2 ); // clashes with the first message, so we get two
+            } else if( i == 0 ) {
+                msg.setRequestId( 1 );
+            }
+            backlog.add( msg );
+        }
+
+        List<XprisoMessage> consolidated = XprisoMessageHelper.consolidate( backlog );
+
+        checkEquals( consolidated.size(), 2, "Wrong number of consolidated messages" );
+        checkEquals( consolidated.get( 0 ).getRequestId(), 1L, "Wrong request id in first message" );
+        checkEquals( consolidated.get( 1 ).getRequestId(), 2L, "Wrong request id in second message" );
+
+        NetMeshObjectIdentifier [] first  = consolidated.get( 0 ).getRequestedFreshenReplicas();
+        NetMeshObjectIdentifier [] second = consolidated.get( 1 ).getRequestedFreshenReplicas();
+
+        checkEquals( first.length,  ( n/2 ) * PER_MESSAGE,       "Wrong number of freshens in first message" );
+        checkEquals( second.length, ( n - n/2 ) * PER_MESSAGE,   "Wrong number of freshens in second message" );
+        checkEquals( first[0],  backlog.get( 0 ).getRequestedFreshenReplicas()[0],   "Wrong order in first message" );
+        checkEquals( second[0], backlog.get( n/2 ).getRequestedFreshenReplicas()[0], "Wrong order in second message" );
+    }
+
+    /**
+     * Consolidate two XprisoMessages, and check that they were merged into one.
+     *
+     * @param first the first XprisoMessage
+     * @param second the second XprisoMessage
+     * @return the merged XprisoMessage
+     */
+    protected XprisoMessage consolidateToOne(
+            XprisoMessage first,
+            XprisoMessage second )
+    {
+        List<XprisoMessage> backlog = new ArrayList<XprisoMessage>( 2 );
+        backlog.add( first );
+        backlog.add( second );
+
+        List<XprisoMessage> consolidated = XprisoMessageHelper.consolidate( backlog );
+
+        checkEquals( consolidated.size(), 1, "Not merged" );
+
+        return consolidated.get( 0 );
+    }
+
+    /**
+     * Create an empty XprisoMessage from the same sender to the same receiver.
+     *
+     * @return the XprisoMessage
+     */
+    protected ParserFriendlyXprisoMessage createMessage()
+    {
+        return ParserFriendlyXprisoMessage.create( nmbid0, nmbid1 );
+    }
+
+    /**
+     * Create a property change event.
+     *
+     * @param obj identifier of the affected NetMeshObject
+     * @param propertyType identifier of the PropertyType
+     * @param oldValue the old value, as String
+     * @param newValue the new value, as String
+     * @param time the time of the change
+     * @return the event
+     */
+    protected NetMeshObjectPropertyChangeEvent createPropertyChange(
+            NetMeshObjectIdentifier obj,
+            MeshTypeIdentifier      propertyType,
+            String                  oldValue,
+            String                  newValue,
+            long                    time )
+    {
+        return new NetMeshObjectPropertyChangeEvent(
+                obj,
+                propertyType,
+                oldValue != null ? StringValue.create( oldValue ) : null,
+                StringValue.create( newValue ),
+                nmbid1,
+                time,
+                null );
+    }
+
+    /**
+     * Identifiers of the affected NetMeshObjects.
+     */
+    protected NetMeshObjectIdentifier obj1;
+    protected NetMeshObjectIdentifier obj2;
+
+    /**
+     * Identifiers of the EntityTypes and PropertyTypes.
+     */
+    protected MeshTypeIdentifier mt1;
+    protected MeshTypeIdentifier mt2;
+    protected MeshTypeIdentifier pt1;
+    protected MeshTypeIdentifier pt2;
+
+    /**
+     * The lengths of the backlogs to consolidate.
+     */
+    protected static final int [] BACKLOGS = { 2, 3, 500, 4000 };
+
+    /**
+     * The number of requested freshens per message.
+     */
+    protected static final int PER_MESSAGE = 5;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoMessageAssemblyTest2.class );
+}
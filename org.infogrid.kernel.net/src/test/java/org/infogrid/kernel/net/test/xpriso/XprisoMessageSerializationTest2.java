@@ -0,0 +1,176 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.SimpleExternalizedNetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.transaction.NetMeshObjectPropertyChangeEvent;
+import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoder;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoders;
+import org.infogrid.meshbase.net.xpriso.binary.XprisoMessageBinaryEncoder;
+import org.infogrid.meshbase.net.xpriso.xml.XprisoMessageXmlEncoder;
+import org.infogrid.model.primitives.BasicUnitFamily;
+import org.infogrid.model.primitives.FloatValue;
+import org.infogrid.model.primitives.IntegerValue;
+import org.infogrid.model.primitives.MeshTypeIdentifier;
+import org.infogrid.model.primitives.PropertyValue;
+import org.infogrid.model.primitives.Unit;
+import org.infogrid.util.logging.Log;
+
+/**
+ * Tests binary XprisoMessage serialization, using the same messages as XprisoMessageSerializationTest1.
+ * Also tests the framing and negotiation of encodings, and PropertyValues that carry a Unit.
+ */
+public class XprisoMessageSerializationTest2
+        extends
+            XprisoMessageSerializationTest1
+{
+    /**
+     * Run one test.
+     *
+     * @param index the index of the test
+     * @param message the XprisoMessage to test
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    @Override
+    protected void runOne(
+            int           index,
+            XprisoMessage message )
+        throws
+            Exception
+    {
+        log.info( "Now running test " + index );
+
+        XprisoMessageBinaryEncoder encoder  = new XprisoMessageBinaryEncoder();
+        ByteArrayOutputStream      outBytes = new ByteArrayOutputStream();
+
+        encoder.encodeXprisoMessage( message, outBytes );
+
+        ByteArrayOutputStream xmlBytes = new ByteArrayOutputStream();
+        new XprisoMessageXmlEncoder().encodeXprisoMessage( message, xmlBytes );
+
+        log.debug( "Binary size: " + outBytes.size() + ", XML size: " + xmlBytes.size() );
+
+        XprisoMessage recovered = encoder.decodeXprisoMessage(
+                new ByteArrayInputStream( outBytes.toByteArray() ),
+                theNetMeshBase );
+
+        checkEquals( message, recovered, "Recovered XprisoMessage not the same" );
+
+        // now framed, with both encodings
+
+        for( String encodingId : XprisoMessageEncoders.getSupportedEncodingIds() ) {
+            XprisoMessageEncoder  framingEncoder = XprisoMessageEncoders.getEncoderFor( encodingId );
+            ByteArrayOutputStream framedBytes    = new ByteArrayOutputStream();
+
+            XprisoMessageEncoders.encodeFramed( message, framingEncoder, framedBytes );
+
+            XprisoMessage framedRecovered = XprisoMessageEncoders.decodeFramed(
+                    new ByteArrayInputStream( framedBytes.toByteArray() ),
+                    theNetMeshBase );
+
+            checkEquals( message, framedRecovered, "Recovered framed XprisoMessage not the same: " + encodingId );
+        }
+
+        // negotiation
+
+        checkEquals(
+                XprisoMessageEncoders.negotiate( XprisoMessageEncoders.getSupportedEncodingIds() ).getEncodingId(),
+                XprisoMessageEncoders.getPreferredEncodingId(),
+                "Wrong encoding negotiated with peer" );
+        checkEquals(
+                XprisoMessageEncoders.negotiate( new String[] { "unknown", new XprisoMessageXmlEncoder().getEncodingId() } ).getEncodingId(),
+                new XprisoMessageXmlEncoder().getEncodingId(),
+                "Wrong encoding negotiated with XML-only peer" );
+        checkEquals(
+                XprisoMessageEncoders.negotiate( null ).getEncodingId(),
+                new XprisoMessageXmlEncoder().getEncodingId(),
+                "Wrong encoding negotiated with unknown peer" );
+    }
+
+    /**
+     * Add a message with PropertyValues that carry a Unit.
+     *
+     * @return the test messages
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    @Override
+    protected XprisoMessage [] constructTestMessages()
+        throws
+            Exception
+    {
+        XprisoMessage [] inherited = super.constructTestMessages();
+
+        Unit meter = Unit.create( "m", 1.0, 0.0, BasicUnitFamily.create( "Length" ));
+
+        NetMeshBaseIdentifier id1 = theMeshBaseIdentifierFactory.fromExternalForm( "http://some.where.example.com/" );
+        NetMeshBaseIdentifier id2 = theMeshBaseIdentifierFactory.fromExternalForm( "http://foo.net/" );
+
+        NetMeshObjectIdentifier nmo_ref1 = theNetMeshObjectIdentifierFactory.fromExternalForm( "unit" );
+
+        MeshTypeIdentifier mt_ref1 = theMeshTypeIdentifierFactory.fromExternalForm( "org.infogrid.model.Some/Model" );
+        MeshTypeIdentifier mt_ref2 = theMeshTypeIdentifierFactory.fromExternalForm( "https://foo.com/bar/12" );
+        MeshTypeIdentifier mt_ref3 = theMeshTypeIdentifierFactory.fromExternalForm( "https://foo.com/bar/13" );
+
+        ParserFriendlyXprisoMessage ten = ParserFriendlyXprisoMessage.create( id1, id2 );
+        ten.setRequestId( 1010 );
+
+        ExternalizedNetMeshObject conveyed = SimpleExternalizedNetMeshObject.create(
+                nmo_ref1, // identifier
+                new MeshTypeIdentifier[] { mt_ref1 }, // typeNames
+                12L, // timeCreated
+                34L, // timeUpdated
+                56L, // timeRead
+                -1L, // timeExpires
+                new MeshTypeIdentifier[] { mt_ref2, mt_ref3 }, // propertyTypes
+                new PropertyValue[] {
+                        FloatValue.create( 1.5, meter ),
+                        IntegerValue.create( 42L, meter )
+                }, // propertyValues
+                new NetMeshObjectIdentifier[0], // neighbors
+                new MeshTypeIdentifier[0][], // roleTypes
+                new NetMeshObjectIdentifier[0], // equivalents
+                false, // giveUpHomeReplica
+                false, // giveUpLock
+                new NetMeshBaseIdentifier[] { id1, id2 }, // proxyNames
+                1, // proxyTowardsHomeIndex
+                1, // proxyTowardsLockIndex
+                new NetMeshBaseIdentifier[0][] ); // relationshipProxyNames
+
+        ten.addConveyedMeshObject( conveyed );
+        ten.addPropertyChange( new NetMeshObjectPropertyChangeEvent(
+                nmo_ref1,
+                mt_ref2,
+                FloatValue.create( 1.5, meter ),
+                FloatValue.create( 2.5, meter ),
+                id1,
+                17L,
+                null ) );
+
+        XprisoMessage [] ret = new XprisoMessage[ inherited.length + 1 ];
+        System.arraycopy( inherited, 0, ret, 0, inherited.length );
+        ret[ inherited.length ] = ten;
+        return ret;
+    }
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoMessageSerializationTest2.class );
+}
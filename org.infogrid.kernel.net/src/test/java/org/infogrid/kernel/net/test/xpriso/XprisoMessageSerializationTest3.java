@@ -0,0 +1,123 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.xml.XprisoMessageXmlEncoder;
+import org.infogrid.util.logging.Log;
+import org.junit.Test;
+
+/**
+ * Decodes XprisoMessages from many Threads at the same time through a single, shared
+ * XprisoMessageXmlEncoder. Checks the results, and reports how throughput scales with the
+ * number of Threads.
+ */
+public class XprisoMessageSerializationTest3
+        extends
+            XprisoMessageSerializationTest1
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all sorts of things may go wrong during a test
+     */
+    @Test
+    @Override
+    public void run()
+        throws
+            Exception
+    {
+        final XprisoMessage [] testMessages = constructTestMessages();
+        final byte [][]        encoded      = new byte[ testMessages.length ][];
+
+        for( int i=0 ; i<testMessages.length ; ++i ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            theSharedEncoder.encodeXprisoMessage( testMessages[i], out );
+            encoded[i] = out.toByteArray();
+        }
+
+        int  maxThreads     = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+        long singleThreaded = -1L;
+
+        for( int nThreads = 1 ; nThreads <= maxThreads ; nThreads *= 2 ) {
+            ExecutorService exec = Executors.newFixedThreadPool( nThreads );
+
+            List<Callable<XprisoMessage []>> tasks = new ArrayList<Callable<XprisoMessage []>>();
+            for( int t=0 ; t<nThreads ; ++t ) {
+                tasks.add( new Callable<XprisoMessage []>() {
+                        public XprisoMessage [] call()
+                            throws
+                                Exception
+                        {
+                            XprisoMessage [] ret = new XprisoMessage[ encoded.length ];
+                            for( int round=0 ; round<ROUNDS ; ++round ) {
+                                for( int i=0 ; i<encoded.length ; ++i ) {
+                                    ret[i] = theSharedEncoder.decodeXprisoMessage(
+                                            new ByteArrayInputStream( encoded[i] ),
+                                            theNetMeshBase );
+                                }
+                            }
+                            return ret;
+                        }
+                });
+            }
+
+            long start = System.nanoTime();
+
+            List<Future<XprisoMessage []>> results = exec.invokeAll( tasks );
+
+            long duration = System.nanoTime() - start;
+            exec.shutdown();
+
+            for( Future<XprisoMessage []> current : results ) {
+                XprisoMessage [] recovered = current.get();
+                for( int i=0 ; i<recovered.length ; ++i ) {
+                    checkEquals( testMessages[i], recovered[i], "Recovered XprisoMessage not the same: " + i );
+                }
+            }
+
+            long decoded       = (long) nThreads * ROUNDS * encoded.length;
+            long perSecond     = decoded * 1000000000L / Math.max( 1L, duration );
+            if( singleThreaded < 0 ) {
+                singleThreaded = perSecond;
+            }
+            log.info( "Threads: " + nThreads
+                    + ", decoded: " + decoded
+                    + ", per second: " + perSecond
+                    + ", speedup: " + ((double) perSecond / Math.max( 1L, singleThreaded )));
+        }
+    }
+
+    /**
+     * The encoder shared by all Threads.
+     */
+    protected final XprisoMessageXmlEncoder theSharedEncoder = new XprisoMessageXmlEncoder();
+
+    /**
+     * Number of times each Thread decodes each message.
+     */
+    protected static final int ROUNDS = 200;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoMessageSerializationTest3.class );
+}
@@ -0,0 +1,208 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecificationFactory;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.a.AccessLocallyFuture;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests accessLocallyAsync, including concurrent requests, requests for NetMeshObjects that do not exist,
+ * and that no Thread is parked waiting for the responses.
+ */
+public class XprisoTest17
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Setting up objects" );
+
+        Transaction tx = mb1.createTransactionAsap();
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory idf1  = mb1.getMeshObjectIdentifierFactory();
+
+        NetMeshObject [] objs_mb1 = new NetMeshObject[ 5 ];
+        for( int i=0 ; i<objs_mb1.length ; ++i ) {
+            objs_mb1[i] = life1.createMeshObject( idf1.fromExternalForm( "#" + i ) );
+        }
+
+        tx.commitTransaction();
+
+        //
+
+        log.info( "Requesting asynchronously" );
+
+        NetMeshObjectAccessSpecificationFactory pathFact2 = mb2.getNetMeshObjectAccessSpecificationFactory();
+
+        NetMeshObjectAccessSpecification [] paths1 = {
+            pathFact2.obtain( mb1.getIdentifier(), objs_mb1[0].getIdentifier() ),
+            pathFact2.obtain( mb1.getIdentifier(), objs_mb1[1].getIdentifier() ),
+            pathFact2.obtain( mb1.getIdentifier(), objs_mb1[2].getIdentifier() )
+        };
+        NetMeshObjectAccessSpecification [] paths2 = {
+            pathFact2.obtain( mb1.getIdentifier(), objs_mb1[2].getIdentifier() ),
+            pathFact2.obtain( mb1.getIdentifier(), objs_mb1[3].getIdentifier() ),
+            pathFact2.obtain( mb1.getIdentifier(), objs_mb1[4].getIdentifier() )
+        };
+
+        AccessLocallyFuture future1 = mb2.accessLocallyAsync( paths1, 60000L ); // long for debugging
+        AccessLocallyFuture future2 = mb2.accessLocallyAsync( paths2, 60000L );
+
+        NetMeshObject [] found1 = future1.get( 60000L, TimeUnit.MILLISECONDS );
+        NetMeshObject [] found2 = future2.get( 60000L, TimeUnit.MILLISECONDS );
+
+        //
+
+        log.info( "Checking results" );
+
+        checkEquals( found1.length, paths1.length, "wrong length of first result" );
+        checkEquals( found2.length, paths2.length, "wrong length of second result" );
+
+        for( int i=0 ; i<found1.length ; ++i ) {
+            checkObject( found1[i], "first result not found: " + i );
+            checkEquals( found1[i].getIdentifier(), objs_mb1[i].getIdentifier(), "wrong object in first result: " + i );
+            checkCondition( future1.getElementFuture( i ).isDone(), "element future not done: " + i );
+            checkCondition( future1.getElementFuture( i ).get() == found1[i], "element future has wrong result: " + i );
+        }
+        for( int i=0 ; i<found2.length ; ++i ) {
+            checkObject( found2[i], "second result not found: " + i );
+            checkEquals( found2[i].getIdentifier(), objs_mb1[i+2].getIdentifier(), "wrong object in second result: " + i );
+        }
+        checkCondition( found1[2] == found2[0], "same object replicated twice" );
+
+        checkProxies( found1[0], new NetMeshBase[] { mb1 }, mb1, mb1, "obj0_mb2 has wrong proxies" );
+
+        //
+
+        log.info( "Requesting what is local already" );
+
+        AccessLocallyFuture future3 = mb2.accessLocallyAsync( paths1 );
+        checkCondition( future3.isDone(), "local request not completed right away" );
+        checkCondition( future3.get()[1] == found1[1], "wrong local result" );
+
+        //
+
+        log.info( "Requesting what does not exist" );
+
+        NetMeshObjectAccessSpecification [] paths4 = {
+            pathFact2.obtain( mb1.getIdentifier(), idf1.fromExternalForm( "#does-not-exist" ))
+        };
+
+        AccessLocallyFuture future4 = mb2.accessLocallyAsync( paths4, 60000L );
+
+        NetMeshObject [] found4 = future4.get( 10000L, TimeUnit.MILLISECONDS ); // well before the timeout: the response says it's not there
+
+        checkEquals( found4.length, 1, "wrong length of not-found result" );
+        checkCondition( found4[0] == null, "found something that does not exist" );
+        checkCondition( future4.getElementFuture( 0 ).isDone(), "element future not done" );
+
+        //
+
+        log.info( "Checking that no Thread waits for responses" );
+
+        for( Thread current : Thread.getAllStackTraces().keySet() ) {
+            checkCondition( !current.getName().startsWith( "AccessLocallyAsync-" ), "found dispatcher Thread: " + current.getName() );
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 1 );
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest17.class );
+}
@@ -0,0 +1,175 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.nio.NioNetMessageEndpointFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests replication between two NetMeshBases that communicate over loopback sockets, each
+ * through its own NioNetMessageEndpointFactory. Only the second factory is told the address of
+ * the first; the first has to learn the address of the second from the incoming frames.
+ */
+public class XprisoTest18
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Setting up objects" );
+
+        Transaction tx = mb1.createTransactionAsap();
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory idf1  = mb1.getMeshObjectIdentifierFactory();
+
+        NetMeshObject [] objs_mb1 = new NetMeshObject[ 3 ];
+        for( int i=0 ; i<objs_mb1.length ; ++i ) {
+            objs_mb1[i] = life1.createMeshObject( idf1.fromExternalForm( "#" + i ) );
+        }
+
+        tx.commitTransaction();
+
+        //
+
+        log.info( "Accessing over the sockets" );
+
+        NetMeshObject [] found = new NetMeshObject[ objs_mb1.length ];
+        for( int i=0 ; i<found.length ; ++i ) {
+            found[i] = mb2.accessLocally(
+                    mb1.getIdentifier(),
+                    objs_mb1[i].getIdentifier() );
+        }
+
+        //
+
+        log.info( "Checking results" );
+
+        for( int i=0 ; i<found.length ; ++i ) {
+            checkObject( found[i], "not found: " + i );
+            checkEquals( found[i].getIdentifier(), objs_mb1[i].getIdentifier(), "wrong object: " + i );
+            checkCondition( found[i] != objs_mb1[i], "not a replica: " + i );
+        }
+        checkProxies( found[0],    new NetMeshBase[] { mb1 }, mb1,  mb1,  "obj0_mb2 has wrong proxies" );
+        checkProxies( objs_mb1[0], new NetMeshBase[] { mb2 }, null, null, "obj0_mb1 has wrong proxies" );
+
+        checkEquals( endpointFactory1.getAddressOf( net2 ), endpointFactory2.getListenAddress(), "first factory did not learn address of second" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        endpointFactory1 = NioNetMessageEndpointFactory.create( new InetSocketAddress( loopback, 0 ), theMeshBaseIdentifierFactory, exec );
+        endpointFactory1.setNameServer( theNameServer );
+
+        endpointFactory2 = NioNetMessageEndpointFactory.create( new InetSocketAddress( loopback, 0 ), theMeshBaseIdentifierFactory, exec );
+        endpointFactory2.setNameServer( theNameServer );
+        endpointFactory2.registerAddress( net1, endpointFactory1.getListenAddress() );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory1, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory2, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        endpointFactory1.close();
+        endpointFactory2.close();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The endpoint factory of the first NetMeshBase.
+     */
+    protected NioNetMessageEndpointFactory endpointFactory1;
+
+    /**
+     * The endpoint factory of the second NetMeshBase.
+     */
+    protected NioNetMessageEndpointFactory endpointFactory2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest18.class );
+}
@@ -0,0 +1,181 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPushPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that property changes reach the replicas well before the next ping-pong round trip
+ * when the push-mode endpoints are used.
+ */
+public class XprisoTest19
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        //
+
+        log.info( "Instantiating object in mb1" );
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        NetMeshObject obj_mb1 = life1.createMeshObject( fact1.fromExternalForm( "one" ), TestSubjectArea.AA );
+        obj_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "initial" ));
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing object at mb2 from mb1" );
+
+        NetMeshObject obj_mb2 = mb2.accessLocally(
+                    mb1.getIdentifier(),
+                    obj_mb1.getIdentifier() );
+
+        checkObject( obj_mb2, "object not found in mb2" );
+        checkProxies( obj_mb2, new NetMeshBase[] { mb1 }, mb1, mb1, "obj_mb2 has wrong proxies" );
+
+        //
+
+        log.info( "Changing property repeatedly, and timing propagation" );
+
+        long maxLatency = 0L;
+        for( int i=0 ; i<ROUNDS ; ++i ) {
+            StringValue value = StringValue.create( "value-" + i );
+
+            tx1 = mb1.createTransactionAsap();
+            obj_mb1.setPropertyValue( TestSubjectArea.A_X, value );
+            tx1.commitTransaction();
+
+            long start = System.currentTimeMillis();
+            long now   = start;
+            while( !value.equals( obj_mb2.getPropertyValue( TestSubjectArea.A_X )) && now - start < PINGPONG_ROUNDTRIP_DURATION ) {
+                Thread.sleep( 1L );
+                now = System.currentTimeMillis();
+            }
+            checkEquals( obj_mb2.getPropertyValue( TestSubjectArea.A_X ), value, "Property value did not propagate in round " + i );
+
+            maxLatency = Math.max( maxLatency, now - start );
+        }
+        log.info( "Maximum propagation latency: " + maxLatency + " msec" );
+
+        checkCondition( maxLatency < PUSH_LATENCY, "Propagation too slow: " + maxLatency );
+        checkProxies( obj_mb1, new NetMeshBase[] { mb2 }, null, null, "obj_mb1 has wrong proxies" );
+        checkProxies( obj_mb2, new NetMeshBase[] { mb1 }, mb1,  mb1,  "obj_mb2 has wrong proxies" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPushPingPongNetMessageEndpointFactory endpointFactory = MPushPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 3 ); // gotta have two threads
+
+    /**
+     * Number of changes to time.
+     */
+    protected static final int ROUNDS = 20;
+
+    /**
+     * Upper bound on the propagation latency in push mode, in milliseconds. Generous, so the
+     * test does not fail on a busy build machine, but still well below a ping-pong round trip.
+     */
+    protected static final long PUSH_LATENCY = 100L;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest19.class );
+}
@@ -0,0 +1,280 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.CoherenceSpecification;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPushPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that replicas obtained with Periodic and AdaptivePeriodic CoherenceSpecifications
+ * are freshened on schedule, and that the adaptive schedule backs off if nothing changes.
+ */
+public class XprisoTest20
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating object in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        NetMeshObject obj_mb1 = life1.createMeshObject( fact1.fromExternalForm( "one" ));
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing object from mb2 periodically, and from mb3 adaptively" );
+
+        NetMeshObject obj_mb2 = mb2.accessLocally( mb2.getNetMeshObjectAccessSpecificationFactory().obtain(
+                mb1.getIdentifier(),
+                obj_mb1.getIdentifier(),
+                new CoherenceSpecification.Periodic( PERIOD )));
+
+        NetMeshObject obj_mb3 = mb3.accessLocally( mb3.getNetMeshObjectAccessSpecificationFactory().obtain(
+                mb1.getIdentifier(),
+                obj_mb1.getIdentifier(),
+                new CoherenceSpecification.AdaptivePeriodic( PERIOD, 16 * PERIOD, 2.0 )));
+
+        checkObject( obj_mb2, "object not found in mb2" );
+        checkObject( obj_mb3, "object not found in mb3" );
+
+        //
+
+        log.info( "Waiting, while nothing changes" );
+
+        Thread.sleep( WAIT );
+
+        int periodic;
+        int adaptive;
+        synchronized( theCounter ) {
+            periodic = theCounter.theFromMb2;
+            adaptive = theCounter.theFromMb3;
+        }
+        log.info( "Freshen requests, periodic: " + periodic + ", adaptive: " + adaptive );
+
+        // 10 periods: expect about 10 periodic and 4 adaptive freshens (1, 2, 4, 8 periods later)
+        checkCondition( periodic >= 5,       "Too few periodic freshens: " + periodic );
+        checkCondition( adaptive >= 2,       "Too few adaptive freshens: " + adaptive );
+        checkCondition( adaptive < periodic, "Adaptive freshens did not back off: " + adaptive + " vs. " + periodic );
+
+        //
+
+        log.info( "Killing mb2 stops freshening from there" );
+
+        mb2.die();
+        mb2 = null;
+
+        synchronized( theCounter ) {
+            periodic = theCounter.theFromMb2;
+        }
+        Thread.sleep( 3 * PERIOD );
+        synchronized( theCounter ) {
+            checkEquals( theCounter.theFromMb2, periodic, "Still freshening from dead NetMeshBase" );
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+        net3 = theMeshBaseIdentifierFactory.fromExternalForm( "test://three.local" );
+
+        MPushPingPongNetMessageEndpointFactory endpointFactory = MPushPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+        mb3 = NetMMeshBase.create( net3, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+        theNameServer.put( mb3.getIdentifier(), mb3 );
+
+        mb1.setXprisoMessageLogger( theCounter );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        if( mb2 != null ) {
+            mb2.die();
+        }
+        mb3.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The third NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net3;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMMeshBase mb2;
+
+    /**
+     * The third NetMeshBase.
+     */
+    protected NetMMeshBase mb3;
+
+    /**
+     * Counts the freshen requests arriving at mb1.
+     */
+    protected FreshenCounter theCounter = new FreshenCounter();
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 3 );
+
+    /**
+     * The base period, in milliseconds.
+     */
+    protected static final long PERIOD = 200L;
+
+    /**
+     * How long to wait for freshens, in milliseconds.
+     */
+    protected static final long WAIT = 10 * PERIOD + PERIOD / 2;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest20.class );
+
+    /**
+     * Counts the freshen requests arriving at a NetMeshBase, by sender.
+     */
+    protected class FreshenCounter
+            implements
+                XprisoMessageLogger
+    {
+        /**
+         * One ore more XprisoMessages have arrived.
+         *
+         * @param base the NetMeshBase at which the XprisoMessage has arrived
+         * @param msgs the XprisoMessages that arrived
+         */
+        public synchronized void messageArrived(
+                NetMeshBase         base,
+                List<XprisoMessage> msgs )
+        {
+            for( XprisoMessage current : msgs ) {
+                if( current.getRequestedFreshenReplicas().length == 0 ) {
+                    continue;
+                }
+                if( net2.equals( current.getSenderIdentifier() )) {
+                    ++theFromMb2;
+                } else if( net3.equals( current.getSenderIdentifier() )) {
+                    ++theFromMb3;
+                }
+            }
+        }
+
+        /**
+         * An XprisoMessage is about to be sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageToBeSent(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * An XprisoMessage has successfully been sent.
+         *
+         * @param base the NetMeshBase sendingthe message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageSentSuccessfully(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * Freshen requests from mb2.
+         */
+        protected int theFromMb2;
+
+        /**
+         * Freshen requests from mb3.
+         */
+        protected int theFromMb3;
+    }
+}
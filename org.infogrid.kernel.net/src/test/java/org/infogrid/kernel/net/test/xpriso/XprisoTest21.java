@@ -0,0 +1,169 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.ScopeSpecification;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that accessing a NetMeshObject with a ScopeSpecification brings over its
+ * neighborhood in the same round trip, up to the specified number of steps.
+ */
+public class XprisoTest21
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating chain of objects in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        NetMeshObject [] chain_mb1 = new NetMeshObject[ CHAIN_LENGTH ];
+        for( int i=0 ; i<chain_mb1.length ; ++i ) {
+            chain_mb1[i] = life1.createMeshObject( fact1.fromExternalForm( "chain-" + i ));
+            if( i > 0 ) {
+                chain_mb1[i-1].relate( chain_mb1[i] );
+            }
+        }
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing start of chain from mb2, with scope " + SCOPE );
+
+        NetMeshObject start_mb2 = mb2.accessLocally( mb2.getNetMeshObjectAccessSpecificationFactory().obtain(
+                mb1.getIdentifier(),
+                chain_mb1[0].getIdentifier(),
+                new ScopeSpecification.SimpleStep( SCOPE )));
+
+        checkObject( start_mb2, "start object not found in mb2" );
+
+        //
+
+        log.info( "Checking what came along, without any further access" );
+
+        for( int i=1 ; i<chain_mb1.length ; ++i ) {
+            NetMeshObject found = mb2.findMeshObjectByIdentifier( chain_mb1[i].getIdentifier() );
+            if( i <= SCOPE ) {
+                checkObject( found, "object " + i + " in scope, but not replicated" );
+                checkProxies( found, new NetMeshBase[] { mb1 }, mb1, mb1, "object " + i + " has wrong proxies" );
+            } else {
+                checkCondition( found == null, "object " + i + " out of scope, but replicated" );
+            }
+        }
+        checkEquals( chain_mb1[1].getIdentifier(), start_mb2.getNeighborMeshObjectIdentifiers()[0], "wrong neighbor" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 1 );
+
+    /**
+     * Number of objects in the chain.
+     */
+    protected static final int CHAIN_LENGTH = 5;
+
+    /**
+     * The requested scope.
+     */
+    protected static final int SCOPE = 2;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest21.class );
+}
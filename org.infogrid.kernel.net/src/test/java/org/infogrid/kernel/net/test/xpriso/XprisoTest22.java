@@ -0,0 +1,187 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.net.a.AnetMeshObject;
+import org.infogrid.mesh.net.a.AnetMeshObjectNeighborManager;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Relates hub NetMeshObjects to growing numbers of neighbors, and checks that looking up
+ * a relationship finds the right entry in the relationship table, also once the neighbor
+ * index is in use. Also checks that the relationship table stays consistent as neighbors
+ * are removed.
+ */
+public class XprisoTest22
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        AnetMeshObjectNeighborManager nMgr = AnetMeshObjectNeighborManager.SINGLETON_NET;
+
+        for( int s=0 ; s<SIZES.length ; ++s ) {
+            int n = SIZES[s];
+
+            log.info( "Relating hub to " + n + " neighbors" );
+
+            NetMeshObject              hub       = createMeshObject( "hub-" + n );
+            NetMeshObjectIdentifier [] neighbors = new NetMeshObjectIdentifier[ n ];
+
+            Transaction tx = mb1.createTransactionAsap();
+            for( int i=0 ; i<n ; ++i ) {
+                NetMeshObject neighbor = life1.createMeshObject( fact1.fromExternalForm( "neighbor-" + n + "-" + i ));
+                hub.relate( neighbor );
+                neighbors[i] = neighbor.getIdentifier();
+
+                if( i == n/2 ) {
+                    // look up in the middle, so the index, if any, is kept current by the appends that follow
+                    checkEquals( nMgr.determineRelationshipIndex( (AnetMeshObject) hub, neighbors[0] ), 0, "Wrong index while relating" );
+                }
+            }
+            tx.commitTransaction();
+
+            //
+
+            log.info( "Looking up all neighbors" );
+
+            NetMeshObjectIdentifier [] all = hub.getNeighborMeshObjectIdentifiers();
+            checkEquals( all.length, n, "Wrong number of neighbors" );
+
+            for( int i=0 ; i<all.length ; ++i ) {
+                checkEquals( nMgr.determineRelationshipIndex( (AnetMeshObject) hub, all[i] ), i, "Wrong index for neighbor " + i );
+            }
+            checkEquals( nMgr.determineRelationshipIndex( (AnetMeshObject) hub, hub.getIdentifier() ), -1, "Hub found as its own neighbor" );
+
+            //
+
+            log.info( "Removing every other neighbor" );
+
+            tx = mb1.createTransactionAsap();
+            for( int i=0 ; i<n ; i+=2 ) {
+                hub.unrelate( mb1.findMeshObjectByIdentifier( neighbors[i] ));
+            }
+            tx.commitTransaction();
+
+            checkEquals( hub.getNeighborMeshObjectIdentifiers().length, n/2, "Wrong number of neighbors left" );
+            checkEquals( nMgr.getRelationshipProxies( (AnetMeshObject) hub ).length, n/2, "Wrong size of relationship table" );
+
+            all = hub.getNeighborMeshObjectIdentifiers();
+            for( int i=0 ; i<all.length ; ++i ) {
+                checkEquals( nMgr.determineRelationshipIndex( (AnetMeshObject) hub, all[i] ), i, "Wrong index after removal for neighbor " + i );
+            }
+            for( int i=0 ; i<n ; i+=2 ) {
+                checkEquals( nMgr.determineRelationshipIndex( (AnetMeshObject) hub, neighbors[i] ), -1, "Removed neighbor still found: " + i );
+            }
+            for( int i=1 ; i<n ; i+=2 ) {
+                nMgr.getRelationshipProxiesFor( (AnetMeshObject) hub, neighbors[i] ); // throws if not there
+            }
+        }
+    }
+
+    /**
+     * Helper to create a NetMeshObject in its own Transaction.
+     *
+     * @param id the identifier
+     * @return the created NetMeshObject
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    protected NetMeshObject createMeshObject(
+            String id )
+        throws
+            Exception
+    {
+        Transaction   tx  = mb1.createTransactionAsap();
+        NetMeshObject ret = life1.createMeshObject( fact1.fromExternalForm( id ));
+        tx.commitTransaction();
+
+        return ret;
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        mb1 = NetMMeshBase.create(
+                theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" ),
+                theModelBase,
+                null,
+                null,
+                rootContext );
+
+        life1 = mb1.getMeshBaseLifecycleManager();
+        fact1 = mb1.getMeshObjectIdentifierFactory();
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+    }
+
+    /**
+     * The NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The NetMeshBase's lifecycle manager.
+     */
+    protected NetMeshBaseLifecycleManager life1;
+
+    /**
+     * The NetMeshBase's identifier factory.
+     */
+    protected NetMeshObjectIdentifierFactory fact1;
+
+    /**
+     * The numbers of neighbors to test. The first is below, the others above AnetMeshObjectNeighborManager.NEIGHBOR_INDEX_THRESHOLD.
+     */
+    protected static final int [] SIZES = { 8, 2500, 20000 };
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest22.class );
+}
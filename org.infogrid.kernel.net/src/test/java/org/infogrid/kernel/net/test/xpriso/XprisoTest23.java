@@ -0,0 +1,271 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.IterableNetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.net.sweeper.DefaultNetIterableSweeper;
+import org.infogrid.meshbase.net.sweeper.UnnecessaryReplicasSweepPolicy;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Replicates many NetMeshObjects, then sweeps them in parallel lots. Checks that all
+ * replicas are purged, and that the partner is told about it in a few messages, not one
+ * per replica.
+ */
+public class XprisoTest23
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating objects in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        NetMeshObjectAccessSpecification [] paths = new NetMeshObjectAccessSpecification[ N ];
+
+        Transaction tx1 = mb1.createTransactionAsap();
+        for( int i=0 ; i<N ; ++i ) {
+            NetMeshObject created = life1.createMeshObject( fact1.fromExternalForm( "obj-" + i ));
+            paths[i] = mb2.getNetMeshObjectAccessSpecificationFactory().obtain( mb1.getIdentifier(), created.getIdentifier() );
+        }
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Replicating them into mb2" );
+
+        NetMeshObject [] replicas = mb2.accessLocally( paths );
+        for( int i=0 ; i<N ; ++i ) {
+            checkObject( replicas[i], "Replica not found: " + i );
+        }
+        checkEquals( mb2.size(), N+1, "wrong number of objects before sweeping" ); // plus home object
+
+        //
+
+        log.info( "Sweeping in parallel" );
+
+        synchronized( theCounter ) {
+            theCounter.theCancels = 0;
+        }
+
+        ExecutorService sweepExec = Executors.newFixedThreadPool( SWEEP_THREADS );
+        int purged = theSweeper.sweepAllNowInParallel( sweepExec, 2 * SWEEP_THREADS );
+        sweepExec.shutdown();
+
+        checkEquals( purged, N, "wrong number of purged replicas" );
+
+        Thread.sleep( PINGPONG_ROUNDTRIP_DURATION );
+
+        checkEquals( mb2.size(), 1, "wrong number of objects after sweeping" );
+        for( int i=0 ; i<N ; ++i ) {
+            checkCondition( replicas[i].getIsDead(), "Replica not dead: " + i );
+        }
+
+        int cancelMessages;
+        synchronized( theCounter ) {
+            cancelMessages = theCounter.theCancels;
+        }
+        log.info( "Messages with canceled leases: " + cancelMessages );
+
+        checkCondition( cancelMessages > 0,          "No cancel messages" );
+        checkCondition( cancelMessages <= N / LOT,   "Too many cancel messages: " + cancelMessages );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+
+        theSweeper = DefaultNetIterableSweeper.create(
+                mb2,
+                UnnecessaryReplicasSweepPolicy.create( 0L ),
+                null,
+                LOT,
+                0L );
+        mb2.setSweeper( theSweeper );
+
+        ((NetMMeshBase) mb1).setXprisoMessageLogger( theCounter );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected IterableNetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected IterableNetMeshBase mb2;
+
+    /**
+     * The Sweeper of the second NetMeshBase.
+     */
+    protected DefaultNetIterableSweeper theSweeper;
+
+    /**
+     * Counts the messages with canceled leases arriving at mb1.
+     */
+    protected CancelCounter theCounter = new CancelCounter();
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    /**
+     * Number of replicas.
+     */
+    protected static final int N = 500;
+
+    /**
+     * Number of NetMeshObjects per lot.
+     */
+    protected static final int LOT = 50;
+
+    /**
+     * Number of Threads sweeping in parallel.
+     */
+    protected static final int SWEEP_THREADS = 4;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest23.class );
+
+    /**
+     * Counts the XprisoMessages that cancel leases.
+     */
+    protected static class CancelCounter
+            implements
+                XprisoMessageLogger
+    {
+        /**
+         * One ore more XprisoMessages have arrived.
+         *
+         * @param base the NetMeshBase at which the XprisoMessage has arrived
+         * @param msgs the XprisoMessages that arrived
+         */
+        public synchronized void messageArrived(
+                NetMeshBase         base,
+                List<XprisoMessage> msgs )
+        {
+            for( XprisoMessage current : msgs ) {
+                if( current.getRequestedCanceledObjects().length > 0 ) {
+                    ++theCancels;
+                }
+            }
+        }
+
+        /**
+         * An XprisoMessage is about to be sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageToBeSent(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * An XprisoMessage has successfully been sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageSentSuccessfully(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * Messages with canceled leases.
+         */
+        protected int theCancels;
+    }
+}
@@ -0,0 +1,266 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.set.MeshObjectSet;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that traversing from a set of replicas obtains all missing neighbors with
+ * a single request, instead of one request per member of the set.
+ */
+public class XprisoTest24
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating related objects in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        NetMeshObject [] start_mb1 = new NetMeshObject[ N ];
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        for( int i=0 ; i<N ; ++i ) {
+            start_mb1[i] = life1.createMeshObject( fact1.fromExternalForm( "start-" + i ), TestSubjectArea.AA );
+            NetMeshObject neighbor = life1.createMeshObject( fact1.fromExternalForm( "neighbor-" + i ), TestSubjectArea.AA );
+
+            start_mb1[i].relateAndBless( TestSubjectArea.AR1A.getSource(), neighbor );
+        }
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing start objects from mb2" );
+
+        NetMeshObjectAccessSpecification [] paths = new NetMeshObjectAccessSpecification[ N ];
+        for( int i=0 ; i<N ; ++i ) {
+            paths[i] = mb2.getNetMeshObjectAccessSpecificationFactory().obtain( mb1.getIdentifier(), start_mb1[i].getIdentifier() );
+        }
+        NetMeshObject [] start_mb2 = mb2.accessLocally( paths );
+
+        for( int i=0 ; i<N ; ++i ) {
+            checkObject( start_mb2[i], "start object " + i + " not found in mb2" );
+        }
+        checkEquals( mb2.size(), N+1, "Wrong number of objects in mb2 before traversal" ); // plus home object
+
+        //
+
+        log.info( "Traversing from the set of start objects" );
+
+        synchronized( theCounter ) {
+            theCounter.theRequests = 0;
+        }
+
+        MeshObjectSet startSet    = mb2.getMeshObjectSetFactory().createImmutableMeshObjectSet( start_mb2 );
+        MeshObjectSet neighborSet = mb2.traverse( startSet, TestSubjectArea.AR1A.getSource() );
+
+        checkEquals( neighborSet.size(), N, "Wrong number of neighbors found" );
+        checkEquals( mb2.size(), 2*N+1, "Wrong number of objects in mb2 after traversal" );
+
+        int requests;
+        synchronized( theCounter ) {
+            requests = theCounter.theRequests;
+        }
+        log.info( "Messages requesting new replicas: " + requests );
+
+        checkCondition( requests > 0,              "Neighbors were not obtained from mb1" );
+        checkCondition( requests <= MAX_REQUESTS, "Neighbors were obtained one by one: " + requests );
+
+        //
+
+        log.info( "Traversing again does not require any more messages" );
+
+        synchronized( theCounter ) {
+            theCounter.theRequests = 0;
+        }
+        neighborSet = mb2.traverse( startSet, TestSubjectArea.AR1A.getSource() );
+
+        checkEquals( neighborSet.size(), N, "Wrong number of neighbors found the second time" );
+        synchronized( theCounter ) {
+            checkEquals( theCounter.theRequests, 0, "Neighbors requested again" );
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+
+        mb1.setXprisoMessageLogger( theCounter );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMMeshBase mb2;
+
+    /**
+     * Counts the requests for new replicas arriving at mb1.
+     */
+    protected RequestCounter theCounter = new RequestCounter();
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    /**
+     * The number of start objects.
+     */
+    protected static final int N = 50;
+
+    /**
+     * The maximum number of messages that may carry the requests for the neighbors. Resending
+     * after a lost token may cause a second one.
+     */
+    protected static final int MAX_REQUESTS = 2;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest24.class );
+
+    /**
+     * Counts the messages requesting new replicas arriving at a NetMeshBase.
+     */
+    protected static class RequestCounter
+            implements
+                XprisoMessageLogger
+    {
+        /**
+         * One ore more XprisoMessages have arrived.
+         *
+         * @param base the NetMeshBase at which the XprisoMessage has arrived
+         * @param msgs the XprisoMessages that arrived
+         */
+        public synchronized void messageArrived(
+                NetMeshBase         base,
+                List<XprisoMessage> msgs )
+        {
+            for( XprisoMessage current : msgs ) {
+                if( current.getRequestedFirstTimeObjects().length > 0 ) {
+                    ++theRequests;
+                }
+            }
+        }
+
+        /**
+         * An XprisoMessage is about to be sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageToBeSent(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * An XprisoMessage has successfully been sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageSentSuccessfully(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * Number of messages requesting new replicas.
+         */
+        protected int theRequests;
+    }
+}
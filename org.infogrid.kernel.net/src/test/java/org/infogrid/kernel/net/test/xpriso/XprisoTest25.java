@@ -0,0 +1,216 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.IterableNetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.ProxyManager;
+import org.infogrid.meshbase.net.proxy.ProxyMetricsSnapshot;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.net.sweeper.DefaultNetIterableSweeper;
+import org.infogrid.meshbase.net.sweeper.UnnecessaryReplicasSweepPolicy;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the per-partner replication metrics count messages, replicas and accessLocally latencies.
+ */
+public class XprisoTest25
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating objects in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        NetMeshObject one_mb1 = life1.createMeshObject( fact1.fromExternalForm( "one" ));
+        NetMeshObject two_mb1 = life1.createMeshObject( fact1.fromExternalForm( "two" ));
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing objects from mb2, one at a time" );
+
+        NetMeshObject one_mb2 = mb2.accessLocally( mb1.getIdentifier(), one_mb1.getIdentifier() );
+        NetMeshObject two_mb2 = mb2.accessLocally( mb1.getIdentifier(), two_mb1.getIdentifier() );
+
+        checkObject( one_mb2, "one not found in mb2" );
+        checkObject( two_mb2, "two not found in mb2" );
+
+        Thread.sleep( PINGPONG_ROUNDTRIP_DURATION ); // let the acknowledgements arrive
+
+        //
+
+        log.info( "Checking metrics" );
+
+        ProxyMetricsSnapshot [] snapshots1 = ((ProxyManager) mb1.getAsProxyNameServer()).getMetricsSnapshotWithReplicaCounts( (IterableNetMeshBase) mb1 );
+        ProxyMetricsSnapshot [] snapshots2 = ((ProxyManager) mb2.getAsProxyNameServer()).getMetricsSnapshotWithReplicaCounts( (IterableNetMeshBase) mb2 );
+
+        checkEquals( snapshots1.length, 1, "Wrong number of partners at mb1" );
+        checkEquals( snapshots2.length, 1, "Wrong number of partners at mb2" );
+
+        ProxyMetricsSnapshot at1 = snapshots1[0];
+        ProxyMetricsSnapshot at2 = snapshots2[0];
+
+        log.info( "mb1: " + at1 );
+        log.info( "mb2: " + at2 );
+
+        checkEquals( at1.getPartnerMeshBaseIdentifier(), net2, "Wrong partner at mb1" );
+        checkEquals( at2.getPartnerMeshBaseIdentifier(), net1, "Wrong partner at mb2" );
+
+        checkEquals( at1.getReplicasConveyed(), 2L, "Wrong number of replicas conveyed by mb1" );
+        checkEquals( at2.getReplicasObtained(), 2L, "Wrong number of replicas obtained by mb2" );
+
+        checkCondition( at2.getMessagesSent()     >= 2, "Too few messages sent by mb2: "     + at2.getMessagesSent() );
+        checkCondition( at1.getMessagesReceived() >= 2, "Too few messages received by mb1: " + at1.getMessagesReceived() );
+        checkEquals(    at2.getQueueDepth(), 0L, "Messages still queued at mb2" );
+
+        checkEquals(    at2.getLatencyCount(), 2L, "Wrong number of accessLocally latencies at mb2" );
+        checkCondition( at2.getLatencyPercentile( 0.5 ) <= at2.getLatencyPercentile( 0.99 ), "Percentiles not monotonic" );
+        checkEquals(    at1.getLatencyCount(), 0L, "mb1 did not accessLocally" );
+
+        ProxyMetricsSnapshot cheap2 = ((ProxyManager) mb2.getAsProxyNameServer()).getMetricsSnapshot()[0];
+
+        checkEquals( cheap2.getReplicasObtained(), -1L,                   "Cheap snapshot counted replicas" );
+        checkEquals( cheap2.getMessagesSent(),     at2.getMessagesSent(), "Cheap snapshot has different counters" );
+        checkEquals( cheap2.getQueueDepth(),       0L,                    "Messages still queued at mb2 in cheap snapshot" );
+
+        //
+
+        log.info( "Purging the replicas in mb2" );
+
+        DefaultNetIterableSweeper sweeper = DefaultNetIterableSweeper.create(
+                (IterableNetMeshBase) mb2,
+                UnnecessaryReplicasSweepPolicy.create( 0L ));
+        sweeper.sweepAllNow();
+
+        Thread.sleep( PINGPONG_ROUNDTRIP_DURATION ); // let the cancels arrive
+
+        at1 = ((ProxyManager) mb1.getAsProxyNameServer()).getMetricsSnapshotWithReplicaCounts( (IterableNetMeshBase) mb1 )[0];
+        at2 = ((ProxyManager) mb2.getAsProxyNameServer()).getMetricsSnapshotWithReplicaCounts( (IterableNetMeshBase) mb2 )[0];
+
+        log.info( "mb1: " + at1 );
+        log.info( "mb2: " + at2 );
+
+        checkCondition( one_mb2.getIsDead(), "one not purged from mb2" );
+        checkCondition( two_mb2.getIsDead(), "two not purged from mb2" );
+
+        checkEquals( at1.getReplicasConveyed(), 0L, "Purged replicas still conveyed by mb1" );
+        checkEquals( at2.getReplicasObtained(), 0L, "Purged replicas still obtained by mb2" );
+        checkEquals( at1.getQueueDepth(),       0L, "Messages still queued at mb1" );
+        checkEquals( at2.getQueueDepth(),       0L, "Messages still queued at mb2" );
+
+        //
+
+        log.info( "Disabling metrics" );
+
+        ((ProxyManager) mb2.getAsProxyNameServer()).setMetricsEnabled( false );
+
+        checkEquals( ((ProxyManager) mb2.getAsProxyNameServer()).getMetricsSnapshot().length, 0, "Metrics not discarded" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+
+        ((ProxyManager) mb1.getAsProxyNameServer()).setMetricsEnabled( true );
+        ((ProxyManager) mb2.getAsProxyNameServer()).setMetricsEnabled( true );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest25.class );
+}
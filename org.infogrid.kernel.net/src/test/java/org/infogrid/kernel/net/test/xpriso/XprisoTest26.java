@@ -0,0 +1,294 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.logging.XprisoMessageLogger;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the locks and home replica status of many replicas are obtained with
+ * a single request, instead of one request per replica.
+ */
+public class XprisoTest26
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating objects in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        NetMeshObject [] objs_mb1 = new NetMeshObject[ N ];
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        for( int i=0 ; i<N ; ++i ) {
+            objs_mb1[i] = life1.createMeshObject( fact1.fromExternalForm( "obj-" + i ));
+        }
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing objects from mb2" );
+
+        NetMeshObjectAccessSpecification [] paths = new NetMeshObjectAccessSpecification[ N ];
+        for( int i=0 ; i<N ; ++i ) {
+            paths[i] = mb2.getNetMeshObjectAccessSpecificationFactory().obtain( mb1.getIdentifier(), objs_mb1[i].getIdentifier() );
+        }
+        NetMeshObject [] objs_mb2 = mb2.accessLocally( paths );
+
+        for( int i=0 ; i<N ; ++i ) {
+            checkObject( objs_mb2[i], "object " + i + " not found in mb2" );
+            checkCondition( !objs_mb2[i].hasLock(), "object " + i + " has lock in mb2 already" );
+        }
+
+        //
+
+        log.info( "Obtaining all locks at once" );
+
+        boolean [] locked = mb2.tryToObtainLocks( objs_mb2 );
+
+        for( int i=0 ; i<N ; ++i ) {
+            checkCondition( locked[i],                "lock " + i + " not obtained" );
+            checkCondition( objs_mb2[i].hasLock(),    "object " + i + " does not have lock in mb2" );
+            checkCondition( !objs_mb1[i].hasLock(),   "object " + i + " still has lock in mb1" );
+        }
+
+        int requests;
+        synchronized( theCounter ) {
+            requests = theCounter.theLockRequests;
+        }
+        log.info( "Messages requesting locks: " + requests );
+
+        checkCondition( requests > 0,             "Locks were not obtained from mb1" );
+        checkCondition( requests <= MAX_REQUESTS, "Locks were obtained one by one: " + requests );
+
+        //
+
+        log.info( "Obtaining all home replicas at once" );
+
+        boolean [] home = mb2.tryToObtainHomeReplicas( objs_mb2 );
+
+        for( int i=0 ; i<N ; ++i ) {
+            checkCondition( home[i],                      "home replica " + i + " not obtained" );
+            checkCondition( objs_mb2[i].isHomeReplica(),  "object " + i + " is not home replica in mb2" );
+            checkCondition( !objs_mb1[i].isHomeReplica(), "object " + i + " is still home replica in mb1" );
+        }
+
+        synchronized( theCounter ) {
+            requests = theCounter.theHomeReplicaRequests;
+        }
+        log.info( "Messages requesting home replicas: " + requests );
+
+        checkCondition( requests > 0,             "Home replicas were not obtained from mb1" );
+        checkCondition( requests <= MAX_REQUESTS, "Home replicas were obtained one by one: " + requests );
+
+        //
+
+        log.info( "Asking again does not require any more messages" );
+
+        synchronized( theCounter ) {
+            theCounter.theLockRequests        = 0;
+            theCounter.theHomeReplicaRequests = 0;
+        }
+
+        locked = mb2.tryToObtainLocks( objs_mb2 );
+        home   = mb2.tryToObtainHomeReplicas( objs_mb2 );
+
+        for( int i=0 ; i<N ; ++i ) {
+            checkCondition( locked[i], "lock " + i + " lost" );
+            checkCondition( home[i],   "home replica " + i + " lost" );
+        }
+        synchronized( theCounter ) {
+            checkEquals( theCounter.theLockRequests,        0, "Locks requested again" );
+            checkEquals( theCounter.theHomeReplicaRequests, 0, "Home replicas requested again" );
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+
+        mb1.setXprisoMessageLogger( theCounter );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMMeshBase mb2;
+
+    /**
+     * Counts the lock and home replica requests arriving at mb1.
+     */
+    protected RequestCounter theCounter = new RequestCounter();
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    /**
+     * The number of objects.
+     */
+    protected static final int N = 50;
+
+    /**
+     * The maximum number of messages that may carry the requests. Resending
+     * after a lost token may cause a second one.
+     */
+    protected static final int MAX_REQUESTS = 2;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest26.class );
+
+    /**
+     * Counts the messages requesting locks or home replica status arriving at a NetMeshBase.
+     */
+    protected static class RequestCounter
+            implements
+                XprisoMessageLogger
+    {
+        /**
+         * One ore more XprisoMessages have arrived.
+         *
+         * @param base the NetMeshBase at which the XprisoMessage has arrived
+         * @param msgs the XprisoMessages that arrived
+         */
+        public synchronized void messageArrived(
+                NetMeshBase         base,
+                List<XprisoMessage> msgs )
+        {
+            for( XprisoMessage current : msgs ) {
+                if( current.getRequestedLockObjects().length > 0 ) {
+                    ++theLockRequests;
+                }
+                if( current.getRequestedHomeReplicas().length > 0 ) {
+                    ++theHomeReplicaRequests;
+                }
+            }
+        }
+
+        /**
+         * An XprisoMessage is about to be sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageToBeSent(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * An XprisoMessage has successfully been sent.
+         *
+         * @param base the NetMeshBase sending the message
+         * @param msg the XprisoMessage to be sent
+         */
+        public void messageSentSuccessfully(
+                NetMeshBase   base,
+                XprisoMessage msg )
+        {
+            // noop
+        }
+
+        /**
+         * Number of messages requesting locks.
+         */
+        protected int theLockRequests;
+
+        /**
+         * Number of messages requesting home replica status.
+         */
+        protected int theHomeReplicaRequests;
+    }
+}
@@ -0,0 +1,217 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.WriteAffinityProxyPolicyFactory;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the home replica of a NetMeshObject follows the NetMeshBase that writes it most,
+ * that an occasional write elsewhere does not take the lock away from it, and that a NetMeshObject
+ * written about equally by two NetMeshBases keeps its home replica where it is.
+ */
+public class XprisoTest27
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating object in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        NetMeshObject obj_mb1 = life1.createMeshObject( fact1.fromExternalForm( "one" ), TestSubjectArea.AA );
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing object from mb2" );
+
+        NetMeshObject obj_mb2 = mb2.accessLocally( mb1.getIdentifier(), obj_mb1.getIdentifier() );
+
+        checkObject( obj_mb2, "object not found in mb2" );
+        checkCondition( obj_mb1.isHomeReplica(), "mb1 is not home initially" );
+
+        //
+
+        log.info( "Writing repeatedly from mb2" );
+
+        for( int i=0 ; i<WRITES ; ++i ) {
+            Transaction tx2 = mb2.createTransactionAsap();
+            obj_mb2.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "value-" + i ));
+            tx2.commitTransaction();
+        }
+
+        Thread.sleep( PINGPONG_ROUNDTRIP_DURATION * 2 );
+
+        checkCondition( obj_mb2.hasLock(),         "mb2 does not have the lock" );
+        checkCondition( obj_mb2.isHomeReplica(),   "home replica did not move to mb2" );
+        checkCondition( !obj_mb1.isHomeReplica(),  "mb1 is still home replica" );
+        checkProxies( obj_mb1, new NetMeshBase[] { mb2 }, mb2, mb2, "obj_mb1 has wrong proxies" );
+
+        //
+
+        log.info( "An occasional write attempt from mb1 does not take the lock away" );
+
+        checkCondition( !obj_mb1.tryToObtainLock(), "mb1 obtained the lock from the dominant writer" );
+        checkCondition( obj_mb2.hasLock(),          "mb2 lost the lock" );
+        checkCondition( obj_mb2.isHomeReplica(),    "mb2 lost home replica status" );
+
+        //
+
+        log.info( "Instantiating second object in mb1, written equally by mb1 and mb2" );
+
+        Transaction tx3 = mb1.createTransactionAsap();
+
+        NetMeshObject shared_mb1 = life1.createMeshObject( fact1.fromExternalForm( "two" ), TestSubjectArea.AA );
+
+        tx3.commitTransaction();
+
+        NetMeshObject shared_mb2 = mb2.accessLocally( mb1.getIdentifier(), shared_mb1.getIdentifier() );
+
+        checkObject( shared_mb2, "second object not found in mb2" );
+
+        for( int i=0 ; i<EQUAL_ROUNDS ; ++i ) {
+            checkCondition( shared_mb2.tryToObtainLock(), "mb2 could not obtain the lock in round " + i );
+
+            Transaction tx4 = mb2.createTransactionAsap();
+            shared_mb2.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "mb2-" + i ));
+            tx4.commitTransaction();
+
+            Thread.sleep( PINGPONG_ROUNDTRIP_DURATION );
+
+            checkCondition( shared_mb1.isHomeReplica(),  "home replica moved to mb2 in round " + i );
+            checkCondition( !shared_mb2.isHomeReplica(), "mb2 became home replica in round " + i );
+
+            checkCondition( shared_mb1.tryToObtainLock(), "mb1 could not obtain the lock in round " + i );
+
+            Transaction tx5 = mb1.createTransactionAsap();
+            shared_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "mb1-" + i ));
+            tx5.commitTransaction();
+
+            Thread.sleep( PINGPONG_ROUNDTRIP_DURATION );
+
+            checkCondition( shared_mb1.isHomeReplica(), "mb1 lost home replica status in round " + i );
+            checkCondition( shared_mb1.hasLock(),       "mb1 lost the lock in round " + i );
+        }
+
+        checkEquals( shared_mb2.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( "mb1-" + ( EQUAL_ROUNDS-1 )), "mb2 missed the last write" );
+        checkProxies( shared_mb1, new NetMeshBase[] { mb2 }, null, null, "shared_mb1 has wrong proxies" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, WriteAffinityProxyPolicyFactory.create(), rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, WriteAffinityProxyPolicyFactory.create(), rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    /**
+     * The number of writes from mb2. Must be well above the minimum number of writes for dominance.
+     */
+    protected static final int WRITES = 20;
+
+    /**
+     * The number of rounds in which mb1 and mb2 take turns writing. Must be above the minimum
+     * number of writes for dominance, so only the required margin keeps either from becoming dominant.
+     */
+    protected static final int EQUAL_ROUNDS = 8;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest27.class );
+}
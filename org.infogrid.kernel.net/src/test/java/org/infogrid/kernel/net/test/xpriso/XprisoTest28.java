@@ -0,0 +1,227 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.CoherenceSpecification;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshBaseAccessSpecificationFactory;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecification;
+import org.infogrid.meshbase.net.NetMeshObjectAccessSpecificationFactory;
+import org.infogrid.meshbase.net.a.AccessLocallyFuture;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that an intermediate NetMeshBase forwarding a first-time request along a slow path
+ * keeps processing other requests from the same partner in the meantime. mb1 asks mb2 for
+ * an object in mb4, which is slow to respond, and then for an object in mb3, which is not.
+ */
+public class XprisoTest28
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating objects in mb3 and mb4" );
+
+        NetMeshBaseLifecycleManager life3 = mb3.getMeshBaseLifecycleManager();
+        NetMeshBaseLifecycleManager life4 = mb4.getMeshBaseLifecycleManager();
+
+        Transaction tx3 = mb3.createTransactionAsap();
+        NetMeshObject fast_mb3 = life3.createMeshObject( mb3.getMeshObjectIdentifierFactory().fromExternalForm( "fast" ));
+        tx3.commitTransaction();
+
+        Transaction tx4 = mb4.createTransactionAsap();
+        NetMeshObject slow_mb4 = life4.createMeshObject( mb4.getMeshObjectIdentifierFactory().fromExternalForm( "slow" ));
+        tx4.commitTransaction();
+
+        //
+
+        NetMeshObjectAccessSpecificationFactory pathFact1    = mb1.getNetMeshObjectAccessSpecificationFactory();
+        NetMeshBaseAccessSpecificationFactory   mbAccessFact = pathFact1.getNetMeshBaseAccessSpecificationFactory();
+
+        NetMeshObjectAccessSpecification slowPath = pathFact1.obtain(
+                new NetMeshBaseAccessSpecification[] {
+                        mbAccessFact.obtain( mb2.getIdentifier(), CoherenceSpecification.ONE_TIME_ONLY ),
+                        mbAccessFact.obtain( mb4.getIdentifier(), CoherenceSpecification.ONE_TIME_ONLY )
+                },
+                slow_mb4.getIdentifier() );
+
+        NetMeshObjectAccessSpecification fastPath = pathFact1.obtain(
+                new NetMeshBaseAccessSpecification[] {
+                        mbAccessFact.obtain( mb2.getIdentifier(), CoherenceSpecification.ONE_TIME_ONLY ),
+                        mbAccessFact.obtain( mb3.getIdentifier(), CoherenceSpecification.ONE_TIME_ONLY )
+                },
+                fast_mb3.getIdentifier() );
+
+        //
+
+        log.info( "Requesting the slow object, without waiting" );
+
+        AccessLocallyFuture slowFuture = mb1.accessLocallyAsync( new NetMeshObjectAccessSpecification[] { slowPath }, 60000L );
+
+        //
+
+        log.info( "Requesting the fast object via the same intermediate NetMeshBase" );
+
+        long          start    = System.currentTimeMillis();
+        NetMeshObject fast_mb1 = mb1.accessLocally( fastPath, 60000L );
+        long          duration = System.currentTimeMillis() - start;
+
+        checkObject( fast_mb1, "fast object not found" );
+        checkEquals( fast_mb1.getIdentifier(), fast_mb3.getIdentifier(), "wrong fast object" );
+        checkCondition( !slowFuture.isDone(), "slow request completed before the fast one: slow path is not slow enough for this test" );
+        checkCondition( duration < SLOW_DELAY, "fast request waited for the slow one: " + duration );
+
+        //
+
+        log.info( "Waiting for the slow object" );
+
+        NetMeshObject [] slow_mb1 = slowFuture.get( 60000L, TimeUnit.MILLISECONDS );
+
+        checkEquals( slow_mb1.length, 1, "wrong length of slow result" );
+        checkObject( slow_mb1[0], "slow object not found" );
+        checkEquals( slow_mb1[0].getIdentifier(), slow_mb4.getIdentifier(), "wrong slow object" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+        net3 = theMeshBaseIdentifierFactory.fromExternalForm( "test://three.local" );
+        net4 = theMeshBaseIdentifierFactory.fromExternalForm( "test://four.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        // mb4 holds on to the token for a long time before it returns it with its response
+        MPingPongNetMessageEndpointFactory slowEndpointFactory = MPingPongNetMessageEndpointFactory.create(
+                60L * 1000L,
+                SLOW_DELAY,
+                500L,
+                5L * 60L * 1000L,
+                0.0,
+                exec );
+        slowEndpointFactory.setNameServer( theNameServer );
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory,     rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory,     rootContext );
+        mb3 = NetMMeshBase.create( net3, theModelBase, null, endpointFactory,     rootContext );
+        mb4 = NetMMeshBase.create( net4, theModelBase, null, slowEndpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+        theNameServer.put( mb3.getIdentifier(), mb3 );
+        theNameServer.put( mb4.getIdentifier(), mb4 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+        mb3.die();
+        mb4.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The third NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net3;
+
+    /**
+     * The fourth NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net4;
+
+    /**
+     * The requesting NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The intermediate NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * The NetMeshBase at the end of the fast path.
+     */
+    protected NetMeshBase mb3;
+
+    /**
+     * The NetMeshBase at the end of the slow path.
+     */
+    protected NetMeshBase mb4;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 4 );
+
+    /**
+     * How long the slow NetMeshBase holds on to its response, in milliseconds.
+     */
+    protected static final long SLOW_DELAY = 3000L;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest28.class );
+}
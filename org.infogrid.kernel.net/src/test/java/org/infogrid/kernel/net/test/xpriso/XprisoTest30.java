@@ -0,0 +1,271 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+//
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.kernel.net.test.xpriso;
+
+import java.util.HashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.CoherenceSpecification;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.m.NetMMeshBase;
+import org.infogrid.meshbase.net.proxy.CommunicatingProxy;
+import org.infogrid.meshbase.net.proxy.NiceAndTrustingProxyPolicy;
+import org.infogrid.meshbase.net.proxy.NiceAndTrustingProxyPolicyFactory;
+import org.infogrid.meshbase.net.proxy.ProxyProcessingInstructions;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.net.transaction.NetChange;
+import org.infogrid.meshbase.net.xpriso.ParserFriendlyXprisoMessage;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.util.CreateWhenNeeded;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a committed Transaction is handed only to the Proxies that replicate the affected
+ * NetMeshObjects. mb2 replicates one object of mb1, and mb3 another; a change to either must
+ * only reach the Proxy towards the NetMeshBase that replicates it.
+ */
+public class XprisoTest30
+        extends
+            AbstractXprisoTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Instantiating objects in mb1" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction tx1 = mb1.createTransactionAsap();
+
+        NetMeshObject a_mb1 = life1.createMeshObject( fact1.fromExternalForm( "a" ), TestSubjectArea.AA );
+        NetMeshObject b_mb1 = life1.createMeshObject( fact1.fromExternalForm( "b" ), TestSubjectArea.AA );
+
+        tx1.commitTransaction();
+
+        //
+
+        log.info( "Accessing a from mb2, and b from mb3" );
+
+        NetMeshObject a_mb2 = mb2.accessLocally( mb1.getIdentifier(), a_mb1.getIdentifier() );
+        NetMeshObject b_mb3 = mb3.accessLocally( mb1.getIdentifier(), b_mb1.getIdentifier() );
+
+        checkObject( a_mb2, "a not found in mb2" );
+        checkObject( b_mb3, "b not found in mb3" );
+        checkProxies( a_mb1, new NetMeshBase[] { mb2 }, null, null, "a_mb1 has wrong proxies" );
+        checkProxies( b_mb1, new NetMeshBase[] { mb3 }, null, null, "b_mb1 has wrong proxies" );
+
+        //
+
+        log.info( "Changing a in mb1" );
+
+        clearNotifiedChanges();
+
+        tx1 = mb1.createTransactionAsap();
+        a_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "changed a" ));
+        tx1.commitTransaction();
+
+        checkCondition( notifiedChanges( net2 ) > 0, "Proxy towards mb2 not told about change to a" );
+        checkEquals( notifiedChanges( net3 ), 0, "Proxy towards mb3 told about change to a" );
+
+        Thread.sleep( PINGPONG_ROUNDTRIP_DURATION * 2 );
+
+        checkEquals( a_mb2.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( "changed a" ), "change to a did not arrive in mb2" );
+
+        //
+
+        log.info( "Changing b in mb1" );
+
+        clearNotifiedChanges();
+
+        tx1 = mb1.createTransactionAsap();
+        b_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "changed b" ));
+        tx1.commitTransaction();
+
+        checkEquals( notifiedChanges( net2 ), 0, "Proxy towards mb2 told about change to b" );
+        checkCondition( notifiedChanges( net3 ) > 0, "Proxy towards mb3 not told about change to b" );
+
+        Thread.sleep( PINGPONG_ROUNDTRIP_DURATION * 2 );
+
+        checkEquals( b_mb3.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( "changed b" ), "change to b did not arrive in mb3" );
+        checkEquals( a_mb2.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( "changed a" ), "a in mb2 was changed" );
+
+        //
+
+        log.info( "Creating an object in mb1 that is not replicated" );
+
+        clearNotifiedChanges();
+
+        tx1 = mb1.createTransactionAsap();
+        NetMeshObject c_mb1 = life1.createMeshObject( fact1.fromExternalForm( "c" ), TestSubjectArea.AA );
+        c_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "new c" ));
+        tx1.commitTransaction();
+
+        checkEquals( notifiedChanges( net2 ), 0, "Proxy towards mb2 told about c" );
+        checkEquals( notifiedChanges( net3 ), 0, "Proxy towards mb3 told about c" );
+    }
+
+    /**
+     * Forget the NetChanges that mb1 handed to its Proxies so far.
+     */
+    protected void clearNotifiedChanges()
+    {
+        synchronized( theNotifiedChanges ) {
+            theNotifiedChanges.clear();
+        }
+    }
+
+    /**
+     * Determine the number of NetChanges that mb1 handed to its Proxy towards a partner since
+     * they were last cleared.
+     *
+     * @param partner identifies the partner NetMeshBase
+     * @return the number of NetChanges
+     */
+    protected int notifiedChanges(
+            NetMeshBaseIdentifier partner )
+    {
+        synchronized( theNotifiedChanges ) {
+            Integer found = theNotifiedChanges.get( partner );
+            return found != null ? found : 0;
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception all kinds of things can go wrong in tests
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "test://one.local" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "test://two.local" );
+        net3 = theMeshBaseIdentifierFactory.fromExternalForm( "test://three.local" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        NiceAndTrustingProxyPolicyFactory countingPolicyFactory = new NiceAndTrustingProxyPolicyFactory( true ) {
+            @Override
+            public NiceAndTrustingProxyPolicy obtainFor(
+                    NetMeshBaseIdentifier  key,
+                    CoherenceSpecification argument )
+            {
+                return new NiceAndTrustingProxyPolicy( argument, true ) {
+                    @Override
+                    public ProxyProcessingInstructions calculateForTransactionCommitted(
+                            Transaction                                   tx,
+                            NetChange []                                  changes,
+                            CommunicatingProxy                            proxy,
+                            CreateWhenNeeded<ParserFriendlyXprisoMessage> perhapsOutgoing )
+                    {
+                        synchronized( theNotifiedChanges ) {
+                            theNotifiedChanges.put(
+                                    proxy.getPartnerMeshBaseIdentifier(),
+                                    notifiedChanges( proxy.getPartnerMeshBaseIdentifier() ) + changes.length );
+                        }
+                        return super.calculateForTransactionCommitted( tx, changes, proxy, perhapsOutgoing );
+                    }
+                };
+            }
+        };
+
+        mb1 = NetMMeshBase.create( net1, theModelBase, null, endpointFactory, countingPolicyFactory, rootContext );
+        mb2 = NetMMeshBase.create( net2, theModelBase, null, endpointFactory, rootContext );
+        mb3 = NetMMeshBase.create( net3, theModelBase, null, endpointFactory, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+        theNameServer.put( mb3.getIdentifier(), mb3 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+        mb3.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The third NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net3;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetMeshBase mb2;
+
+    /**
+     * The third NetMeshBase.
+     */
+    protected NetMeshBase mb3;
+
+    /**
+     * The number of NetChanges mb1 handed to its Proxies, keyed by partner.
+     */
+    protected final HashMap<NetMeshBaseIdentifier,Integer> theNotifiedChanges = new HashMap<NetMeshBaseIdentifier,Integer>();
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 3 );
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( XprisoTest30.class );
+}
@@ -21,9 +21,9 @@ import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.net.NetMeshObjectIdentifier;
 import org.infogrid.mesh.set.MeshObjectSetFactory;
 import org.infogrid.mesh.set.m.ImmutableMMeshObjectSetFactory;
-import org.infogrid.meshbase.IterableMeshBase;
-import org.infogrid.meshbase.IterableMeshBaseDifferencer;
 import org.infogrid.meshbase.net.DefaultNetMeshObjectAccessSpecificationFactory;
+import org.infogrid.meshbase.net.IterableNetMeshBase;
+import org.infogrid.meshbase.net.IterableNetMeshBaseDifferencer;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifierFactory;
 import org.infogrid.meshbase.net.NetMeshObjectAccessSpecificationFactory;
@@ -39,6 +39,7 @@ import org.infogrid.meshbase.net.security.NetAccessManager;
 import org.infogrid.meshbase.store.StoreMeshBaseSwappingHashMap;
 import org.infogrid.modelbase.ModelBase;
 import org.infogrid.store.IterableStore;
+import org.infogrid.store.Store;
 import org.infogrid.store.util.IterableStoreBackedSwappingHashMap;
 import org.infogrid.util.CursorIterator;
 import org.infogrid.util.context.Context;
@@ -51,7 +52,7 @@ public class IterableNetStoreMeshBase
         extends
             NetStoreMeshBase
         implements
-            IterableMeshBase
+            IterableNetMeshBase
 {
     private static final Log log = Log.getLogInstance( IterableNetStoreMeshBase.class ); // our own, private logger
 
@@ -167,7 +168,7 @@ public class IterableNetStoreMeshBase
         StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>   objectStorage = new StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>( objectMapper, meshObjectStore );
         IterableStoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> proxyStorage  = IterableStoreBackedSwappingHashMap.createWeak( proxyMapper, proxyStore );
         
-        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage );
+        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage, proxyMapper );
         AnetMeshBaseLifecycleManager   life         = AnetMeshBaseLifecycleManager.create();
         ImmutableMMeshObjectSetFactory setFactory   = ImmutableMMeshObjectSetFactory.create( NetMeshObject.class, NetMeshObjectIdentifier.class );
 
@@ -186,6 +187,7 @@ public class IterableNetStoreMeshBase
 
         setFactory.setMeshBase( ret );
         proxyFactory.setNetMeshBase( ret );
+        ret.setObjectMapper( objectMapper );
         ret.initializeHomeObject();
         
         if( log.isDebugEnabled() ) {
@@ -223,7 +225,7 @@ public class IterableNetStoreMeshBase
         StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>   objectStorage = new StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>( objectMapper, meshObjectStore );
         IterableStoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> proxyStorage  = IterableStoreBackedSwappingHashMap.createWeak( proxyMapper, proxyStore );
 
-        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage );
+        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage, proxyMapper );
         AnetMeshBaseLifecycleManager   life         = AnetMeshBaseLifecycleManager.create();        
         ImmutableMMeshObjectSetFactory setFactory   = ImmutableMMeshObjectSetFactory.create( NetMeshObject.class, NetMeshObjectIdentifier.class );
 
@@ -242,6 +244,69 @@ public class IterableNetStoreMeshBase
 
         setFactory.setMeshBase( ret );
         proxyFactory.setNetMeshBase( ret );
+        ret.setObjectMapper( objectMapper );
+        ret.initializeHomeObject();
+        
+        if( log.isDebugEnabled() ) {
+            log.debug( "created " + ret );
+        }
+        return ret;
+    }
+    
+    /**
+     * Factory method. The XprisoMessages queued by the Proxies are kept in their own Store,
+     * so that writing a Proxy does not require rewriting its entire backlog.
+     *
+     * @param identifier the NetMeshBaseIdentifier of this NetMeshBase
+     * @param netMeshObjectAccessSpecificationFactory the factory for NetMeshObjectAccessSpecifications
+     * @param modelBase the ModelBase containing type information
+     * @param accessMgr the AccessManager that controls access to this NetMeshBase
+     * @param proxyFactory factory for Proxies
+     * @param meshObjectStore the Store in which to store the MeshObjects
+     * @param proxyStore the Store in which to store the Proxies
+     * @param messageLogStore the Store in which to store the XprisoMessages queued by the Proxies
+     * @param context the Context in which this NetMeshBase runs.
+     * @return the created IterableNetStoreMeshBase
+     */
+    public static IterableNetStoreMeshBase create(
+            NetMeshBaseIdentifier                   identifier,
+            NetMeshObjectAccessSpecificationFactory netMeshObjectAccessSpecificationFactory,
+            ModelBase                               modelBase,
+            NetAccessManager                        accessMgr,
+            ProxyFactory                            proxyFactory,
+            IterableStore                           meshObjectStore,
+            IterableStore                           proxyStore,
+            Store                                   messageLogStore,
+            Context                                 context )
+    {
+        NetStoreMeshBaseEntryMapper objectMapper = new NetStoreMeshBaseEntryMapper();
+        StoreProxyEntryMapper       proxyMapper  = new LoggingStoreProxyEntryMapper( proxyFactory, messageLogStore );
+        
+        StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>   objectStorage = new StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>( objectMapper, meshObjectStore );
+        IterableStoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> proxyStorage  = IterableStoreBackedSwappingHashMap.createWeak( proxyMapper, proxyStore );
+
+        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage, proxyMapper );
+        AnetMeshBaseLifecycleManager   life         = AnetMeshBaseLifecycleManager.create();        
+        ImmutableMMeshObjectSetFactory setFactory   = ImmutableMMeshObjectSetFactory.create( NetMeshObject.class, NetMeshObjectIdentifier.class );
+
+        IterableNetStoreMeshBase ret = new IterableNetStoreMeshBase(
+                identifier,
+                netMeshObjectAccessSpecificationFactory.getNetMeshObjectIdentifierFactory(),
+                netMeshObjectAccessSpecificationFactory.getNetMeshBaseIdentifierFactory(),
+                netMeshObjectAccessSpecificationFactory,
+                setFactory,
+                modelBase,
+                life,
+                accessMgr,
+                objectStorage,
+                proxyManager,
+                context );
+
+        setFactory.setMeshBase( ret );
+        proxyFactory.setNetMeshBase( ret );
+        objectMapper.setMeshBase( ret );
+        ret.setObjectMapper( objectMapper );
+        proxyMapper.setMeshBase( ret );
         ret.initializeHomeObject();
         
         if( log.isDebugEnabled() ) {
@@ -345,8 +410,81 @@ public class IterableNetStoreMeshBase
      *
      * @return the IterableMeshBaseDifferencer
      */
-    public IterableMeshBaseDifferencer getDifferencer()
+    public IterableNetMeshBaseDifferencer getDifferencer()
     {
-        return new IterableMeshBaseDifferencer( this );
+        return new IterableNetMeshBaseDifferencer( this );
     }
+
+    /**
+     * Keep the index of the non-home replicas' read times in a Store, so that it survives
+     * restarts. If the Store holds a complete index, it does not need to be seeded from
+     * all MeshObjects any more.
+     *
+     * @param readTimeStore the Store
+     * @return true if the Store held a complete index, so it does not need to be seeded from all MeshObjects
+     */
+    @Override
+    public boolean keepReadTimeIndexIn(
+            IterableStore readTimeStore )
+    {
+        synchronized( theReadTimeIndexSeedLock ) {
+            boolean ret = super.keepReadTimeIndexIn( readTimeStore );
+            if( ret ) {
+                theReadTimeIndexSeeded = true;
+            } else if( theReadTimeIndexSeeded ) {
+                theReadTimeIndex.markComplete(); // seeded already, so the Store is complete now
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Find the identifiers of the non-home replicas whose last recorded read time is
+     * before the cutoff. The first time this is invoked, the index is seeded from all
+     * MeshObjects in the Store, so replicas stored before this IterableNetStoreMeshBase
+     * was created are found as well, unless the index has been loaded complete from the
+     * Store given to keepReadTimeIndexIn. The seed is built without holding the index's lock,
+     * so committing Transactions are not held up by the scan, and merged at the end; the
+     * merged index is then written to that Store, if any, so the scan is not needed again.
+     *
+     * @param cutoff the cutoff time, in System.currentTimeMillis() format
+     * @return the identifiers of the candidate replicas, oldest first
+     */
+    @Override
+    public NetMeshObjectIdentifier [] findReplicasReadBefore(
+            long cutoff )
+    {
+        if( !theReadTimeIndexSeeded ) {
+            synchronized( theReadTimeIndexSeedLock ) {
+                if( !theReadTimeIndexSeeded ) {
+                    theReadTimeIndex.startSeeding();
+
+                    ReplicaReadTimeIndex       seed = ReplicaReadTimeIndex.create();
+                    CursorIterator<MeshObject> iter = iterator();
+                    while( iter.hasNext() ) {
+                        seed.update( (NetMeshObject) iter.next() );
+                    }
+                    theReadTimeIndex.mergeSeed( seed );
+                    theReadTimeIndex.markComplete();
+                    theReadTimeIndexSeeded = true;
+
+                    if( log.isDebugEnabled() ) {
+                        log.debug( this + ": seeded read time index with " + seed.size() + " replicas" );
+                    }
+                }
+            }
+        }
+        return super.findReplicasReadBefore( cutoff );
+    }
+
+    /**
+     * True once the read time index has been seeded from the Store.
+     */
+    protected volatile boolean theReadTimeIndexSeeded = false;
+
+    /**
+     * Makes sure the read time index is seeded only once. This is not the index's own lock,
+     * which committing Transactions need.
+     */
+    protected final Object theReadTimeIndexSeedLock = new Object();
 }
@@ -0,0 +1,646 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.externalized.ExternalizedProxy;
+import org.infogrid.meshbase.net.externalized.ParserFriendlyExternalizedProxy;
+import org.infogrid.meshbase.net.proxy.Proxy;
+import org.infogrid.meshbase.net.proxy.ProxyFactory;
+import org.infogrid.meshbase.net.xpriso.XprisoMessage;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoder;
+import org.infogrid.meshbase.net.xpriso.XprisoMessageEncoders;
+import org.infogrid.model.primitives.externalized.DecodingException;
+import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.store.Store;
+import org.infogrid.store.StoreKeyDoesNotExistException;
+import org.infogrid.store.StoreValue;
+import org.infogrid.store.StoreValueDecodingException;
+import org.infogrid.store.StoreValueEncodingException;
+import org.infogrid.util.FactoryException;
+import org.infogrid.util.logging.Log;
+
+/**
+ * <p>A StoreProxyEntryMapper that keeps the XprisoMessages queued in a Proxy's
+ *    ProxyMessageEndpoint out of the Proxy's own StoreValue. Instead, each queued XprisoMessage
+ *    is written once, as its own entry in a separate message log Store, and deleted once it has
+ *    left the queue, e.g. because the partner acknowledged its receipt. The Proxy's StoreValue only
+ *    holds the Proxy's metadata and the range of sequence numbers of its message log entries,
+ *    so writing a Proxy takes the same effort no matter how long the backlog is.</p>
+ * <p>New message log entries are written before the Proxy's StoreValue that refers to them,
+ *    and entries are only deleted once a StoreValue that does not refer to them any more has been
+ *    written, see {@link #proxyWritten}. The message log of a Proxy is only kept in memory while
+ *    the Proxy is; it is read back from the message log Store when the Proxy is restored.</p>
+ * <p>Proxies written by the StoreProxyEntryMapper, with their XprisoMessages inlined,
+ *    can still be read.</p>
+ */
+public class LoggingStoreProxyEntryMapper
+        extends
+            StoreProxyEntryMapper
+{
+    private static final Log log = Log.getLogInstance( LoggingStoreProxyEntryMapper.class ); // our own, private logger
+
+    /**
+     * Constructor.
+     *
+     * @param proxyFactory the ProxyFactory to use
+     * @param messageLogStore the Store in which to keep the queued XprisoMessages
+     */
+    public LoggingStoreProxyEntryMapper(
+            ProxyFactory proxyFactory,
+            Store        messageLogStore )
+    {
+        super( proxyFactory );
+
+        theMessageLogStore = messageLogStore;
+    }
+
+    /**
+     * Map a StoreValue to a value.
+     *
+     * @param key the key to the StoreValue
+     * @param value the StoreValue
+     * @return the value
+     * @throws StoreValueDecodingException thrown if the StoreValue could not been decoded
+     */
+    @Override
+    public Proxy decodeValue(
+            NetMeshBaseIdentifier key,
+            StoreValue            value )
+        throws
+            StoreValueDecodingException
+    {
+        if( !LOGGED_ENCODING_ID.equals( value.getEncodingId() )) {
+            return super.decodeValue( key, value );
+        }
+
+        try {
+            DataInputStream in = new DataInputStream( value.getDataAsStream() );
+
+            long toSendFirst   = in.readLong();
+            long toSendNext    = in.readLong();
+            long lastSentFirst = in.readLong();
+            long lastSentNext  = in.readLong();
+
+            ExternalizedProxy metadata = NET_PREFERRED_ENCODING.decodeExternalizedProxy( in, theMeshBase );
+
+            ProxyMessageLog messageLog = new ProxyMessageLog( keyToString( key ));
+            List<XprisoMessage> toSend;
+            List<XprisoMessage> lastSent;
+            synchronized( messageLog ) {
+                toSend   = messageLog.theToSend.restore(   toSendFirst,   toSendNext );
+                lastSent = messageLog.theLastSent.restore( lastSentFirst, lastSentNext );
+            }
+
+            ParserFriendlyExternalizedProxy externalized = copyMetadata( metadata );
+            externalized.setMessagesToSend( toSend );
+            externalized.setMessagesLastSent( lastSent );
+
+            Proxy ret = theProxyFactory.restoreProxy( externalized );
+
+            synchronized( theMessageLogs ) {
+                theMessageLogs.put( ret, messageLog );
+            }
+            return ret;
+
+        } catch( FactoryException ex ) {
+            throw new StoreValueDecodingException( ex );
+
+        } catch( DecodingException ex ) {
+            throw new StoreValueDecodingException( ex );
+
+        } catch( IOException ex ) {
+            throw new StoreValueDecodingException( ex );
+        }
+    }
+
+    /**
+     * Obtain the value as a byte array. As a side effect, XprisoMessages that have been queued
+     * since the last time are appended to the message log. The entries of those that have left
+     * the queue are only deleted by {@link #proxyWritten}, once the returned StoreValue has been
+     * written, so the StoreValue in the Store never refers to deleted entries.
+     *
+     * @param value the value
+     * @return the byte array
+     * @throws StoreValueEncodingException thrown if the Proxy could not be encoded
+     */
+    @Override
+    public byte [] asBytes(
+            Proxy value )
+        throws
+            StoreValueEncodingException
+    {
+        try {
+            ExternalizedProxy externalized = value.asExternalized();
+            ProxyMessageLog   messageLog   = obtainMessageLogFor( value );
+
+            ByteArrayOutputStream out  = new ByteArrayOutputStream();
+            DataOutputStream      data = new DataOutputStream( out );
+
+            synchronized( messageLog ) {
+                messageLog.theToSend.update(   externalized.messagesToBeSent() );
+                messageLog.theLastSent.update( externalized.messagesLastSent() );
+
+                data.writeLong( messageLog.theToSend.getFirst() );
+                data.writeLong( messageLog.theToSend.getNext() );
+                data.writeLong( messageLog.theLastSent.getFirst() );
+                data.writeLong( messageLog.theLastSent.getNext() );
+            }
+            data.flush();
+
+            NET_PREFERRED_ENCODING.encodeExternalizedProxy( copyMetadata( externalized ), out );
+
+            return out.toByteArray();
+
+        } catch( EncodingException ex ) {
+            throw new StoreValueEncodingException( ex );
+
+        } catch( IOException ex ) {
+            throw new StoreValueEncodingException( ex );
+        }
+    }
+
+    /**
+     * Indicates that the StoreValue of this Proxy has been written to the Store. The message log
+     * entries that the StoreValue does not refer to any more are deleted.
+     *
+     * @param value the Proxy
+     */
+    @Override
+    public void proxyWritten(
+            Proxy value )
+    {
+        ProxyMessageLog messageLog;
+        synchronized( theMessageLogs ) {
+            messageLog = theMessageLogs.get( value );
+        }
+        if( messageLog == null ) {
+            return;
+        }
+        try {
+            synchronized( messageLog ) {
+                messageLog.theToSend.deleteObsolete();
+                messageLog.theLastSent.deleteObsolete();
+            }
+        } catch( IOException ex ) {
+            log.error( ex );
+        }
+    }
+
+    /**
+     * Indicates that the Proxy with this key has been removed permanently. Its message log
+     * entries are deleted.
+     *
+     * @param key the key of the Proxy
+     */
+    @Override
+    public void proxyRemoved(
+            NetMeshBaseIdentifier key )
+    {
+        String                proxyKey = keyToString( key );
+        List<ProxyMessageLog> found    = new ArrayList<ProxyMessageLog>();
+
+        synchronized( theMessageLogs ) {
+            Iterator<ProxyMessageLog> iter = theMessageLogs.values().iterator();
+            while( iter.hasNext() ) {
+                ProxyMessageLog current = iter.next();
+                if( proxyKey.equals( current.theProxyKey )) {
+                    found.add( current );
+                    iter.remove();
+                }
+            }
+        }
+        for( ProxyMessageLog messageLog : found ) {
+            try {
+                synchronized( messageLog ) {
+                    messageLog.theToSend.clear();
+                    messageLog.theLastSent.clear();
+                    messageLog.theToSend.deleteObsolete();
+                    messageLog.theLastSent.deleteObsolete();
+                }
+            } catch( IOException ex ) {
+                log.error( ex );
+            }
+        }
+    }
+
+    /**
+     * Obtain the preferred encodingid of this StoreMapper.
+     *
+     * @return the preferred encodingid
+     */
+    @Override
+    public String getPreferredEncodingId()
+    {
+        return LOGGED_ENCODING_ID;
+    }
+
+    /**
+     * Copy everything but the XprisoMessages from an ExternalizedProxy.
+     *
+     * @param externalized the ExternalizedProxy
+     * @return the copy, without XprisoMessages
+     */
+    protected ParserFriendlyExternalizedProxy copyMetadata(
+            ExternalizedProxy externalized )
+    {
+        ParserFriendlyExternalizedProxy ret = new ParserFriendlyExternalizedProxy();
+
+        ret.setTimeCreated(                externalized.getTimeCreated() );
+        ret.setTimeUpdated(                externalized.getTimeUpdated() );
+        ret.setTimeRead(                   externalized.getTimeRead() );
+        ret.setTimeExpires(                externalized.getTimeExpires() );
+        ret.setNetworkIdentifier(          externalized.getNetworkIdentifier() );
+        ret.setNetworkIdentifierOfPartner( externalized.getNetworkIdentifierOfPartner() );
+        ret.setCoherenceSpecification(     externalized.getCoherenceSpecification() );
+        ret.setLastSentToken(              externalized.getLastSentToken() );
+        ret.setLastReceivedToken(          externalized.getLastReceivedToken() );
+
+        return ret;
+    }
+
+    /**
+     * Smart factory method for the message log of this Proxy.
+     *
+     * @param value the Proxy
+     * @return the ProxyMessageLog
+     */
+    protected ProxyMessageLog obtainMessageLogFor(
+            Proxy value )
+    {
+        synchronized( theMessageLogs ) {
+            ProxyMessageLog ret = theMessageLogs.get( value );
+            if( ret == null ) {
+                ret = new ProxyMessageLog( keyToString( value.getPartnerMeshBaseIdentifier() ));
+                theMessageLogs.put( value, ret );
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * The Store in which to keep the queued XprisoMessages.
+     */
+    protected final Store theMessageLogStore;
+
+    /**
+     * The message logs of the Proxies currently in memory. A Proxy's message log goes away
+     * together with the Proxy when the Proxy is swapped out; it is read back when the Proxy
+     * is restored.
+     */
+    protected final WeakHashMap<Proxy,ProxyMessageLog> theMessageLogs = new WeakHashMap<Proxy,ProxyMessageLog>();
+
+    /**
+     * The encodingId used for Proxies whose XprisoMessages are kept in the message log.
+     */
+    public static final String LOGGED_ENCODING_ID = NET_PREFERRED_ENCODING.getEncodingId() + "+log";
+
+    /**
+     * The encodingId used for the entries in the message log.
+     */
+    public static final String MESSAGE_ENCODING_ID = "XprisoMessageFramed";
+
+    /**
+     * The message logs of one Proxy.
+     */
+    protected class ProxyMessageLog
+    {
+        /**
+         * Constructor.
+         *
+         * @param proxyKey the key of the Proxy in the Store
+         */
+        public ProxyMessageLog(
+                String proxyKey )
+        {
+            theProxyKey = proxyKey;
+            theToSend   = new MessageQueueLog( proxyKey + "#send#" );
+            theLastSent = new MessageQueueLog( proxyKey + "#sent#" );
+        }
+
+        /**
+         * The key of the Proxy in the Store.
+         */
+        protected final String theProxyKey;
+
+        /**
+         * The log of the messages to be sent.
+         */
+        protected final MessageQueueLog theToSend;
+
+        /**
+         * The log of the messages sent, but not acknowledged yet.
+         */
+        protected final MessageQueueLog theLastSent;
+    }
+
+    /**
+     * The message log of one queue of XprisoMessages. New XprisoMessages are expected
+     * to be appended at the end of the queue.
+     */
+    protected class MessageQueueLog
+    {
+        /**
+         * Constructor.
+         *
+         * @param keyPrefix the prefix of the keys of this log's entries in the message log Store
+         */
+        public MessageQueueLog(
+                String keyPrefix )
+        {
+            theKeyPrefix = keyPrefix;
+        }
+
+        /**
+         * Bring the log in line with the current content of the queue. XprisoMessages
+         * are compared by identity. XprisoMessages leave the queue at its head and join it
+         * at its tail, so only those that have left or joined since the last update are
+         * looked at. Should the queue have been rearranged in any other way, the log is
+         * rewritten.
+         *
+         * @param queue the current content of the queue, or null
+         * @throws EncodingException thrown if an XprisoMessage could not be encoded
+         * @throws IOException thrown if the message log Store could not be written
+         */
+        public void update(
+                List<XprisoMessage> queue )
+            throws
+                EncodingException,
+                IOException
+        {
+            if( queue == null || queue.isEmpty() ) {
+                clear();
+                return;
+            }
+            Long headSeq = theSequences.get( queue.get( 0 ));
+            if( headSeq == null ) {
+                // everything logged has left the queue
+                clear();
+                appendAll( queue.listIterator() );
+                return;
+            }
+
+            Iterator<Map.Entry<Long,XprisoMessage>> iter = theBySequence.headMap( headSeq ).entrySet().iterator();
+            while( iter.hasNext() ) {
+                Map.Entry<Long,XprisoMessage> current = iter.next();
+                theObsolete.add( current.getKey() );
+                theSequences.remove( current.getValue() );
+                iter.remove();
+            }
+
+            int logged = theBySequence.size();
+            if( queue.size() < logged ) {
+                rewrite( queue );
+                return;
+            }
+            ListIterator<XprisoMessage> tail = queue.listIterator( logged - 1 );
+            if( tail.next() != theBySequence.lastEntry().getValue() ) {
+                rewrite( queue );
+                return;
+            }
+            appendAll( tail );
+        }
+
+        /**
+         * Replace the content of the log with the content of the queue.
+         *
+         * @param queue the current content of the queue
+         * @throws EncodingException thrown if an XprisoMessage could not be encoded
+         * @throws IOException thrown if the message log Store could not be written
+         */
+        protected void rewrite(
+                List<XprisoMessage> queue )
+            throws
+                EncodingException,
+                IOException
+        {
+            if( log.isDebugEnabled() ) {
+                log.debug( "queue was rearranged, rewriting message log " + theKeyPrefix );
+            }
+
+            clear();
+            appendAll( queue.listIterator() );
+        }
+
+        /**
+         * Remove all entries from this log. Their entries in the message log Store are
+         * deleted by the next deleteObsolete.
+         */
+        public void clear()
+        {
+            theObsolete.addAll( theBySequence.keySet() );
+            theSequences.clear();
+            theBySequence.clear();
+        }
+
+        /**
+         * Delete the entries in the message log Store that have been removed from this log.
+         * To be invoked only once no StoreValue in the Store refers to them any more.
+         *
+         * @throws IOException thrown if the message log Store could not be written
+         */
+        public void deleteObsolete()
+            throws
+                IOException
+        {
+            Iterator<Long> iter = theObsolete.iterator();
+            while( iter.hasNext() ) {
+                delete( iter.next() );
+                iter.remove();
+            }
+        }
+
+        /**
+         * Read back the XprisoMessages in this range of sequence numbers, and remember them
+         * as the current content of the log.
+         *
+         * @param first the first sequence number
+         * @param next the sequence number after the last one
+         * @return the XprisoMessages, in sequence
+         * @throws DecodingException thrown if an XprisoMessage could not be decoded
+         * @throws IOException thrown if the message log Store could not be read
+         */
+        public List<XprisoMessage> restore(
+                long first,
+                long next )
+            throws
+                DecodingException,
+                IOException
+        {
+            theSequences.clear();
+            theBySequence.clear();
+
+            ArrayList<XprisoMessage> ret = new ArrayList<XprisoMessage>();
+            for( long seq = first ; seq < next ; ++seq ) {
+                StoreValue found;
+                try {
+                    found = theMessageLogStore.get( keyFor( seq ));
+
+                } catch( StoreKeyDoesNotExistException ex ) {
+                    // entries are only deleted once the Proxy does not refer to them any more
+                    log.error( "Message log " + theKeyPrefix + " is corrupt: entry " + seq + " in [" + first + ", " + next + ") is missing, XprisoMessage lost", ex );
+                    continue;
+                }
+                XprisoMessage msg = XprisoMessageEncoders.decodeFramed( found.getDataAsStream(), theMeshBase );
+                ret.add( msg );
+                theSequences.put( msg, seq );
+                theBySequence.put( seq, msg );
+            }
+            theNext = next;
+            return ret;
+        }
+
+        /**
+         * Obtain the sequence number of the oldest entry in the log.
+         *
+         * @return the sequence number, or the next sequence number if the log is empty
+         */
+        public long getFirst()
+        {
+            if( theBySequence.isEmpty() ) {
+                return theNext;
+            } else {
+                return theBySequence.firstKey();
+            }
+        }
+
+        /**
+         * Obtain the sequence number to be assigned to the next entry.
+         *
+         * @return the sequence number
+         */
+        public long getNext()
+        {
+            return theNext;
+        }
+
+        /**
+         * Append an XprisoMessage to the log.
+         *
+         * @param msg the XprisoMessage
+         * @throws EncodingException thrown if the XprisoMessage could not be encoded
+         * @throws IOException thrown if the message log Store could not be written
+         */
+        protected void append(
+                XprisoMessage msg )
+            throws
+                EncodingException,
+                IOException
+        {
+            long seq = theNext++;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            XprisoMessageEncoders.encodeFramed( msg, MESSAGE_ENCODER, out );
+
+            long now = System.currentTimeMillis();
+            theMessageLogStore.putOrUpdate( keyFor( seq ), MESSAGE_ENCODING_ID, now, now, now, -1L, out.toByteArray() );
+
+            theSequences.put( msg, seq );
+            theBySequence.put( seq, msg );
+        }
+
+        /**
+         * Append the remaining XprisoMessages to the log.
+         *
+         * @param iter iterates over the XprisoMessages
+         * @throws EncodingException thrown if an XprisoMessage could not be encoded
+         * @throws IOException thrown if the message log Store could not be written
+         */
+        protected void appendAll(
+                Iterator<XprisoMessage> iter )
+            throws
+                EncodingException,
+                IOException
+        {
+            while( iter.hasNext() ) {
+                append( iter.next() );
+            }
+        }
+
+        /**
+         * Delete an entry from the log.
+         *
+         * @param seq the sequence number of the entry
+         * @throws IOException thrown if the message log Store could not be written
+         */
+        protected void delete(
+                long seq )
+            throws
+                IOException
+        {
+            try {
+                theMessageLogStore.delete( keyFor( seq ));
+
+            } catch( StoreKeyDoesNotExistException ex ) {
+                log.warn( ex );
+            }
+        }
+
+        /**
+         * Determine the key of an entry in the message log Store.
+         *
+         * @param seq the sequence number of the entry
+         * @return the key
+         */
+        protected String keyFor(
+                long seq )
+        {
+            return theKeyPrefix + seq;
+        }
+
+        /**
+         * The prefix of the keys of this log's entries in the message log Store.
+         */
+        protected final String theKeyPrefix;
+
+        /**
+         * The sequence numbers of the XprisoMessages in the log, keyed by XprisoMessage identity.
+         */
+        protected final IdentityHashMap<XprisoMessage,Long> theSequences = new IdentityHashMap<XprisoMessage,Long>();
+
+        /**
+         * The XprisoMessages in the log, by sequence number.
+         */
+        protected final TreeMap<Long,XprisoMessage> theBySequence = new TreeMap<Long,XprisoMessage>();
+
+        /**
+         * The sequence number to be assigned to the next entry.
+         */
+        protected long theNext = 0L;
+
+        /**
+         * The sequence numbers of the entries that have been removed from this log, but
+         * not deleted from the message log Store yet.
+         */
+        protected final List<Long> theObsolete = new ArrayList<Long>();
+    }
+
+    /**
+     * The XprisoMessageEncoder used for the entries in the message log.
+     */
+    protected static final XprisoMessageEncoder MESSAGE_ENCODER = XprisoMessageEncoders.getEncoderFor( XprisoMessageEncoders.getPreferredEncodingId() );
+}
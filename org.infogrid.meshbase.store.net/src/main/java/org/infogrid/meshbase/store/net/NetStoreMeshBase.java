@@ -28,6 +28,7 @@ import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
 import org.infogrid.meshbase.net.NetMeshBaseIdentifierFactory;
 import org.infogrid.meshbase.net.NetMeshObjectAccessSpecificationFactory;
 import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.ReadTimeIndexedNetMeshBase;
 import org.infogrid.meshbase.net.a.AnetMeshBase;
 import org.infogrid.meshbase.net.a.AnetMeshBaseLifecycleManager;
 import org.infogrid.meshbase.net.proxy.DefaultProxyFactory;
@@ -43,6 +44,8 @@ import org.infogrid.meshbase.transaction.Transaction;
 import org.infogrid.modelbase.ModelBase;
 import org.infogrid.store.IterableStore;
 import org.infogrid.store.Store;
+import org.infogrid.store.StoreEntryMapper;
+import org.infogrid.store.StoreValueEncodingException;
 import org.infogrid.store.util.IterableStoreBackedSwappingHashMap;
 import org.infogrid.util.context.Context;
 import org.infogrid.util.logging.Log;
@@ -54,6 +57,8 @@ import org.infogrid.util.logging.Log;
 public class NetStoreMeshBase
         extends
             AnetMeshBase
+        implements
+            ReadTimeIndexedNetMeshBase
 {
     private static final Log log = Log.getLogInstance(NetStoreMeshBase.class); // our own, private logger
 
@@ -169,7 +174,7 @@ public class NetStoreMeshBase
         StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>   objectStorage = new StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>( objectMapper, meshObjectStore );
         IterableStoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> proxyStorage  = IterableStoreBackedSwappingHashMap.createWeak( proxyMapper, proxyStore );
         
-        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage );
+        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage, proxyMapper );
         AnetMeshBaseLifecycleManager   life         = AnetMeshBaseLifecycleManager.create();
         ImmutableMMeshObjectSetFactory setFactory   = ImmutableMMeshObjectSetFactory.create( NetMeshObject.class, NetMeshObjectIdentifier.class );
 
@@ -189,6 +194,7 @@ public class NetStoreMeshBase
         setFactory.setMeshBase( ret );
         proxyFactory.setNetMeshBase( ret );
         objectMapper.setMeshBase( ret );
+        ret.setObjectMapper( objectMapper );
         proxyMapper.setMeshBase( ret );
         ret.initializeHomeObject();
         
@@ -227,7 +233,7 @@ public class NetStoreMeshBase
         StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>   objectStorage = new StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>( objectMapper, meshObjectStore );
         IterableStoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> proxyStorage  = IterableStoreBackedSwappingHashMap.createWeak( proxyMapper, proxyStore );
 
-        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage );
+        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage, proxyMapper );
         AnetMeshBaseLifecycleManager   life         = AnetMeshBaseLifecycleManager.create();        
         ImmutableMMeshObjectSetFactory setFactory   = ImmutableMMeshObjectSetFactory.create( NetMeshObject.class, NetMeshObjectIdentifier.class );
 
@@ -247,6 +253,69 @@ public class NetStoreMeshBase
         setFactory.setMeshBase( ret );
         proxyFactory.setNetMeshBase( ret );
         objectMapper.setMeshBase( ret );
+        ret.setObjectMapper( objectMapper );
+        proxyMapper.setMeshBase( ret );
+        ret.initializeHomeObject();
+        
+        if( log.isDebugEnabled() ) {
+            log.debug( "created " + ret );
+        }
+        return ret;
+    }
+
+    /**
+     * Factory method. The XprisoMessages queued by the Proxies are kept in their own Store,
+     * so that writing a Proxy does not require rewriting its entire backlog.
+     *
+     * @param identifier the NetMeshBaseIdentifier of this NetMeshBase
+     * @param netMeshObjectAccessSpecificationFactory the factory for NetMeshObjectAccessSpecifications
+     * @param modelBase the ModelBase containing type information
+     * @param accessMgr the AccessManager that controls access to this NetMeshBase
+     * @param proxyFactory factory for Proxies
+     * @param meshObjectStore the Store in which to store the MeshObjects
+     * @param proxyStore the Store in which to store the Proxies
+     * @param messageLogStore the Store in which to store the XprisoMessages queued by the Proxies
+     * @param context the Context in which this NetMeshBase runs.
+     * @return the created NetStoreMeshBase
+     */
+    public static NetStoreMeshBase create(
+            NetMeshBaseIdentifier                   identifier,
+            NetMeshObjectAccessSpecificationFactory netMeshObjectAccessSpecificationFactory,
+            ModelBase                               modelBase,
+            NetAccessManager                        accessMgr,
+            ProxyFactory                            proxyFactory,
+            Store                                   meshObjectStore,
+            IterableStore                           proxyStore,
+            Store                                   messageLogStore,
+            Context                                 context )
+    {
+        NetStoreMeshBaseEntryMapper objectMapper = new NetStoreMeshBaseEntryMapper();
+        StoreProxyEntryMapper       proxyMapper  = new LoggingStoreProxyEntryMapper( proxyFactory, messageLogStore );
+        
+        StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>   objectStorage = new StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>( objectMapper, meshObjectStore );
+        IterableStoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> proxyStorage  = IterableStoreBackedSwappingHashMap.createWeak( proxyMapper, proxyStore );
+
+        StoreProxyManager              proxyManager = StoreProxyManager.create( proxyFactory, proxyStorage, proxyMapper );
+        AnetMeshBaseLifecycleManager   life         = AnetMeshBaseLifecycleManager.create();        
+        ImmutableMMeshObjectSetFactory setFactory   = ImmutableMMeshObjectSetFactory.create( NetMeshObject.class, NetMeshObjectIdentifier.class );
+
+        NetStoreMeshBase ret = new NetStoreMeshBase(
+                identifier,
+                netMeshObjectAccessSpecificationFactory.getNetMeshObjectIdentifierFactory(),
+                netMeshObjectAccessSpecificationFactory.getNetMeshBaseIdentifierFactory(),
+                netMeshObjectAccessSpecificationFactory,
+                setFactory,
+                modelBase,
+                life,
+                accessMgr,
+                objectStorage,
+                proxyManager,
+                context );
+
+        setFactory.setMeshBase( ret );
+        proxyFactory.setNetMeshBase( ret );
+        objectMapper.setMeshBase( ret );
+        ret.setObjectMapper( objectMapper );
         proxyMapper.setMeshBase( ret );
         ret.initializeHomeObject();
         
@@ -344,12 +413,35 @@ public class NetStoreMeshBase
             }
         }
         theReplicationChangedObjectsToBeStored.clear();
-        
+
+        synchronized( theWriteBehindLock ) {
+            // under the lock, so disableWriteBehind() cannot swap out the queue while we enqueue
+            WriteBehindQueue writeBehind = theWriteBehindQueue;
+            if( writeBehind != null ) {
+                for( Map.Entry<MeshObjectIdentifier,MeshObject> current : toWrite.entrySet() ) {
+                    if( current.getValue() != null ) {
+                        try {
+                            writeBehind.enqueueSave( current.getKey(), current.getValue() );
+                        } catch( StoreValueEncodingException ex ) {
+                            log.error( ex );
+                        }
+                        theReadTimeIndex.update( (NetMeshObject) current.getValue() );
+                    } else {
+                        writeBehind.removeNow( current.getKey() );
+                        theReadTimeIndex.remove( (NetMeshObjectIdentifier) current.getKey() );
+                    }
+                }
+                return;
+            }
+        }
+
         for( Map.Entry<MeshObjectIdentifier,MeshObject> current : toWrite.entrySet() ) {
             if( current.getValue() != null ) {
                 map.saveValueToStorageUponCommit( current.getKey(), current.getValue() );
+                theReadTimeIndex.update( (NetMeshObject) current.getValue() );
             } else {
                 map.removeValueFromStorageUponCommit( current.getKey() );
+                theReadTimeIndex.remove( (NetMeshObjectIdentifier) current.getKey() );
             }
         }
         map.transactionDone();
@@ -367,15 +459,165 @@ public class NetStoreMeshBase
     {
         theReplicationChangedObjectsToBeStored.add( obj );
         if( getCurrentTransaction() == null ) {
+           synchronized( theWriteBehindLock ) {
+               WriteBehindQueue writeBehind = theWriteBehindQueue;
+               if( writeBehind != null ) {
+                   for( AnetMeshObject current : theReplicationChangedObjectsToBeStored ) {
+                       try {
+                           writeBehind.enqueueSave( current.getIdentifier(), current );
+                       } catch( StoreValueEncodingException ex ) {
+                           log.error( ex );
+                       }
+                       theReadTimeIndex.update( current );
+                   }
+                   theReplicationChangedObjectsToBeStored.clear();
+                   return;
+               }
+           }
+
            StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject> map = (StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>) theCache; 
            
            for( AnetMeshObject current : theReplicationChangedObjectsToBeStored ) {
                map.saveValueToStorageUponCommit( current.getIdentifier(), current );
+               theReadTimeIndex.update( current );
            }
            theReplicationChangedObjectsToBeStored.clear();
         }
     }
     
+    /**
+     * Switch to write-behind mode, using default parameters. In write-behind mode, committing
+     * a Transaction only enqueues the changed MeshObjects; a background Thread writes them to
+     * storage in batches. Deletions are still written right away.
+     */
+    public void enableWriteBehind()
+    {
+        enableWriteBehind( WriteBehindQueue.DEFAULT_FLUSH_INTERVAL, WriteBehindQueue.DEFAULT_MAX_PENDING );
+    }
+
+    /**
+     * Switch to write-behind mode.
+     *
+     * @param flushInterval the maximum time a change remains unwritten, in milliseconds
+     * @param maxPending the number of pending MeshObjects that triggers a flush before the flush interval is up
+     * @see #enableWriteBehind()
+     */
+    public void enableWriteBehind(
+            long flushInterval,
+            int  maxPending )
+    {
+        synchronized( theWriteBehindLock ) {
+            if( theWriteBehindQueue != null ) {
+                theWriteBehindQueue.die();
+            }
+            theWriteBehindQueue = WriteBehindQueue.create(
+                    (StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject>) theCache,
+                    theObjectMapper,
+                    getCachingMap().getStore(),
+                    flushInterval,
+                    maxPending,
+                    "WriteBehind-" + getIdentifier().toExternalForm() );
+        }
+    }
+
+    /**
+     * Switch back to writing changed MeshObjects to storage when the Transaction commits,
+     * after writing all pending MeshObjects. The pending MeshObjects are written while
+     * committing Transactions wait, so a later synchronous write cannot be overwritten by
+     * an older pending one.
+     */
+    public void disableWriteBehind()
+    {
+        synchronized( theWriteBehindLock ) {
+            if( theWriteBehindQueue != null ) {
+                WriteBehindQueue old = theWriteBehindQueue;
+                theWriteBehindQueue = null;
+                old.die();
+            }
+        }
+    }
+
+    /**
+     * Write all MeshObjects pending in write-behind mode to storage now. This does
+     * nothing if write-behind mode is not enabled.
+     *
+     * @return the number of MeshObjects written
+     */
+    public int flushWriteBehind()
+    {
+        WriteBehindQueue writeBehind = theWriteBehindQueue;
+        if( writeBehind != null ) {
+            return writeBehind.flush();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Set the mapper that encodes this NetStoreMeshBase's MeshObjects. This is invoked by the factory methods.
+     *
+     * @param mapper the mapper
+     */
+    protected void setObjectMapper(
+            StoreEntryMapper<MeshObjectIdentifier,MeshObject> mapper )
+    {
+        theObjectMapper = mapper;
+    }
+
+    /**
+     * Clean up, writing all pending MeshObjects first.
+     *
+     * @param isPermanent if true, this MeshBase will go away permanmently; if false, it may come alive again some time later
+     */
+    @Override
+    protected void internalDie(
+            boolean isPermanent )
+    {
+        disableWriteBehind();
+
+        super.internalDie( isPermanent );
+    }
+
+    /**
+     * Keep the index of the non-home replicas' read times in a Store, so that it survives
+     * restarts. From now on, each change to the index is written to the Store as it
+     * happens, and the entries kept in the Store earlier are loaded right away.
+     * The Store must not be used for anything else.
+     *
+     * @param readTimeStore the Store
+     * @return true if the Store held a complete index, so it does not need to be seeded from all MeshObjects
+     */
+    public boolean keepReadTimeIndexIn(
+            IterableStore readTimeStore )
+    {
+        return theReadTimeIndex.keepIn( readTimeStore, getMeshObjectIdentifierFactory() );
+    }
+
+    /**
+     * Find the identifiers of the non-home replicas whose last recorded read time is
+     * before the cutoff. Only replicas written to storage since this NetStoreMeshBase
+     * was created, or found in the Store given to keepReadTimeIndexIn, are known to the index.
+     *
+     * @param cutoff the cutoff time, in System.currentTimeMillis() format
+     * @return the identifiers of the candidate replicas, oldest first
+     */
+    public NetMeshObjectIdentifier [] findReplicasReadBefore(
+            long cutoff )
+    {
+        return theReadTimeIndex.findReadBefore( cutoff );
+    }
+
+    /**
+     * Bring the index entry of this NetMeshObject up to date.
+     *
+     * @param obj the NetMeshObject
+     */
+    public void updateReadTimeIndex(
+            NetMeshObject obj )
+    {
+        theReadTimeIndex.update( obj );
+    }
+
     /**
      * A set of NetMeshObjects that needs to written to storage because their replication status changed.
      * This queue gets immediately worked down if there is no current transaction. When there is a current
@@ -383,6 +625,28 @@ public class NetStoreMeshBase
      */
     protected HashSet<AnetMeshObject> theReplicationChangedObjectsToBeStored = new HashSet<AnetMeshObject>();
 
+    /**
+     * The non-home replicas in this NetStoreMeshBase, ordered by the time they were last read.
+     * This is updated whenever a replica is written to storage, so the recorded read time
+     * may be older than the actual one, but never newer.
+     */
+    protected final ReplicaReadTimeIndex theReadTimeIndex = ReplicaReadTimeIndex.create();
+
+    /**
+     * The WriteBehindQueue, if write-behind mode is enabled.
+     */
+    protected volatile WriteBehindQueue theWriteBehindQueue;
+
+    /**
+     * Guards switching theWriteBehindQueue against enqueuing into it.
+     */
+    protected final Object theWriteBehindLock = new Object();
+
+    /**
+     * The mapper that encodes this NetStoreMeshBase's MeshObjects, for write-behind mode.
+     */
+    protected StoreEntryMapper<MeshObjectIdentifier,MeshObject> theObjectMapper;
+
     /**
      * The home object identifier.
      */
@@ -22,9 +22,14 @@ import org.infogrid.mesh.net.NetMeshObject;
 import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
 import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObjectEncoder;
 import org.infogrid.mesh.net.externalized.xml.ExternalizedNetMeshObjectXmlEncoder;
+import org.infogrid.meshbase.net.NetMeshBase;
 import org.infogrid.meshbase.store.AbstractStoreMeshBaseEntryMapper;
+import org.infogrid.model.primitives.externalized.DecodingException;
 import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.store.StoreValue;
+import org.infogrid.store.StoreValueDecodingException;
 import org.infogrid.store.StoreValueEncodingException;
+import org.infogrid.util.logging.Log;
 
 /**
  * Extends StoreMeshBaseEntryMapper for NetMeshObject data.
@@ -33,6 +38,8 @@ public class NetStoreMeshBaseEntryMapper
         extends
             AbstractStoreMeshBaseEntryMapper
 {
+    private static final Log log = Log.getLogInstance( NetStoreMeshBaseEntryMapper.class ); // our own, private logger
+
     /**
      * Constructor.
      */
@@ -75,6 +82,39 @@ public class NetStoreMeshBaseEntryMapper
         }
     }
 
+    /**
+     * Decode a StoreValue written by this class into an ExternalizedNetMeshObject, without
+     * instantiating a MeshObject. The encoders decode on a thread worker, so this may be
+     * invoked on any number of Threads at the same time.
+     *
+     * @param value the StoreValue
+     * @param mb the NetMeshBase on whose behalf the decoding is performed
+     * @return the ExternalizedNetMeshObject, or null if the encoding is not known
+     * @throws StoreValueDecodingException thrown if the StoreValue could not been decoded
+     */
+    public static ExternalizedNetMeshObject decodeExternalized(
+            StoreValue  value,
+            NetMeshBase mb )
+        throws
+            StoreValueDecodingException
+    {
+        for( ExternalizedNetMeshObjectEncoder current : theNetEncoders ) {
+            if( current.getEncodingId().equals( value.getEncodingId() )) {
+                try {
+                    return current.decodeExternalizedMeshObject( value.getDataAsStream(), mb );
+
+                } catch( DecodingException ex ) {
+                    throw new StoreValueDecodingException( ex );
+
+                } catch( IOException ex ) {
+                    throw new StoreValueDecodingException( ex );
+                }
+            }
+        }
+        log.error( "Unknown encoding ID: " + value.getEncodingId() );
+        return null;
+    }
+
     /**
      * Obtain the preferred encodingid of this StoreMapper.
      *
@@ -103,7 +143,8 @@ public class NetStoreMeshBaseEntryMapper
 
     /**
      * The set of encoders / decoders currently known. This MUST be use
-     * the same indices as in the superclass.
+     * the same indices as in the superclass. The encoders decode on a separate
+     * thread worker for each Thread, so sharing them does not serialize decoding.
      */
     protected static final ExternalizedNetMeshObjectEncoder[] theNetEncoders = {
             new ExternalizedNetMeshObjectXmlEncoder()
@@ -0,0 +1,332 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.xml.BulkExternalizedNetMeshObjectXmlEncoder;
+import org.infogrid.model.primitives.externalized.EncodingException;
+import org.infogrid.store.StoreValue;
+import org.infogrid.store.StoreValueDecodingException;
+import org.infogrid.util.ResourceHelper;
+import org.infogrid.util.logging.Log;
+
+/**
+ * Exports the MeshObjects of an IterableNetStoreMeshBase in the format written by
+ * BulkExternalizedNetMeshObjectXmlEncoder.bulkWrite. The raw StoreValues are read through
+ * a single Store cursor on the calling Thread, without instantiating MeshObjects; a pool of
+ * worker Threads decodes and encodes them in chunks. As the StoreValues are exported, the
+ * output contains the Proxy information of each replica, so ParallelBulkImporter can tell
+ * home replicas from others. The encoded chunks are written in order, either into a single
+ * stream, or round-robin into several parts that ParallelBulkImporter can read back in
+ * parallel. No more than a fixed number of chunks are held in memory at any time.
+ */
+public class ParallelBulkExporter
+{
+    private static final Log log = Log.getLogInstance( ParallelBulkExporter.class ); // our own, private logger
+
+    /**
+     * Factory method, using default parameters.
+     *
+     * @param exec the ExecutorService on which the chunks are encoded
+     * @return the created ParallelBulkExporter
+     */
+    public static ParallelBulkExporter create(
+            ExecutorService exec )
+    {
+        return create( new BulkExternalizedNetMeshObjectXmlEncoder(), DEFAULT_CHUNK_SIZE, DEFAULT_MAX_CHUNKS_IN_FLIGHT, exec );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param encoder the encoder to use
+     * @param chunkSize the number of StoreValues decoded and encoded together by one worker
+     * @param maxChunksInFlight the maximum number of chunks read, but not written yet
+     * @param exec the ExecutorService on which the chunks are encoded
+     * @return the created ParallelBulkExporter
+     */
+    public static ParallelBulkExporter create(
+            BulkExternalizedNetMeshObjectXmlEncoder encoder,
+            int                                     chunkSize,
+            int                                     maxChunksInFlight,
+            ExecutorService                         exec )
+    {
+        return new ParallelBulkExporter( encoder, chunkSize, maxChunksInFlight, exec );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param encoder the encoder to use
+     * @param chunkSize the number of StoreValues decoded and encoded together by one worker
+     * @param maxChunksInFlight the maximum number of chunks read, but not written yet
+     * @param exec the ExecutorService on which the chunks are encoded
+     */
+    protected ParallelBulkExporter(
+            BulkExternalizedNetMeshObjectXmlEncoder encoder,
+            int                                     chunkSize,
+            int                                     maxChunksInFlight,
+            ExecutorService                         exec )
+    {
+        theEncoder           = encoder;
+        theChunkSize         = chunkSize;
+        theMaxChunksInFlight = maxChunksInFlight;
+        theExecutorService   = exec;
+    }
+
+    /**
+     * Export all MeshObjects in the IterableNetStoreMeshBase into a single stream, in the
+     * sequence in which they are found in the Store.
+     *
+     * @param mb the IterableNetStoreMeshBase to export
+     * @param out the OutputStream to write to
+     * @return the number of exported MeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws EncodingException thrown if an Encoding problem occurred
+     */
+    public int exportTo(
+            IterableNetStoreMeshBase mb,
+            OutputStream             out )
+        throws
+            IOException,
+            EncodingException
+    {
+        return exportTo( mb, new OutputStream[] { out } );
+    }
+
+    /**
+     * Export all MeshObjects in the IterableNetStoreMeshBase into several part files. Each
+     * part file can be read by itself.
+     *
+     * @param mb the IterableNetStoreMeshBase to export
+     * @param partFiles the files to write, one per part
+     * @return the number of exported MeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws EncodingException thrown if an Encoding problem occurred
+     */
+    public int exportTo(
+            IterableNetStoreMeshBase mb,
+            File []                  partFiles )
+        throws
+            IOException,
+            EncodingException
+    {
+        OutputStream [] parts = new OutputStream[ partFiles.length ];
+        try {
+            for( int i=0 ; i<partFiles.length ; ++i ) {
+                parts[i] = new BufferedOutputStream( new FileOutputStream( partFiles[i] ));
+            }
+            return exportTo( mb, parts );
+
+        } finally {
+            for( OutputStream current : parts ) {
+                if( current != null ) {
+                    current.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Export all MeshObjects in the IterableNetStoreMeshBase into several parts. The chunks
+     * are distributed round-robin over the parts, and each part can be read by itself.
+     *
+     * @param mb the IterableNetStoreMeshBase to export
+     * @param parts the OutputStreams to write to, one per part
+     * @return the number of exported MeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws EncodingException thrown if an Encoding problem occurred
+     */
+    public int exportTo(
+            final IterableNetStoreMeshBase mb,
+            OutputStream []                parts )
+        throws
+            IOException,
+            EncodingException
+    {
+        long start = System.currentTimeMillis();
+
+        for( OutputStream current : parts ) {
+            theEncoder.bulkWriteStart( current );
+        }
+
+        mb.flushWriteBehind(); // otherwise the Store may not have the latest changes yet
+
+        ArrayDeque<Future<byte []>> inFlight = new ArrayDeque<Future<byte []>>( theMaxChunksInFlight );
+        Iterator<StoreValue>        iter     = mb.getCachingMap().getStore().iterator();
+        int                         count    = 0;
+        int                         written  = 0;
+
+        try {
+            while( iter.hasNext() ) {
+                final List<StoreValue> chunk = new ArrayList<StoreValue>( theChunkSize );
+                while( chunk.size() < theChunkSize && iter.hasNext() ) {
+                    chunk.add( iter.next() );
+                }
+                count += chunk.size();
+
+                if( inFlight.size() >= theMaxChunksInFlight ) {
+                    writeChunk( inFlight.removeFirst(), parts[ written++ % parts.length ] );
+                }
+                inFlight.addLast( theExecutorService.submit( new Callable<byte []>() {
+                        public byte [] call()
+                            throws
+                                IOException,
+                                EncodingException,
+                                StoreValueDecodingException
+                        {
+                            return encodeChunk( chunk, mb );
+                        }
+                }));
+            }
+            while( !inFlight.isEmpty() ) {
+                writeChunk( inFlight.removeFirst(), parts[ written++ % parts.length ] );
+            }
+
+        } finally {
+            for( Future<byte []> current : inFlight ) {
+                current.cancel( true );
+            }
+        }
+
+        for( OutputStream current : parts ) {
+            theEncoder.bulkWriteEnd( current );
+            current.flush();
+        }
+
+        if( log.isInfoEnabled() ) {
+            log.info( this + ": exported " + count + " MeshObjects from " + mb.getIdentifier() + " into " + parts.length + " parts in " + ( System.currentTimeMillis() - start ) + " msec" );
+        }
+        return count;
+    }
+
+    /**
+     * Decode a chunk of StoreValues, and encode the MeshObjects they contain. This is invoked
+     * on a worker Thread.
+     *
+     * @param chunk the StoreValues
+     * @param mb the IterableNetStoreMeshBase whose Store contains the StoreValues
+     * @return the encoded MeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws EncodingException thrown if an Encoding problem occurred
+     * @throws StoreValueDecodingException thrown if a StoreValue could not be decoded
+     */
+    protected byte [] encodeChunk(
+            List<StoreValue>         chunk,
+            IterableNetStoreMeshBase mb )
+        throws
+            IOException,
+            EncodingException,
+            StoreValueDecodingException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+        for( StoreValue current : chunk ) {
+            ExternalizedNetMeshObject decoded = NetStoreMeshBaseEntryMapper.decodeExternalized( current, mb );
+            if( decoded != null ) {
+                theEncoder.encodeExternalizedMeshObject( decoded, buf );
+            }
+        }
+        return buf.toByteArray();
+    }
+
+    /**
+     * Wait for a chunk to be encoded, and write it.
+     *
+     * @param chunk the chunk being encoded
+     * @param out the OutputStream to write to
+     * @throws IOException thrown if an I/O error occurred
+     * @throws EncodingException thrown if an Encoding problem occurred
+     */
+    protected void writeChunk(
+            Future<byte []> chunk,
+            OutputStream    out )
+        throws
+            IOException,
+            EncodingException
+    {
+        try {
+            out.write( chunk.get() );
+
+        } catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for chunk to be encoded" );
+
+        } catch( ExecutionException ex ) {
+            Throwable cause = ex.getCause();
+            if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            } else if( cause instanceof EncodingException ) {
+                throw (EncodingException) cause;
+            } else if( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException( cause );
+            }
+        }
+    }
+
+    /**
+     * The encoder. Encoding does not keep state in the encoder, so all workers share it.
+     */
+    protected final BulkExternalizedNetMeshObjectXmlEncoder theEncoder;
+
+    /**
+     * The number of StoreValues decoded and encoded together by one worker.
+     */
+    protected final int theChunkSize;
+
+    /**
+     * The maximum number of chunks read, but not written yet.
+     */
+    protected final int theMaxChunksInFlight;
+
+    /**
+     * The ExecutorService on which the chunks are encoded.
+     */
+    protected final ExecutorService theExecutorService;
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( ParallelBulkExporter.class );
+
+    /**
+     * The default number of StoreValues decoded and encoded together by one worker.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = theResourceHelper.getResourceIntegerOrDefault( "ChunkSize", 500 );
+
+    /**
+     * The default maximum number of chunks read, but not written yet.
+     */
+    public static final int DEFAULT_MAX_CHUNKS_IN_FLIGHT = theResourceHelper.getResourceIntegerOrDefault(
+            "MaxChunksInFlight",
+            2 * Runtime.getRuntime().availableProcessors() );
+}
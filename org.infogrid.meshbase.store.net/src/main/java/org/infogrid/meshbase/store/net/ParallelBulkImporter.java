@@ -0,0 +1,327 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import org.infogrid.mesh.MeshObjectIdentifierNotUniqueException;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.xml.BulkExternalizedNetMeshObjectXmlEncoder;
+import org.infogrid.meshbase.BulkLoadException;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.meshbase.transaction.TransactionException;
+import org.infogrid.util.ResourceHelper;
+import org.infogrid.util.logging.Log;
+
+/**
+ * Imports the parts written by ParallelBulkExporter into a NetMeshBase. Each part is parsed
+ * by its own task in streaming mode, so parsing proceeds in parallel while memory stays
+ * bounded. The Executor must be able to run one task per part at the same time, otherwise
+ * the import stalls. The parsed MeshObjects are instantiated on the calling Thread, as home replicas,
+ * in Transactions of a fixed number of MeshObjects each. A Transaction is only opened once its
+ * MeshObjects have been parsed, so the NetMeshBase is never locked while waiting for a parser.
+ */
+public class ParallelBulkImporter
+{
+    private static final Log log = Log.getLogInstance( ParallelBulkImporter.class ); // our own, private logger
+
+    /**
+     * Factory method, using default parameters.
+     *
+     * @param exec the Executor on which to parse, which must be able to run one task per part at the same time
+     * @return the created ParallelBulkImporter
+     */
+    public static ParallelBulkImporter create(
+            Executor exec )
+    {
+        return create(
+                new BulkExternalizedNetMeshObjectXmlEncoder(),
+                DEFAULT_TRANSACTION_SIZE,
+                BulkExternalizedNetMeshObjectXmlEncoder.STREAMING_QUEUE_CAPACITY,
+                exec );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param encoder the encoder to use
+     * @param transactionSize the number of MeshObjects instantiated in the same Transaction
+     * @param queueCapacity the maximum number of parsed, but not yet instantiated MeshObjects, per part
+     * @param exec the Executor on which to parse, which must be able to run one task per part at the same time
+     * @return the created ParallelBulkImporter
+     */
+    public static ParallelBulkImporter create(
+            BulkExternalizedNetMeshObjectXmlEncoder encoder,
+            int                                     transactionSize,
+            int                                     queueCapacity,
+            Executor                                exec )
+    {
+        return new ParallelBulkImporter( encoder, transactionSize, queueCapacity, exec );
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param encoder the encoder to use
+     * @param transactionSize the number of MeshObjects instantiated in the same Transaction
+     * @param queueCapacity the maximum number of parsed, but not yet instantiated MeshObjects, per part
+     * @param exec the Executor on which to parse
+     */
+    protected ParallelBulkImporter(
+            BulkExternalizedNetMeshObjectXmlEncoder encoder,
+            int                                     transactionSize,
+            int                                     queueCapacity,
+            Executor                                exec )
+    {
+        theEncoder         = encoder;
+        theTransactionSize = transactionSize;
+        theQueueCapacity   = queueCapacity;
+        theExecutor        = exec;
+    }
+
+    /**
+     * Import the MeshObjects in several part files.
+     *
+     * @param mb the NetMeshBase to import into
+     * @param partFiles the files to read, one per part
+     * @return the number of imported MeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws BulkLoadException thrown if a loading exception occurred, for the details check the cause
+     * @throws TransactionException thrown if a Transaction could not be created
+     */
+    public int importFrom(
+            NetMeshBase mb,
+            File []     partFiles )
+        throws
+            IOException,
+            BulkLoadException,
+            TransactionException
+    {
+        InputStream [] parts = new InputStream[ partFiles.length ];
+        try {
+            for( int i=0 ; i<partFiles.length ; ++i ) {
+                parts[i] = new BufferedInputStream( new FileInputStream( partFiles[i] ));
+            }
+            return importFrom( mb, parts );
+
+        } finally {
+            for( InputStream current : parts ) {
+                if( current != null ) {
+                    current.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Import the MeshObjects in several parts. MeshObjects that exist in the NetMeshBase already
+     * are skipped, and so are home objects and replicas whose home is elsewhere: only the
+     * exporting NetMeshBase's own home replicas become home replicas here.
+     *
+     * @param mb the NetMeshBase to import into
+     * @param parts the InputStreams to read, one per part
+     * @return the number of imported MeshObjects
+     * @throws IOException thrown if an I/O error occurred
+     * @throws BulkLoadException thrown if a loading exception occurred, for the details check the cause
+     * @throws TransactionException thrown if a Transaction could not be created
+     */
+    public int importFrom(
+            NetMeshBase    mb,
+            InputStream [] parts )
+        throws
+            IOException,
+            BulkLoadException,
+            TransactionException
+    {
+        long start = System.currentTimeMillis();
+
+        BulkExternalizedNetMeshObjectXmlEncoder.StreamingIterator [] iters
+                = new BulkExternalizedNetMeshObjectXmlEncoder.StreamingIterator[ parts.length ];
+
+        NetMeshObjectIdentifierFactory idFact  = mb.getMeshObjectIdentifierFactory();
+        ExternalizedNetMeshObject []   batch   = new ExternalizedNetMeshObject[ theTransactionSize ];
+        int                            inBatch = 0;
+        int                            count   = 0;
+        int                            skipped = 0;
+
+        try {
+            for( int i=0 ; i<parts.length ; ++i ) {
+                iters[i] = theEncoder.bulkLoadStreaming( parts[i], mb, theQueueCapacity, theExecutor );
+            }
+
+            // no Transaction is open while we wait for the parsers
+            int open = iters.length;
+            while( open > 0 ) {
+                open = 0;
+                for( int i=0 ; i<iters.length ; ++i ) {
+                    if( iters[i] == null ) {
+                        continue;
+                    }
+                    if( !iters[i].hasNext() ) {
+                        iters[i] = null;
+                        continue;
+                    }
+                    ++open;
+
+                    ExternalizedNetMeshObject current = (ExternalizedNetMeshObject) iters[i].next();
+
+                    if( !isHomeReplicaToImport( current, idFact )) {
+                        ++skipped;
+                        continue;
+                    }
+                    batch[ inBatch++ ] = current;
+
+                    if( inBatch == batch.length ) {
+                        count  += instantiate( mb, batch, inBatch );
+                        inBatch = 0;
+                    }
+                }
+            }
+            count += instantiate( mb, batch, inBatch );
+
+        } catch( BulkExternalizedNetMeshObjectXmlEncoder.StreamingLoadException ex ) {
+            Throwable cause = ex.getCause();
+            if( cause instanceof BulkLoadException ) {
+                throw (BulkLoadException) cause;
+            } else if( cause instanceof IOException ) {
+                throw (IOException) cause;
+            } else {
+                throw ex;
+            }
+
+        } finally {
+            for( BulkExternalizedNetMeshObjectXmlEncoder.StreamingIterator current : iters ) {
+                if( current != null ) {
+                    current.close();
+                }
+            }
+        }
+
+        if( log.isInfoEnabled() ) {
+            log.info( this + ": imported " + count + " MeshObjects into " + mb.getIdentifier() + " from " + parts.length + " parts, skipped " + skipped + ", in " + ( System.currentTimeMillis() - start ) + " msec" );
+        }
+        return count;
+    }
+
+    /**
+     * Determine whether an ExternalizedNetMeshObject is a home replica in the exporting NetMeshBase,
+     * other than its home object, and thus is to be imported.
+     *
+     * @param candidate the ExternalizedNetMeshObject
+     * @param idFact the importing NetMeshBase's NetMeshObjectIdentifierFactory
+     * @return true if it is to be imported
+     */
+    protected boolean isHomeReplicaToImport(
+            ExternalizedNetMeshObject      candidate,
+            NetMeshObjectIdentifierFactory idFact )
+    {
+        if( candidate.getProxyTowardsHomeNetworkIdentifier() != null ) {
+            return false; // the home replica lives elsewhere; we must not create a second one
+        }
+        NetMeshObjectIdentifier identifier = candidate.getIdentifier();
+        if( identifier.equals( idFact.getHomeMeshObjectIdentifierFor( identifier.getNetMeshBaseIdentifier() ))) {
+            return false; // some NetMeshBase's home object
+        }
+        return true;
+    }
+
+    /**
+     * Instantiate a batch of ExternalizedNetMeshObjects in a single Transaction. The Transaction
+     * is committed only if all of them could be processed; otherwise it is rolled back.
+     *
+     * @param mb the NetMeshBase to import into
+     * @param batch the ExternalizedNetMeshObjects, cleared as they are processed
+     * @param n the number of valid entries in the batch
+     * @return the number of instantiated MeshObjects
+     * @throws TransactionException thrown if a Transaction could not be created
+     */
+    protected int instantiate(
+            NetMeshBase                  mb,
+            ExternalizedNetMeshObject [] batch,
+            int                          n )
+        throws
+            TransactionException
+    {
+        if( n == 0 ) {
+            return 0;
+        }
+        NetMeshBaseLifecycleManager life    = mb.getMeshBaseLifecycleManager();
+        Transaction                 tx      = mb.createTransactionAsapIfNeeded();
+        boolean                     success = false;
+        int                         ret     = 0;
+
+        try {
+            for( int i=0 ; i<n ; ++i ) {
+                try {
+                    life.rippleCreate( batch[i], null, -1, -1 );
+                    ++ret;
+
+                } catch( MeshObjectIdentifierNotUniqueException ex ) {
+                    log.warn( "Skipping MeshObject that exists already: " + batch[i].getIdentifier() );
+                }
+                batch[i] = null;
+            }
+            success = true;
+
+        } finally {
+            if( tx != null ) {
+                if( success ) {
+                    tx.commitTransaction();
+                } else {
+                    tx.rollbackTransaction( null );
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The encoder.
+     */
+    protected final BulkExternalizedNetMeshObjectXmlEncoder theEncoder;
+
+    /**
+     * The number of MeshObjects instantiated in the same Transaction.
+     */
+    protected final int theTransactionSize;
+
+    /**
+     * The maximum number of parsed, but not yet instantiated MeshObjects, per part.
+     */
+    protected final int theQueueCapacity;
+
+    /**
+     * The Executor on which to parse.
+     */
+    protected final Executor theExecutor;
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( ParallelBulkImporter.class );
+
+    /**
+     * The default number of MeshObjects instantiated in the same Transaction.
+     */
+    public static final int DEFAULT_TRANSACTION_SIZE = theResourceHelper.getResourceIntegerOrDefault( "TransactionSize", 500 );
+}
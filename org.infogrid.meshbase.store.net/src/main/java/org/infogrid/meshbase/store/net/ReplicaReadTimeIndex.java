@@ -0,0 +1,428 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.store.IterableStore;
+import org.infogrid.store.StoreKeyDoesNotExistException;
+import org.infogrid.store.StoreValue;
+import org.infogrid.util.logging.Log;
+
+/**
+ * Index of the non-home replicas in a NetStoreMeshBase, ordered by the time they were
+ * last read. Home replicas are never indexed, as they are never swept.
+ *
+ * <p>The index may be kept in a Store, so it does not have to be rebuilt from all MeshObjects
+ * after a restart. Each change to the index is then written to the Store as it happens, with
+ * one StoreValue per replica whose time read is the replica's read time. Once the index has
+ * been seeded from all MeshObjects, a marker is written, so that later loads know that the
+ * Store is complete.</p>
+ */
+public class ReplicaReadTimeIndex
+{
+    private static final Log log = Log.getLogInstance( ReplicaReadTimeIndex.class ); // our own, private logger
+
+    /**
+     * Factory method.
+     *
+     * @return the created ReplicaReadTimeIndex
+     */
+    public static ReplicaReadTimeIndex create()
+    {
+        return new ReplicaReadTimeIndex();
+    }
+
+    /**
+     * Constructor, use factory method.
+     */
+    protected ReplicaReadTimeIndex()
+    {
+        // noop
+    }
+
+    /**
+     * Index this NetMeshObject as of its current read time, or remove it from the
+     * index if it is the home replica or dead.
+     *
+     * @param obj the NetMeshObject
+     */
+    public void update(
+            NetMeshObject obj )
+    {
+        NetMeshObjectIdentifier id = obj.getIdentifier();
+
+        if( obj.getIsDead() || obj.getProxyTowardsHomeReplica() == null ) {
+            remove( id );
+        } else {
+            put( id, obj.getTimeRead() );
+        }
+    }
+
+    /**
+     * Index this identifier with this read time, replacing any earlier entry.
+     *
+     * @param id the identifier of the replica
+     * @param timeRead the time the replica was last read, in System.currentTimeMillis() format
+     */
+    public void put(
+            NetMeshObjectIdentifier id,
+            long                    timeRead )
+    {
+        synchronized( theStoreLock ) {
+            boolean changed;
+            synchronized( this ) {
+                if( theChangedWhileSeeding != null ) {
+                    theChangedWhileSeeding.add( id );
+                }
+                changed = internalPut( id, timeRead );
+            }
+            if( changed ) {
+                writeToStore( id, timeRead );
+            }
+        }
+    }
+
+    /**
+     * Index this identifier with this read time, replacing any earlier entry, without
+     * recording the change for a concurrent seed.
+     *
+     * @param id the identifier of the replica
+     * @param timeRead the time the replica was last read, in System.currentTimeMillis() format
+     * @return true if the index changed
+     */
+    protected boolean internalPut(
+            NetMeshObjectIdentifier id,
+            long                    timeRead )
+    {
+        Long key = timeRead;
+        Long old = theReadTimes.put( id, key );
+        if( key.equals( old )) {
+            return false;
+        }
+        if( old != null ) {
+            removeFromBucket( id, old );
+        }
+        LinkedHashSet<NetMeshObjectIdentifier> bucket = theByReadTime.get( key );
+        if( bucket == null ) {
+            bucket = new LinkedHashSet<NetMeshObjectIdentifier>();
+            theByReadTime.put( key, bucket );
+        }
+        bucket.add( id );
+        return true;
+    }
+
+    /**
+     * Remove this identifier from the index, if it is indexed.
+     *
+     * @param id the identifier of the replica
+     */
+    public void remove(
+            NetMeshObjectIdentifier id )
+    {
+        synchronized( theStoreLock ) {
+            Long old;
+            synchronized( this ) {
+                if( theChangedWhileSeeding != null ) {
+                    theChangedWhileSeeding.add( id );
+                }
+                old = theReadTimes.remove( id );
+                if( old != null ) {
+                    removeFromBucket( id, old );
+                }
+            }
+            if( old != null ) {
+                deleteFromStore( id );
+            }
+        }
+    }
+
+    /**
+     * Start recording which identifiers are updated or removed, so that a seed built
+     * concurrently, without holding this index's lock, can be merged later without
+     * overwriting newer information.
+     *
+     * @see #mergeSeed(ReplicaReadTimeIndex)
+     */
+    public synchronized void startSeeding()
+    {
+        theChangedWhileSeeding = new HashSet<NetMeshObjectIdentifier>();
+    }
+
+    /**
+     * Merge a seed built since startSeeding() was invoked. Entries of the seed are skipped
+     * for all identifiers updated or removed in this index since then, because this index
+     * has newer information about them.
+     *
+     * @param seed the seed, which must not be modified any more
+     */
+    public synchronized void mergeSeed(
+            ReplicaReadTimeIndex seed )
+    {
+        HashSet<NetMeshObjectIdentifier> changed = theChangedWhileSeeding;
+        theChangedWhileSeeding = null;
+
+        for( Map.Entry<NetMeshObjectIdentifier,Long> current : seed.theReadTimes.entrySet() ) {
+            NetMeshObjectIdentifier id = current.getKey();
+
+            if( changed != null && changed.contains( id )) {
+                continue;
+            }
+            if( !theReadTimes.containsKey( id )) {
+                internalPut( id, current.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Keep this index in a Store from now on. The entries already in the index are written to
+     * the Store, and the entries found in the Store are added to the index, unless the index
+     * knows about the replica already, as its information is newer.
+     *
+     * @param store the Store
+     * @param idFact parses the identifiers of the replicas found in the Store
+     * @return true if the Store was complete, i.e. it had been written by an index seeded from all MeshObjects
+     */
+    public boolean keepIn(
+            IterableStore                  store,
+            NetMeshObjectIdentifierFactory idFact )
+    {
+        synchronized( theStoreLock ) {
+            theStore = store;
+
+            boolean complete = false;
+            try {
+                store.get( COMPLETE_KEY );
+                complete = true;
+
+            } catch( StoreKeyDoesNotExistException ex ) {
+                // not seeded yet
+
+            } catch( IOException ex ) {
+                log.error( ex );
+            }
+
+            HashMap<NetMeshObjectIdentifier,Long> found = new HashMap<NetMeshObjectIdentifier,Long>();
+
+            Iterator<StoreValue> iter = store.iterator();
+            while( iter.hasNext() ) {
+                StoreValue current = iter.next();
+                if( !ENCODING_ID.equals( current.getEncodingId() )) {
+                    continue; // the marker
+                }
+                try {
+                    found.put( idFact.fromExternalForm( current.getKey() ), current.getTimeRead() );
+
+                } catch( ParseException ex ) {
+                    log.warn( "Cannot parse replica identifier in read time index: " + current.getKey(), ex );
+                }
+            }
+
+            HashMap<NetMeshObjectIdentifier,Long> toWrite;
+            synchronized( this ) {
+                toWrite = new HashMap<NetMeshObjectIdentifier,Long>( theReadTimes );
+
+                for( Map.Entry<NetMeshObjectIdentifier,Long> current : found.entrySet() ) {
+                    if( !theReadTimes.containsKey( current.getKey() )) {
+                        internalPut( current.getKey(), current.getValue() );
+                    }
+                }
+            }
+            for( Map.Entry<NetMeshObjectIdentifier,Long> current : toWrite.entrySet() ) {
+                if( !current.getValue().equals( found.get( current.getKey() ))) {
+                    writeToStore( current.getKey(), current.getValue() );
+                }
+            }
+
+            if( log.isDebugEnabled() ) {
+                log.debug( this + ": loaded " + found.size() + " replicas from Store, complete: " + complete );
+            }
+            return complete;
+        }
+    }
+
+    /**
+     * Record in the Store, if any, that this index has been seeded from all MeshObjects, writing
+     * all of its entries first. Subsequent invocations of keepIn with the same Store will then
+     * find the Store complete.
+     */
+    public void markComplete()
+    {
+        synchronized( theStoreLock ) {
+            if( theStore == null ) {
+                return;
+            }
+            HashMap<NetMeshObjectIdentifier,Long> toWrite;
+            synchronized( this ) {
+                toWrite = new HashMap<NetMeshObjectIdentifier,Long>( theReadTimes );
+            }
+            for( Map.Entry<NetMeshObjectIdentifier,Long> current : toWrite.entrySet() ) {
+                writeToStore( current.getKey(), current.getValue() );
+            }
+            try {
+                long now = System.currentTimeMillis();
+                theStore.putOrUpdate( COMPLETE_KEY, COMPLETE_ENCODING_ID, now, now, now, -1L, NO_DATA );
+
+            } catch( IOException ex ) {
+                log.error( ex );
+            }
+        }
+    }
+
+    /**
+     * Write the entry for an identifier to the Store, if any. To be invoked while holding theStoreLock.
+     *
+     * @param id the identifier of the replica
+     * @param timeRead the time the replica was last read, in System.currentTimeMillis() format
+     */
+    protected void writeToStore(
+            NetMeshObjectIdentifier id,
+            long                    timeRead )
+    {
+        if( theStore == null ) {
+            return;
+        }
+        try {
+            theStore.putOrUpdate( id.toExternalForm(), ENCODING_ID, timeRead, timeRead, timeRead, -1L, NO_DATA );
+
+        } catch( IOException ex ) {
+            log.error( ex );
+        }
+    }
+
+    /**
+     * Delete the entry for an identifier from the Store, if any. To be invoked while holding theStoreLock.
+     *
+     * @param id the identifier of the replica
+     */
+    protected void deleteFromStore(
+            NetMeshObjectIdentifier id )
+    {
+        if( theStore == null ) {
+            return;
+        }
+        try {
+            theStore.delete( id.toExternalForm() );
+
+        } catch( StoreKeyDoesNotExistException ex ) {
+            // indexed before the Store was set; fine
+
+        } catch( IOException ex ) {
+            log.error( ex );
+        }
+    }
+
+    /**
+     * Find the identifiers of the replicas indexed with a read time before the cutoff.
+     *
+     * @param cutoff the cutoff time, in System.currentTimeMillis() format
+     * @return the identifiers, oldest first
+     */
+    public synchronized NetMeshObjectIdentifier [] findReadBefore(
+            long cutoff )
+    {
+        ArrayList<NetMeshObjectIdentifier> ret = new ArrayList<NetMeshObjectIdentifier>();
+
+        for( Map.Entry<Long,LinkedHashSet<NetMeshObjectIdentifier>> current : theByReadTime.headMap( cutoff ).entrySet() ) {
+            ret.addAll( current.getValue() );
+        }
+        return ret.toArray( new NetMeshObjectIdentifier[ ret.size() ] );
+    }
+
+    /**
+     * Determine the number of indexed replicas.
+     *
+     * @return the number of indexed replicas
+     */
+    public synchronized int size()
+    {
+        return theReadTimes.size();
+    }
+
+    /**
+     * Remove an identifier from the bucket for a read time.
+     *
+     * @param id the identifier
+     * @param timeRead the read time
+     */
+    protected void removeFromBucket(
+            NetMeshObjectIdentifier id,
+            Long                    timeRead )
+    {
+        LinkedHashSet<NetMeshObjectIdentifier> bucket = theByReadTime.get( timeRead );
+        if( bucket != null ) {
+            bucket.remove( id );
+            if( bucket.isEmpty() ) {
+                theByReadTime.remove( timeRead );
+            }
+        }
+    }
+
+    /**
+     * The read time of each indexed replica, keyed by identifier.
+     */
+    protected final HashMap<NetMeshObjectIdentifier,Long> theReadTimes = new HashMap<NetMeshObjectIdentifier,Long>();
+
+    /**
+     * The identifiers of the indexed replicas, grouped by read time, in ascending order.
+     */
+    protected final TreeMap<Long,LinkedHashSet<NetMeshObjectIdentifier>> theByReadTime = new TreeMap<Long,LinkedHashSet<NetMeshObjectIdentifier>>();
+
+    /**
+     * The identifiers updated or removed since startSeeding(), or null if no seed is being built.
+     */
+    protected HashSet<NetMeshObjectIdentifier> theChangedWhileSeeding;
+
+    /**
+     * The Store in which this index is kept, or null.
+     */
+    protected IterableStore theStore;
+
+    /**
+     * Serializes writes to theStore, so they reach the Store in the same sequence as the changes
+     * to this index. This is not the index's own lock, so finding candidates does not wait for the Store.
+     */
+    protected final Object theStoreLock = new Object();
+
+    /**
+     * The encoding id of the StoreValues that hold the entries of the index.
+     */
+    public static final String ENCODING_ID = ReplicaReadTimeIndex.class.getName();
+
+    /**
+     * The key of the StoreValue that marks the Store as complete.
+     */
+    public static final String COMPLETE_KEY = ReplicaReadTimeIndex.class.getName() + ".complete";
+
+    /**
+     * The encoding id of the StoreValue that marks the Store as complete.
+     */
+    public static final String COMPLETE_ENCODING_ID = ReplicaReadTimeIndex.class.getName() + ".complete";
+
+    /**
+     * The entries of the index have no data; the read time is the StoreValue's time read.
+     */
+    protected static final byte [] NO_DATA = new byte[0];
+}
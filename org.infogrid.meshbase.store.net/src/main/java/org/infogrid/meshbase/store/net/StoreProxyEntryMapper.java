@@ -225,6 +225,31 @@ public class StoreProxyEntryMapper
         }
     }
 
+    /**
+     * Indicates that the StoreValue of this Proxy, as returned by asBytes, has been written
+     * to the Store. This does nothing, but subclasses that keep data about a Proxy outside of
+     * its StoreValue override it.
+     *
+     * @param value the Proxy
+     */
+    public void proxyWritten(
+            Proxy value )
+    {
+        // nothing
+    }
+
+    /**
+     * Indicates that the Proxy with this key has been removed permanently. This does nothing,
+     * but subclasses that keep data about a Proxy outside of its StoreValue override it.
+     *
+     * @param key the key of the Proxy
+     */
+    public void proxyRemoved(
+            NetMeshBaseIdentifier key )
+    {
+        // nothing
+    }
+
 
     /**
      * Obtain the preferred encodingid of this StoreMapper.
@@ -255,7 +280,8 @@ public class StoreProxyEntryMapper
 
     /**
      * The set of encoders / decoders currently known. This MUST be use
-     * the same indices as in the superclass.
+     * the same indices as in the superclass. Concurrent decodes do not block
+     * each other on these shared instances, see ExternalizedNetMeshObjectXmlEncoder.obtainThreadWorker.
      */
     protected static final ExternalizedProxyEncoder [] theEncoders = {
             new ExternalizedProxyXmlEncoder()
@@ -18,13 +18,16 @@ import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
 import org.infogrid.meshbase.net.proxy.Proxy;
 import org.infogrid.meshbase.net.proxy.ProxyFactory;
 import org.infogrid.meshbase.net.proxy.ProxyManager;
+import org.infogrid.meshbase.net.proxy.ProxyParameters;
 import org.infogrid.store.util.StoreBackedSwappingHashMap;
 import org.infogrid.util.AbstractSwappingHashMapListener;
+import org.infogrid.util.FactoryCreatedObject;
 import org.infogrid.util.SwappingHashMap;
 
 /**
  * Adds a listener to the ProxyManager that "patches" the Proxies recreated from
- * Storage by telling them about the StoreProxyManager.
+ * Storage by telling them about the StoreProxyManager. Tells the StoreProxyEntryMapper,
+ * if any, when Proxies have been written or removed.
  */
 public class StoreProxyManager
     extends
@@ -41,7 +44,23 @@ public class StoreProxyManager
             ProxyFactory                                proxyFactory,
             StoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> storage )
     {
-        return new StoreProxyManager( proxyFactory, storage );
+        return new StoreProxyManager( proxyFactory, storage, null );
+    }
+
+    /**
+     * Factory method.
+     * 
+     * @param proxyFactory the underlying factory of Proxies
+     * @param storage the storage for the Proxies managed by this ProxyManager
+     * @param mapper the StoreProxyEntryMapper used by the storage, to be notified of permanently removed Proxies
+     * @return the created StoreProxyManager
+     */
+    public static StoreProxyManager create(
+            ProxyFactory                                proxyFactory,
+            StoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> storage,
+            StoreProxyEntryMapper                       mapper )
+    {
+        return new StoreProxyManager( proxyFactory, storage, mapper );
     }
 
     /**
@@ -49,17 +68,63 @@ public class StoreProxyManager
      *
      * @param proxyFactory the underlying factory of Proxies
      * @param storage the storage for the Proxies managed by this ProxyManager
+     * @param mapper the StoreProxyEntryMapper used by the storage, if any
      */
     protected StoreProxyManager(
             ProxyFactory                                proxyFactory,
-            StoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> storage )
+            StoreBackedSwappingHashMap<NetMeshBaseIdentifier,Proxy> storage,
+            StoreProxyEntryMapper                       mapper )
     {
         super( proxyFactory, storage );
 
+        theMapper = mapper;
+
         theMapListener = new MyMapListener();
         storage.addWeakSwappingHashMapListener( theMapListener ); // this must be weak 
     }
-    
+
+    /**
+     * Method invoked by a Proxy created by this ProxyManager that the Proxy has been updated.
+     * Once the Proxy has been written to storage, the StoreProxyEntryMapper may clean up
+     * whatever the written StoreValue does not refer to any more.
+     *
+     * @param updatedProxy the Proxy that was updated
+     */
+    @Override
+    public void factoryCreatedObjectUpdated(
+            FactoryCreatedObject<NetMeshBaseIdentifier,Proxy,ProxyParameters> updatedProxy )
+    {
+        super.factoryCreatedObjectUpdated( updatedProxy );
+
+        if( theMapper != null ) {
+            theMapper.proxyWritten( (Proxy) updatedProxy );
+        }
+    }
+
+    /**
+     * Remove a Proxy permanently, and let the StoreProxyEntryMapper clean up
+     * whatever it keeps about it outside of the Proxy's StoreValue.
+     *
+     * @param key the key of the Proxy
+     * @return the removed Proxy, if any
+     */
+    @Override
+    public Proxy remove(
+            NetMeshBaseIdentifier key )
+    {
+        Proxy ret = super.remove( key );
+
+        if( theMapper != null ) {
+            theMapper.proxyRemoved( key );
+        }
+        return ret;
+    }
+
+    /**
+     * The StoreProxyEntryMapper used by the storage, if any.
+     */
+    protected final StoreProxyEntryMapper theMapper;
+
     /**
      * Keep a reference to the listener to avoid it being garbage-collected.
      */
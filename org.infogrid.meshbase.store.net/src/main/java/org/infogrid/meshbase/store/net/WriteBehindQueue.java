@@ -0,0 +1,457 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.infogrid.mesh.MeshObject;
+import org.infogrid.mesh.MeshObjectIdentifier;
+import org.infogrid.meshbase.store.StoreMeshBaseSwappingHashMap;
+import org.infogrid.store.Store;
+import org.infogrid.store.StoreEntryMapper;
+import org.infogrid.store.StoreValueEncodingException;
+import org.infogrid.util.ResourceHelper;
+import org.infogrid.util.logging.Log;
+
+/**
+ * Collects the MeshObjects that a NetStoreMeshBase needs to write to storage, and writes
+ * them in batches on a background Thread. MeshObjects are encoded when they are enqueued,
+ * i.e. while the committing Transaction's state is current; the background Thread only
+ * writes those bytes, so it never sees changes of a later Transaction that has not been
+ * committed yet, or that is rolled back. Multiple changes to the same MeshObject between
+ * two flushes are written only once. A flush happens every flush interval, or sooner if
+ * the maximum number of pending MeshObjects has been reached. A MeshObject that cannot be
+ * written is kept, and written again with the next flush, unless it has been changed or
+ * removed in the meantime. MeshObjects changed since the last successful flush are lost if
+ * the process ends without the queue being flushed.
+ */
+public class WriteBehindQueue
+{
+    private static final Log log = Log.getLogInstance( WriteBehindQueue.class ); // our own, private logger
+
+    /**
+     * Factory method, using default parameters.
+     *
+     * @param map the map through which MeshObjects are removed from storage
+     * @param mapper the mapper that encodes the MeshObjects
+     * @param store the Store to which the encoded MeshObjects are written
+     * @param name name of the background Thread
+     * @return the created WriteBehindQueue
+     */
+    public static WriteBehindQueue create(
+            StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject> map,
+            StoreEntryMapper<MeshObjectIdentifier,MeshObject>             mapper,
+            Store                                                         store,
+            String                                                        name )
+    {
+        return create( map, mapper, store, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_PENDING, name );
+    }
+
+    /**
+     * Factory method.
+     *
+     * @param map the map through which MeshObjects are removed from storage
+     * @param mapper the mapper that encodes the MeshObjects
+     * @param store the Store to which the encoded MeshObjects are written
+     * @param flushInterval the maximum time a change remains unwritten, in milliseconds
+     * @param maxPending the number of pending MeshObjects that triggers a flush before the flush interval is up
+     * @param name name of the background Thread
+     * @return the created WriteBehindQueue
+     */
+    public static WriteBehindQueue create(
+            StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject> map,
+            StoreEntryMapper<MeshObjectIdentifier,MeshObject>             mapper,
+            Store                                                         store,
+            long                                                          flushInterval,
+            int                                                           maxPending,
+            final String                                                  name )
+    {
+        ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(
+                            Runnable r )
+                    {
+                        Thread ret = new Thread( r, name );
+                        ret.setDaemon( true );
+                        return ret;
+                    }
+                } );
+
+        WriteBehindQueue ret = new WriteBehindQueue( map, mapper, store, flushInterval, maxPending, exec );
+        ret.start();
+        return ret;
+    }
+
+    /**
+     * Constructor, use factory method.
+     *
+     * @param map the map through which MeshObjects are removed from storage
+     * @param mapper the mapper that encodes the MeshObjects
+     * @param store the Store to which the encoded MeshObjects are written
+     * @param flushInterval the maximum time a change remains unwritten, in milliseconds
+     * @param maxPending the number of pending MeshObjects that triggers a flush before the flush interval is up
+     * @param exec the ScheduledExecutorService on which the flushes are run
+     */
+    protected WriteBehindQueue(
+            StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject> map,
+            StoreEntryMapper<MeshObjectIdentifier,MeshObject>             mapper,
+            Store                                                         store,
+            long                                                          flushInterval,
+            int                                                           maxPending,
+            ScheduledExecutorService                                      exec )
+    {
+        theMap           = map;
+        theMapper        = mapper;
+        theStore         = store;
+        theFlushInterval = flushInterval;
+        theMaxPending    = maxPending;
+        theExec          = exec;
+    }
+
+    /**
+     * Start the periodic flushes.
+     */
+    protected void start()
+    {
+        thePeriodicFlush = theExec.scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                },
+                theFlushInterval,
+                theFlushInterval,
+                TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Enqueue a MeshObject to be written to storage. This replaces any pending
+     * write of the same MeshObject. The MeshObject is encoded right away, so this
+     * must be invoked while the MeshObject holds the state to be written, i.e.
+     * when its Transaction commits.
+     *
+     * @param key the identifier of the MeshObject
+     * @param value the MeshObject
+     * @throws StoreValueEncodingException thrown if the MeshObject could not be encoded
+     */
+    public void enqueueSave(
+            MeshObjectIdentifier key,
+            MeshObject           value )
+        throws
+            StoreValueEncodingException
+    {
+        PendingWrite write = new PendingWrite(
+                theMapper.keyToString( key ),
+                theMapper.getPreferredEncodingId(),
+                theMapper.getTimeCreated( value ),
+                theMapper.getTimeUpdated( value ),
+                theMapper.getTimeRead( value ),
+                theMapper.getTimeExpires( value ),
+                theMapper.asBytes( value ),
+                value );
+
+        boolean triggerFlush = false;
+        synchronized( thePending ) {
+            thePending.put( key, write );
+
+            if( thePending.size() >= theMaxPending && !theFlushRequested ) {
+                theFlushRequested = true;
+                triggerFlush      = true;
+            }
+        }
+        if( triggerFlush ) {
+            try {
+                theExec.execute( new Runnable() {
+                        public void run() {
+                            flush();
+                        }
+                });
+
+            } catch( RejectedExecutionException ex ) {
+                // we are dying, and die() flushes
+                if( log.isDebugEnabled() ) {
+                    log.debug( this + ": flush rejected, dying" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a MeshObject from storage right away, dropping any pending write of it.
+     * This is not deferred, so a MeshObject deleted from the cache cannot be
+     * found again in storage.
+     *
+     * @param key the identifier of the MeshObject
+     */
+    public void removeNow(
+            MeshObjectIdentifier key )
+    {
+        synchronized( theFlushLock ) {
+            // within the flush lock, so a write that failed during a concurrent flush is not requeued afterwards
+            synchronized( thePending ) {
+                thePending.remove( key );
+            }
+            theMap.removeValueFromStorageUponCommit( key );
+            theMap.transactionDone();
+        }
+    }
+
+    /**
+     * Write all pending MeshObjects to storage now. MeshObjects that cannot be written
+     * remain pending, ahead of the MeshObjects enqueued since, unless they have been
+     * enqueued again in the meantime.
+     *
+     * @return the number of MeshObjects written
+     */
+    public int flush()
+    {
+        synchronized( theFlushLock ) {
+            LinkedHashMap<MeshObjectIdentifier,PendingWrite> toWrite;
+            synchronized( thePending ) {
+                theFlushRequested = false;
+                if( thePending.isEmpty() ) {
+                    return 0;
+                }
+                toWrite    = thePending;
+                thePending = new LinkedHashMap<MeshObjectIdentifier,PendingWrite>();
+            }
+
+            int                                              ret    = 0;
+            LinkedHashMap<MeshObjectIdentifier,PendingWrite> failed = null;
+
+            for( Map.Entry<MeshObjectIdentifier,PendingWrite> entry : toWrite.entrySet() ) {
+                PendingWrite current = entry.getValue();
+                try {
+                    theStore.putOrUpdate(
+                            current.theKey,
+                            current.theEncodingId,
+                            current.theTimeCreated,
+                            current.theTimeUpdated,
+                            current.theTimeRead,
+                            current.theTimeExpires,
+                            current.theData );
+                    ++ret;
+
+                } catch( IOException ex ) {
+                    log.error( this + ": cannot write " + current.theKey + ", will retry", ex );
+                    if( failed == null ) {
+                        failed = new LinkedHashMap<MeshObjectIdentifier,PendingWrite>();
+                    }
+                    failed.put( entry.getKey(), current );
+                }
+            }
+
+            if( failed != null ) {
+                synchronized( thePending ) {
+                    // a newer encoding of the same MeshObject replaces the failed one
+                    for( MeshObjectIdentifier key : thePending.keySet() ) {
+                        failed.remove( key );
+                    }
+                    failed.putAll( thePending );
+                    thePending = failed;
+                }
+            }
+
+            if( log.isDebugEnabled() ) {
+                log.debug( this + ": flushed " + ret + " MeshObjects" );
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Determine the number of MeshObjects waiting to be written.
+     *
+     * @return the number of MeshObjects
+     */
+    public int getPendingCount()
+    {
+        synchronized( thePending ) {
+            return thePending.size();
+        }
+    }
+
+    /**
+     * Stop the background Thread, and write all pending MeshObjects to storage. MeshObjects
+     * that cannot be written even then are reported, and lost.
+     */
+    public void die()
+    {
+        if( thePeriodicFlush != null ) {
+            thePeriodicFlush.cancel( false );
+            thePeriodicFlush = null;
+        }
+        theExec.shutdown();
+
+        flush();
+
+        int lost = getPendingCount();
+        if( lost > 0 ) {
+            log.error( this + ": could not write " + lost + " MeshObjects to storage before dying, they are lost" );
+        }
+    }
+
+    /**
+     * The map through which MeshObjects are removed from storage.
+     */
+    protected final StoreMeshBaseSwappingHashMap<MeshObjectIdentifier,MeshObject> theMap;
+
+    /**
+     * The mapper that encodes the MeshObjects.
+     */
+    protected final StoreEntryMapper<MeshObjectIdentifier,MeshObject> theMapper;
+
+    /**
+     * The Store to which the encoded MeshObjects are written.
+     */
+    protected final Store theStore;
+
+    /**
+     * The maximum time a change remains unwritten, in milliseconds.
+     */
+    protected final long theFlushInterval;
+
+    /**
+     * The number of pending MeshObjects that triggers a flush before the flush interval is up.
+     */
+    protected final int theMaxPending;
+
+    /**
+     * The ScheduledExecutorService on which the flushes are run.
+     */
+    protected final ScheduledExecutorService theExec;
+
+    /**
+     * The periodic flush task.
+     */
+    protected ScheduledFuture<?> thePeriodicFlush;
+
+    /**
+     * The encoded MeshObjects waiting to be written, keyed by identifier, in the order of their first change.
+     */
+    protected LinkedHashMap<MeshObjectIdentifier,PendingWrite> thePending = new LinkedHashMap<MeshObjectIdentifier,PendingWrite>();
+
+    /**
+     * True if a flush has been requested because the maximum number of pending MeshObjects was reached.
+     */
+    protected boolean theFlushRequested = false;
+
+    /**
+     * Serializes writes to the map.
+     */
+    protected final Object theFlushLock = new Object();
+
+    /**
+     * Our ResourceHelper.
+     */
+    private static final ResourceHelper theResourceHelper = ResourceHelper.getInstance( WriteBehindQueue.class );
+
+    /**
+     * The default maximum time a change remains unwritten, in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = theResourceHelper.getResourceLongOrDefault( "DefaultFlushInterval", 1000L ); // 1 sec
+
+    /**
+     * The default number of pending MeshObjects that triggers a flush before the flush interval is up.
+     */
+    public static final int DEFAULT_MAX_PENDING = theResourceHelper.getResourceIntegerOrDefault( "DefaultMaxPending", 1000 );
+
+    /**
+     * A MeshObject, encoded as of the time it was enqueued.
+     */
+    protected static class PendingWrite
+    {
+        /**
+         * Constructor.
+         *
+         * @param key the key in the Store
+         * @param encodingId the id of the encoding
+         * @param timeCreated the time the MeshObject was created
+         * @param timeUpdated the time the MeshObject was last updated
+         * @param timeRead the time the MeshObject was last read
+         * @param timeExpires the time the MeshObject expires
+         * @param data the encoded MeshObject
+         * @param value the MeshObject
+         */
+        protected PendingWrite(
+                String     key,
+                String     encodingId,
+                long       timeCreated,
+                long       timeUpdated,
+                long       timeRead,
+                long       timeExpires,
+                byte []    data,
+                MeshObject value )
+        {
+            theKey         = key;
+            theEncodingId  = encodingId;
+            theTimeCreated = timeCreated;
+            theTimeUpdated = timeUpdated;
+            theTimeRead    = timeRead;
+            theTimeExpires = timeExpires;
+            theData        = data;
+            theValue       = value;
+        }
+
+        /**
+         * The key in the Store.
+         */
+        protected final String theKey;
+
+        /**
+         * The id of the encoding.
+         */
+        protected final String theEncodingId;
+
+        /**
+         * The time the MeshObject was created.
+         */
+        protected final long theTimeCreated;
+
+        /**
+         * The time the MeshObject was last updated.
+         */
+        protected final long theTimeUpdated;
+
+        /**
+         * The time the MeshObject was last read.
+         */
+        protected final long theTimeRead;
+
+        /**
+         * The time the MeshObject expires.
+         */
+        protected final long theTimeExpires;
+
+        /**
+         * The encoded MeshObject.
+         */
+        protected final byte [] theData;
+
+        /**
+         * The MeshObject itself. It is never written from here, but holding on to it keeps
+         * the cache from swapping it out and reloading the older state from storage before
+         * the pending write has happened.
+         */
+        protected final MeshObject theValue;
+    }
+}
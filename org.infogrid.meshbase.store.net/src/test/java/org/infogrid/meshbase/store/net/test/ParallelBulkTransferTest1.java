@@ -0,0 +1,284 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.externalized.ExternalizedNetMeshObject;
+import org.infogrid.mesh.net.externalized.xml.BulkExternalizedNetMeshObjectXmlEncoder;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.store.net.IterableNetStoreMeshBase;
+import org.infogrid.meshbase.store.net.NetStoreMeshBaseEntryMapper;
+import org.infogrid.meshbase.store.net.ParallelBulkExporter;
+import org.infogrid.meshbase.store.net.ParallelBulkImporter;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.store.StoreValue;
+import org.infogrid.store.m.MStore;
+import org.infogrid.store.prefixing.IterablePrefixingStore;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the parallel export with decoding and encoding the same StoreValues sequentially, on a
+ * larger IterableNetStoreMeshBase kept in the SQL Store, and makes sure that the parts can be
+ * imported again. Also reports the timings.
+ */
+public class ParallelBulkTransferTest1
+        extends
+            AbstractStoreNetMeshBaseTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception thrown if an Exception occurred during the test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Creating " + OBJECTS + " MeshObjects" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction   tx       = mb1.createTransactionAsap();
+        NetMeshObject previous = null;
+        for( int i=0 ; i<OBJECTS ; ++i ) {
+            NetMeshObject current = life1.createMeshObject( fact1.fromExternalForm( "obj" + i ), TestSubjectArea.AA );
+            current.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "value-" + i ));
+            if( previous != null ) {
+                previous.relate( current );
+            }
+            previous = current;
+        }
+        tx.commitTransaction();
+
+        checkEquals( mb1.size(), OBJECTS + 1, "Wrong number of MeshObjects" ); // plus home object
+
+        log.info( "Replicating a MeshObject from mb3 into mb1" );
+
+        Transaction tx3 = mb3.createTransactionAsap();
+        NetMeshObject remote_mb3 = mb3.getMeshBaseLifecycleManager().createMeshObject( mb3.getMeshObjectIdentifierFactory().fromExternalForm( "remote" ), TestSubjectArea.AA );
+        tx3.commitTransaction();
+
+        NetMeshObject remote_mb1 = mb1.accessLocally( mb3.getIdentifier(), remote_mb3.getIdentifier() );
+
+        checkObject( remote_mb1, "accessLocally() did not work" );
+        checkEquals( mb1.size(), OBJECTS + 2, "Wrong number of MeshObjects" ); // plus home object, plus replica
+
+        //
+
+        log.info( "Exporting sequentially" );
+
+        BulkExternalizedNetMeshObjectXmlEncoder encoder = new BulkExternalizedNetMeshObjectXmlEncoder();
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        long                  start      = System.currentTimeMillis();
+
+        encoder.bulkWriteStart( sequential );
+        Iterator<StoreValue> storeIter = mb1MeshStore.iterator();
+        while( storeIter.hasNext() ) {
+            ExternalizedNetMeshObject current = NetStoreMeshBaseEntryMapper.decodeExternalized( storeIter.next(), mb1 );
+            encoder.encodeExternalizedMeshObject( current, sequential );
+        }
+        encoder.bulkWriteEnd( sequential );
+
+        long sequentialDuration = System.currentTimeMillis() - start;
+
+        //
+
+        log.info( "Exporting in parallel" );
+
+        ParallelBulkExporter exporter = ParallelBulkExporter.create( encoder, CHUNK_SIZE, 2 * THREADS, exec );
+
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        start = System.currentTimeMillis();
+
+        int exported = exporter.exportTo( mb1, parallel );
+
+        long parallelDuration = System.currentTimeMillis() - start;
+
+        log.info( "Export of " + exported + " MeshObjects, sequential: " + sequentialDuration + " msec, parallel with " + THREADS + " threads: " + parallelDuration + " msec" );
+
+        checkEquals( exported, OBJECTS + 2, "Wrong number of exported MeshObjects" );
+        checkCondition( Arrays.equals( sequential.toByteArray(), parallel.toByteArray() ), "Parallel export differs from sequential export" );
+
+        //
+
+        log.info( "Exporting into parts, and importing into mb2" );
+
+        File [] partFiles = new File[ PARTS ];
+        for( int i=0 ; i<PARTS ; ++i ) {
+            partFiles[i] = File.createTempFile( getClass().getSimpleName() + "-part" + i + "-", ".xml" );
+            partFiles[i].deleteOnExit();
+        }
+
+        checkEquals( exporter.exportTo( mb1, partFiles ), OBJECTS + 2, "Wrong number of exported MeshObjects" );
+
+        start = System.currentTimeMillis();
+
+        int imported = ParallelBulkImporter.create( exec ).importFrom( mb2, partFiles );
+
+        log.info( "Import of " + imported + " MeshObjects from " + PARTS + " parts: " + ( System.currentTimeMillis() - start ) + " msec" );
+
+        checkEquals( imported, OBJECTS, "Wrong number of imported MeshObjects" ); // neither mb1's home object nor the replica from mb3
+        checkEquals( mb2.size(), OBJECTS + 1, "Wrong number of MeshObjects in mb2" ); // plus mb2's own home object
+        checkNotObject( mb2.findMeshObjectByIdentifier( remote_mb3.getIdentifier() ), "Replica from mb3 became a home replica in mb2" );
+        checkNotObject( mb2.findMeshObjectByIdentifier( mb1.getHomeObject().getIdentifier() ), "mb1's home object was imported" );
+
+        for( int i=0 ; i<OBJECTS ; i += OBJECTS / 10 ) {
+            NetMeshObject one = mb1.findMeshObjectByIdentifier( fact1.fromExternalForm( "obj" + i ));
+            NetMeshObject two = mb2.findMeshObjectByIdentifier( one.getIdentifier() ); // identifiers keep referring to mb1
+
+            checkObject( two, "Not imported: obj" + i );
+            checkTypesReplication(      one, two, "obj" + i );
+            checkPropertiesReplication( one, two, "obj" + i );
+            checkNeighborsReplication(  one, two, "obj" + i );
+        }
+
+        for( File current : partFiles ) {
+            current.delete();
+        }
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception anything can go wrong in a test
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "http://one.local/" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "http://two.local/" );
+        net3 = theMeshBaseIdentifierFactory.fromExternalForm( "http://three.local/" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        log.info( "Deleting old database and creating new database" );
+
+        theSqlStore.initializeHard();
+
+        mb1MeshStore = IterablePrefixingStore.create( "mb1-mesh-", theSqlStore );
+        mb2MeshStore = IterablePrefixingStore.create( "mb2-mesh-", theSqlStore );
+
+        mb1 = IterableNetStoreMeshBase.create( net1, theModelBase, null, endpointFactory, mb1MeshStore, IterablePrefixingStore.create( "mb1-proxy-", theSqlStore ), rootContext );
+        mb2 = IterableNetStoreMeshBase.create( net2, theModelBase, null, endpointFactory, mb2MeshStore, IterablePrefixingStore.create( "mb2-proxy-", theSqlStore ), rootContext );
+        mb3 = IterableNetStoreMeshBase.create( net3, theModelBase, null, endpointFactory, MStore.create(), MStore.create(), rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+        theNameServer.put( mb3.getIdentifier(), mb3 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+        mb3.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The third NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net3;
+
+    /**
+     * The NetMeshBase to export.
+     */
+    protected IterableNetStoreMeshBase mb1;
+
+    /**
+     * The NetMeshBase to import into.
+     */
+    protected IterableNetStoreMeshBase mb2;
+
+    /**
+     * The NetMeshBase from which mb1 obtains a replica.
+     */
+    protected IterableNetStoreMeshBase mb3;
+
+    /**
+     * The Store storing mb1's MeshObjects.
+     */
+    protected IterablePrefixingStore mb1MeshStore;
+
+    /**
+     * The Store storing mb2's MeshObjects.
+     */
+    protected IterablePrefixingStore mb2MeshStore;
+
+    /**
+     * The number of worker Threads.
+     */
+    protected static final int THREADS = 4;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( THREADS );
+
+    /**
+     * The number of MeshObjects to create.
+     */
+    protected static final int OBJECTS = 20000;
+
+    /**
+     * The number of MeshObjects per chunk.
+     */
+    protected static final int CHUNK_SIZE = 250;
+
+    /**
+     * The number of parts to export into.
+     */
+    protected static final int PARTS = 3;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( ParallelBulkTransferTest1.class );
+}
@@ -0,0 +1,299 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net.test;
+
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.meshbase.net.DefaultNetMeshObjectAccessSpecificationFactory;
+import org.infogrid.meshbase.net.NetMeshBase;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.proxy.DefaultProxyFactory;
+import org.infogrid.meshbase.net.proxy.NiceAndTrustingProxyPolicyFactory;
+import org.infogrid.meshbase.net.proxy.Proxy;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.store.net.LoggingStoreProxyEntryMapper;
+import org.infogrid.meshbase.store.net.NetStoreMeshBase;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.store.StoreValue;
+import org.infogrid.store.m.MStore;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Makes sure that the XprisoMessages queued in a Proxy are written to the message log Store,
+ * that the Proxy's own StoreValue does not grow with the backlog, that the backlog is restored
+ * from the message log, and that the message log shrinks once the backlog has been acknowledged,
+ * or the Proxy has been killed.
+ */
+public class StoreNetMeshBaseTest7
+        extends
+            AbstractStoreNetMeshBaseTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception thrown if an Exception occurred during the test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Setting up and replicating" );
+
+        Transaction tx = mb1.createTransactionAsap();
+
+        NetMeshBaseLifecycleManager life1 = mb1.getMeshBaseLifecycleManager();
+
+        NetMeshObject obj1_mb1 = life1.createMeshObject( mb1.getMeshObjectIdentifierFactory().fromExternalForm( "obj1" ), TestSubjectArea.AA );
+
+        tx.commitTransaction();
+
+        NetMeshObject obj1_mb2 = mb2.accessLocally(
+                mb1.getIdentifier(),
+                obj1_mb1.getIdentifier() );
+
+        checkProxies( obj1_mb1, new NetMeshBase[] { mb2 }, null, null, "obj1_mb1 has wrong proxies" );
+        checkProxies( obj1_mb2, new NetMeshBase[] { mb1 }, mb1,  mb1,  "obj1_mb2 has wrong proxies" );
+
+        Thread.sleep( 1000L ); // let the ping-pong settle
+
+        //
+
+        log.info( "Cutting off mb2, and building up a backlog in mb1" );
+
+        Proxy mb1_p1 = mb1.getProxyFor( mb2.getIdentifier());
+        mb1_p1.getMessageEndpoint().stopCommunicating();
+
+        Thread.sleep( 1000L ); // finish whatever is still in progress
+
+        StoreValue before = mb1ProxyStore.get( mb2.getIdentifier().toExternalForm() );
+
+        checkEquals( before.getEncodingId(), LoggingStoreProxyEntryMapper.LOGGED_ENCODING_ID, "Wrong encoding of Proxy" );
+
+        for( int i=0 ; i<ROUNDS ; ++i ) {
+            tx = mb1.createTransactionAsap();
+            obj1_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "value-" + i ));
+            tx.commitTransaction();
+        }
+
+        StoreValue after  = mb1ProxyStore.get( mb2.getIdentifier().toExternalForm() );
+        int        queued = countQueued( mb1_p1 );
+
+        log.info( "Proxy size before: " + before.getData().length + ", after: " + after.getData().length + ", queued: " + queued + ", logged: " + mb1LogStore.size() );
+
+        checkCondition( after.getData().length < before.getData().length + SIZE_SLACK, "Proxy grew with the backlog: " + before.getData().length + " vs. " + after.getData().length );
+        checkCondition( queued > 0, "Nothing queued" );
+        checkEquals( mb1LogStore.size(), queued, "Message log does not match the queue" );
+
+        //
+
+        log.info( "Restarting mb1, and restoring its Proxy from the message log" );
+
+        mb1_p1   = null;
+        obj1_mb1 = null;
+
+        mb1.die();
+        mb1 = createMb1();
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+
+        Proxy mb1_p2 = mb1.getProxyFor( mb2.getIdentifier());
+
+        checkEquals( countQueued( mb1_p2 ), queued, "Wrong number of XprisoMessages restored" );
+        checkEquals( mb1LogStore.size(), queued, "Restoring changed the message log" );
+
+        //
+
+        log.info( "Reconnecting, and letting mb2 acknowledge the backlog" );
+
+        mb1_p2.getMessageEndpoint().startCommunicating();
+
+        Thread.sleep( 3 * PINGPONG_ROUNDTRIP_DURATION );
+
+        checkEquals( obj1_mb2.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( "value-" + ( ROUNDS-1 )), "Backlog not delivered" );
+        checkEquals( countQueued( mb1_p2 ), 0, "XprisoMessages still queued" );
+        checkEquals( mb1LogStore.size(), 0, "Message log not truncated after acknowledgement" );
+
+        //
+
+        log.info( "Building up another backlog, and killing the Proxy" );
+
+        mb1_p2.getMessageEndpoint().stopCommunicating();
+
+        Thread.sleep( 1000L ); // finish whatever is still in progress
+
+        obj1_mb1 = mb1.findMeshObjectByIdentifier( obj1_mb2.getIdentifier() );
+
+        for( int i=0 ; i<ROUNDS ; ++i ) {
+            tx = mb1.createTransactionAsap();
+            obj1_mb1.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "again-" + i ));
+            tx.commitTransaction();
+        }
+
+        checkCondition( mb1LogStore.size() > 0, "Nothing logged" );
+
+        mb1_p2.die( true );
+
+        checkEquals( mb1LogStore.size(), 0, "Message log not deleted with its Proxy" );
+    }
+
+    /**
+     * Count the XprisoMessages queued in a Proxy.
+     *
+     * @param p the Proxy
+     * @return the number of XprisoMessages
+     */
+    protected int countQueued(
+            Proxy p )
+    {
+        return p.getMessageEndpoint().messagesToBeSent().size()
+             + p.getMessageEndpoint().messagesLastSent().size();
+    }
+
+    /**
+     * Create the first NetMeshBase on top of its Stores.
+     *
+     * @return the NetMeshBase
+     */
+    protected NetStoreMeshBase createMb1()
+    {
+        return NetStoreMeshBase.create(
+                net1,
+                DefaultNetMeshObjectAccessSpecificationFactory.create( net1 ),
+                theModelBase,
+                null,
+                DefaultProxyFactory.create( theEndpointFactory, NiceAndTrustingProxyPolicyFactory.create() ),
+                mb1MeshStore,
+                mb1ProxyStore,
+                mb1LogStore,
+                rootContext );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception anything can go wrong in a test
+     */
+    @Before
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "http://one.local/" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "http://two.local/" );
+
+        theEndpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        theEndpointFactory.setNameServer( theNameServer );
+
+        mb1MeshStore  = MStore.create();
+        mb1ProxyStore = MStore.create();
+        mb1LogStore   = MStore.create();
+        mb2MeshStore  = MStore.create();
+        mb2ProxyStore = MStore.create();
+
+        mb1 = createMb1();
+        mb2 = NetStoreMeshBase.create( net2, theModelBase, null, theEndpointFactory, mb2MeshStore, mb2ProxyStore, rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The endpoint factory shared by the NetMeshBases.
+     */
+    protected MPingPongNetMessageEndpointFactory theEndpointFactory;
+
+    /**
+     * The first NetMeshBase.
+     */
+    protected NetStoreMeshBase mb1;
+
+    /**
+     * The second NetMeshBase.
+     */
+    protected NetStoreMeshBase mb2;
+
+    /**
+     * The Store storing NetMeshBase mb1's MeshObjects.
+     */
+    protected MStore mb1MeshStore;
+
+    /**
+     * The Store storing NetMeshBase mb1's Proxies.
+     */
+    protected MStore mb1ProxyStore;
+
+    /**
+     * The Store storing the XprisoMessages queued by NetMeshBase mb1's Proxies.
+     */
+    protected MStore mb1LogStore;
+
+    /**
+     * The Store storing NetMeshBase mb2's MeshObjects.
+     */
+    protected MStore mb2MeshStore;
+
+    /**
+     * The Store storing NetMeshBase mb2's Proxies.
+     */
+    protected MStore mb2ProxyStore;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 1 );
+
+    /**
+     * The number of changes to make while mb2 is cut off.
+     */
+    protected static final int ROUNDS = 50;
+
+    /**
+     * By how many bytes the Proxy's StoreValue may grow, e.g. because of longer token numbers.
+     */
+    protected static final int SIZE_SLACK = 64;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( StoreNetMeshBaseTest7.class );
+}
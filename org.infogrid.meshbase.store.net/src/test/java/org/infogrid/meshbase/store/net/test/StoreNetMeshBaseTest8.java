@@ -0,0 +1,222 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net.test;
+
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.store.net.NetStoreMeshBase;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.store.m.MStore;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests write-behind mode: only committed state is ever written, also if a flush happens while
+ * a later Transaction is open or rolled back, and committed state survives a crash once flushed.
+ * What is in storage is observed through a second NetStoreMeshBase on the same Stores, which
+ * stands in for the process restarted after a crash.
+ */
+public class StoreNetMeshBaseTest8
+        extends
+            AbstractStoreNetMeshBaseTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception thrown if an Exception occurred during the test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Creating MeshObject, and switching to write-behind mode" );
+
+        Transaction tx = mb.createTransactionAsap();
+
+        NetMeshObject obj = mb.getMeshBaseLifecycleManager().createMeshObject(
+                mb.getMeshObjectIdentifierFactory().fromExternalForm( "obj" ),
+                TestSubjectArea.AA );
+        obj.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "one" ));
+
+        tx.commitTransaction();
+
+        mb.enableWriteBehind( FLUSH_INTERVAL, 1000 );
+
+        checkStored( obj.getIdentifier(), "one", "initial value not stored" );
+
+        //
+
+        log.info( "Committing, but not flushing yet" );
+
+        tx = mb.createTransactionAsap();
+        obj.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "two" ));
+        tx.commitTransaction();
+
+        checkStored( obj.getIdentifier(), "one", "committed value written before the flush" );
+
+        //
+
+        log.info( "Flushing while a later Transaction is open, then rolling it back" );
+
+        tx = mb.createTransactionAsap();
+        obj.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "uncommitted" ));
+
+        checkEquals( mb.flushWriteBehind(), 1, "Wrong number of MeshObjects flushed" );
+        checkStored( obj.getIdentifier(), "two", "uncommitted value written" );
+
+        tx.rollbackTransaction( null );
+
+        checkEquals( obj.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( "two" ), "rollback did not work" );
+        checkEquals( mb.flushWriteBehind(), 0, "rolled-back Transaction was enqueued" );
+        checkStored( obj.getIdentifier(), "two", "rolled-back value written" );
+
+        //
+
+        log.info( "Committing and flushing, then crashing" );
+
+        tx = mb.createTransactionAsap();
+        obj.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "three" ));
+        tx.commitTransaction();
+
+        checkEquals( mb.flushWriteBehind(), 1, "Wrong number of MeshObjects flushed" );
+        checkStored( obj.getIdentifier(), "three", "flushed value lost in crash" );
+
+        //
+
+        log.info( "Switching write-behind mode off drains the queue, and later commits are written right away" );
+
+        tx = mb.createTransactionAsap();
+        obj.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "four" ));
+        tx.commitTransaction();
+
+        mb.disableWriteBehind();
+
+        checkStored( obj.getIdentifier(), "four", "pending value not drained" );
+
+        tx = mb.createTransactionAsap();
+        obj.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "five" ));
+        tx.commitTransaction();
+
+        checkStored( obj.getIdentifier(), "five", "value not written synchronously" );
+    }
+
+    /**
+     * Check the value of the MeshObject currently in storage.
+     *
+     * @param id identifier of the MeshObject
+     * @param expected the expected value of its property
+     * @param msg the message to print if the value is wrong
+     * @throws Exception all sorts of things can go wrong in a test
+     */
+    protected void checkStored(
+            NetMeshObjectIdentifier id,
+            String                  expected,
+            String                  msg )
+        throws
+            Exception
+    {
+        restarted.clearMemoryCache();
+
+        NetMeshObject found = restarted.findMeshObjectByIdentifier( id );
+
+        checkObject( found, msg + ": not found" );
+        checkEquals( found.getPropertyValue( TestSubjectArea.A_X ), StringValue.create( expected ), msg );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception anything can go wrong in a test
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "http://one.local/" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        meshStore  = MStore.create();
+        proxyStore = MStore.create();
+
+        mb        = NetStoreMeshBase.create( net1, theModelBase, null, endpointFactory, meshStore, proxyStore, rootContext );
+        restarted = NetStoreMeshBase.create( net1, theModelBase, null, endpointFactory, meshStore, proxyStore, rootContext );
+
+        theNameServer.put( mb.getIdentifier(), mb );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb.die();
+        restarted.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The NetMeshBase in write-behind mode.
+     */
+    protected NetStoreMeshBase mb;
+
+    /**
+     * The NetMeshBase that reads what is in storage, as if the process had been restarted after a crash.
+     */
+    protected NetStoreMeshBase restarted;
+
+    /**
+     * The Store storing the MeshObjects.
+     */
+    protected MStore meshStore;
+
+    /**
+     * The Store storing the Proxies.
+     */
+    protected MStore proxyStore;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 1 );
+
+    /**
+     * Long enough for the background flush never to happen during the test.
+     */
+    protected static final long FLUSH_INTERVAL = 10L * 60L * 1000L;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( StoreNetMeshBaseTest8.class );
+}
@@ -0,0 +1,224 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+package org.infogrid.meshbase.store.net.test;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.NetMeshObjectIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.store.net.IterableNetStoreMeshBase;
+import org.infogrid.meshbase.store.net.ReplicaReadTimeIndex;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.store.m.MStore;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests finding non-home replicas by read time: home replicas are never found, the cutoff is
+ * exclusive, a restarted IterableNetStoreMeshBase seeds its index from the Store, or loads it
+ * from its read time Store once that is complete, and changes made while a seed is built win
+ * over the seed.
+ */
+public class StoreNetMeshBaseTest9
+        extends
+            AbstractStoreNetMeshBaseTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception thrown if an Exception occurred during the test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Creating MeshObjects in mb1, and replicating one of them to mb2" );
+
+        NetMeshBaseLifecycleManager life1 = mb1.getMeshBaseLifecycleManager();
+
+        Transaction tx = mb1.createTransactionAsap();
+
+        NetMeshObject obj1_mb1 = life1.createMeshObject( mb1.getMeshObjectIdentifierFactory().fromExternalForm( "obj1" ));
+        NetMeshObject obj2_mb1 = life1.createMeshObject( mb1.getMeshObjectIdentifierFactory().fromExternalForm( "obj2" ));
+
+        tx.commitTransaction();
+
+        NetMeshObject obj1_mb2 = mb2.accessLocally( mb1.getIdentifier(), obj1_mb1.getIdentifier() );
+
+        checkObject( obj1_mb2, "obj1 not replicated" );
+
+        long timeRead = obj1_mb2.getTimeRead();
+
+        //
+
+        log.info( "Querying" );
+
+        checkEquals( mb1.findReplicasReadBefore( Long.MAX_VALUE ).length, 0, "Home replicas found in mb1" );
+
+        checkEquals( mb2.findReplicasReadBefore( timeRead ).length, 0, "Cutoff is not exclusive" );
+        checkEqualsOutOfSequence(
+                mb2.findReplicasReadBefore( timeRead + 1 ),
+                new NetMeshObjectIdentifier[] { obj1_mb2.getIdentifier() },
+                "Wrong replicas found in mb2" );
+
+        //
+
+        log.info( "Seeding the index of a restarted mb2 from its Store" );
+
+        mb2.die();
+        mb2 = IterableNetStoreMeshBase.create( net2, theModelBase, null, endpointFactory, mb2MeshStore, mb2ProxyStore, rootContext );
+
+        checkEqualsOutOfSequence(
+                mb2.findReplicasReadBefore( Long.MAX_VALUE ),
+                new NetMeshObjectIdentifier[] { obj1_mb2.getIdentifier() },
+                "Index not seeded from Store" );
+
+        //
+
+        log.info( "Loading the index of a restarted mb2 from its read time Store" );
+
+        mb2.die();
+        mb2 = IterableNetStoreMeshBase.create( net2, theModelBase, null, endpointFactory, mb2MeshStore, mb2ProxyStore, rootContext );
+
+        checkCondition( mb2.keepReadTimeIndexIn( mb2ReadTimeStore ), "Read time Store not complete, although the index was seeded" );
+        checkEqualsOutOfSequence(
+                mb2.findReplicasReadBefore( timeRead + 1 ),
+                new NetMeshObjectIdentifier[] { obj1_mb2.getIdentifier() },
+                "Index not loaded from read time Store" );
+
+        //
+
+        log.info( "Merging a seed built while the index changed" );
+
+        NetMeshObjectIdentifier id1 = obj1_mb1.getIdentifier();
+        NetMeshObjectIdentifier id2 = obj2_mb1.getIdentifier();
+
+        ReplicaReadTimeIndex index = ReplicaReadTimeIndex.create();
+        index.put( id1, 100L );
+
+        index.startSeeding();
+
+        ReplicaReadTimeIndex seed = ReplicaReadTimeIndex.create();
+        seed.put( id1, 100L ); // stale: removed below while seeding
+        seed.put( id2, 200L ); // stale: updated below while seeding
+
+        index.remove( id1 );
+        index.put( id2, 300L );
+
+        index.mergeSeed( seed );
+
+        checkEquals( index.size(), 1, "Wrong size after merge" );
+        checkEquals( index.findReadBefore( 300L ).length, 0, "Seed overwrote newer read time" );
+        checkCondition( Arrays.asList( index.findReadBefore( 301L )).contains( id2 ), "Updated replica lost" );
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception anything can go wrong in a test
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "http://one.local/" );
+        net2 = theMeshBaseIdentifierFactory.fromExternalForm( "http://two.local/" );
+
+        endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb2MeshStore     = MStore.create();
+        mb2ProxyStore    = MStore.create();
+        mb2ReadTimeStore = MStore.create();
+
+        mb1 = IterableNetStoreMeshBase.create( net1, theModelBase, null, endpointFactory, MStore.create(), MStore.create(), rootContext );
+        mb2 = IterableNetStoreMeshBase.create( net2, theModelBase, null, endpointFactory, mb2MeshStore,    mb2ProxyStore,   rootContext );
+
+        mb2.keepReadTimeIndexIn( mb2ReadTimeStore );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+        theNameServer.put( mb2.getIdentifier(), mb2 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+        mb2.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * The first NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The second NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net2;
+
+    /**
+     * The NetMeshBase holding the home replicas.
+     */
+    protected IterableNetStoreMeshBase mb1;
+
+    /**
+     * The NetMeshBase holding the non-home replicas.
+     */
+    protected IterableNetStoreMeshBase mb2;
+
+    /**
+     * The Store storing NetMeshBase mb2's MeshObjects.
+     */
+    protected MStore mb2MeshStore;
+
+    /**
+     * The Store storing NetMeshBase mb2's Proxies.
+     */
+    protected MStore mb2ProxyStore;
+
+    /**
+     * The Store keeping NetMeshBase mb2's read time index.
+     */
+    protected MStore mb2ReadTimeStore;
+
+    /**
+     * The endpoint factory.
+     */
+    protected MPingPongNetMessageEndpointFactory endpointFactory;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 1 );
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( StoreNetMeshBaseTest9.class );
+}
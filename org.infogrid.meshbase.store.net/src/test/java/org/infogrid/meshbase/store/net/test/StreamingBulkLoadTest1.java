@@ -0,0 +1,315 @@
+//
+// This file is part of InfoGrid(tm). You may not use this file except in
+// compliance with the InfoGrid license. The InfoGrid license and important
+// disclaimers are contained in the file LICENSE.InfoGrid.txt that you should
+// have received with InfoGrid. If you have not received LICENSE.InfoGrid.txt
+// or you do not consent to all aspects of the license and the disclaimers,
+// no license is granted; do not use this file.
+// 
+// For more information about InfoGrid go to http://infogrid.org/
+//
+// Copyright 1998-2015 by Johannes Ernst
+// All rights reserved.
+//
+
+
+package org.infogrid.meshbase.store.net.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import org.infogrid.mesh.net.NetMeshObject;
+import org.infogrid.mesh.net.externalized.xml.BulkExternalizedNetMeshObjectXmlEncoder;
+import org.infogrid.meshbase.net.NetMeshBaseIdentifier;
+import org.infogrid.meshbase.net.NetMeshBaseLifecycleManager;
+import org.infogrid.meshbase.net.NetMeshObjectIdentifierFactory;
+import org.infogrid.meshbase.net.proxy.m.MPingPongNetMessageEndpointFactory;
+import org.infogrid.meshbase.store.net.IterableNetStoreMeshBase;
+import org.infogrid.meshbase.transaction.Transaction;
+import org.infogrid.model.Test.TestSubjectArea;
+import org.infogrid.model.primitives.StringValue;
+import org.infogrid.store.m.MStore;
+import org.infogrid.util.logging.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the streaming mode of BulkExternalizedNetMeshObjectXmlEncoder: memory stays bounded
+ * if the consumer does not keep up, closing early terminates the parsing task, and a malformed
+ * document is reported after the MeshObjects that could be parsed.
+ */
+public class StreamingBulkLoadTest1
+        extends
+            AbstractStoreNetMeshBaseTest
+{
+    /**
+     * Run the test.
+     *
+     * @throws Exception thrown if an Exception occurred during the test
+     */
+    @Test
+    public void run()
+        throws
+            Exception
+    {
+        log.info( "Creating " + OBJECTS + " MeshObjects and exporting them" );
+
+        NetMeshBaseLifecycleManager    life1 = mb1.getMeshBaseLifecycleManager();
+        NetMeshObjectIdentifierFactory fact1 = mb1.getMeshObjectIdentifierFactory();
+
+        Transaction tx = mb1.createTransactionAsap();
+        for( int i=0 ; i<OBJECTS ; ++i ) {
+            NetMeshObject current = life1.createMeshObject( fact1.fromExternalForm( "obj" + i ), TestSubjectArea.AA );
+            current.setPropertyValue( TestSubjectArea.A_X, StringValue.create( "value-" + i ));
+        }
+        tx.commitTransaction();
+
+        BulkExternalizedNetMeshObjectXmlEncoder encoder = new BulkExternalizedNetMeshObjectXmlEncoder();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.bulkWrite( mb1.iterator(), out );
+
+        byte [] document = out.toByteArray();
+
+        //
+
+        log.info( "Reading the first MeshObject only, then closing early" );
+
+        CountingInputStream counting = new CountingInputStream( new ByteArrayInputStream( document ));
+
+        BulkExternalizedNetMeshObjectXmlEncoder.StreamingIterator iter
+                = encoder.bulkLoadStreaming( counting, mb1, QUEUE_CAPACITY, exec );
+
+        checkCondition( iter.hasNext(), "No first MeshObject" );
+        checkObject( iter.next(), "No first MeshObject" );
+
+        long read = waitForReadingToStop( counting );
+
+        log.info( "Read " + read + " of " + document.length + " bytes while not consuming" );
+
+        checkCondition( !iter.isParsingDone(), "Parsing finished although the queue is bounded" );
+        checkCondition( read < document.length / 4, "Read too much while not consuming: " + read + " of " + document.length );
+
+        iter.close();
+
+        checkCondition( waitForParsingDone( iter ), "Parsing task did not terminate after close" );
+        checkCondition( !iter.hasNext(), "Closed iterator still has elements" );
+
+        //
+
+        log.info( "Reading a malformed document" );
+
+        byte [] malformed = Arrays.copyOf( document, document.length / 2 + MALFORMED.length );
+        System.arraycopy( MALFORMED, 0, malformed, document.length / 2, MALFORMED.length );
+
+        iter = encoder.bulkLoadStreaming( new ByteArrayInputStream( malformed ), mb1, QUEUE_CAPACITY, exec );
+
+        int       found  = 0;
+        Throwable thrown = null;
+        try {
+            while( iter.hasNext() ) {
+                iter.next();
+                ++found;
+            }
+        } catch( BulkExternalizedNetMeshObjectXmlEncoder.StreamingLoadException ex ) {
+            thrown = ex;
+        }
+
+        log.info( "Found " + found + " MeshObjects before the problem" );
+
+        checkObject( thrown, "Malformed document not reported" );
+        checkCondition( found > 0, "MeshObjects before the problem not returned" );
+        checkCondition( found < OBJECTS, "Too many MeshObjects returned from malformed document: " + found );
+        checkCondition( iter.isParsingDone(), "Parsing task not done after reporting the problem" );
+    }
+
+    /**
+     * Wait until the parser has stopped reading because the queue is full.
+     *
+     * @param in the stream being read
+     * @return the number of bytes read
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    protected long waitForReadingToStop(
+            CountingInputStream in )
+        throws
+            InterruptedException
+    {
+        long before = -1;
+        long now    = in.getCount();
+        for( int i=0 ; i<MAX_POLLS && now != before ; ++i ) {
+            Thread.sleep( POLL_INTERVAL );
+            before = now;
+            now    = in.getCount();
+        }
+        return now;
+    }
+
+    /**
+     * Wait until the parsing task of a StreamingIterator has terminated.
+     *
+     * @param iter the StreamingIterator
+     * @return true if the parsing task terminated in time
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    protected boolean waitForParsingDone(
+            BulkExternalizedNetMeshObjectXmlEncoder.StreamingIterator iter )
+        throws
+            InterruptedException
+    {
+        for( int i=0 ; i<MAX_POLLS && !iter.isParsingDone() ; ++i ) {
+            Thread.sleep( POLL_INTERVAL );
+        }
+        return iter.isParsingDone();
+    }
+
+    /**
+     * Setup.
+     *
+     * @throws Exception anything can go wrong in a test
+     */
+    @Before
+    @Override
+    public void setup()
+        throws
+            Exception
+    {
+        super.setup();
+
+        net1 = theMeshBaseIdentifierFactory.fromExternalForm( "http://one.local/" );
+
+        MPingPongNetMessageEndpointFactory endpointFactory = MPingPongNetMessageEndpointFactory.create( exec );
+        endpointFactory.setNameServer( theNameServer );
+
+        mb1 = IterableNetStoreMeshBase.create( net1, theModelBase, null, endpointFactory, MStore.create(), MStore.create(), rootContext );
+
+        theNameServer.put( mb1.getIdentifier(), mb1 );
+    }
+
+    /**
+     * Clean up after the test.
+     */
+    @After
+    public void cleanup()
+    {
+        mb1.die();
+
+        exec.shutdown();
+    }
+
+    /**
+     * Counts the bytes read from the delegate stream.
+     */
+    protected static class CountingInputStream
+            extends
+                FilterInputStream
+    {
+        /**
+         * Constructor.
+         *
+         * @param delegate the stream to read from
+         */
+        public CountingInputStream(
+                InputStream delegate )
+        {
+            super( delegate );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read()
+            throws
+                IOException
+        {
+            int ret = super.read();
+            if( ret >= 0 ) {
+                theCount.incrementAndGet();
+            }
+            return ret;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(
+                byte [] b,
+                int     off,
+                int     len )
+            throws
+                IOException
+        {
+            int ret = super.read( b, off, len );
+            if( ret > 0 ) {
+                theCount.addAndGet( ret );
+            }
+            return ret;
+        }
+
+        /**
+         * Obtain the number of bytes read so far.
+         *
+         * @return the number of bytes
+         */
+        public long getCount()
+        {
+            return theCount.get();
+        }
+
+        /**
+         * The number of bytes read so far.
+         */
+        protected final AtomicLong theCount = new AtomicLong();
+    }
+
+    /**
+     * The NetMeshBaseIdentifier.
+     */
+    protected NetMeshBaseIdentifier net1;
+
+    /**
+     * The NetMeshBase to export.
+     */
+    protected IterableNetStoreMeshBase mb1;
+
+    /**
+     * Our ThreadPool.
+     */
+    protected ScheduledExecutorService exec = createThreadPool( 2 );
+
+    /**
+     * The number of MeshObjects to create.
+     */
+    protected static final int OBJECTS = 10000;
+
+    /**
+     * The capacity of the streaming queue.
+     */
+    protected static final int QUEUE_CAPACITY = 10;
+
+    /**
+     * Appended to a truncated document to make it malformed.
+     */
+    protected static final byte [] MALFORMED = "<<not-xml".getBytes();
+
+    /**
+     * Interval between polls, in milliseconds.
+     */
+    protected static final long POLL_INTERVAL = 200L;
+
+    /**
+     * Maximum number of polls before giving up.
+     */
+    protected static final int MAX_POLLS = 50;
+
+    // Our Logger
+    private static Log log = Log.getLogInstance( StreamingBulkLoadTest1.class );
+}